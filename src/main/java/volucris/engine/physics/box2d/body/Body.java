@@ -4,6 +4,7 @@ import java.lang.foreign.AddressLayout;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
 import java.lang.foreign.StructLayout;
 import java.lang.foreign.MemoryLayout.PathElement;
 import java.lang.invoke.MethodHandle;
@@ -18,6 +19,7 @@ import volucris.engine.physics.box2d.joint.Joint;
 import volucris.engine.physics.box2d.math.AABB;
 import volucris.engine.physics.box2d.math.Rot;
 import volucris.engine.physics.box2d.math.Transform;
+import volucris.engine.physics.box2d.math.TransformKernels;
 import volucris.engine.physics.box2d.math.Vec2;
 import volucris.engine.physics.box2d.shape.Shape;
 import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
@@ -106,6 +108,7 @@ public final class Body {
 	private Vec2 vecTmp;
 	private Vec2 vecTmp2;
 	private Rot rotTmp;
+	private Transform transformTmp;
 
 	static {
 		//@formatter:off
@@ -207,6 +210,7 @@ public final class Body {
 			vecTmp = new Vec2(arena);
 			vecTmp2 = new Vec2(arena);
 			rotTmp = new Rot(arena);
+			transformTmp = new Transform(arena);
 		} catch (Throwable e) {
 			String className = e.getClass().getSimpleName();
 			throw new Box2DRuntimeException("Cannot create body: " + className);
@@ -240,10 +244,29 @@ public final class Body {
 		vecTmp = new Vec2(arena);
 		vecTmp2 = new Vec2(arena);
 		rotTmp = new Rot(arena);
+		transformTmp = new Transform(arena);
 
 		Box2D.addBody(this, getBodyId(b2BodyId), worldId);
 	}
 
+	/**
+	 * Create a new rigid body given a definition and bind this object to it,
+	 * reusing its memory. The body this object was bound to must already be
+	 * destroyed, for example together with its world, and must not be used
+	 * anymore.
+	 */
+	public void rebind(World world, BodyDef bodyDef) {
+		try {
+			SegmentAllocator allocator = SegmentAllocator.prefixAllocator(b2BodyId);
+			B2_CREATE_BODY.invoke(allocator, world.memorySegment(), bodyDef.memorySegment());
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot create body: " + className);
+		}
+
+		Box2D.addBody(this, getBodyId(b2BodyId), world.getWorldId());
+	}
+
 	/**
 	 * Destroy the rigid body..
 	 * <p>
@@ -451,6 +474,25 @@ public final class Body {
 		}
 	}
 
+	/**
+	 * Set the world transform of the body. The rotation is passed on as is,
+	 * without a round trip through an angle.
+	 */
+	public void setTransform(Transform transform) {
+		try {
+			MemorySegment segment = transform.memorySegment();
+			long byteSize = Vec2.LAYOUT().byteSize();
+
+			MemorySegment.copy(segment, 0L, vecTmp.memorySegment(), 0L, byteSize);
+			MemorySegment.copy(segment, byteSize, rotTmp.memorySegment(), 0L, Rot.LAYOUT().byteSize());
+
+			B2_BODY_SET_TRANSFORM.invokeExact(b2BodyId, vecTmp.memorySegment(), rotTmp.memorySegment());
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot set body transform: " + className);
+		}
+	}
+
 	/**
 	 * Get a local point on the body given a world point
 	 */
@@ -551,6 +593,46 @@ public final class Body {
 		return getLocalVector(new Vector2f(), localVector);
 	}
 
+	/**
+	 * Get world points on the body given local points. Points are stored as x, y
+	 * pairs.
+	 * <p>
+	 * The body transform is fetched once and the points are transformed in Java.
+	 */
+	public void getWorldPoints(float[] localPoints, float[] worldPoints, int count) {
+		TransformKernels.transformPoints(getTransform(transformTmp), localPoints, worldPoints, count);
+	}
+
+	/**
+	 * Get local points on the body given world points. Points are stored as x, y
+	 * pairs.
+	 * <p>
+	 * The body transform is fetched once and the points are transformed in Java.
+	 */
+	public void getLocalPoints(float[] worldPoints, float[] localPoints, int count) {
+		TransformKernels.invTransformPoints(getTransform(transformTmp), worldPoints, localPoints, count);
+	}
+
+	/**
+	 * Get world vectors on the body given local vectors. Vectors are stored as x,
+	 * y pairs.
+	 * <p>
+	 * The body transform is fetched once and the vectors are rotated in Java.
+	 */
+	public void getWorldVectors(float[] localVectors, float[] worldVectors, int count) {
+		TransformKernels.rotateVectors(getTransform(transformTmp), localVectors, worldVectors, count);
+	}
+
+	/**
+	 * Get local vectors on the body given world vectors. Vectors are stored as x,
+	 * y pairs.
+	 * <p>
+	 * The body transform is fetched once and the vectors are rotated in Java.
+	 */
+	public void getLocalVectors(float[] worldVectors, float[] localVectors, int count) {
+		TransformKernels.invRotateVectors(getTransform(transformTmp), worldVectors, localVectors, count);
+	}
+
 	/**
 	 * Get the linear velocity of the body's center of mass. Usually in meters per
 	 * second.
@@ -1297,6 +1379,21 @@ public final class Body {
 		return computeAABB(new AABB());
 	}
 
+	/**
+	 * Get the current world AABB that contains all the attached shapes of the body
+	 * with the given id.
+	 */
+	public static AABB computeAABB(AABB target, MemorySegment bodyId) {
+		try {
+			SegmentAllocator allocator = SegmentAllocator.prefixAllocator(target.memorySegment());
+			B2_BODY_COMPUTE_AABB.invoke(allocator, bodyId);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot compute AABB: " + className);
+		}
+	}
+
 	public BodyId getBodyId() {
 		return getBodyId(b2BodyId);
 	}
@@ -1320,6 +1417,24 @@ public final class Body {
 		return new BodyId(index1, world0, generation);
 	}
 
+	/**
+	 * Store a body id into a long, like b2StoreBodyId. The null body id is stored
+	 * as zero.
+	 */
+	public static long storeBodyId(MemorySegment memorySegment, long offset) {
+		long index1 = (int) INDEX_1.get(memorySegment, offset) & 0xFFFFFFFFL;
+		long world0 = (short) WORLD_0.get(memorySegment, offset) & 0xFFFFL;
+		long generation = (short) GENERATION.get(memorySegment, offset) & 0xFFFFL;
+		return (index1 << 32) | (world0 << 16) | generation;
+	}
+
+	/**
+	 * Load a body id stored with {@link #storeBodyId}, like b2LoadBodyId.
+	 */
+	public static BodyId loadBodyId(long id) {
+		return new BodyId((int) (id >>> 32), (short) (id >>> 16), (short) id);
+	}
+
 	public static record BodyId(int index1, short world0, short generation) {
 	};
 
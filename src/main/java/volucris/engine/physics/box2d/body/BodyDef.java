@@ -182,6 +182,14 @@ public final class BodyDef {
 		NAME.set(b2BodyDef, arena.allocateFrom(name));
 	}
 
+	/**
+	 * Optional body name for debugging, as a null terminated string. Box2D
+	 * copies it when the body is created, so the segment can be reused.
+	 */
+	public void setName(MemorySegment name) {
+		NAME.set(b2BodyDef, name);
+	}
+
 	/**
 	 * Set this flag to false if this body should never fall asleep.
 	 */
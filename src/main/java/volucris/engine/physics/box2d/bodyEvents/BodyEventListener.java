@@ -1,5 +1,6 @@
 package volucris.engine.physics.box2d.bodyEvents;
 
+import volucris.engine.physics.box2d.world.EventCapture;
 import volucris.engine.physics.box2d.world.World;
 
 public abstract class BodyEventListener implements BodyMoveHandler {
@@ -13,6 +14,14 @@ public abstract class BodyEventListener implements BodyMoveHandler {
 	public final void handleBodyEvents(World world) {
 		world.getBodyEvents(bodyEvents);
 
+		handleBodyEvents(bodyEvents);
+	}
+
+	/**
+	 * Handle previously captured body events, for example of an
+	 * {@link EventCapture} frame.
+	 */
+	public final void handleBodyEvents(BodyEvents bodyEvents) {
 		bodyEvents.handleMoveEvents(this);
 	}
 
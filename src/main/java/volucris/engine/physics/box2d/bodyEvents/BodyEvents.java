@@ -78,6 +78,15 @@ public final class BodyEvents {
 		}
 	}
 
+	/**
+	 * The raw b2BodyMoveEvent array. Holds {@link #getMoveCount()} events laid out
+	 * as {@link BodyMoveEvent#LAYOUT()}. Only valid until the next step.
+	 */
+	public MemorySegment getMoveEvents() {
+		MemorySegment array = (MemorySegment) MOVE_EVENTS.get(b2BodyEvents);
+		return array.asSlice(0L, getMoveCount() * BodyMoveEvent.LAYOUT().byteSize());
+	}
+
 	/**
 	 * Number of move events.
 	 */
@@ -57,7 +57,7 @@ public final class BodyMoveEvent {
 			).withName("b2BodyMoveEvent");
 		//@formatter:on
 
-		FELL_ASLEEP = varHandle(LAYOUT, "gellAsleep");
+		FELL_ASLEEP = varHandle(LAYOUT, "fellAsleep");
 
 		TRANSFORM_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("transform"));
 		BODY_ID_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("bodyId"));
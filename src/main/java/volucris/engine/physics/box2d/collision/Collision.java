@@ -0,0 +1,370 @@
+package volucris.engine.physics.box2d.collision;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.lang.invoke.MethodHandle;
+
+import volucris.engine.physics.box2d.geometry.Capsule;
+import volucris.engine.physics.box2d.geometry.ChainSegment;
+import volucris.engine.physics.box2d.geometry.Circle;
+import volucris.engine.physics.box2d.geometry.Polygon;
+import volucris.engine.physics.box2d.geometry.Segment;
+import volucris.engine.physics.box2d.math.Transform;
+import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
+
+import static java.lang.foreign.ValueLayout.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * Manifold functions. These functions compute the contact manifold between two
+ * shapes.
+ * <p>
+ * The target variants write the result straight into the memory of the given
+ * {@link Manifold}, so no intermediate buffer is allocated or copied. Reuse one
+ * manifold per query site when testing many placements per step. For many
+ * pairs of shapes stored in flat arrays see {@link ManifoldBatch}.
+ */
+public final class Collision {
+	private static final MethodHandle B2_COLLIDE_CIRCLES;
+	private static final MethodHandle B2_COLLIDE_CAPSULE_AND_CIRCLE;
+	private static final MethodHandle B2_COLLIDE_SEGMENT_AND_CIRCLE;
+	private static final MethodHandle B2_COLLIDE_POLYGON_AND_CIRCLE;
+	private static final MethodHandle B2_COLLIDE_CAPSULES;
+	private static final MethodHandle B2_COLLIDE_SEGMENT_AND_CAPSULE;
+	private static final MethodHandle B2_COLLIDE_POLYGON_AND_CAPSULE;
+	private static final MethodHandle B2_COLLIDE_POLYGONS;
+	private static final MethodHandle B2_COLLIDE_SEGMENT_AND_POLYGON;
+	private static final MethodHandle B2_COLLIDE_CHAIN_SEGMENT_AND_CIRCLE;
+	private static final MethodHandle B2_COLLIDE_CHAIN_SEGMENT_AND_CAPSULE;
+	private static final MethodHandle B2_COLLIDE_CHAIN_SEGMENT_AND_POLYGON;
+
+	static {
+		B2_COLLIDE_CIRCLES = downcallHandle("b2CollideCircles", Manifold.LAYOUT(), ADDRESS, Transform.LAYOUT(), ADDRESS, Transform.LAYOUT());
+		B2_COLLIDE_CAPSULE_AND_CIRCLE = downcallHandle("b2CollideCapsuleAndCircle", Manifold.LAYOUT(), ADDRESS, Transform.LAYOUT(), ADDRESS, Transform.LAYOUT());
+		B2_COLLIDE_SEGMENT_AND_CIRCLE = downcallHandle("b2CollideSegmentAndCircle", Manifold.LAYOUT(), ADDRESS, Transform.LAYOUT(), ADDRESS, Transform.LAYOUT());
+		B2_COLLIDE_POLYGON_AND_CIRCLE = downcallHandle("b2CollidePolygonAndCircle", Manifold.LAYOUT(), ADDRESS, Transform.LAYOUT(), ADDRESS, Transform.LAYOUT());
+		B2_COLLIDE_CAPSULES = downcallHandle("b2CollideCapsules", Manifold.LAYOUT(), ADDRESS, Transform.LAYOUT(), ADDRESS, Transform.LAYOUT());
+		B2_COLLIDE_SEGMENT_AND_CAPSULE = downcallHandle("b2CollideSegmentAndCapsule", Manifold.LAYOUT(), ADDRESS, Transform.LAYOUT(), ADDRESS, Transform.LAYOUT());
+		B2_COLLIDE_POLYGON_AND_CAPSULE = downcallHandle("b2CollidePolygonAndCapsule", Manifold.LAYOUT(), ADDRESS, Transform.LAYOUT(), ADDRESS, Transform.LAYOUT());
+		B2_COLLIDE_POLYGONS = downcallHandle("b2CollidePolygons", Manifold.LAYOUT(), ADDRESS, Transform.LAYOUT(), ADDRESS, Transform.LAYOUT());
+		B2_COLLIDE_SEGMENT_AND_POLYGON = downcallHandle("b2CollideSegmentAndPolygon", Manifold.LAYOUT(), ADDRESS, Transform.LAYOUT(), ADDRESS, Transform.LAYOUT());
+		B2_COLLIDE_CHAIN_SEGMENT_AND_CIRCLE = downcallHandle("b2CollideChainSegmentAndCircle", Manifold.LAYOUT(), ADDRESS, Transform.LAYOUT(), ADDRESS, Transform.LAYOUT());
+		B2_COLLIDE_CHAIN_SEGMENT_AND_CAPSULE = downcallHandle("b2CollideChainSegmentAndCapsule", Manifold.LAYOUT(), ADDRESS, Transform.LAYOUT(), ADDRESS, Transform.LAYOUT(), ADDRESS);
+		B2_COLLIDE_CHAIN_SEGMENT_AND_POLYGON = downcallHandle("b2CollideChainSegmentAndPolygon", Manifold.LAYOUT(), ADDRESS, Transform.LAYOUT(), ADDRESS, Transform.LAYOUT(), ADDRESS);
+	}
+
+	private Collision() {
+
+	}
+
+	/**
+	 * Compute the contact manifold between two circles.
+	 */
+	public static Manifold collideCircles(Circle circleA, Transform xfA, Circle circleB, Transform xfB) {
+		return collideCircles(new Manifold(), circleA, xfA, circleB, xfB);
+	}
+
+	/**
+	 * Compute the contact manifold between two circles.
+	 */
+	public static Manifold collideCircles(Manifold target, Circle circleA, Transform xfA, Circle circleB, Transform xfB) {
+		try {
+			SegmentAllocator allocator = target.allocator();
+			MemorySegment a = circleA.memorySegment();
+			MemorySegment b = circleB.memorySegment();
+			MemorySegment transformA = xfA.memorySegment();
+			MemorySegment transformB = xfB.memorySegment();
+			B2_COLLIDE_CIRCLES.invoke(allocator, a, transformA, b, transformB);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot collide circles: " + className);
+		}
+	}
+
+	/**
+	 * Compute the contact manifold between a capsule and circle.
+	 */
+	public static Manifold collideCapsuleAndCircle(Capsule capsuleA, Transform xfA, Circle circleB, Transform xfB) {
+		return collideCapsuleAndCircle(new Manifold(), capsuleA, xfA, circleB, xfB);
+	}
+
+	/**
+	 * Compute the contact manifold between a capsule and circle.
+	 */
+	public static Manifold collideCapsuleAndCircle(Manifold target, Capsule capsuleA, Transform xfA, Circle circleB, Transform xfB) {
+		try {
+			SegmentAllocator allocator = target.allocator();
+			MemorySegment a = capsuleA.memorySegment();
+			MemorySegment b = circleB.memorySegment();
+			MemorySegment transformA = xfA.memorySegment();
+			MemorySegment transformB = xfB.memorySegment();
+			B2_COLLIDE_CAPSULE_AND_CIRCLE.invoke(allocator, a, transformA, b, transformB);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot collide capsule and circle: " + className);
+		}
+	}
+
+	/**
+	 * Compute the contact manifold between a segment and a circle.
+	 */
+	public static Manifold collideSegmentAndCircle(Segment segmentA, Transform xfA, Circle circleB, Transform xfB) {
+		return collideSegmentAndCircle(new Manifold(), segmentA, xfA, circleB, xfB);
+	}
+
+	/**
+	 * Compute the contact manifold between a segment and a circle.
+	 */
+	public static Manifold collideSegmentAndCircle(Manifold target, Segment segmentA, Transform xfA, Circle circleB, Transform xfB) {
+		try {
+			SegmentAllocator allocator = target.allocator();
+			MemorySegment a = segmentA.memorySegment();
+			MemorySegment b = circleB.memorySegment();
+			MemorySegment transformA = xfA.memorySegment();
+			MemorySegment transformB = xfB.memorySegment();
+			B2_COLLIDE_SEGMENT_AND_CIRCLE.invoke(allocator, a, transformA, b, transformB);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot collide segment and circle: " + className);
+		}
+	}
+
+	/**
+	 * Compute the contact manifold between a polygon and a circle.
+	 */
+	public static Manifold collidePolygonAndCircle(Polygon polygonA, Transform xfA, Circle circleB, Transform xfB) {
+		return collidePolygonAndCircle(new Manifold(), polygonA, xfA, circleB, xfB);
+	}
+
+	/**
+	 * Compute the contact manifold between a polygon and a circle.
+	 */
+	public static Manifold collidePolygonAndCircle(Manifold target, Polygon polygonA, Transform xfA, Circle circleB, Transform xfB) {
+		try {
+			SegmentAllocator allocator = target.allocator();
+			MemorySegment a = polygonA.memorySegment();
+			MemorySegment b = circleB.memorySegment();
+			MemorySegment transformA = xfA.memorySegment();
+			MemorySegment transformB = xfB.memorySegment();
+			B2_COLLIDE_POLYGON_AND_CIRCLE.invoke(allocator, a, transformA, b, transformB);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot collide polygon and circle: " + className);
+		}
+	}
+
+	/**
+	 * Compute the contact manifold between two capsules.
+	 */
+	public static Manifold collideCapsules(Capsule capsuleA, Transform xfA, Capsule capsuleB, Transform xfB) {
+		return collideCapsules(new Manifold(), capsuleA, xfA, capsuleB, xfB);
+	}
+
+	/**
+	 * Compute the contact manifold between two capsules.
+	 */
+	public static Manifold collideCapsules(Manifold target, Capsule capsuleA, Transform xfA, Capsule capsuleB, Transform xfB) {
+		try {
+			SegmentAllocator allocator = target.allocator();
+			MemorySegment a = capsuleA.memorySegment();
+			MemorySegment b = capsuleB.memorySegment();
+			MemorySegment transformA = xfA.memorySegment();
+			MemorySegment transformB = xfB.memorySegment();
+			B2_COLLIDE_CAPSULES.invoke(allocator, a, transformA, b, transformB);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot collide capsules: " + className);
+		}
+	}
+
+	/**
+	 * Compute the contact manifold between a segment and a capsule.
+	 */
+	public static Manifold collideSegmentAndCapsule(Segment segmentA, Transform xfA, Capsule capsuleB, Transform xfB) {
+		return collideSegmentAndCapsule(new Manifold(), segmentA, xfA, capsuleB, xfB);
+	}
+
+	/**
+	 * Compute the contact manifold between a segment and a capsule.
+	 */
+	public static Manifold collideSegmentAndCapsule(Manifold target, Segment segmentA, Transform xfA, Capsule capsuleB, Transform xfB) {
+		try {
+			SegmentAllocator allocator = target.allocator();
+			MemorySegment a = segmentA.memorySegment();
+			MemorySegment b = capsuleB.memorySegment();
+			MemorySegment transformA = xfA.memorySegment();
+			MemorySegment transformB = xfB.memorySegment();
+			B2_COLLIDE_SEGMENT_AND_CAPSULE.invoke(allocator, a, transformA, b, transformB);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot collide segment and capsule: " + className);
+		}
+	}
+
+	/**
+	 * Compute the contact manifold between a polygon and capsule.
+	 */
+	public static Manifold collidePolygonAndCapsule(Polygon polygonA, Transform xfA, Capsule capsuleB, Transform xfB) {
+		return collidePolygonAndCapsule(new Manifold(), polygonA, xfA, capsuleB, xfB);
+	}
+
+	/**
+	 * Compute the contact manifold between a polygon and capsule.
+	 */
+	public static Manifold collidePolygonAndCapsule(Manifold target, Polygon polygonA, Transform xfA, Capsule capsuleB, Transform xfB) {
+		try {
+			SegmentAllocator allocator = target.allocator();
+			MemorySegment a = polygonA.memorySegment();
+			MemorySegment b = capsuleB.memorySegment();
+			MemorySegment transformA = xfA.memorySegment();
+			MemorySegment transformB = xfB.memorySegment();
+			B2_COLLIDE_POLYGON_AND_CAPSULE.invoke(allocator, a, transformA, b, transformB);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot collide polygon and capsule: " + className);
+		}
+	}
+
+	/**
+	 * Compute the contact manifold between two polygons.
+	 */
+	public static Manifold collidePolygons(Polygon polygonA, Transform xfA, Polygon polygonB, Transform xfB) {
+		return collidePolygons(new Manifold(), polygonA, xfA, polygonB, xfB);
+	}
+
+	/**
+	 * Compute the contact manifold between two polygons.
+	 */
+	public static Manifold collidePolygons(Manifold target, Polygon polygonA, Transform xfA, Polygon polygonB, Transform xfB) {
+		try {
+			SegmentAllocator allocator = target.allocator();
+			MemorySegment a = polygonA.memorySegment();
+			MemorySegment b = polygonB.memorySegment();
+			MemorySegment transformA = xfA.memorySegment();
+			MemorySegment transformB = xfB.memorySegment();
+			B2_COLLIDE_POLYGONS.invoke(allocator, a, transformA, b, transformB);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot collide polygons: " + className);
+		}
+	}
+
+	/**
+	 * Compute the contact manifold between a segment and a polygon.
+	 */
+	public static Manifold collideSegmentAndPolygon(Segment segmentA, Transform xfA, Polygon polygonB, Transform xfB) {
+		return collideSegmentAndPolygon(new Manifold(), segmentA, xfA, polygonB, xfB);
+	}
+
+	/**
+	 * Compute the contact manifold between a segment and a polygon.
+	 */
+	public static Manifold collideSegmentAndPolygon(Manifold target, Segment segmentA, Transform xfA, Polygon polygonB, Transform xfB) {
+		try {
+			SegmentAllocator allocator = target.allocator();
+			MemorySegment a = segmentA.memorySegment();
+			MemorySegment b = polygonB.memorySegment();
+			MemorySegment transformA = xfA.memorySegment();
+			MemorySegment transformB = xfB.memorySegment();
+			B2_COLLIDE_SEGMENT_AND_POLYGON.invoke(allocator, a, transformA, b, transformB);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot collide segment and polygon: " + className);
+		}
+	}
+
+	/**
+	 * Compute the contact manifold between a chain segment and a circle.
+	 */
+	public static Manifold collideChainSegmentAndCircle(ChainSegment segmentA, Transform xfA, Circle circleB, Transform xfB) {
+		return collideChainSegmentAndCircle(new Manifold(), segmentA, xfA, circleB, xfB);
+	}
+
+	/**
+	 * Compute the contact manifold between a chain segment and a circle.
+	 */
+	public static Manifold collideChainSegmentAndCircle(Manifold target, ChainSegment segmentA, Transform xfA, Circle circleB, Transform xfB) {
+		try {
+			SegmentAllocator allocator = target.allocator();
+			MemorySegment a = segmentA.memorySegment();
+			MemorySegment b = circleB.memorySegment();
+			MemorySegment transformA = xfA.memorySegment();
+			MemorySegment transformB = xfB.memorySegment();
+			B2_COLLIDE_CHAIN_SEGMENT_AND_CIRCLE.invoke(allocator, a, transformA, b, transformB);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot collide chain segment and circle: " + className);
+		}
+	}
+
+	/**
+	 * Compute the contact manifold between a chain segment and a capsule.
+	 * <p>
+	 * The cache should persist for the shape pair between steps.
+	 */
+	public static Manifold collideChainSegmentAndCapsule(ChainSegment segmentA, Transform xfA, Capsule capsuleB, Transform xfB, SimplexCache cache) {
+		return collideChainSegmentAndCapsule(new Manifold(), segmentA, xfA, capsuleB, xfB, cache);
+	}
+
+	/**
+	 * Compute the contact manifold between a chain segment and a capsule.
+	 * <p>
+	 * The cache should persist for the shape pair between steps.
+	 */
+	public static Manifold collideChainSegmentAndCapsule(Manifold target, ChainSegment segmentA, Transform xfA, Capsule capsuleB, Transform xfB, SimplexCache cache) {
+		try {
+			SegmentAllocator allocator = target.allocator();
+			MemorySegment a = segmentA.memorySegment();
+			MemorySegment b = capsuleB.memorySegment();
+			MemorySegment transformA = xfA.memorySegment();
+			MemorySegment transformB = xfB.memorySegment();
+			MemorySegment simplexCache = cache.memorySegment();
+			B2_COLLIDE_CHAIN_SEGMENT_AND_CAPSULE.invoke(allocator, a, transformA, b, transformB, simplexCache);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot collide chain segment and capsule: " + className);
+		}
+	}
+
+	/**
+	 * Compute the contact manifold between a chain segment and a rounded polygon.
+	 * <p>
+	 * The cache should persist for the shape pair between steps.
+	 */
+	public static Manifold collideChainSegmentAndPolygon(ChainSegment segmentA, Transform xfA, Polygon polygonB, Transform xfB, SimplexCache cache) {
+		return collideChainSegmentAndPolygon(new Manifold(), segmentA, xfA, polygonB, xfB, cache);
+	}
+
+	/**
+	 * Compute the contact manifold between a chain segment and a rounded polygon.
+	 * <p>
+	 * The cache should persist for the shape pair between steps.
+	 */
+	public static Manifold collideChainSegmentAndPolygon(Manifold target, ChainSegment segmentA, Transform xfA, Polygon polygonB, Transform xfB, SimplexCache cache) {
+		try {
+			SegmentAllocator allocator = target.allocator();
+			MemorySegment a = segmentA.memorySegment();
+			MemorySegment b = polygonB.memorySegment();
+			MemorySegment transformA = xfA.memorySegment();
+			MemorySegment transformB = xfB.memorySegment();
+			MemorySegment simplexCache = cache.memorySegment();
+			B2_COLLIDE_CHAIN_SEGMENT_AND_POLYGON.invoke(allocator, a, transformA, b, transformB, simplexCache);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot collide chain segment and polygon: " + className);
+		}
+	}
+
+}
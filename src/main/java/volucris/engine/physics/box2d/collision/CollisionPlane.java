@@ -0,0 +1,139 @@
+package volucris.engine.physics.box2d.collision;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.VarHandle;
+
+import volucris.engine.physics.box2d.math.Plane;
+
+import static java.lang.foreign.ValueLayout.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * These are collision planes that can be fed to {@link Mover#solvePlanes}.
+ * Normally this is assembled by the user from plane results in
+ * {@link volucris.engine.physics.box2d.world.functions.PlaneResultFunction}.
+ */
+public final class CollisionPlane {
+
+	private static final StructLayout LAYOUT;
+
+	private static final VarHandle PUSH_LIMIT;
+	private static final VarHandle PUSH;
+	private static final VarHandle CLIP_VELOCITY;
+
+	private static final long PLANE_OFFSET;
+
+	private final MemorySegment b2CollisionPlane;
+
+	private final Plane plane;
+
+	static {
+		//@formatter:off
+		LAYOUT = MemoryLayout.structLayout(
+				Plane.LAYOUT().withName("plane"),
+				JAVA_FLOAT.withName("pushLimit"),
+				JAVA_FLOAT.withName("push"),
+				JAVA_BOOLEAN.withName("clipVelocity"),
+				MemoryLayout.paddingLayout(3)
+			).withName("b2CollisionPlane");
+		//@formatter:on
+
+		PUSH_LIMIT = varHandle(LAYOUT, "pushLimit");
+		PUSH = varHandle(LAYOUT, "push");
+		CLIP_VELOCITY = varHandle(LAYOUT, "clipVelocity");
+
+		PLANE_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("plane"));
+	}
+
+	public CollisionPlane() {
+		this(Arena.ofAuto());
+	}
+
+	public CollisionPlane(Arena arena) {
+		this(arena.allocate(LAYOUT));
+	}
+
+	public CollisionPlane(MemorySegment memorySegment) {
+		b2CollisionPlane = memorySegment;
+
+		plane = new Plane(b2CollisionPlane.asSlice(PLANE_OFFSET, Plane.LAYOUT()));
+	}
+
+	public void set(MemorySegment memorySegment) {
+		MemorySegment.copy(memorySegment, 0, b2CollisionPlane, 0, LAYOUT.byteSize());
+	}
+
+	/**
+	 * The collision plane between the mover and some shape.
+	 */
+	public Plane getPlane() {
+		return plane;
+	}
+
+	/**
+	 * The collision plane between the mover and some shape.
+	 */
+	public void setPlane(Plane plane) {
+		this.plane.set(plane.memorySegment());
+	}
+
+	/**
+	 * Setting this to FLT_MAX makes the plane as rigid as possible. Lower values
+	 * can make the plane collision soft. Usually in meters.
+	 */
+	public float getPushLimit() {
+		return (float) PUSH_LIMIT.get(b2CollisionPlane);
+	}
+
+	/**
+	 * Setting this to FLT_MAX makes the plane as rigid as possible. Lower values
+	 * can make the plane collision soft. Usually in meters.
+	 */
+	public void setPushLimit(float pushLimit) {
+		PUSH_LIMIT.set(b2CollisionPlane, pushLimit);
+	}
+
+	/**
+	 * The push on the mover determined by {@link Mover#solvePlanes}. Usually in
+	 * meters.
+	 */
+	public float getPush() {
+		return (float) PUSH.get(b2CollisionPlane);
+	}
+
+	/**
+	 * The push on the mover determined by {@link Mover#solvePlanes}. Usually in
+	 * meters.
+	 */
+	public void setPush(float push) {
+		PUSH.set(b2CollisionPlane, push);
+	}
+
+	/**
+	 * Indicates if {@link Mover#clipVector} should clip against this plane. Should
+	 * be false for soft collision.
+	 */
+	public boolean isClipVelocity() {
+		return (boolean) CLIP_VELOCITY.get(b2CollisionPlane);
+	}
+
+	/**
+	 * Indicates if {@link Mover#clipVector} should clip against this plane. Should
+	 * be false for soft collision.
+	 */
+	public void setClipVelocity(boolean clipVelocity) {
+		CLIP_VELOCITY.set(b2CollisionPlane, clipVelocity);
+	}
+
+	public MemorySegment memorySegment() {
+		return b2CollisionPlane;
+	}
+
+	public static StructLayout LAYOUT() {
+		return LAYOUT;
+	}
+
+}
@@ -0,0 +1,149 @@
+package volucris.engine.physics.box2d.collision;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.lang.invoke.MethodHandle;
+
+import org.joml.Vector2f;
+
+import volucris.engine.physics.box2d.geometry.CastOutput;
+import volucris.engine.physics.box2d.math.Vec2;
+import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
+
+import static java.lang.foreign.ValueLayout.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * Distance, shape cast and time of impact functions.
+ * <p>
+ * The target variants write the result straight into the given output object.
+ * Keep one {@link SimplexCache} per shape pair and pass it every frame, so GJK
+ * starts from the previous simplex. For many pairs stored in flat arrays see
+ * {@link DistanceBatch}.
+ */
+public final class Distance {
+
+	private static final MethodHandle B2_SEGMENT_DISTANCE;
+	private static final MethodHandle B2_SHAPE_DISTANCE;
+	private static final MethodHandle B2_SHAPE_CAST;
+	private static final MethodHandle B2_TIME_OF_IMPACT;
+
+	static {
+		B2_SEGMENT_DISTANCE = downcallHandle("b2SegmentDistance", SegmentDistanceResult.LAYOUT(), Vec2.LAYOUT(), Vec2.LAYOUT(), Vec2.LAYOUT(), Vec2.LAYOUT());
+		B2_SHAPE_DISTANCE = downcallHandle("b2ShapeDistance", DistanceOutput.LAYOUT(), ADDRESS, ADDRESS, ADDRESS, JAVA_INT);
+		B2_SHAPE_CAST = downcallHandle("b2ShapeCast", CastOutput.LAYOUT(), ADDRESS);
+		B2_TIME_OF_IMPACT = downcallHandle("b2TimeOfImpact", TOIOutput.LAYOUT(), ADDRESS);
+	}
+
+	private Distance() {
+
+	}
+
+	/**
+	 * Compute the distance between two line segments, clamping at the end points
+	 * if needed.
+	 */
+	public static SegmentDistanceResult segmentDistance(SegmentDistanceResult target, Vector2f p1, Vector2f q1,
+			Vector2f p2, Vector2f q2) {
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment p1Addr = new Vec2(arena, p1.x, p1.y).memorySegment();
+			MemorySegment q1Addr = new Vec2(arena, q1.x, q1.y).memorySegment();
+			MemorySegment p2Addr = new Vec2(arena, p2.x, p2.y).memorySegment();
+			MemorySegment q2Addr = new Vec2(arena, q2.x, q2.y).memorySegment();
+			B2_SEGMENT_DISTANCE.invoke(target.allocator(), p1Addr, q1Addr, p2Addr, q2Addr);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot compute segment distance: " + className);
+		}
+	}
+
+	/**
+	 * Compute the distance between two line segments, clamping at the end points
+	 * if needed.
+	 */
+	public static SegmentDistanceResult segmentDistance(Vector2f p1, Vector2f q1, Vector2f p2, Vector2f q2) {
+		return segmentDistance(new SegmentDistanceResult(), p1, q1, p2, q2);
+	}
+
+	/**
+	 * Compute the closest points between two shapes represented as point clouds.
+	 * The cache is input/output. On the first call set the cache count to zero.
+	 * The underlying GJK algorithm may be debugged by passing in debug simplexes
+	 * and capacity. You may pass in NULL and 0 for these.
+	 * <p>
+	 * Debug simplexes are not exposed, the cache is reused between calls.
+	 */
+	public static DistanceOutput shapeDistance(DistanceOutput target, DistanceInput input, SimplexCache cache) {
+		try {
+			SegmentAllocator allocator = target.allocator();
+			MemorySegment inputAddr = input.memorySegment();
+			MemorySegment cacheAddr = cache.memorySegment();
+			B2_SHAPE_DISTANCE.invoke(allocator, inputAddr, cacheAddr, MemorySegment.NULL, 0);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot compute shape distance: " + className);
+		}
+	}
+
+	/**
+	 * Compute the closest points between two shapes represented as point clouds.
+	 * The cache is input/output. On the first call set the cache count to zero.
+	 */
+	public static DistanceOutput shapeDistance(DistanceInput input, SimplexCache cache) {
+		return shapeDistance(new DistanceOutput(), input, cache);
+	}
+
+	/**
+	 * Perform a linear shape cast of shape B moving and shape A fixed. Determines
+	 * the hit point, normal, and translation fraction.
+	 */
+	public static CastOutput shapeCast(CastOutput target, ShapeCastPairInput input) {
+		try {
+			SegmentAllocator allocator = SegmentAllocator.prefixAllocator(target.memorySegment());
+			MemorySegment inputAddr = input.memorySegment();
+			B2_SHAPE_CAST.invoke(allocator, inputAddr);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot shape cast: " + className);
+		}
+	}
+
+	/**
+	 * Perform a linear shape cast of shape B moving and shape A fixed. Determines
+	 * the hit point, normal, and translation fraction.
+	 */
+	public static CastOutput shapeCast(ShapeCastPairInput input) {
+		return shapeCast(new CastOutput(), input);
+	}
+
+	/**
+	 * Compute the upper bound on time before two shapes penetrate. Time is
+	 * represented as a fraction between [0,maxFraction]. This uses a swept
+	 * separating axis and may miss some intermediate, non-tunneling collisions. If
+	 * you change the time interval, you should call this function again.
+	 */
+	public static TOIOutput timeOfImpact(TOIOutput target, TOIInput input) {
+		try {
+			SegmentAllocator allocator = target.allocator();
+			MemorySegment inputAddr = input.memorySegment();
+			B2_TIME_OF_IMPACT.invoke(allocator, inputAddr);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot compute time of impact: " + className);
+		}
+	}
+
+	/**
+	 * Compute the upper bound on time before two shapes penetrate. Time is
+	 * represented as a fraction between [0,maxFraction].
+	 */
+	public static TOIOutput timeOfImpact(TOIInput input) {
+		return timeOfImpact(new TOIOutput(), input);
+	}
+
+}
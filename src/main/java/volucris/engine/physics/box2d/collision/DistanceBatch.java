@@ -0,0 +1,227 @@
+package volucris.engine.physics.box2d.collision;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+import org.joml.Vector2f;
+
+import volucris.engine.physics.box2d.geometry.CastOutput;
+import volucris.engine.physics.box2d.math.Transform;
+
+import static java.lang.foreign.ValueLayout.*;
+import static volucris.engine.physics.box2d.geometry.GeometryKernels.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * Distance queries and shape casts for many proxy pairs stored in flat float
+ * arrays.
+ * <p>
+ * Proxies and transforms use the layouts of
+ * {@link volucris.engine.physics.box2d.geometry.GeometryKernels}. Pair
+ * {@code i} uses the proxy and transform at index {@code i} of each array. An
+ * array that holds exactly one proxy or transform is used for every pair.
+ * <p>
+ * The batch owns one {@link SimplexCache} per pair slot. Pair {@code i} always
+ * uses cache {@code i}, so keeping the pair order stable between frames warm
+ * starts every distance query. Call {@link #resetCache(int)} when a slot is
+ * assigned to another pair.
+ * <p>
+ * Distance results are written as {@value #RESULT_STRIDE} floats: point on A,
+ * point on B, normal and distance. Cast results use
+ * {@link volucris.engine.physics.box2d.geometry.GeometryKernels#CAST_STRIDE}
+ * floats: point, normal, fraction.
+ */
+public final class DistanceBatch {
+
+	public static final int RESULT_POINT_A = 0;
+	public static final int RESULT_POINT_B = 2;
+	public static final int RESULT_NORMAL = 4;
+	public static final int RESULT_DISTANCE = 6;
+	public static final int RESULT_STRIDE = 7;
+
+	private final int capacity;
+
+	private final SimplexCache[] caches;
+
+	private final DistanceInput distanceInput;
+	private final DistanceOutput distanceOutput;
+
+	private final ShapeCastPairInput castInput;
+	private final CastOutput castOutput;
+
+	private final Vector2f vecTmp;
+
+	public DistanceBatch(int capacity) {
+		this(Arena.ofAuto(), capacity);
+	}
+
+	public DistanceBatch(Arena arena, int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("Negative capacity: " + capacity);
+
+		this.capacity = capacity;
+
+		MemorySegment cacheSegment = arena.allocate(SimplexCache.LAYOUT(), Math.max(capacity, 1));
+		long cacheSize = SimplexCache.LAYOUT().byteSize();
+
+		caches = new SimplexCache[capacity];
+		for (int i = 0; i < capacity; i++)
+			caches[i] = new SimplexCache(cacheSegment.asSlice(i * cacheSize, cacheSize));
+
+		distanceInput = new DistanceInput(arena);
+		distanceOutput = new DistanceOutput(arena);
+
+		castInput = new ShapeCastPairInput(arena);
+		castOutput = new CastOutput(arena);
+
+		vecTmp = new Vector2f();
+	}
+
+	/**
+	 * Compute the closest points of {@code count} proxy pairs.
+	 */
+	public void distance(float[] proxiesA, float[] transformsA, float[] proxiesB, float[] transformsB, int count,
+			boolean useRadii, float[] results) {
+		if (count < 0)
+			throw new IllegalArgumentException("Negative pair count: " + count);
+		if (count > capacity)
+			throw new IllegalArgumentException("Pair count exceeds capacity: " + count + " > " + capacity);
+
+		boolean sharedProxyA = checkBounds(proxiesA, PROXY_STRIDE, count, "Proxy A");
+		boolean sharedProxyB = checkBounds(proxiesB, PROXY_STRIDE, count, "Proxy B");
+		boolean sharedTransformA = checkBounds(transformsA, TRANSFORM_STRIDE, count, "Transform A");
+		boolean sharedTransformB = checkBounds(transformsB, TRANSFORM_STRIDE, count, "Transform B");
+		checkBounds(results.length, 0L, (long) count * RESULT_STRIDE, "Result");
+
+		distanceInput.setUseRadii(useRadii);
+
+		if (sharedProxyA)
+			distanceInput.getProxyA().set(proxiesA, 0);
+		if (sharedProxyB)
+			distanceInput.getProxyB().set(proxiesB, 0);
+		if (sharedTransformA)
+			load(distanceInput.getTransformA(), transformsA, 0);
+		if (sharedTransformB)
+			load(distanceInput.getTransformB(), transformsB, 0);
+
+		MemorySegment output = distanceOutput.memorySegment();
+
+		for (int i = 0; i < count; i++) {
+			if (!sharedProxyA)
+				distanceInput.getProxyA().set(proxiesA, i * PROXY_STRIDE);
+			if (!sharedProxyB)
+				distanceInput.getProxyB().set(proxiesB, i * PROXY_STRIDE);
+			if (!sharedTransformA)
+				load(distanceInput.getTransformA(), transformsA, i * TRANSFORM_STRIDE);
+			if (!sharedTransformB)
+				load(distanceInput.getTransformB(), transformsB, i * TRANSFORM_STRIDE);
+
+			Distance.shapeDistance(distanceOutput, distanceInput, caches[i]);
+
+			// pointA, pointB, normal and distance are the first seven floats of b2DistanceOutput
+			MemorySegment.copy(output, JAVA_FLOAT, 0L, results, i * RESULT_STRIDE, RESULT_STRIDE);
+		}
+	}
+
+	/**
+	 * Cast proxy B of {@code count} pairs along its translation against the fixed
+	 * proxy A. {@code translationsB} holds x, y pairs and follows the same
+	 * sharing rule as the transforms.
+	 *
+	 * @return the number of pairs that hit
+	 */
+	public int shapeCast(float[] proxiesA, float[] transformsA, float[] proxiesB, float[] transformsB,
+			float[] translationsB, int count, float maxFraction, boolean canEncroach, float[] results, boolean[] hits) {
+		if (count < 0)
+			throw new IllegalArgumentException("Negative pair count: " + count);
+
+		boolean sharedProxyA = checkBounds(proxiesA, PROXY_STRIDE, count, "Proxy A");
+		boolean sharedProxyB = checkBounds(proxiesB, PROXY_STRIDE, count, "Proxy B");
+		boolean sharedTransformA = checkBounds(transformsA, TRANSFORM_STRIDE, count, "Transform A");
+		boolean sharedTransformB = checkBounds(transformsB, TRANSFORM_STRIDE, count, "Transform B");
+		boolean sharedTranslationB = checkBounds(translationsB, 2, count, "Translation B");
+		checkBounds(results.length, 0L, (long) count * CAST_STRIDE, "Result");
+		checkBounds(hits.length, 0L, count, "Hit");
+
+		castInput.setMaxFraction(maxFraction);
+		castInput.setCanEncroach(canEncroach);
+
+		if (sharedProxyA)
+			castInput.getProxyA().set(proxiesA, 0);
+		if (sharedProxyB)
+			castInput.getProxyB().set(proxiesB, 0);
+		if (sharedTransformA)
+			load(castInput.getTransformA(), transformsA, 0);
+		if (sharedTransformB)
+			load(castInput.getTransformB(), transformsB, 0);
+		if (sharedTranslationB)
+			castInput.setTranslationB(translationsB[0], translationsB[1]);
+
+		int hitCount = 0;
+		for (int i = 0; i < count; i++) {
+			if (!sharedProxyA)
+				castInput.getProxyA().set(proxiesA, i * PROXY_STRIDE);
+			if (!sharedProxyB)
+				castInput.getProxyB().set(proxiesB, i * PROXY_STRIDE);
+			if (!sharedTransformA)
+				load(castInput.getTransformA(), transformsA, i * TRANSFORM_STRIDE);
+			if (!sharedTransformB)
+				load(castInput.getTransformB(), transformsB, i * TRANSFORM_STRIDE);
+			if (!sharedTranslationB)
+				castInput.setTranslationB(translationsB[2 * i], translationsB[2 * i + 1]);
+
+			Distance.shapeCast(castOutput, castInput);
+
+			int offset = i * CAST_STRIDE;
+			boolean hit = castOutput.getHit();
+			hits[i] = hit;
+
+			if (hit) {
+				castOutput.getPoint(vecTmp);
+				results[offset] = vecTmp.x;
+				results[offset + 1] = vecTmp.y;
+				castOutput.getNormal(vecTmp);
+				results[offset + 2] = vecTmp.x;
+				results[offset + 3] = vecTmp.y;
+				results[offset + 4] = castOutput.getFraction();
+				hitCount++;
+			}
+		}
+
+		return hitCount;
+	}
+
+	/**
+	 * Zero the simplex cache of one pair slot.
+	 */
+	public void resetCache(int pair) {
+		caches[pair].reset();
+	}
+
+	/**
+	 * Zero all simplex caches.
+	 */
+	public void resetCaches() {
+		for (SimplexCache cache : caches)
+			cache.reset();
+	}
+
+	/**
+	 * The simplex cache of one pair slot.
+	 */
+	public SimplexCache getCache(int pair) {
+		return caches[pair];
+	}
+
+	/**
+	 * The maximum number of pairs of a distance batch.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	private static void load(Transform transform, float[] transforms, int offset) {
+		MemorySegment.copy(transforms, offset, transform.memorySegment(), JAVA_FLOAT, 0L, TRANSFORM_STRIDE);
+	}
+
+}
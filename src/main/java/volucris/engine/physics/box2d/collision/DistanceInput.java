@@ -0,0 +1,155 @@
+package volucris.engine.physics.box2d.collision;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.VarHandle;
+
+import volucris.engine.physics.box2d.geometry.ShapeProxy;
+import volucris.engine.physics.box2d.math.Transform;
+
+import static java.lang.foreign.ValueLayout.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * Input for {@link Distance#shapeDistance}.
+ */
+public final class DistanceInput {
+
+	private static final StructLayout LAYOUT;
+
+	private static final VarHandle USE_RADII;
+
+	private static final long PROXY_A_OFFSET;
+	private static final long PROXY_B_OFFSET;
+	private static final long TRANSFORM_A_OFFSET;
+	private static final long TRANSFORM_B_OFFSET;
+
+	private final MemorySegment b2DistanceInput;
+
+	private final ShapeProxy proxyA;
+	private final ShapeProxy proxyB;
+	private final Transform transformA;
+	private final Transform transformB;
+
+	static {
+		//@formatter:off
+		LAYOUT = MemoryLayout.structLayout(
+				ShapeProxy.LAYOUT().withName("proxyA"),
+				ShapeProxy.LAYOUT().withName("proxyB"),
+				Transform.LAYOUT().withName("transformA"),
+				Transform.LAYOUT().withName("transformB"),
+				JAVA_BOOLEAN.withName("useRadii"),
+				MemoryLayout.paddingLayout(3)
+			).withName("b2DistanceInput");
+		//@formatter:on
+
+		USE_RADII = varHandle(LAYOUT, "useRadii");
+
+		PROXY_A_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("proxyA"));
+		PROXY_B_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("proxyB"));
+		TRANSFORM_A_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("transformA"));
+		TRANSFORM_B_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("transformB"));
+	}
+
+	public DistanceInput() {
+		this(Arena.ofAuto());
+	}
+
+	public DistanceInput(Arena arena) {
+		this(arena.allocate(LAYOUT));
+	}
+
+	public DistanceInput(MemorySegment memorySegment) {
+		b2DistanceInput = memorySegment;
+
+		proxyA = new ShapeProxy(b2DistanceInput.asSlice(PROXY_A_OFFSET, ShapeProxy.LAYOUT()));
+		proxyB = new ShapeProxy(b2DistanceInput.asSlice(PROXY_B_OFFSET, ShapeProxy.LAYOUT()));
+		transformA = new Transform(b2DistanceInput.asSlice(TRANSFORM_A_OFFSET, Transform.LAYOUT()));
+		transformB = new Transform(b2DistanceInput.asSlice(TRANSFORM_B_OFFSET, Transform.LAYOUT()));
+	}
+
+	public void set(MemorySegment memorySegment) {
+		MemorySegment.copy(memorySegment, 0, b2DistanceInput, 0, LAYOUT.byteSize());
+	}
+
+	/**
+	 * The proxy for shape A.
+	 */
+	public ShapeProxy getProxyA() {
+		return proxyA;
+	}
+
+	/**
+	 * The proxy for shape A.
+	 */
+	public void setProxyA(ShapeProxy proxy) {
+		proxyA.set(proxy.memorySegment());
+	}
+
+	/**
+	 * The proxy for shape B.
+	 */
+	public ShapeProxy getProxyB() {
+		return proxyB;
+	}
+
+	/**
+	 * The proxy for shape B.
+	 */
+	public void setProxyB(ShapeProxy proxy) {
+		proxyB.set(proxy.memorySegment());
+	}
+
+	/**
+	 * The world transform for shape A.
+	 */
+	public Transform getTransformA() {
+		return transformA;
+	}
+
+	/**
+	 * The world transform for shape A.
+	 */
+	public void setTransformA(Transform transform) {
+		transformA.set(transform.memorySegment());
+	}
+
+	/**
+	 * The world transform for shape B.
+	 */
+	public Transform getTransformB() {
+		return transformB;
+	}
+
+	/**
+	 * The world transform for shape B.
+	 */
+	public void setTransformB(Transform transform) {
+		transformB.set(transform.memorySegment());
+	}
+
+	/**
+	 * Should the proxy radius be considered?
+	 */
+	public boolean useRadii() {
+		return (boolean) USE_RADII.get(b2DistanceInput);
+	}
+
+	/**
+	 * Should the proxy radius be considered?
+	 */
+	public void setUseRadii(boolean useRadii) {
+		USE_RADII.set(b2DistanceInput, useRadii);
+	}
+
+	public MemorySegment memorySegment() {
+		return b2DistanceInput;
+	}
+
+	public static StructLayout LAYOUT() {
+		return LAYOUT;
+	}
+
+}
@@ -0,0 +1,162 @@
+package volucris.engine.physics.box2d.collision;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.VarHandle;
+
+import org.joml.Vector2f;
+
+import volucris.engine.physics.box2d.math.Vec2;
+
+import static java.lang.foreign.ValueLayout.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * Output for {@link Distance#shapeDistance}.
+ */
+public final class DistanceOutput {
+
+	private static final StructLayout LAYOUT;
+
+	private static final VarHandle DISTANCE;
+	private static final VarHandle ITERATIONS;
+	private static final VarHandle SIMPLEX_COUNT;
+
+	private static final long POINT_A_OFFSET;
+	private static final long POINT_B_OFFSET;
+	private static final long NORMAL_OFFSET;
+
+	private final MemorySegment b2DistanceOutput;
+
+	private final Vec2 pointA;
+	private final Vec2 pointB;
+	private final Vec2 normal;
+
+	private SegmentAllocator allocator;
+
+	static {
+		//@formatter:off
+		LAYOUT = MemoryLayout.structLayout(
+				Vec2.LAYOUT().withName("pointA"),
+				Vec2.LAYOUT().withName("pointB"),
+				Vec2.LAYOUT().withName("normal"),
+				JAVA_FLOAT.withName("distance"),
+				JAVA_INT.withName("iterations"),
+				JAVA_INT.withName("simplexCount")
+			).withName("b2DistanceOutput");
+		//@formatter:on
+
+		DISTANCE = varHandle(LAYOUT, "distance");
+		ITERATIONS = varHandle(LAYOUT, "iterations");
+		SIMPLEX_COUNT = varHandle(LAYOUT, "simplexCount");
+
+		POINT_A_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("pointA"));
+		POINT_B_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("pointB"));
+		NORMAL_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("normal"));
+	}
+
+	public DistanceOutput() {
+		this(Arena.ofAuto());
+	}
+
+	public DistanceOutput(Arena arena) {
+		this(arena.allocate(LAYOUT));
+	}
+
+	public DistanceOutput(MemorySegment memorySegment) {
+		b2DistanceOutput = memorySegment;
+
+		pointA = new Vec2(b2DistanceOutput.asSlice(POINT_A_OFFSET, Vec2.LAYOUT()));
+		pointB = new Vec2(b2DistanceOutput.asSlice(POINT_B_OFFSET, Vec2.LAYOUT()));
+		normal = new Vec2(b2DistanceOutput.asSlice(NORMAL_OFFSET, Vec2.LAYOUT()));
+	}
+
+	public void set(MemorySegment memorySegment) {
+		MemorySegment.copy(memorySegment, 0, b2DistanceOutput, 0, LAYOUT.byteSize());
+	}
+
+	/**
+	 * Closest point on shape A.
+	 */
+	public Vector2f getPointA(Vector2f target) {
+		return pointA.get(target);
+	}
+
+	/**
+	 * Closest point on shape A.
+	 */
+	public Vector2f getPointA() {
+		return getPointA(new Vector2f());
+	}
+
+	/**
+	 * Closest point on shape B.
+	 */
+	public Vector2f getPointB(Vector2f target) {
+		return pointB.get(target);
+	}
+
+	/**
+	 * Closest point on shape B.
+	 */
+	public Vector2f getPointB() {
+		return getPointB(new Vector2f());
+	}
+
+	/**
+	 * Normal vector that points from A to B.
+	 */
+	public Vector2f getNormal(Vector2f target) {
+		return normal.get(target);
+	}
+
+	/**
+	 * Normal vector that points from A to B.
+	 */
+	public Vector2f getNormal() {
+		return getNormal(new Vector2f());
+	}
+
+	/**
+	 * The final distance, zero if overlapped.
+	 */
+	public float getDistance() {
+		return (float) DISTANCE.get(b2DistanceOutput);
+	}
+
+	/**
+	 * Number of GJK iterations used.
+	 */
+	public int getIterations() {
+		return (int) ITERATIONS.get(b2DistanceOutput);
+	}
+
+	/**
+	 * The number of simplexes stored in the simplex array.
+	 */
+	public int getSimplexCount() {
+		return (int) SIMPLEX_COUNT.get(b2DistanceOutput);
+	}
+
+	/**
+	 * Allocator that hands out this output's own memory, so downcalls returning a
+	 * b2DistanceOutput by value write straight into it.
+	 */
+	SegmentAllocator allocator() {
+		if (allocator == null)
+			allocator = SegmentAllocator.prefixAllocator(b2DistanceOutput);
+		return allocator;
+	}
+
+	public MemorySegment memorySegment() {
+		return b2DistanceOutput;
+	}
+
+	public static StructLayout LAYOUT() {
+		return LAYOUT;
+	}
+
+}
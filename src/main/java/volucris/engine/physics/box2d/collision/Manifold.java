@@ -3,6 +3,7 @@ package volucris.engine.physics.box2d.collision;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
 import java.lang.foreign.StructLayout;
 import java.lang.invoke.VarHandle;
 
@@ -37,6 +38,8 @@ public final class Manifold {
 
 	private final Vec2 normal;
 
+	private SegmentAllocator allocator;
+
 	static {
 		//@formatter:off
 		LAYOUT = MemoryLayout.structLayout(
@@ -125,6 +128,16 @@ public final class Manifold {
 		return (float) ROLLING_IMPULSE.get(b2Manifold);
 	}
 
+	/**
+	 * Allocator that hands out this manifold's own memory, so downcalls returning
+	 * a b2Manifold by value write straight into it.
+	 */
+	SegmentAllocator allocator() {
+		if (allocator == null)
+			allocator = SegmentAllocator.prefixAllocator(b2Manifold);
+		return allocator;
+	}
+
 	public MemorySegment memorySegment() {
 		return b2Manifold;
 	}
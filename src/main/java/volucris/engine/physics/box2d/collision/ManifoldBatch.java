@@ -0,0 +1,253 @@
+package volucris.engine.physics.box2d.collision;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemoryLayout.PathElement;
+
+import volucris.engine.physics.box2d.geometry.Capsule;
+import volucris.engine.physics.box2d.geometry.Circle;
+import volucris.engine.physics.box2d.geometry.Polygon;
+import volucris.engine.physics.box2d.geometry.Segment;
+import volucris.engine.physics.box2d.math.Transform;
+import volucris.engine.physics.box2d.shape.ShapeType;
+
+import static java.lang.foreign.ValueLayout.*;
+import static volucris.engine.physics.box2d.geometry.GeometryKernels.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * Computes contact manifolds for many shape pairs stored in flat float arrays.
+ * <p>
+ * Shapes and transforms use the layouts of
+ * {@link volucris.engine.physics.box2d.geometry.GeometryKernels}. Pair
+ * {@code i} uses the shape and transform at index {@code i} of each array. An
+ * array that holds exactly one shape or transform is used for every pair,
+ * which fits testing many placements of one shape against the same geometry.
+ * <p>
+ * Each pair is copied into one reusable off-heap scratch area and evaluated
+ * with the native manifold function, so a batch does not allocate. The result
+ * of each pair is written as {@value #RESULT_STRIDE} floats: normal x, normal
+ * y, point count and then world point x, world point y and separation for both
+ * manifold points. Unused points are zero.
+ * <p>
+ * Supported pairs are the ones Box2D has manifold functions for: circle and
+ * circle, capsule and circle, segment and circle, polygon and circle, capsule
+ * and capsule, segment and capsule, polygon and capsule, polygon and polygon,
+ * segment and polygon. Chain segments need ghost vertices and a persistent
+ * {@link SimplexCache}, use {@link Collision} for them.
+ */
+public final class ManifoldBatch {
+
+	public static final int RESULT_NORMAL = 0;
+	public static final int RESULT_POINT_COUNT = 2;
+	public static final int RESULT_POINT1 = 3;
+	public static final int RESULT_POINT2 = 6;
+	public static final int RESULT_STRIDE = 9;
+
+	private static final int CIRCLES = 0;
+	private static final int CAPSULE_AND_CIRCLE = 1;
+	private static final int SEGMENT_AND_CIRCLE = 2;
+	private static final int POLYGON_AND_CIRCLE = 3;
+	private static final int CAPSULES = 4;
+	private static final int SEGMENT_AND_CAPSULE = 5;
+	private static final int POLYGON_AND_CAPSULE = 6;
+	private static final int POLYGONS = 7;
+	private static final int SEGMENT_AND_POLYGON = 8;
+
+	private static final long POLYGON_COUNT_OFFSET;
+
+	private static final long NORMAL_OFFSET;
+	private static final long POINT_COUNT_OFFSET;
+	private static final long POINT1_OFFSET;
+	private static final long POINT2_OFFSET;
+	private static final long SEPARATION_OFFSET;
+
+	private final MemorySegment shapeA;
+	private final MemorySegment shapeB;
+
+	private final Circle circleA;
+	private final Capsule capsuleA;
+	private final Segment segmentA;
+	private final Polygon polygonA;
+
+	private final Circle circleB;
+	private final Capsule capsuleB;
+	private final Polygon polygonB;
+
+	private final Transform transformA;
+	private final Transform transformB;
+
+	private final Manifold manifold;
+
+	static {
+		POLYGON_COUNT_OFFSET = Polygon.LAYOUT().byteOffset(PathElement.groupElement("count"));
+
+		NORMAL_OFFSET = Manifold.LAYOUT().byteOffset(PathElement.groupElement("normal"));
+		POINT_COUNT_OFFSET = Manifold.LAYOUT().byteOffset(PathElement.groupElement("pointCount"));
+		POINT1_OFFSET = Manifold.LAYOUT().byteOffset(PathElement.groupElement("points"), PathElement.sequenceElement(0));
+		POINT2_OFFSET = Manifold.LAYOUT().byteOffset(PathElement.groupElement("points"), PathElement.sequenceElement(1));
+		SEPARATION_OFFSET = ManifoldPoint.LAYOUT().byteOffset(PathElement.groupElement("separation"));
+	}
+
+	public ManifoldBatch() {
+		this(Arena.ofAuto());
+	}
+
+	public ManifoldBatch(Arena arena) {
+		shapeA = arena.allocate(Polygon.LAYOUT());
+		shapeB = arena.allocate(Polygon.LAYOUT());
+
+		circleA = new Circle(shapeA.asSlice(0, Circle.LAYOUT()));
+		capsuleA = new Capsule(shapeA.asSlice(0, Capsule.LAYOUT()));
+		segmentA = new Segment(shapeA.asSlice(0, Segment.LAYOUT()));
+		polygonA = new Polygon(shapeA);
+
+		circleB = new Circle(shapeB.asSlice(0, Circle.LAYOUT()));
+		capsuleB = new Capsule(shapeB.asSlice(0, Capsule.LAYOUT()));
+		polygonB = new Polygon(shapeB);
+
+		transformA = new Transform(arena);
+		transformB = new Transform(arena);
+
+		manifold = new Manifold(arena);
+	}
+
+	/**
+	 * Compute the contact manifolds of {@code count} shape pairs.
+	 *
+	 * @return the number of pairs with at least one manifold point
+	 */
+	public int collide(ShapeType typeA, float[] shapesA, float[] transformsA, ShapeType typeB, float[] shapesB,
+			float[] transformsB, int count, float[] results) {
+		int function = function(typeA, typeB);
+		int strideA = stride(typeA);
+		int strideB = stride(typeB);
+
+		if (count < 0)
+			throw new IllegalArgumentException("Negative pair count: " + count);
+
+		boolean sharedShapeA = checkBounds(shapesA, strideA, count, "Shape A");
+		boolean sharedShapeB = checkBounds(shapesB, strideB, count, "Shape B");
+		boolean sharedTransformA = checkBounds(transformsA, TRANSFORM_STRIDE, count, "Transform A");
+		boolean sharedTransformB = checkBounds(transformsB, TRANSFORM_STRIDE, count, "Transform B");
+
+		checkBounds(results.length, 0L, (long) count * RESULT_STRIDE, "Result");
+
+		if (sharedShapeA && count > 0)
+			load(shapeA, typeA, shapesA, 0);
+		if (sharedShapeB && count > 0)
+			load(shapeB, typeB, shapesB, 0);
+		if (sharedTransformA && count > 0)
+			MemorySegment.copy(transformsA, 0, transformA.memorySegment(), JAVA_FLOAT, 0, TRANSFORM_STRIDE);
+		if (sharedTransformB && count > 0)
+			MemorySegment.copy(transformsB, 0, transformB.memorySegment(), JAVA_FLOAT, 0, TRANSFORM_STRIDE);
+
+		int touching = 0;
+		for (int i = 0; i < count; i++) {
+			if (!sharedShapeA)
+				load(shapeA, typeA, shapesA, i * strideA);
+			if (!sharedShapeB)
+				load(shapeB, typeB, shapesB, i * strideB);
+			if (!sharedTransformA)
+				MemorySegment.copy(transformsA, i * TRANSFORM_STRIDE, transformA.memorySegment(), JAVA_FLOAT, 0, TRANSFORM_STRIDE);
+			if (!sharedTransformB)
+				MemorySegment.copy(transformsB, i * TRANSFORM_STRIDE, transformB.memorySegment(), JAVA_FLOAT, 0, TRANSFORM_STRIDE);
+
+			collide(function);
+
+			if (store(results, i * RESULT_STRIDE) > 0)
+				touching++;
+		}
+
+		return touching;
+	}
+
+	private void collide(int function) {
+		switch (function) {
+		case CIRCLES -> Collision.collideCircles(manifold, circleA, transformA, circleB, transformB);
+		case CAPSULE_AND_CIRCLE -> Collision.collideCapsuleAndCircle(manifold, capsuleA, transformA, circleB, transformB);
+		case SEGMENT_AND_CIRCLE -> Collision.collideSegmentAndCircle(manifold, segmentA, transformA, circleB, transformB);
+		case POLYGON_AND_CIRCLE -> Collision.collidePolygonAndCircle(manifold, polygonA, transformA, circleB, transformB);
+		case CAPSULES -> Collision.collideCapsules(manifold, capsuleA, transformA, capsuleB, transformB);
+		case SEGMENT_AND_CAPSULE -> Collision.collideSegmentAndCapsule(manifold, segmentA, transformA, capsuleB, transformB);
+		case POLYGON_AND_CAPSULE -> Collision.collidePolygonAndCapsule(manifold, polygonA, transformA, capsuleB, transformB);
+		case POLYGONS -> Collision.collidePolygons(manifold, polygonA, transformA, polygonB, transformB);
+		case SEGMENT_AND_POLYGON -> Collision.collideSegmentAndPolygon(manifold, segmentA, transformA, polygonB, transformB);
+		default -> throw new IllegalStateException("Unknown manifold function: " + function);
+		}
+	}
+
+	private int store(float[] results, int offset) {
+		MemorySegment segment = manifold.memorySegment();
+		int pointCount = segment.get(JAVA_INT, POINT_COUNT_OFFSET);
+
+		results[offset + RESULT_NORMAL] = segment.get(JAVA_FLOAT, NORMAL_OFFSET);
+		results[offset + RESULT_NORMAL + 1] = segment.get(JAVA_FLOAT, NORMAL_OFFSET + 4);
+		results[offset + RESULT_POINT_COUNT] = pointCount;
+		storePoint(segment, POINT1_OFFSET, pointCount > 0, results, offset + RESULT_POINT1);
+		storePoint(segment, POINT2_OFFSET, pointCount > 1, results, offset + RESULT_POINT2);
+
+		return pointCount;
+	}
+
+	private static void storePoint(MemorySegment segment, long pointOffset, boolean valid, float[] results, int offset) {
+		if (valid) {
+			results[offset] = segment.get(JAVA_FLOAT, pointOffset);
+			results[offset + 1] = segment.get(JAVA_FLOAT, pointOffset + 4);
+			results[offset + 2] = segment.get(JAVA_FLOAT, pointOffset + SEPARATION_OFFSET);
+		} else {
+			results[offset] = 0.0f;
+			results[offset + 1] = 0.0f;
+			results[offset + 2] = 0.0f;
+		}
+	}
+
+	private static void load(MemorySegment target, ShapeType type, float[] shapes, int offset) {
+		if (type == ShapeType.POLYGON_SHAPE) {
+			MemorySegment.copy(shapes, offset, target, JAVA_FLOAT, 0, POLYGON_COUNT);
+			target.set(JAVA_INT, POLYGON_COUNT_OFFSET, (int) shapes[offset + POLYGON_COUNT]);
+		} else {
+			MemorySegment.copy(shapes, offset, target, JAVA_FLOAT, 0, stride(type));
+		}
+	}
+
+	private static int stride(ShapeType type) {
+		return switch (type) {
+		case CIRCLE_SHAPE -> CIRCLE_STRIDE;
+		case CAPSULE_SHAPE -> CAPSULE_STRIDE;
+		case SEGMENT_SHAPE -> SEGMENT_STRIDE;
+		case POLYGON_SHAPE -> POLYGON_STRIDE;
+		default -> throw new IllegalArgumentException("Unsupported shape type: " + type);
+		};
+	}
+
+	private static int function(ShapeType typeA, ShapeType typeB) {
+		int function = switch (typeB) {
+		case CIRCLE_SHAPE -> switch (typeA) {
+			case CIRCLE_SHAPE -> CIRCLES;
+			case CAPSULE_SHAPE -> CAPSULE_AND_CIRCLE;
+			case SEGMENT_SHAPE -> SEGMENT_AND_CIRCLE;
+			case POLYGON_SHAPE -> POLYGON_AND_CIRCLE;
+			default -> -1;
+			};
+		case CAPSULE_SHAPE -> switch (typeA) {
+			case CAPSULE_SHAPE -> CAPSULES;
+			case SEGMENT_SHAPE -> SEGMENT_AND_CAPSULE;
+			case POLYGON_SHAPE -> POLYGON_AND_CAPSULE;
+			default -> -1;
+			};
+		case POLYGON_SHAPE -> switch (typeA) {
+			case POLYGON_SHAPE -> POLYGONS;
+			case SEGMENT_SHAPE -> SEGMENT_AND_POLYGON;
+			default -> -1;
+			};
+		default -> -1;
+		};
+
+		if (function < 0)
+			throw new IllegalArgumentException("No manifold function for " + typeA + " and " + typeB);
+
+		return function;
+	}
+
+}
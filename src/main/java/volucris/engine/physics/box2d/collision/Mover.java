@@ -0,0 +1,110 @@
+package volucris.engine.physics.box2d.collision;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.lang.invoke.MethodHandle;
+
+import org.joml.Vector2f;
+
+import volucris.engine.physics.box2d.math.Vec2;
+import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
+
+import static java.lang.foreign.ValueLayout.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * Character mover functions.
+ * <p>
+ * The planes are a contiguous array of b2CollisionPlane, e.g. allocated with
+ * {@code arena.allocate(CollisionPlane.LAYOUT(), capacity)}. The variants taking
+ * a {@link Vec2} pass the vector without allocating.
+ */
+public final class Mover {
+
+	private static final MethodHandle B2_SOLVE_PLANES;
+	private static final MethodHandle B2_CLIP_VECTOR;
+
+	static {
+		B2_SOLVE_PLANES = downcallHandle("b2SolvePlanes", PlaneSolverResult.LAYOUT(), Vec2.LAYOUT(), ADDRESS, JAVA_INT);
+		B2_CLIP_VECTOR = downcallHandle("b2ClipVector", Vec2.LAYOUT(), Vec2.LAYOUT(), ADDRESS, JAVA_INT);
+	}
+
+	private Mover() {
+
+	}
+
+	/**
+	 * Solves the position of a mover that satisfies the given collision planes.
+	 * 
+	 * @param targetDelta the desired movement from the position used to generate
+	 *                    the collision planes
+	 * @param planes      the collision planes
+	 * @param count       the number of collision planes
+	 */
+	public static PlaneSolverResult solvePlanes(PlaneSolverResult target, Vec2 targetDelta, MemorySegment planes,
+			int count) {
+		try {
+			SegmentAllocator allocator = target.allocator();
+			MemorySegment deltaAddr = targetDelta.memorySegment();
+			B2_SOLVE_PLANES.invoke(allocator, deltaAddr, planes, count);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot solve planes: " + className);
+		}
+	}
+
+	/**
+	 * Solves the position of a mover that satisfies the given collision planes.
+	 */
+	public static PlaneSolverResult solvePlanes(PlaneSolverResult target, Vector2f targetDelta, MemorySegment planes,
+			int count) {
+		try (Arena arena = Arena.ofConfined()) {
+			return solvePlanes(target, new Vec2(arena, targetDelta.x, targetDelta.y), planes, count);
+		}
+	}
+
+	/**
+	 * Solves the position of a mover that satisfies the given collision planes.
+	 */
+	public static PlaneSolverResult solvePlanes(Vector2f targetDelta, MemorySegment planes, int count) {
+		return solvePlanes(new PlaneSolverResult(), targetDelta, planes, count);
+	}
+
+	/**
+	 * Clips the velocity against the given collision planes. Planes with zero push
+	 * or clipVelocity set to false are skipped.
+	 */
+	public static Vec2 clipVector(Vec2 target, Vec2 vector, MemorySegment planes, int count) {
+		try {
+			SegmentAllocator allocator = SegmentAllocator.prefixAllocator(target.memorySegment());
+			MemorySegment vectorAddr = vector.memorySegment();
+			B2_CLIP_VECTOR.invoke(allocator, vectorAddr, planes, count);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot clip vector: " + className);
+		}
+	}
+
+	/**
+	 * Clips the velocity against the given collision planes. Planes with zero push
+	 * or clipVelocity set to false are skipped.
+	 */
+	public static Vector2f clipVector(Vector2f target, Vector2f vector, MemorySegment planes, int count) {
+		try (Arena arena = Arena.ofConfined()) {
+			Vec2 result = clipVector(new Vec2(arena), new Vec2(arena, vector.x, vector.y), planes, count);
+			return result.get(target);
+		}
+	}
+
+	/**
+	 * Clips the velocity against the given collision planes. Planes with zero push
+	 * or clipVelocity set to false are skipped.
+	 */
+	public static Vector2f clipVector(Vector2f vector, MemorySegment planes, int count) {
+		return clipVector(new Vector2f(), vector, planes, count);
+	}
+
+}
@@ -0,0 +1,105 @@
+package volucris.engine.physics.box2d.collision;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.VarHandle;
+
+import org.joml.Vector2f;
+
+import volucris.engine.physics.box2d.math.Plane;
+import volucris.engine.physics.box2d.math.Vec2;
+
+import static java.lang.foreign.ValueLayout.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * These are the collision planes returned from b2World_CollideMover.
+ */
+public final class PlaneResult {
+
+	private static final StructLayout LAYOUT;
+
+	private static final VarHandle HIT;
+
+	private static final long PLANE_OFFSET;
+	private static final long POINT_OFFSET;
+
+	private final MemorySegment b2PlaneResult;
+
+	private final Plane plane;
+	private final Vec2 point;
+
+	static {
+		//@formatter:off
+		LAYOUT = MemoryLayout.structLayout(
+				Plane.LAYOUT().withName("plane"),
+				Vec2.LAYOUT().withName("point"),
+				JAVA_BOOLEAN.withName("hit"),
+				MemoryLayout.paddingLayout(3)
+			).withName("b2PlaneResult");
+		//@formatter:on
+
+		HIT = varHandle(LAYOUT, "hit");
+
+		PLANE_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("plane"));
+		POINT_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("point"));
+	}
+
+	public PlaneResult() {
+		this(Arena.ofAuto());
+	}
+
+	public PlaneResult(Arena arena) {
+		this(arena.allocate(LAYOUT));
+	}
+
+	public PlaneResult(MemorySegment memorySegment) {
+		b2PlaneResult = memorySegment;
+
+		plane = new Plane(b2PlaneResult.asSlice(PLANE_OFFSET, Plane.LAYOUT()));
+		point = new Vec2(b2PlaneResult.asSlice(POINT_OFFSET, Vec2.LAYOUT()));
+	}
+
+	public void set(MemorySegment memorySegment) {
+		MemorySegment.copy(memorySegment, 0, b2PlaneResult, 0, LAYOUT.byteSize());
+	}
+
+	/**
+	 * The collision plane between the mover and a convex shape.
+	 */
+	public Plane getPlane() {
+		return plane;
+	}
+
+	/**
+	 * The collision point on the shape.
+	 */
+	public Vector2f getPoint(Vector2f target) {
+		return point.get(target);
+	}
+
+	/**
+	 * The collision point on the shape.
+	 */
+	public Vector2f getPoint() {
+		return getPoint(new Vector2f());
+	}
+
+	/**
+	 * Did the collision register a hit? If not this plane should be ignored.
+	 */
+	public boolean getHit() {
+		return (boolean) HIT.get(b2PlaneResult);
+	}
+
+	public MemorySegment memorySegment() {
+		return b2PlaneResult;
+	}
+
+	public static StructLayout LAYOUT() {
+		return LAYOUT;
+	}
+
+}
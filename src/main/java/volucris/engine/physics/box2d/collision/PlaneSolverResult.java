@@ -0,0 +1,118 @@
+package volucris.engine.physics.box2d.collision;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.VarHandle;
+
+import org.joml.Vector2f;
+
+import volucris.engine.physics.box2d.math.Vec2;
+
+import static java.lang.foreign.ValueLayout.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * Result returned by {@link Mover#solvePlanes}.
+ */
+public final class PlaneSolverResult {
+
+	private static final StructLayout LAYOUT;
+
+	private static final VarHandle ITERATION_COUNT;
+
+	private static final long TRANSLATION_OFFSET;
+
+	private final MemorySegment b2PlaneSolverResult;
+
+	private final Vec2 translation;
+
+	private SegmentAllocator allocator;
+
+	static {
+		//@formatter:off
+		LAYOUT = MemoryLayout.structLayout(
+				Vec2.LAYOUT().withName("translation"),
+				JAVA_INT.withName("iterationCount")
+			).withName("b2PlaneSolverResult");
+		//@formatter:on
+
+		ITERATION_COUNT = varHandle(LAYOUT, "iterationCount");
+
+		TRANSLATION_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("translation"));
+	}
+
+	public PlaneSolverResult() {
+		this(Arena.ofAuto());
+	}
+
+	public PlaneSolverResult(Arena arena) {
+		this(arena.allocate(LAYOUT));
+	}
+
+	public PlaneSolverResult(MemorySegment memorySegment) {
+		b2PlaneSolverResult = memorySegment;
+
+		translation = new Vec2(b2PlaneSolverResult.asSlice(TRANSLATION_OFFSET, Vec2.LAYOUT()));
+	}
+
+	public void set(MemorySegment memorySegment) {
+		MemorySegment.copy(memorySegment, 0, b2PlaneSolverResult, 0, LAYOUT.byteSize());
+	}
+
+	/**
+	 * The final position of the mover.
+	 */
+	public Vector2f getTranslation(Vector2f target) {
+		return translation.get(target);
+	}
+
+	/**
+	 * The final position of the mover.
+	 */
+	public Vector2f getTranslation() {
+		return getTranslation(new Vector2f());
+	}
+
+	/**
+	 * The final position of the mover.
+	 */
+	public float getTranslationX() {
+		return translation.getX();
+	}
+
+	/**
+	 * The final position of the mover.
+	 */
+	public float getTranslationY() {
+		return translation.getY();
+	}
+
+	/**
+	 * The number of iterations used by the plane solver. For diagnostics.
+	 */
+	public int getIterationCount() {
+		return (int) ITERATION_COUNT.get(b2PlaneSolverResult);
+	}
+
+	/**
+	 * Allocator that hands out this result's own memory, so downcalls returning a
+	 * b2PlaneSolverResult by value write straight into it.
+	 */
+	SegmentAllocator allocator() {
+		if (allocator == null)
+			allocator = SegmentAllocator.prefixAllocator(b2PlaneSolverResult);
+		return allocator;
+	}
+
+	public MemorySegment memorySegment() {
+		return b2PlaneSolverResult;
+	}
+
+	public static StructLayout LAYOUT() {
+		return LAYOUT;
+	}
+
+}
@@ -0,0 +1,143 @@
+package volucris.engine.physics.box2d.collision;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.VarHandle;
+
+import org.joml.Vector2f;
+
+import volucris.engine.physics.box2d.math.Vec2;
+
+import static java.lang.foreign.ValueLayout.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * Result of computing the distance between two line segments.
+ */
+public final class SegmentDistanceResult {
+
+	private static final StructLayout LAYOUT;
+
+	private static final VarHandle FRACTION1;
+	private static final VarHandle FRACTION2;
+	private static final VarHandle DISTANCE_SQUARED;
+
+	private static final long CLOSEST1_OFFSET;
+	private static final long CLOSEST2_OFFSET;
+
+	private final MemorySegment b2SegmentDistanceResult;
+
+	private final Vec2 closest1;
+	private final Vec2 closest2;
+
+	private SegmentAllocator allocator;
+
+	static {
+		//@formatter:off
+		LAYOUT = MemoryLayout.structLayout(
+				Vec2.LAYOUT().withName("closest1"),
+				Vec2.LAYOUT().withName("closest2"),
+				JAVA_FLOAT.withName("fraction1"),
+				JAVA_FLOAT.withName("fraction2"),
+				JAVA_FLOAT.withName("distanceSquared")
+			).withName("b2SegmentDistanceResult");
+		//@formatter:on
+
+		FRACTION1 = varHandle(LAYOUT, "fraction1");
+		FRACTION2 = varHandle(LAYOUT, "fraction2");
+		DISTANCE_SQUARED = varHandle(LAYOUT, "distanceSquared");
+
+		CLOSEST1_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("closest1"));
+		CLOSEST2_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("closest2"));
+	}
+
+	public SegmentDistanceResult() {
+		this(Arena.ofAuto());
+	}
+
+	public SegmentDistanceResult(Arena arena) {
+		this(arena.allocate(LAYOUT));
+	}
+
+	public SegmentDistanceResult(MemorySegment memorySegment) {
+		b2SegmentDistanceResult = memorySegment;
+
+		closest1 = new Vec2(b2SegmentDistanceResult.asSlice(CLOSEST1_OFFSET, Vec2.LAYOUT()));
+		closest2 = new Vec2(b2SegmentDistanceResult.asSlice(CLOSEST2_OFFSET, Vec2.LAYOUT()));
+	}
+
+	public void set(MemorySegment memorySegment) {
+		MemorySegment.copy(memorySegment, 0, b2SegmentDistanceResult, 0, LAYOUT.byteSize());
+	}
+
+	/**
+	 * The closest point on the first segment.
+	 */
+	public Vector2f getClosest1(Vector2f target) {
+		return closest1.get(target);
+	}
+
+	/**
+	 * The closest point on the first segment.
+	 */
+	public Vector2f getClosest1() {
+		return getClosest1(new Vector2f());
+	}
+
+	/**
+	 * The closest point on the second segment.
+	 */
+	public Vector2f getClosest2(Vector2f target) {
+		return closest2.get(target);
+	}
+
+	/**
+	 * The closest point on the second segment.
+	 */
+	public Vector2f getClosest2() {
+		return getClosest2(new Vector2f());
+	}
+
+	/**
+	 * The barycentric coordinate on the first segment.
+	 */
+	public float getFraction1() {
+		return (float) FRACTION1.get(b2SegmentDistanceResult);
+	}
+
+	/**
+	 * The barycentric coordinate on the second segment.
+	 */
+	public float getFraction2() {
+		return (float) FRACTION2.get(b2SegmentDistanceResult);
+	}
+
+	/**
+	 * The squared distance between the closest points.
+	 */
+	public float getDistanceSquared() {
+		return (float) DISTANCE_SQUARED.get(b2SegmentDistanceResult);
+	}
+
+	/**
+	 * Allocator that hands out this result's own memory, so downcalls returning a
+	 * b2SegmentDistanceResult by value write straight into it.
+	 */
+	SegmentAllocator allocator() {
+		if (allocator == null)
+			allocator = SegmentAllocator.prefixAllocator(b2SegmentDistanceResult);
+		return allocator;
+	}
+
+	public MemorySegment memorySegment() {
+		return b2SegmentDistanceResult;
+	}
+
+	public static StructLayout LAYOUT() {
+		return LAYOUT;
+	}
+
+}
@@ -0,0 +1,206 @@
+package volucris.engine.physics.box2d.collision;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.VarHandle;
+
+import org.joml.Vector2f;
+
+import volucris.engine.physics.box2d.geometry.ShapeProxy;
+import volucris.engine.physics.box2d.math.Transform;
+import volucris.engine.physics.box2d.math.Vec2;
+
+import static java.lang.foreign.ValueLayout.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * Input parameters for {@link Distance#shapeCast}.
+ */
+public final class ShapeCastPairInput {
+
+	private static final StructLayout LAYOUT;
+
+	private static final VarHandle MAX_FRACTION;
+	private static final VarHandle CAN_ENCROACH;
+
+	private static final long PROXY_A_OFFSET;
+	private static final long PROXY_B_OFFSET;
+	private static final long TRANSFORM_A_OFFSET;
+	private static final long TRANSFORM_B_OFFSET;
+	private static final long TRANSLATION_B_OFFSET;
+
+	private final MemorySegment b2ShapeCastPairInput;
+
+	private final ShapeProxy proxyA;
+	private final ShapeProxy proxyB;
+	private final Transform transformA;
+	private final Transform transformB;
+	private final Vec2 translationB;
+
+	static {
+		//@formatter:off
+		LAYOUT = MemoryLayout.structLayout(
+				ShapeProxy.LAYOUT().withName("proxyA"),
+				ShapeProxy.LAYOUT().withName("proxyB"),
+				Transform.LAYOUT().withName("transformA"),
+				Transform.LAYOUT().withName("transformB"),
+				Vec2.LAYOUT().withName("translationB"),
+				JAVA_FLOAT.withName("maxFraction"),
+				JAVA_BOOLEAN.withName("canEncroach"),
+				MemoryLayout.paddingLayout(3)
+			).withName("b2ShapeCastPairInput");
+		//@formatter:on
+
+		MAX_FRACTION = varHandle(LAYOUT, "maxFraction");
+		CAN_ENCROACH = varHandle(LAYOUT, "canEncroach");
+
+		PROXY_A_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("proxyA"));
+		PROXY_B_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("proxyB"));
+		TRANSFORM_A_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("transformA"));
+		TRANSFORM_B_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("transformB"));
+		TRANSLATION_B_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("translationB"));
+	}
+
+	public ShapeCastPairInput() {
+		this(Arena.ofAuto());
+	}
+
+	public ShapeCastPairInput(Arena arena) {
+		this(arena.allocate(LAYOUT));
+		setMaxFraction(1.0f);
+	}
+
+	public ShapeCastPairInput(MemorySegment memorySegment) {
+		b2ShapeCastPairInput = memorySegment;
+
+		proxyA = new ShapeProxy(b2ShapeCastPairInput.asSlice(PROXY_A_OFFSET, ShapeProxy.LAYOUT()));
+		proxyB = new ShapeProxy(b2ShapeCastPairInput.asSlice(PROXY_B_OFFSET, ShapeProxy.LAYOUT()));
+		transformA = new Transform(b2ShapeCastPairInput.asSlice(TRANSFORM_A_OFFSET, Transform.LAYOUT()));
+		transformB = new Transform(b2ShapeCastPairInput.asSlice(TRANSFORM_B_OFFSET, Transform.LAYOUT()));
+		translationB = new Vec2(b2ShapeCastPairInput.asSlice(TRANSLATION_B_OFFSET, Vec2.LAYOUT()));
+	}
+
+	public void set(MemorySegment memorySegment) {
+		MemorySegment.copy(memorySegment, 0, b2ShapeCastPairInput, 0, LAYOUT.byteSize());
+	}
+
+	/**
+	 * The proxy for shape A.
+	 */
+	public ShapeProxy getProxyA() {
+		return proxyA;
+	}
+
+	/**
+	 * The proxy for shape A.
+	 */
+	public void setProxyA(ShapeProxy proxy) {
+		proxyA.set(proxy.memorySegment());
+	}
+
+	/**
+	 * The proxy for shape B.
+	 */
+	public ShapeProxy getProxyB() {
+		return proxyB;
+	}
+
+	/**
+	 * The proxy for shape B.
+	 */
+	public void setProxyB(ShapeProxy proxy) {
+		proxyB.set(proxy.memorySegment());
+	}
+
+	/**
+	 * The world transform for shape A.
+	 */
+	public Transform getTransformA() {
+		return transformA;
+	}
+
+	/**
+	 * The world transform for shape A.
+	 */
+	public void setTransformA(Transform transform) {
+		transformA.set(transform.memorySegment());
+	}
+
+	/**
+	 * The world transform for shape B.
+	 */
+	public Transform getTransformB() {
+		return transformB;
+	}
+
+	/**
+	 * The world transform for shape B.
+	 */
+	public void setTransformB(Transform transform) {
+		transformB.set(transform.memorySegment());
+	}
+
+	/**
+	 * The translation of shape B.
+	 */
+	public Vector2f getTranslationB(Vector2f target) {
+		return translationB.get(target);
+	}
+
+	/**
+	 * The translation of shape B.
+	 */
+	public Vector2f getTranslationB() {
+		return getTranslationB(new Vector2f());
+	}
+
+	/**
+	 * The translation of shape B.
+	 */
+	public void setTranslationB(float x, float y) {
+		translationB.set(x, y);
+	}
+
+	/**
+	 * The translation of shape B.
+	 */
+	public void setTranslationB(Vector2f translation) {
+		translationB.set(translation);
+	}
+
+	/**
+	 * The fraction of the translation to consider, typically 1.
+	 */
+	public float getMaxFraction() {
+		return (float) MAX_FRACTION.get(b2ShapeCastPairInput);
+	}
+
+	/**
+	 * The fraction of the translation to consider, typically 1.
+	 */
+	public void setMaxFraction(float maxFraction) {
+		MAX_FRACTION.set(b2ShapeCastPairInput, maxFraction);
+	}
+
+	public boolean canEncroach() {
+		return (boolean) CAN_ENCROACH.get(b2ShapeCastPairInput);
+	}
+
+	/**
+	 * Allows shapes with a radius to move slightly closer if already touching.
+	 */
+	public void setCanEncroach(boolean canEncroach) {
+		CAN_ENCROACH.set(b2ShapeCastPairInput, canEncroach);
+	}
+
+	public MemorySegment memorySegment() {
+		return b2ShapeCastPairInput;
+	}
+
+	public static StructLayout LAYOUT() {
+		return LAYOUT;
+	}
+
+}
@@ -0,0 +1,77 @@
+package volucris.engine.physics.box2d.collision;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.VarHandle;
+
+import static java.lang.foreign.ValueLayout.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * Used to warm start the GJK simplex. If you call this function multiple times
+ * with nearby transforms this might improve performance. Otherwise you can
+ * zero initialize this. The distance cache must be initialized to zero on the
+ * first call. Users should generally just zero initialize this structure for
+ * each call.
+ */
+public final class SimplexCache {
+
+	private static final StructLayout LAYOUT;
+
+	private static final VarHandle COUNT;
+
+	private final MemorySegment b2SimplexCache;
+
+	static {
+		//@formatter:off
+		LAYOUT = MemoryLayout.structLayout(
+				JAVA_SHORT.withName("count"),
+				MemoryLayout.sequenceLayout(3, JAVA_BYTE).withName("indexA"),
+				MemoryLayout.sequenceLayout(3, JAVA_BYTE).withName("indexB")
+			).withName("b2SimplexCache");
+		//@formatter:on
+
+		COUNT = varHandle(LAYOUT, "count");
+	}
+
+	public SimplexCache() {
+		this(Arena.ofAuto());
+	}
+
+	public SimplexCache(Arena arena) {
+		b2SimplexCache = arena.allocate(LAYOUT);
+	}
+
+	public SimplexCache(MemorySegment memorySegment) {
+		b2SimplexCache = memorySegment;
+	}
+
+	public void set(MemorySegment memorySegment) {
+		MemorySegment.copy(memorySegment, 0, b2SimplexCache, 0, LAYOUT.byteSize());
+	}
+
+	/**
+	 * Zero the cache, e.g. when the shapes of a persistent pair changed.
+	 */
+	public void reset() {
+		b2SimplexCache.fill((byte) 0);
+	}
+
+	/**
+	 * The number of stored simplex points.
+	 */
+	public int getCount() {
+		return Short.toUnsignedInt((short) COUNT.get(b2SimplexCache));
+	}
+
+	public MemorySegment memorySegment() {
+		return b2SimplexCache;
+	}
+
+	public static StructLayout LAYOUT() {
+		return LAYOUT;
+	}
+
+}
@@ -0,0 +1,188 @@
+package volucris.engine.physics.box2d.collision;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.MethodHandle;
+
+import org.joml.Vector2f;
+
+import volucris.engine.physics.box2d.math.Rot;
+import volucris.engine.physics.box2d.math.Transform;
+import volucris.engine.physics.box2d.math.Vec2;
+import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
+
+import static java.lang.foreign.ValueLayout.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * This describes the motion of a body/shape for TOI computation. Shapes are
+ * defined with respect to the body origin, which may not coincide with the
+ * center of mass. However, to support dynamics we must interpolate the center
+ * of mass position.
+ */
+public final class Sweep {
+
+	private static final StructLayout LAYOUT;
+
+	private static final MethodHandle B2_GET_SWEEP_TRANSFORM;
+
+	private static final long LOCAL_CENTER_OFFSET;
+	private static final long C1_OFFSET;
+	private static final long C2_OFFSET;
+	private static final long Q1_OFFSET;
+	private static final long Q2_OFFSET;
+
+	private final MemorySegment b2Sweep;
+
+	private final Vec2 localCenter;
+	private final Vec2 c1;
+	private final Vec2 c2;
+	private final Rot q1;
+	private final Rot q2;
+
+	static {
+		//@formatter:off
+		LAYOUT = MemoryLayout.structLayout(
+				Vec2.LAYOUT().withName("localCenter"),
+				Vec2.LAYOUT().withName("c1"),
+				Vec2.LAYOUT().withName("c2"),
+				Rot.LAYOUT().withName("q1"),
+				Rot.LAYOUT().withName("q2")
+			).withName("b2Sweep");
+		//@formatter:on
+
+		B2_GET_SWEEP_TRANSFORM = downcallHandle("b2GetSweepTransform", Transform.LAYOUT(), ADDRESS, JAVA_FLOAT);
+
+		LOCAL_CENTER_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("localCenter"));
+		C1_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("c1"));
+		C2_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("c2"));
+		Q1_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("q1"));
+		Q2_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("q2"));
+	}
+
+	public Sweep() {
+		this(Arena.ofAuto());
+	}
+
+	public Sweep(Arena arena) {
+		this(arena.allocate(LAYOUT));
+		q1.setAngleRadians(0.0f);
+		q2.setAngleRadians(0.0f);
+	}
+
+	public Sweep(MemorySegment memorySegment) {
+		b2Sweep = memorySegment;
+
+		localCenter = new Vec2(b2Sweep.asSlice(LOCAL_CENTER_OFFSET, Vec2.LAYOUT()));
+		c1 = new Vec2(b2Sweep.asSlice(C1_OFFSET, Vec2.LAYOUT()));
+		c2 = new Vec2(b2Sweep.asSlice(C2_OFFSET, Vec2.LAYOUT()));
+		q1 = new Rot(b2Sweep.asSlice(Q1_OFFSET, Rot.LAYOUT()));
+		q2 = new Rot(b2Sweep.asSlice(Q2_OFFSET, Rot.LAYOUT()));
+	}
+
+	public void set(MemorySegment memorySegment) {
+		MemorySegment.copy(memorySegment, 0, b2Sweep, 0, LAYOUT.byteSize());
+	}
+
+	/**
+	 * Evaluate the transform sweep at a specific time.
+	 */
+	public Transform getTransform(Transform target, float time) {
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment segment = (MemorySegment) B2_GET_SWEEP_TRANSFORM.invoke(arena, b2Sweep, time);
+			target.set(segment);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot get sweep transform: " + className);
+		}
+	}
+
+	/**
+	 * Evaluate the transform sweep at a specific time.
+	 */
+	public Transform getTransform(float time) {
+		return getTransform(new Transform(), time);
+	}
+
+	/**
+	 * Local center of mass position.
+	 */
+	public Vector2f getLocalCenter(Vector2f target) {
+		return localCenter.get(target);
+	}
+
+	/**
+	 * Local center of mass position.
+	 */
+	public void setLocalCenter(float x, float y) {
+		localCenter.set(x, y);
+	}
+
+	/**
+	 * Starting center of mass world position.
+	 */
+	public Vector2f getC1(Vector2f target) {
+		return c1.get(target);
+	}
+
+	/**
+	 * Starting center of mass world position.
+	 */
+	public void setC1(float x, float y) {
+		c1.set(x, y);
+	}
+
+	/**
+	 * Ending center of mass world position.
+	 */
+	public Vector2f getC2(Vector2f target) {
+		return c2.get(target);
+	}
+
+	/**
+	 * Ending center of mass world position.
+	 */
+	public void setC2(float x, float y) {
+		c2.set(x, y);
+	}
+
+	/**
+	 * Starting world rotation in radians.
+	 */
+	public float getRotation1Radians() {
+		return q1.getAngleRadians();
+	}
+
+	/**
+	 * Starting world rotation in radians.
+	 */
+	public void setRotation1Radians(float rotation) {
+		q1.setAngleRadians(rotation);
+	}
+
+	/**
+	 * Ending world rotation in radians.
+	 */
+	public float getRotation2Radians() {
+		return q2.getAngleRadians();
+	}
+
+	/**
+	 * Ending world rotation in radians.
+	 */
+	public void setRotation2Radians(float rotation) {
+		q2.setAngleRadians(rotation);
+	}
+
+	public MemorySegment memorySegment() {
+		return b2Sweep;
+	}
+
+	public static StructLayout LAYOUT() {
+		return LAYOUT;
+	}
+
+}
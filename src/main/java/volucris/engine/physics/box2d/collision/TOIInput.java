@@ -0,0 +1,158 @@
+package volucris.engine.physics.box2d.collision;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.VarHandle;
+
+import volucris.engine.physics.box2d.geometry.ShapeProxy;
+
+import static java.lang.foreign.ValueLayout.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * Input parameters for {@link Distance#timeOfImpact}.
+ */
+public final class TOIInput {
+
+	private static final StructLayout LAYOUT;
+
+	private static final VarHandle MAX_FRACTION;
+
+	private static final long PROXY_A_OFFSET;
+	private static final long PROXY_B_OFFSET;
+	private static final long SWEEP_A_OFFSET;
+	private static final long SWEEP_B_OFFSET;
+
+	private final MemorySegment b2TOIInput;
+
+	private final ShapeProxy proxyA;
+	private final ShapeProxy proxyB;
+	private final Sweep sweepA;
+	private final Sweep sweepB;
+
+	static {
+		//@formatter:off
+		LAYOUT = MemoryLayout.structLayout(
+				ShapeProxy.LAYOUT().withName("proxyA"),
+				ShapeProxy.LAYOUT().withName("proxyB"),
+				Sweep.LAYOUT().withName("sweepA"),
+				Sweep.LAYOUT().withName("sweepB"),
+				JAVA_FLOAT.withName("maxFraction")
+			).withName("b2TOIInput");
+		//@formatter:on
+
+		MAX_FRACTION = varHandle(LAYOUT, "maxFraction");
+
+		PROXY_A_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("proxyA"));
+		PROXY_B_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("proxyB"));
+		SWEEP_A_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("sweepA"));
+		SWEEP_B_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("sweepB"));
+	}
+
+	public TOIInput() {
+		this(Arena.ofAuto());
+	}
+
+	public TOIInput(Arena arena) {
+		this(arena.allocate(LAYOUT));
+		sweepA.setRotation1Radians(0.0f);
+		sweepA.setRotation2Radians(0.0f);
+		sweepB.setRotation1Radians(0.0f);
+		sweepB.setRotation2Radians(0.0f);
+		setMaxFraction(1.0f);
+	}
+
+	public TOIInput(MemorySegment memorySegment) {
+		b2TOIInput = memorySegment;
+
+		proxyA = new ShapeProxy(b2TOIInput.asSlice(PROXY_A_OFFSET, ShapeProxy.LAYOUT()));
+		proxyB = new ShapeProxy(b2TOIInput.asSlice(PROXY_B_OFFSET, ShapeProxy.LAYOUT()));
+		sweepA = new Sweep(b2TOIInput.asSlice(SWEEP_A_OFFSET, Sweep.LAYOUT()));
+		sweepB = new Sweep(b2TOIInput.asSlice(SWEEP_B_OFFSET, Sweep.LAYOUT()));
+	}
+
+	public void set(MemorySegment memorySegment) {
+		MemorySegment.copy(memorySegment, 0, b2TOIInput, 0, LAYOUT.byteSize());
+	}
+
+	/**
+	 * The proxy for shape A.
+	 */
+	public ShapeProxy getProxyA() {
+		return proxyA;
+	}
+
+	/**
+	 * The proxy for shape A.
+	 */
+	public void setProxyA(ShapeProxy proxy) {
+		proxyA.set(proxy.memorySegment());
+	}
+
+	/**
+	 * The proxy for shape B.
+	 */
+	public ShapeProxy getProxyB() {
+		return proxyB;
+	}
+
+	/**
+	 * The proxy for shape B.
+	 */
+	public void setProxyB(ShapeProxy proxy) {
+		proxyB.set(proxy.memorySegment());
+	}
+
+	/**
+	 * The movement of shape A.
+	 */
+	public Sweep getSweepA() {
+		return sweepA;
+	}
+
+	/**
+	 * The movement of shape A.
+	 */
+	public void setSweepA(Sweep sweep) {
+		sweepA.set(sweep.memorySegment());
+	}
+
+	/**
+	 * The movement of shape B.
+	 */
+	public Sweep getSweepB() {
+		return sweepB;
+	}
+
+	/**
+	 * The movement of shape B.
+	 */
+	public void setSweepB(Sweep sweep) {
+		sweepB.set(sweep.memorySegment());
+	}
+
+	/**
+	 * Defines the sweep interval [0, maxFraction].
+	 */
+	public float getMaxFraction() {
+		return (float) MAX_FRACTION.get(b2TOIInput);
+	}
+
+	/**
+	 * Defines the sweep interval [0, maxFraction].
+	 */
+	public void setMaxFraction(float maxFraction) {
+		MAX_FRACTION.set(b2TOIInput, maxFraction);
+	}
+
+	public MemorySegment memorySegment() {
+		return b2TOIInput;
+	}
+
+	public static StructLayout LAYOUT() {
+		return LAYOUT;
+	}
+
+}
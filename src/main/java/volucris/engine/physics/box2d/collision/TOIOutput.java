@@ -0,0 +1,95 @@
+package volucris.engine.physics.box2d.collision;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.VarHandle;
+
+import static java.lang.foreign.ValueLayout.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * Output parameters for {@link Distance#timeOfImpact}.
+ */
+public final class TOIOutput {
+
+	private static final StructLayout LAYOUT;
+
+	private static final VarHandle STATE;
+	private static final VarHandle FRACTION;
+
+	private final MemorySegment b2TOIOutput;
+
+	private SegmentAllocator allocator;
+
+	static {
+		//@formatter:off
+		LAYOUT = MemoryLayout.structLayout(
+				JAVA_INT.withName("state"),
+				JAVA_FLOAT.withName("fraction")
+			).withName("b2TOIOutput");
+		//@formatter:on
+
+		STATE = varHandle(LAYOUT, "state");
+		FRACTION = varHandle(LAYOUT, "fraction");
+	}
+
+	public TOIOutput() {
+		this(Arena.ofAuto());
+	}
+
+	public TOIOutput(Arena arena) {
+		b2TOIOutput = arena.allocate(LAYOUT);
+	}
+
+	public TOIOutput(MemorySegment memorySegment) {
+		b2TOIOutput = memorySegment;
+	}
+
+	public void set(MemorySegment memorySegment) {
+		MemorySegment.copy(memorySegment, 0, b2TOIOutput, 0, LAYOUT.byteSize());
+	}
+
+	/**
+	 * The type of result.
+	 */
+	public TOIState getState() {
+		int state = (int) STATE.get(b2TOIOutput);
+
+		return switch (state) {
+		case 1 -> TOIState.FAILED;
+		case 2 -> TOIState.OVERLAPPED;
+		case 3 -> TOIState.HIT;
+		case 4 -> TOIState.SEPARATED;
+		default -> TOIState.UNKNOWN;
+		};
+	}
+
+	/**
+	 * The sweep time of the collision.
+	 */
+	public float getFraction() {
+		return (float) FRACTION.get(b2TOIOutput);
+	}
+
+	/**
+	 * Allocator that hands out this output's own memory, so downcalls returning a
+	 * b2TOIOutput by value write straight into it.
+	 */
+	SegmentAllocator allocator() {
+		if (allocator == null)
+			allocator = SegmentAllocator.prefixAllocator(b2TOIOutput);
+		return allocator;
+	}
+
+	public MemorySegment memorySegment() {
+		return b2TOIOutput;
+	}
+
+	public static StructLayout LAYOUT() {
+		return LAYOUT;
+	}
+
+}
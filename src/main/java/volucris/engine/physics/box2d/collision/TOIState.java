@@ -0,0 +1,26 @@
+package volucris.engine.physics.box2d.collision;
+
+/**
+ * Describes the TOI output.
+ * <ul>
+ * <li>UNKNOWN
+ * <li>FAILED
+ * <li>OVERLAPPED
+ * <li>HIT
+ * <li>SEPARATED
+ * </ul>
+ */
+public enum TOIState {
+	UNKNOWN(0), FAILED(1), OVERLAPPED(2), HIT(3), SEPARATED(4);
+
+	private int id;
+
+	TOIState(int id) {
+		this.id = id;
+	}
+
+	public int id() {
+		return id;
+	}
+
+}
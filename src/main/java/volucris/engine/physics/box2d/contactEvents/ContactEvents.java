@@ -139,6 +139,35 @@ public final class ContactEvents {
 
 	}
 
+	/**
+	 * The raw b2ContactBeginTouchEvent array. Holds {@link #getBeginCount()}
+	 * events laid out as {@link ContactBeginTouchEvent#LAYOUT()}. Only valid until
+	 * the next step.
+	 */
+	public MemorySegment getBeginEvents() {
+		MemorySegment array = (MemorySegment) BEGIN_EVENTS.get(b2ContactEvents);
+		return array.asSlice(0L, getBeginCount() * ContactBeginTouchEvent.LAYOUT().byteSize());
+	}
+
+	/**
+	 * The raw b2ContactEndTouchEvent array. Holds {@link #getEndCount()} events
+	 * laid out as {@link ContactEndTouchEvent#LAYOUT()}. Only valid until the next
+	 * step.
+	 */
+	public MemorySegment getEndEvents() {
+		MemorySegment array = (MemorySegment) END_EVENTS.get(b2ContactEvents);
+		return array.asSlice(0L, getEndCount() * ContactEndTouchEvent.LAYOUT().byteSize());
+	}
+
+	/**
+	 * The raw b2ContactHitEvent array. Holds {@link #getHitCount()} events laid
+	 * out as {@link ContactHitEvent#LAYOUT()}. Only valid until the next step.
+	 */
+	public MemorySegment getHitEvents() {
+		MemorySegment array = (MemorySegment) HIT_EVENTS.get(b2ContactEvents);
+		return array.asSlice(0L, getHitCount() * ContactHitEvent.LAYOUT().byteSize());
+	}
+
 	/**
 	 * Number of begin touch events.
 	 */
@@ -4,6 +4,7 @@ import org.joml.Vector2f;
 
 import volucris.engine.physics.box2d.collision.Manifold;
 import volucris.engine.physics.box2d.shape.Shape;
+import volucris.engine.physics.box2d.world.EventCapture;
 import volucris.engine.physics.box2d.world.World;
 
 public abstract class ContactListener implements ContactBeginHandler, ContactEndHandler, ContactHitHandler {
@@ -23,6 +24,14 @@ public abstract class ContactListener implements ContactBeginHandler, ContactEnd
 	public final void handleContactEvents(World world) {
 		world.getContactEvents(contactEvents);
 
+		handleContactEvents(contactEvents);
+	}
+
+	/**
+	 * Handle previously captured contact events, for example of an
+	 * {@link EventCapture} frame.
+	 */
+	public final void handleContactEvents(ContactEvents contactEvents) {
 		contactEvents.handleBeginEvents(this);
 		contactEvents.handleEndEvents(this);
 		contactEvents.handleHitEvents(this);
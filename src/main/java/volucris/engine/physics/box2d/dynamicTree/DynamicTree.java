@@ -3,8 +3,10 @@ package volucris.engine.physics.box2d.dynamicTree;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
 import java.lang.foreign.StructLayout;
 import java.lang.invoke.MethodHandle;
+import java.nio.IntBuffer;
 
 import volucris.engine.physics.box2d.geometry.RayCastInput;
 import volucris.engine.physics.box2d.geometry.ShapeCastInput;
@@ -30,6 +32,9 @@ import static volucris.engine.physics.box2d.utils.FFMUtils.*;
  * use node indices rather than pointers. The dynamic tree is made available for
  * advanced users that would like to use it to organize spatial game data
  * besides rigid bodies.
+ * <p>
+ * For bulk loading and rebuilding on a background thread use a
+ * {@link JavaDynamicTree}, the native tree supports neither.
  */
 public final class DynamicTree {
 
@@ -59,6 +64,10 @@ public final class DynamicTree {
 
 	private final MemorySegment b2DynamicTree;
 
+	private MemorySegment batchAABB;
+	private MemorySegment batchStats;
+	private ProxyCollector proxyCollector;
+
 	static {
 		//@formatter:off
 		LAYOUT = MemoryLayout.structLayout(
@@ -190,6 +199,94 @@ public final class DynamicTree {
 		}
 	}
 
+	/**
+	 * Create {@code count} proxies. The AABBs are lowerX, lowerY, upperX, upperY
+	 * quadruples. Category bits and user data arrays of length 1 are used for all
+	 * proxies. The new proxy ids are written to {@code proxyIds}.
+	 * <p>
+	 * Box2D has no batch functions, so this still makes one downcall per proxy.
+	 * It only saves the argument checks and the AABB wrapper of the single proxy
+	 * methods.
+	 */
+	public void createProxies(float[] aabbs, long[] categoryBits, long[] userData, int count, int[] proxyIds) {
+		checkBatch(count, aabbs, 4, "AABB");
+		checkBatch(count, categoryBits, 1, "Category bits");
+		checkBatch(count, userData, 1, "User data");
+		checkBatch(count, proxyIds, "Proxy id");
+
+		MemorySegment aabb = batchAABB();
+		boolean sharedCategoryBits = categoryBits.length == 1;
+		boolean sharedUserData = userData.length == 1;
+
+		try {
+			for (int i = 0; i < count; i++) {
+				MemorySegment.copy(aabbs, 4 * i, aabb, JAVA_FLOAT, 0L, 4);
+
+				long category = categoryBits[sharedCategoryBits ? 0 : i];
+				long data = userData[sharedUserData ? 0 : i];
+				proxyIds[i] = (int) B2_DYNAMIC_TREE_CREATE_PROXY.invokeExact(b2DynamicTree, aabb, category, data);
+			}
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot create proxies: " + className);
+		}
+	}
+
+	/**
+	 * Destroy {@code count} proxies, one downcall each.
+	 */
+	public void destroyProxies(int[] proxyIds, int count) {
+		checkBatch(count, proxyIds, "Proxy id");
+
+		try {
+			for (int i = 0; i < count; i++)
+				B2_DYNAMIC_TREE_DESTROY_PROXY.invokeExact(b2DynamicTree, proxyIds[i]);
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot destroy proxies: " + className);
+		}
+	}
+
+	/**
+	 * Move {@code count} proxies to new AABBs, one downcall each. The AABBs are
+	 * lowerX, lowerY, upperX, upperY quadruples.
+	 */
+	public void moveProxies(int[] proxyIds, float[] aabbs, int count) {
+		checkBatch(count, proxyIds, "Proxy id");
+		checkBatch(count, aabbs, 4, "AABB");
+
+		MemorySegment aabb = batchAABB();
+		try {
+			for (int i = 0; i < count; i++) {
+				MemorySegment.copy(aabbs, 4 * i, aabb, JAVA_FLOAT, 0L, 4);
+				B2_DYNAMIC_TREE_MOVE_PROXY.invokeExact(b2DynamicTree, proxyIds[i], aabb);
+			}
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot move proxies: " + className);
+		}
+	}
+
+	/**
+	 * Enlarge {@code count} proxies, one downcall each. The AABBs are lowerX,
+	 * lowerY, upperX, upperY quadruples.
+	 */
+	public void enlargeProxies(int[] proxyIds, float[] aabbs, int count) {
+		checkBatch(count, proxyIds, "Proxy id");
+		checkBatch(count, aabbs, 4, "AABB");
+
+		MemorySegment aabb = batchAABB();
+		try {
+			for (int i = 0; i < count; i++) {
+				MemorySegment.copy(aabbs, 4 * i, aabb, JAVA_FLOAT, 0L, 4);
+				B2_DYNAMIC_TREE_ENLARGE_PROXY.invokeExact(b2DynamicTree, proxyIds[i], aabb);
+			}
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot enlarge proxies: " + className);
+		}
+	}
+
 	/**
 	 * Modify the category bits on a proxy. This is an expensive operation.
 	 */
@@ -244,6 +341,105 @@ public final class DynamicTree {
 		return query(new TreeStats(), aabb, maskBits, callback, context);
 	}
 
+	/**
+	 * Query an AABB for overlapping proxies. The handler is called for each proxy
+	 * that overlaps the supplied AABB and runs on the shared tree query upcall
+	 * stub.
+	 */
+	public TreeStats query(TreeStats target, AABB aabb, long maskBits, TreeQueryCallback.Handler handler) {
+		MemorySegment context = TreeQueryCallback.register(handler);
+		try {
+			return query(target, aabb, maskBits, TreeQueryCallback.shared(), context);
+		} finally {
+			TreeQueryCallback.release(context);
+		}
+	}
+
+	/**
+	 * Query an AABB for overlapping proxies. The handler is called for each proxy
+	 * that overlaps the supplied AABB and runs on the shared tree query upcall
+	 * stub.
+	 */
+	public TreeStats query(AABB aabb, long maskBits, TreeQueryCallback.Handler handler) {
+		return query(new TreeStats(), aabb, maskBits, handler);
+	}
+
+	/**
+	 * Query an AABB for overlapping proxies and write their ids to
+	 * {@code results}. Ids that do not fit are counted but not written.
+	 *
+	 * @return the number of overlapping proxies
+	 */
+	public int query(float lowerX, float lowerY, float upperX, float upperY, long maskBits, int[] results) {
+		ProxyCollector collector = proxyCollector();
+		collector.begin(results, null);
+		return query(collector, lowerX, lowerY, upperX, upperY, maskBits);
+	}
+
+	/**
+	 * Query an AABB for overlapping proxies and write their ids to
+	 * {@code results}. Ids that do not fit are counted but not written.
+	 *
+	 * @return the number of overlapping proxies
+	 */
+	public int query(AABB aabb, long maskBits, int[] results) {
+		ProxyCollector collector = proxyCollector();
+		collector.begin(results, null);
+		return query(collector, aabb.memorySegment(), maskBits);
+	}
+
+	/**
+	 * Query an AABB for overlapping proxies and put their ids into
+	 * {@code results}, starting at its position. Ids beyond its remaining space
+	 * are counted but not written.
+	 *
+	 * @return the number of overlapping proxies
+	 */
+	public int query(float lowerX, float lowerY, float upperX, float upperY, long maskBits, IntBuffer results) {
+		ProxyCollector collector = proxyCollector();
+		collector.begin(null, results);
+		return query(collector, lowerX, lowerY, upperX, upperY, maskBits);
+	}
+
+	/**
+	 * Query an AABB for overlapping proxies and put their ids into
+	 * {@code results}, starting at its position. Ids beyond its remaining space
+	 * are counted but not written.
+	 *
+	 * @return the number of overlapping proxies
+	 */
+	public int query(AABB aabb, long maskBits, IntBuffer results) {
+		ProxyCollector collector = proxyCollector();
+		collector.begin(null, results);
+		return query(collector, aabb.memorySegment(), maskBits);
+	}
+
+	private int query(ProxyCollector collector, float lowerX, float lowerY, float upperX, float upperY,
+			long maskBits) {
+		MemorySegment aabb = batchAABB();
+		aabb.setAtIndex(JAVA_FLOAT, 0, lowerX);
+		aabb.setAtIndex(JAVA_FLOAT, 1, lowerY);
+		aabb.setAtIndex(JAVA_FLOAT, 2, upperX);
+		aabb.setAtIndex(JAVA_FLOAT, 3, upperY);
+
+		return query(collector, aabb, maskBits);
+	}
+
+	private int query(ProxyCollector collector, MemorySegment aabb, long maskBits) {
+		try {
+			MethodHandle method = B2_DYNAMIC_TREE_QUERY;
+			SegmentAllocator allocator = SegmentAllocator.prefixAllocator(batchStats);
+			method.invoke(allocator, b2DynamicTree, aabb, maskBits, collector.memorySegment(), MemorySegment.NULL);
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot query dynamic tree: " + className);
+		} finally {
+			collector.end();
+		}
+
+		return collector.count;
+	}
+
 	/**
 	 * Ray cast against the proxies in the tree. This relies on the callback to
 	 * perform a exact ray cast in the case were the proxy contains a shape. The
@@ -438,6 +634,44 @@ public final class DynamicTree {
 		return getAABB(new AABB(), proxyId);
 	}
 
+	private MemorySegment batchAABB() {
+		if (batchAABB == null) {
+			Arena arena = Arena.ofAuto();
+			batchAABB = arena.allocate(AABB.LAYOUT());
+			batchStats = arena.allocate(TreeStats.LAYOUT());
+		}
+		return batchAABB;
+	}
+
+	private ProxyCollector proxyCollector() {
+		batchAABB();
+
+		if (proxyCollector == null)
+			proxyCollector = new ProxyCollector();
+		return proxyCollector;
+	}
+
+	private static void checkBatch(int count, float[] array, int stride, String name) {
+		if (count < 0)
+			throw new IllegalArgumentException("Negative count: " + count);
+		if (array.length < stride * count)
+			throw new ArrayIndexOutOfBoundsException(name + " range out of bounds: " + count);
+	}
+
+	private static void checkBatch(int count, long[] array, int stride, String name) {
+		if (count < 0)
+			throw new IllegalArgumentException("Negative count: " + count);
+		if (array.length != stride && array.length < stride * count)
+			throw new ArrayIndexOutOfBoundsException(name + " range out of bounds: " + count);
+	}
+
+	private static void checkBatch(int count, int[] array, String name) {
+		if (count < 0)
+			throw new IllegalArgumentException("Negative count: " + count);
+		if (array.length < count)
+			throw new ArrayIndexOutOfBoundsException(name + " range out of bounds: " + count);
+	}
+
 	/**
 	 * Validate this tree. For testing.
 	 */
@@ -470,4 +704,40 @@ public final class DynamicTree {
 		return LAYOUT;
 	}
 
+	/**
+	 * Writes the proxy ids of a query into an int array or buffer. One per tree,
+	 * so the upcall stub is created once.
+	 */
+	private static final class ProxyCollector extends TreeQueryCallback {
+
+		private int[] array;
+		private IntBuffer buffer;
+		private int count;
+
+		private void begin(int[] array, IntBuffer buffer) {
+			this.array = array;
+			this.buffer = buffer;
+			count = 0;
+		}
+
+		private void end() {
+			array = null;
+			buffer = null;
+		}
+
+		@Override
+		protected boolean treeQueryCallback(int proxyId, long userData, MemorySegment context) {
+			if (array != null) {
+				if (count < array.length)
+					array[count] = proxyId;
+			} else if (buffer.hasRemaining()) {
+				buffer.put(proxyId);
+			}
+
+			count++;
+			return true;
+		}
+
+	}
+
 }
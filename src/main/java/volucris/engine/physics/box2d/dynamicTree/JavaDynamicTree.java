@@ -0,0 +1,1739 @@
+package volucris.engine.physics.box2d.dynamicTree;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import volucris.engine.physics.box2d.geometry.RayCastInput;
+import volucris.engine.physics.box2d.math.AABB;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * A pure Java port of the Box2D dynamic tree for user side bounding volume
+ * hierarchies.
+ * <p>
+ * It has the same API as {@link DynamicTree} without the downcalls, so queries
+ * and ray casts with Java handlers never cross the native boundary. The nodes
+ * are stored in parallel primitive arrays instead of node objects. Insertion
+ * uses the same surface area heuristic and tree rotations as Box2D.
+ * <p>
+ * The tree itself is not thread safe, all methods must be called from one
+ * thread. {@link #publish()} copies the current nodes into an immutable
+ * {@link Snapshot}. Any number of threads may query and ray cast a snapshot
+ * without locks while the owner keeps modifying the tree. Readers see the
+ * state of the last publish. A publish without changes since the last one
+ * returns the same snapshot. Otherwise it copies the bounds, category bits,
+ * children and heights up to the highest node in use, and shares the user data
+ * with the last snapshot unless proxies were created since.
+ * <p>
+ * {@link #build} bulk loads a tree from arrays with a binned surface area
+ * heuristic instead of inserting proxies one at a time.
+ * {@link #rebuildAsync(Executor)} rebuilds a copy of the tree on another
+ * thread, publishes it when done and lets the owner swap it in with
+ * {@link #applyRebuild()}.
+ * <p>
+ * Bulk loading and background rebuilds only exist for this user managed tree.
+ * The broad-phase trees of a {@link volucris.engine.physics.box2d.world.World}
+ * and {@link DynamicTree} live in Box2D, which offers neither, so
+ * {@link volucris.engine.physics.box2d.world.World#rebuildStaticTree()} and
+ * {@link DynamicTree#rebuild(boolean)} still run on the calling thread. Keep
+ * level geometry that is only queried by game code, not simulated, in a
+ * JavaDynamicTree to load it this way.
+ */
+public final class JavaDynamicTree {
+
+	private static final int NULL_NODE = -1;
+
+	private static final int BIN_COUNT = 16;
+
+	private static final long LOWER_X_OFFSET;
+	private static final long LOWER_Y_OFFSET;
+	private static final long UPPER_X_OFFSET;
+	private static final long UPPER_Y_OFFSET;
+
+	private static final long ORIGIN_X_OFFSET;
+	private static final long ORIGIN_Y_OFFSET;
+	private static final long TRANSLATION_X_OFFSET;
+	private static final long TRANSLATION_Y_OFFSET;
+	private static final long MAX_FRACTION_OFFSET;
+
+	private static final ThreadLocal<TraversalStack> STACKS;
+
+	private final Nodes nodes;
+
+	private int freeList;
+	private long version;
+
+	private long publishedVersion;
+	private long[] publishedUserData;
+	private boolean userDataChanged;
+
+	private int[] leafIndices;
+	private float[] leafCentersX;
+	private float[] leafCentersY;
+
+	private float[] binBounds;
+	private int[] binCounts;
+	private float[] leftAreas;
+	private int[] leftCounts;
+
+	private final AtomicReference<Snapshot> snapshot;
+	private final AtomicReference<PendingRebuild> pendingRebuild;
+
+	static {
+		LOWER_X_OFFSET = aabbOffset("lowerBound", "x");
+		LOWER_Y_OFFSET = aabbOffset("lowerBound", "y");
+		UPPER_X_OFFSET = aabbOffset("upperBound", "x");
+		UPPER_Y_OFFSET = aabbOffset("upperBound", "y");
+
+		ORIGIN_X_OFFSET = rayOffset("origin", "x");
+		ORIGIN_Y_OFFSET = rayOffset("origin", "y");
+		TRANSLATION_X_OFFSET = rayOffset("translation", "x");
+		TRANSLATION_Y_OFFSET = rayOffset("translation", "y");
+		MAX_FRACTION_OFFSET = RayCastInput.LAYOUT().byteOffset(PathElement.groupElement("maxFraction"));
+
+		STACKS = ThreadLocal.withInitial(TraversalStack::new);
+	}
+
+	public JavaDynamicTree() {
+		this(16);
+	}
+
+	/**
+	 * @param initialCapacity The initial number of nodes. A tree with n proxies
+	 *                        uses 2n - 1 nodes.
+	 */
+	public JavaDynamicTree(int initialCapacity) {
+		if (initialCapacity < 0)
+			throw new IllegalArgumentException("Negative capacity: " + initialCapacity);
+
+		nodes = new Nodes(Math.max(initialCapacity, 1));
+		freeList = 0;
+		linkFreeNodes(0);
+
+		leafIndices = new int[0];
+		leafCentersX = new float[0];
+		leafCentersY = new float[0];
+
+		snapshot = new AtomicReference<>(new Snapshot(nodes.snapshot(null)));
+		pendingRebuild = new AtomicReference<>();
+
+		publishedVersion = version;
+		userDataChanged = true;
+	}
+
+	/**
+	 * A private working copy for background rebuilds.
+	 */
+	private JavaDynamicTree(Nodes nodes, int freeList) {
+		this.nodes = nodes;
+		this.freeList = freeList;
+
+		leafIndices = new int[0];
+		leafCentersX = new float[0];
+		leafCentersY = new float[0];
+
+		snapshot = new AtomicReference<>();
+		pendingRebuild = new AtomicReference<>();
+	}
+
+	/**
+	 * Build a tree from {@code count} AABBs in one pass. The AABBs are lowerX,
+	 * lowerY, upperX, upperY quadruples. Category bits and user data arrays of
+	 * length 1 are used for all proxies. Proxy i gets the id i.
+	 * <p>
+	 * The tree is split top down with a binned surface area heuristic. The result
+	 * is published.
+	 */
+	public static JavaDynamicTree build(float[] aabbs, long[] categoryBits, long[] userData, int count) {
+		if (count < 0)
+			throw new IllegalArgumentException("Negative count: " + count);
+		if (aabbs.length < 4 * count)
+			throw new ArrayIndexOutOfBoundsException("AABB range out of bounds: " + count);
+		if (categoryBits.length != 1 && categoryBits.length < count)
+			throw new ArrayIndexOutOfBoundsException("Category bits range out of bounds: " + count);
+		if (userData.length != 1 && userData.length < count)
+			throw new ArrayIndexOutOfBoundsException("User data range out of bounds: " + count);
+
+		JavaDynamicTree tree = new JavaDynamicTree(Math.max(2 * count - 1, 1));
+		if (count == 0)
+			return tree;
+
+		boolean sharedCategoryBits = categoryBits.length == 1;
+		boolean sharedUserData = userData.length == 1;
+
+		Nodes n = tree.nodes;
+		tree.ensureLeafCapacity(count);
+
+		for (int i = 0; i < count; i++) {
+			// The free list is in index order, so proxy i is node i
+			int proxyId = tree.allocateNode();
+
+			n.setBounds(proxyId, aabbs[4 * i], aabbs[4 * i + 1], aabbs[4 * i + 2], aabbs[4 * i + 3]);
+			n.categoryBits[proxyId] = categoryBits[sharedCategoryBits ? 0 : i];
+			n.userData[proxyId] = userData[sharedUserData ? 0 : i];
+
+			tree.leafIndices[i] = proxyId;
+			tree.leafCentersX[i] = n.centerX(proxyId);
+			tree.leafCentersY[i] = n.centerY(proxyId);
+		}
+		n.proxyCount = count;
+
+		int root = tree.buildTree(0, count, true);
+		n.root = root;
+		n.parent[root] = NULL_NODE;
+
+		tree.version++;
+		tree.publish();
+		return tree;
+	}
+
+	/**
+	 * Create a proxy. Provide an AABB and a userData value.
+	 */
+	public int createProxy(float lowerX, float lowerY, float upperX, float upperY, long categoryBits,
+			long userData) {
+		int proxyId = allocateNode();
+
+		Nodes n = nodes;
+		n.setBounds(proxyId, lowerX, lowerY, upperX, upperY);
+		n.userData[proxyId] = userData;
+		n.categoryBits[proxyId] = categoryBits;
+		n.height[proxyId] = 0;
+
+		insertLeaf(proxyId, true);
+		n.proxyCount++;
+		version++;
+
+		return proxyId;
+	}
+
+	/**
+	 * Create a proxy. Provide an AABB and a userData value.
+	 */
+	public int createProxy(AABB aabb, long categoryBits, long userData) {
+		MemorySegment segment = aabb.memorySegment();
+		return createProxy(segment.get(JAVA_FLOAT, LOWER_X_OFFSET), segment.get(JAVA_FLOAT, LOWER_Y_OFFSET),
+				segment.get(JAVA_FLOAT, UPPER_X_OFFSET), segment.get(JAVA_FLOAT, UPPER_Y_OFFSET), categoryBits,
+				userData);
+	}
+
+	/**
+	 * Destroy a proxy. This asserts if the id is invalid.
+	 */
+	public void destroyProxy(int proxyId) {
+		checkProxy(proxyId);
+
+		removeLeaf(proxyId);
+		freeNode(proxyId);
+		nodes.proxyCount--;
+		version++;
+	}
+
+	/**
+	 * Move a proxy to a new AABB by removing and reinserting into the tree.
+	 */
+	public void moveProxy(int proxyId, float lowerX, float lowerY, float upperX, float upperY) {
+		checkProxy(proxyId);
+
+		removeLeaf(proxyId);
+		nodes.setBounds(proxyId, lowerX, lowerY, upperX, upperY);
+		insertLeaf(proxyId, false);
+		version++;
+	}
+
+	/**
+	 * Move a proxy to a new AABB by removing and reinserting into the tree.
+	 */
+	public void moveProxy(int proxyId, AABB aabb) {
+		MemorySegment segment = aabb.memorySegment();
+		moveProxy(proxyId, segment.get(JAVA_FLOAT, LOWER_X_OFFSET), segment.get(JAVA_FLOAT, LOWER_Y_OFFSET),
+				segment.get(JAVA_FLOAT, UPPER_X_OFFSET), segment.get(JAVA_FLOAT, UPPER_Y_OFFSET));
+	}
+
+	/**
+	 * Enlarge a proxy and enlarge ancestors as necessary. The new AABB must
+	 * contain the old one. The enlarged ancestors are rebuilt by the next
+	 * {@link #rebuild(boolean)}.
+	 */
+	public void enlargeProxy(int proxyId, float lowerX, float lowerY, float upperX, float upperY) {
+		checkProxy(proxyId);
+
+		Nodes n = nodes;
+		n.setBounds(proxyId, lowerX, lowerY, upperX, upperY);
+		version++;
+
+		int parentIndex = n.parent[proxyId];
+		while (parentIndex != NULL_NODE) {
+			boolean changed = n.enlarge(parentIndex, lowerX, lowerY, upperX, upperY);
+			n.enlarged[parentIndex] = true;
+			parentIndex = n.parent[parentIndex];
+
+			if (!changed)
+				break;
+		}
+
+		while (parentIndex != NULL_NODE) {
+			if (n.enlarged[parentIndex])
+				break;
+
+			n.enlarged[parentIndex] = true;
+			parentIndex = n.parent[parentIndex];
+		}
+	}
+
+	/**
+	 * Enlarge a proxy and enlarge ancestors as necessary.
+	 */
+	public void enlargeProxy(int proxyId, AABB aabb) {
+		MemorySegment segment = aabb.memorySegment();
+		enlargeProxy(proxyId, segment.get(JAVA_FLOAT, LOWER_X_OFFSET), segment.get(JAVA_FLOAT, LOWER_Y_OFFSET),
+				segment.get(JAVA_FLOAT, UPPER_X_OFFSET), segment.get(JAVA_FLOAT, UPPER_Y_OFFSET));
+	}
+
+	/**
+	 * Modify the category bits on a proxy. This is an expensive operation.
+	 */
+	public void setCategoryBits(int proxyId, long categoryBits) {
+		checkProxy(proxyId);
+
+		Nodes n = nodes;
+		n.categoryBits[proxyId] = categoryBits;
+		version++;
+
+		int nodeIndex = n.parent[proxyId];
+		while (nodeIndex != NULL_NODE) {
+			n.categoryBits[nodeIndex] = n.categoryBits[n.child1[nodeIndex]] | n.categoryBits[n.child2[nodeIndex]];
+			nodeIndex = n.parent[nodeIndex];
+		}
+	}
+
+	/**
+	 * Get the category bits on a proxy.
+	 */
+	public long getCategoryBits(int proxyId) {
+		checkProxy(proxyId);
+		return nodes.categoryBits[proxyId];
+	}
+
+	/**
+	 * Query an AABB for overlapping proxies. The handler is called for each proxy
+	 * that overlaps the supplied AABB and matches the mask bits. Return false
+	 * from the handler to terminate the query.
+	 *
+	 * @return the number of proxies passed to the handler
+	 */
+	public int query(float lowerX, float lowerY, float upperX, float upperY, long maskBits,
+			TreeQueryCallback.Handler handler) {
+		return nodes.query(lowerX, lowerY, upperX, upperY, maskBits, handler);
+	}
+
+	/**
+	 * Query an AABB for overlapping proxies.
+	 *
+	 * @return the number of proxies passed to the handler
+	 */
+	public int query(AABB aabb, long maskBits, TreeQueryCallback.Handler handler) {
+		MemorySegment segment = aabb.memorySegment();
+		return query(segment.get(JAVA_FLOAT, LOWER_X_OFFSET), segment.get(JAVA_FLOAT, LOWER_Y_OFFSET),
+				segment.get(JAVA_FLOAT, UPPER_X_OFFSET), segment.get(JAVA_FLOAT, UPPER_Y_OFFSET), maskBits, handler);
+	}
+
+	/**
+	 * Ray cast against the proxies in the tree. This relies on the handler to
+	 * perform an exact ray cast in the case were the proxy contains a shape. The
+	 * handler also performs any collision filtering.
+	 *
+	 * @return the number of proxies passed to the handler
+	 */
+	public int rayCast(float originX, float originY, float translationX, float translationY, float maxFraction,
+			long maskBits, RayCastHandler handler) {
+		return nodes.rayCast(originX, originY, translationX, translationY, maxFraction, maskBits, handler);
+	}
+
+	/**
+	 * Ray cast against the proxies in the tree.
+	 *
+	 * @return the number of proxies passed to the handler
+	 */
+	public int rayCast(RayCastInput input, long maskBits, RayCastHandler handler) {
+		MemorySegment segment = input.memorySegment();
+		return rayCast(segment.get(JAVA_FLOAT, ORIGIN_X_OFFSET), segment.get(JAVA_FLOAT, ORIGIN_Y_OFFSET),
+				segment.get(JAVA_FLOAT, TRANSLATION_X_OFFSET), segment.get(JAVA_FLOAT, TRANSLATION_Y_OFFSET),
+				segment.get(JAVA_FLOAT, MAX_FRACTION_OFFSET), maskBits, handler);
+	}
+
+	/**
+	 * Rebuild the tree while retaining subtrees that haven't changed. Returns the
+	 * number of boxes sorted.
+	 */
+	public int rebuild(boolean fullBuild) {
+		return rebuild(fullBuild, false);
+	}
+
+	private int rebuild(boolean fullBuild, boolean sah) {
+		Nodes n = nodes;
+		if (n.proxyCount == 0)
+			return 0;
+
+		version++;
+		ensureLeafCapacity(n.nodeCount);
+
+		// Gather all proxies and all internal nodes that haven't grown. Both are
+		// leaves of the rebuild. Free all internal nodes that have grown.
+		TraversalStack stack = TraversalStack.acquire();
+		try {
+			int leafCount = 0;
+			int stackCount = 0;
+			int[] items = stack.items;
+
+			int nodeIndex = n.root;
+			while (true) {
+				if (n.height[nodeIndex] == 0 || (!n.enlarged[nodeIndex] && !fullBuild)) {
+					leafIndices[leafCount] = nodeIndex;
+					leafCentersX[leafCount] = 0.5f * (n.lowerX[nodeIndex] + n.upperX[nodeIndex]);
+					leafCentersY[leafCount] = 0.5f * (n.lowerY[nodeIndex] + n.upperY[nodeIndex]);
+					leafCount++;
+
+					n.parent[nodeIndex] = NULL_NODE;
+				} else {
+					int doomedNodeIndex = nodeIndex;
+
+					if (stackCount == items.length)
+						items = stack.grow();
+					items[stackCount++] = n.child2[nodeIndex];
+
+					nodeIndex = n.child1[nodeIndex];
+					freeNode(doomedNodeIndex);
+					continue;
+				}
+
+				if (stackCount == 0)
+					break;
+
+				nodeIndex = items[--stackCount];
+			}
+
+			int newRoot = buildTree(0, leafCount, sah);
+			n.root = newRoot;
+			n.parent[newRoot] = NULL_NODE;
+
+			return leafCount;
+		} finally {
+			stack.release();
+		}
+	}
+
+	/**
+	 * Rebuild a copy of the tree with the surface area heuristic on the executor.
+	 * <p>
+	 * The copy is taken on the calling thread, so the rebuild sees the tree as it
+	 * is now. When done the rebuilt tree is published to {@link #getSnapshot()},
+	 * unless {@link #publish()} was called in the meantime. The owner swaps it
+	 * into this tree with {@link #applyRebuild()}.
+	 *
+	 * @return the rebuilt snapshot
+	 */
+	public CompletableFuture<Snapshot> rebuildAsync(Executor executor) {
+		Snapshot published = snapshot.get();
+		JavaDynamicTree copy = new JavaDynamicTree(nodes.copy(), freeList);
+		long copyVersion = version;
+
+		return CompletableFuture.supplyAsync(() -> {
+			copy.rebuild(true, true);
+
+			// The owner may adopt the copy's arrays, so the snapshot gets its own
+			Snapshot rebuilt = new Snapshot(copy.nodes.snapshot(null));
+			pendingRebuild.set(new PendingRebuild(copy, copyVersion));
+			snapshot.compareAndSet(published, rebuilt);
+
+			return rebuilt;
+		}, executor);
+	}
+
+	/**
+	 * Swap in the tree of a completed {@link #rebuildAsync(Executor)}. This is a
+	 * constant time swap of the node arrays. A rebuild of a tree that has been
+	 * modified since the rebuild started is discarded.
+	 *
+	 * @return true if the rebuilt tree was swapped in
+	 */
+	public boolean applyRebuild() {
+		PendingRebuild pending = pendingRebuild.getAndSet(null);
+		if (pending == null || pending.version != version)
+			return false;
+
+		nodes.adopt(pending.tree.nodes);
+		freeList = pending.tree.freeList;
+		version++;
+		userDataChanged = true;
+
+		return true;
+	}
+
+	/**
+	 * Copy the current nodes into an immutable snapshot and publish it to
+	 * {@link #getSnapshot()}. Returns the current snapshot if the tree has not
+	 * changed since the last publish.
+	 */
+	public Snapshot publish() {
+		if (version == publishedVersion)
+			return snapshot.get();
+
+		Nodes copy = nodes.snapshot(userDataChanged ? null : publishedUserData);
+
+		Snapshot published = new Snapshot(copy);
+		snapshot.set(published);
+
+		publishedVersion = version;
+		publishedUserData = copy.userData;
+		userDataChanged = false;
+
+		return published;
+	}
+
+	/**
+	 * The snapshot of the last {@link #publish()} or background rebuild. Safe to
+	 * call from any thread.
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot.get();
+	}
+
+	/**
+	 * Get the height of the binary tree.
+	 */
+	public int getHeight() {
+		return nodes.getHeight();
+	}
+
+	/**
+	 * Get the ratio of the sum of the node areas to the root area.
+	 */
+	public float getAreaRatio() {
+		return nodes.getAreaRatio();
+	}
+
+	/**
+	 * Get the bounding box that contains the entire tree.
+	 */
+	public AABB getRootBounds(AABB target) {
+		return nodes.getRootBounds(target);
+	}
+
+	/**
+	 * Get the bounding box that contains the entire tree.
+	 */
+	public AABB getRootBounds() {
+		return getRootBounds(new AABB());
+	}
+
+	/**
+	 * Get the number of proxies created.
+	 */
+	public int getProxyCount() {
+		return nodes.proxyCount;
+	}
+
+	/**
+	 * Get the number of bytes used by the node arrays of this tree.
+	 */
+	public int getByteCount() {
+		return nodes.capacity * Nodes.NODE_BYTES + 12 * leafIndices.length;
+	}
+
+	/**
+	 * Get proxy user data.
+	 */
+	public long getUserData(int proxyId) {
+		checkProxy(proxyId);
+		return nodes.userData[proxyId];
+	}
+
+	/**
+	 * Get the AABB of a proxy.
+	 */
+	public AABB getAABB(AABB target, int proxyId) {
+		checkProxy(proxyId);
+		return nodes.getAABB(target, proxyId);
+	}
+
+	/**
+	 * Get the AABB of a proxy.
+	 */
+	public AABB getAABB(int proxyId) {
+		return getAABB(new AABB(), proxyId);
+	}
+
+	/**
+	 * Validate this tree. For testing.
+	 */
+	public void validate() {
+		Nodes n = nodes;
+		if (n.root == NULL_NODE)
+			return;
+
+		if (n.parent[n.root] != NULL_NODE)
+			throw new IllegalStateException("Root has a parent: " + n.root);
+
+		int leafCount = validateNode(n.root);
+		if (leafCount != n.proxyCount)
+			throw new IllegalStateException("Proxy count mismatch: " + leafCount + " != " + n.proxyCount);
+	}
+
+	private int validateNode(int index) {
+		Nodes n = nodes;
+
+		if (n.height[index] == 0)
+			return 1;
+
+		int child1 = n.child1[index];
+		int child2 = n.child2[index];
+
+		if (n.parent[child1] != index || n.parent[child2] != index)
+			throw new IllegalStateException("Broken parent link: " + index);
+
+		if (n.height[index] != 1 + Math.max(n.height[child1], n.height[child2]))
+			throw new IllegalStateException("Wrong height: " + index);
+
+		if (n.categoryBits[index] != (n.categoryBits[child1] | n.categoryBits[child2]))
+			throw new IllegalStateException("Wrong category bits: " + index);
+
+		if (!n.contains(index, child1) || !n.contains(index, child2))
+			throw new IllegalStateException("Child not contained: " + index);
+
+		return validateNode(child1) + validateNode(child2);
+	}
+
+	private int allocateNode() {
+		if (freeList == NULL_NODE) {
+			int oldCapacity = nodes.capacity;
+			nodes.grow(2 * oldCapacity);
+			freeList = oldCapacity;
+			linkFreeNodes(oldCapacity);
+		}
+
+		Nodes n = nodes;
+		int nodeIndex = freeList;
+		freeList = n.parent[nodeIndex];
+
+		n.parent[nodeIndex] = NULL_NODE;
+		n.child1[nodeIndex] = NULL_NODE;
+		n.child2[nodeIndex] = NULL_NODE;
+		n.height[nodeIndex] = 0;
+		n.categoryBits[nodeIndex] = 0L;
+		n.userData[nodeIndex] = 0L;
+		n.enlarged[nodeIndex] = false;
+		n.nodeCount++;
+		n.highWater = Math.max(n.highWater, nodeIndex + 1);
+		userDataChanged = true;
+
+		return nodeIndex;
+	}
+
+	private void freeNode(int nodeIndex) {
+		Nodes n = nodes;
+		n.parent[nodeIndex] = freeList;
+		n.height[nodeIndex] = -1;
+		n.enlarged[nodeIndex] = false;
+		n.nodeCount--;
+		freeList = nodeIndex;
+	}
+
+	private void linkFreeNodes(int from) {
+		Nodes n = nodes;
+		for (int i = from; i < n.capacity; i++) {
+			n.parent[i] = i + 1 < n.capacity ? i + 1 : NULL_NODE;
+			n.height[i] = -1;
+		}
+	}
+
+	private void checkProxy(int proxyId) {
+		nodes.checkProxy(proxyId);
+	}
+
+	private void ensureLeafCapacity(int count) {
+		if (leafIndices.length >= count)
+			return;
+
+		int capacity = Math.max(count, nodes.capacity);
+		leafIndices = new int[capacity];
+		leafCentersX = new float[capacity];
+		leafCentersY = new float[capacity];
+	}
+
+	private int findBestSibling(float lowerX, float lowerY, float upperX, float upperY) {
+		Nodes n = nodes;
+
+		float centerX = 0.5f * (lowerX + upperX);
+		float centerY = 0.5f * (lowerY + upperY);
+		float areaD = perimeter(lowerX, lowerY, upperX, upperY);
+
+		int rootIndex = n.root;
+
+		// Area of current node
+		float areaBase = n.perimeter(rootIndex);
+
+		// Area of inflated node
+		float directCost = n.unionPerimeter(rootIndex, lowerX, lowerY, upperX, upperY);
+		float inheritedCost = 0.0f;
+
+		int bestSibling = rootIndex;
+		float bestCost = directCost;
+
+		// Descend the tree from root, following a single greedy path.
+		int index = rootIndex;
+		while (n.height[index] > 0) {
+			int child1 = n.child1[index];
+			int child2 = n.child2[index];
+
+			// Cost of creating a new parent for this node and the new leaf
+			float cost = directCost + inheritedCost;
+
+			if (cost < bestCost) {
+				bestSibling = index;
+				bestCost = cost;
+			}
+
+			// Inheritance cost seen by children
+			inheritedCost += directCost - areaBase;
+
+			boolean leaf1 = n.height[child1] == 0;
+			boolean leaf2 = n.height[child2] == 0;
+
+			// Cost of descending into child 1
+			float lowerCost1 = Float.MAX_VALUE;
+			float directCost1 = n.unionPerimeter(child1, lowerX, lowerY, upperX, upperY);
+			float area1 = 0.0f;
+			if (leaf1) {
+				// Child 1 is a leaf, cost of creating new node and increasing area of node P
+				float cost1 = directCost1 + inheritedCost;
+
+				if (cost1 < bestCost) {
+					bestSibling = child1;
+					bestCost = cost1;
+				}
+			} else {
+				// Lower bound cost of inserting under child 1
+				area1 = n.perimeter(child1);
+				lowerCost1 = inheritedCost + directCost1 + Math.min(areaD - area1, 0.0f);
+			}
+
+			// Cost of descending into child 2
+			float lowerCost2 = Float.MAX_VALUE;
+			float directCost2 = n.unionPerimeter(child2, lowerX, lowerY, upperX, upperY);
+			float area2 = 0.0f;
+			if (leaf2) {
+				float cost2 = directCost2 + inheritedCost;
+
+				if (cost2 < bestCost) {
+					bestSibling = child2;
+					bestCost = cost2;
+				}
+			} else {
+				area2 = n.perimeter(child2);
+				lowerCost2 = inheritedCost + directCost2 + Math.min(areaD - area2, 0.0f);
+			}
+
+			if (leaf1 && leaf2)
+				break;
+
+			// Can the cost possibly be decreased?
+			if (bestCost <= lowerCost1 && bestCost <= lowerCost2)
+				break;
+
+			if (lowerCost1 == lowerCost2 && !leaf1) {
+				// No clear choice based on lower bound surface area. This can happen when
+				// both children fully contain D. Fall back to node distance.
+				float d1x = n.centerX(child1) - centerX;
+				float d1y = n.centerY(child1) - centerY;
+				float d2x = n.centerX(child2) - centerX;
+				float d2y = n.centerY(child2) - centerY;
+				lowerCost1 = d1x * d1x + d1y * d1y;
+				lowerCost2 = d2x * d2x + d2y * d2y;
+			}
+
+			// Descend
+			if (lowerCost1 < lowerCost2 && !leaf1) {
+				index = child1;
+				areaBase = area1;
+				directCost = directCost1;
+			} else {
+				index = child2;
+				areaBase = area2;
+				directCost = directCost2;
+			}
+		}
+
+		return bestSibling;
+	}
+
+	/**
+	 * Perform a left or right rotation if node A is imbalanced.
+	 */
+	private void rotateNodes(int iA) {
+		Nodes n = nodes;
+
+		if (n.height[iA] < 2)
+			return;
+
+		int iB = n.child1[iA];
+		int iC = n.child2[iA];
+
+		if (n.height[iB] == 0) {
+			// B is a leaf and C is internal
+			int iF = n.child1[iC];
+			int iG = n.child2[iC];
+
+			// Base cost
+			float costBase = n.perimeter(iC);
+
+			// Cost of swapping B and F
+			float costBF = n.unionPerimeter(iB, iG);
+
+			// Cost of swapping B and G
+			float costBG = n.unionPerimeter(iB, iF);
+
+			if (costBase < costBF && costBase < costBG)
+				return;
+
+			if (costBF < costBG)
+				swap(iA, iB, iC, iF, iG, true, true);
+			else
+				swap(iA, iB, iC, iG, iF, true, false);
+		} else if (n.height[iC] == 0) {
+			// C is a leaf and B is internal
+			int iD = n.child1[iB];
+			int iE = n.child2[iB];
+
+			float costBase = n.perimeter(iB);
+
+			// Cost of swapping C and D
+			float costCD = n.unionPerimeter(iC, iE);
+
+			// Cost of swapping C and E
+			float costCE = n.unionPerimeter(iC, iD);
+
+			if (costBase < costCD && costBase < costCE)
+				return;
+
+			if (costCD < costCE)
+				swap(iA, iC, iB, iD, iE, false, true);
+			else
+				swap(iA, iC, iB, iE, iD, false, false);
+		} else {
+			int iD = n.child1[iB];
+			int iE = n.child2[iB];
+			int iF = n.child1[iC];
+			int iG = n.child2[iC];
+
+			float areaB = n.perimeter(iB);
+			float areaC = n.perimeter(iC);
+
+			float bestCost = areaB + areaC;
+			int bestRotation = 0;
+
+			float costBF = areaB + n.unionPerimeter(iB, iG);
+			if (costBF < bestCost) {
+				bestRotation = 1;
+				bestCost = costBF;
+			}
+
+			float costBG = areaB + n.unionPerimeter(iB, iF);
+			if (costBG < bestCost) {
+				bestRotation = 2;
+				bestCost = costBG;
+			}
+
+			float costCD = areaC + n.unionPerimeter(iC, iE);
+			if (costCD < bestCost) {
+				bestRotation = 3;
+				bestCost = costCD;
+			}
+
+			float costCE = areaC + n.unionPerimeter(iC, iD);
+			if (costCE < bestCost) {
+				bestRotation = 4;
+				bestCost = costCE;
+			}
+
+			switch (bestRotation) {
+			case 1 -> swap(iA, iB, iC, iF, iG, true, true);
+			case 2 -> swap(iA, iB, iC, iG, iF, true, false);
+			case 3 -> swap(iA, iC, iB, iD, iE, false, true);
+			case 4 -> swap(iA, iC, iB, iE, iD, false, false);
+			default -> {
+			}
+			}
+		}
+	}
+
+	/**
+	 * Swap child {@code iX} of A with grandchild {@code iY} below sibling
+	 * {@code iS}. {@code iZ} is the grandchild that stays below the sibling.
+	 */
+	private void swap(int iA, int iX, int iS, int iY, int iZ, boolean xIsChild1, boolean yIsChild1) {
+		Nodes n = nodes;
+
+		if (xIsChild1)
+			n.child1[iA] = iY;
+		else
+			n.child2[iA] = iY;
+
+		if (yIsChild1)
+			n.child1[iS] = iX;
+		else
+			n.child2[iS] = iX;
+
+		n.parent[iX] = iS;
+		n.parent[iY] = iA;
+
+		n.union(iS, iX, iZ);
+		n.height[iS] = 1 + Math.max(n.height[iX], n.height[iZ]);
+		n.height[iA] = 1 + Math.max(n.height[iS], n.height[iY]);
+		n.categoryBits[iS] = n.categoryBits[iX] | n.categoryBits[iZ];
+		n.categoryBits[iA] = n.categoryBits[iS] | n.categoryBits[iY];
+		n.enlarged[iS] |= n.enlarged[iX] | n.enlarged[iZ];
+		n.enlarged[iA] |= n.enlarged[iS] | n.enlarged[iY];
+	}
+
+	private void insertLeaf(int leaf, boolean shouldRotate) {
+		Nodes n = nodes;
+
+		if (n.root == NULL_NODE) {
+			n.root = leaf;
+			n.parent[leaf] = NULL_NODE;
+			return;
+		}
+
+		// Stage 1: find the best sibling for this node
+		int sibling = findBestSibling(n.lowerX[leaf], n.lowerY[leaf], n.upperX[leaf], n.upperY[leaf]);
+
+		// Stage 2: create a new parent for the leaf and sibling
+		int oldParent = n.parent[sibling];
+		int newParent = allocateNode();
+
+		n.parent[newParent] = oldParent;
+		n.union(newParent, leaf, sibling);
+		n.categoryBits[newParent] = n.categoryBits[leaf] | n.categoryBits[sibling];
+		n.height[newParent] = n.height[sibling] + 1;
+
+		if (oldParent != NULL_NODE) {
+			// The sibling was not the root.
+			if (n.child1[oldParent] == sibling)
+				n.child1[oldParent] = newParent;
+			else
+				n.child2[oldParent] = newParent;
+		} else {
+			// The sibling was the root.
+			n.root = newParent;
+		}
+
+		n.child1[newParent] = sibling;
+		n.child2[newParent] = leaf;
+		n.parent[sibling] = newParent;
+		n.parent[leaf] = newParent;
+
+		// Stage 3: walk back up the tree fixing heights and AABBs
+		int index = n.parent[leaf];
+		while (index != NULL_NODE) {
+			int child1 = n.child1[index];
+			int child2 = n.child2[index];
+
+			n.union(index, child1, child2);
+			n.categoryBits[index] = n.categoryBits[child1] | n.categoryBits[child2];
+			n.height[index] = 1 + Math.max(n.height[child1], n.height[child2]);
+			n.enlarged[index] |= n.enlarged[child1] | n.enlarged[child2];
+
+			if (shouldRotate)
+				rotateNodes(index);
+
+			index = n.parent[index];
+		}
+	}
+
+	private void removeLeaf(int leaf) {
+		Nodes n = nodes;
+
+		if (leaf == n.root) {
+			n.root = NULL_NODE;
+			return;
+		}
+
+		int parent = n.parent[leaf];
+		int grandParent = n.parent[parent];
+		int sibling = n.child1[parent] == leaf ? n.child2[parent] : n.child1[parent];
+
+		if (grandParent != NULL_NODE) {
+			// Destroy parent and connect sibling to grandParent.
+			if (n.child1[grandParent] == parent)
+				n.child1[grandParent] = sibling;
+			else
+				n.child2[grandParent] = sibling;
+
+			n.parent[sibling] = grandParent;
+			freeNode(parent);
+
+			// Adjust ancestor bounds.
+			int index = grandParent;
+			while (index != NULL_NODE) {
+				int child1 = n.child1[index];
+				int child2 = n.child2[index];
+
+				n.union(index, child1, child2);
+				n.categoryBits[index] = n.categoryBits[child1] | n.categoryBits[child2];
+				n.height[index] = 1 + Math.max(n.height[child1], n.height[child2]);
+
+				index = n.parent[index];
+			}
+		} else {
+			n.root = sibling;
+			n.parent[sibling] = NULL_NODE;
+			freeNode(parent);
+		}
+	}
+
+	/**
+	 * Build a subtree over the leaves in [begin, end). Without SAH the leaves are
+	 * split at the middle of the center bounds along the longest axis, like
+	 * Box2D's default rebuild.
+	 */
+	private int buildTree(int begin, int end, boolean sah) {
+		int count = end - begin;
+		if (count == 1)
+			return leafIndices[begin];
+
+		int split = sah ? partitionSAH(begin, end) : partitionMid(begin, end);
+		if (split <= begin || split >= end)
+			split = begin + count / 2;
+
+		int child1 = buildTree(begin, split, sah);
+		int child2 = buildTree(split, end, sah);
+
+		int parentIndex = allocateNode();
+
+		Nodes n = nodes;
+		n.child1[parentIndex] = child1;
+		n.child2[parentIndex] = child2;
+		n.parent[child1] = parentIndex;
+		n.parent[child2] = parentIndex;
+		n.union(parentIndex, child1, child2);
+		n.categoryBits[parentIndex] = n.categoryBits[child1] | n.categoryBits[child2];
+		n.height[parentIndex] = 1 + Math.max(n.height[child1], n.height[child2]);
+
+		return parentIndex;
+	}
+
+	private int partitionMid(int begin, int end) {
+		float minX = Float.MAX_VALUE;
+		float minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE;
+		float maxY = -Float.MAX_VALUE;
+		for (int i = begin; i < end; i++) {
+			minX = Math.min(minX, leafCentersX[i]);
+			minY = Math.min(minY, leafCentersY[i]);
+			maxX = Math.max(maxX, leafCentersX[i]);
+			maxY = Math.max(maxY, leafCentersY[i]);
+		}
+
+		boolean splitX = maxX - minX > maxY - minY;
+		float[] centers = splitX ? leafCentersX : leafCentersY;
+		float pivot = splitX ? 0.5f * (minX + maxX) : 0.5f * (minY + maxY);
+
+		int i = begin;
+		int j = end;
+		while (i < j) {
+			if (centers[i] < pivot) {
+				i++;
+			} else {
+				j--;
+				swapLeaves(i, j);
+			}
+		}
+
+		return i;
+	}
+
+	/**
+	 * Split the leaves in [begin, end) at the bin boundary with the lowest
+	 * surface area cost over both axes. Returns begin if no split was found.
+	 */
+	private int partitionSAH(int begin, int end) {
+		if (binCounts == null) {
+			binBounds = new float[4 * BIN_COUNT];
+			binCounts = new int[BIN_COUNT];
+			leftAreas = new float[BIN_COUNT];
+			leftCounts = new int[BIN_COUNT];
+		}
+
+		float minX = Float.MAX_VALUE;
+		float minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE;
+		float maxY = -Float.MAX_VALUE;
+		for (int i = begin; i < end; i++) {
+			minX = Math.min(minX, leafCentersX[i]);
+			minY = Math.min(minY, leafCentersY[i]);
+			maxX = Math.max(maxX, leafCentersX[i]);
+			maxY = Math.max(maxY, leafCentersY[i]);
+		}
+
+		float bestCost = Float.MAX_VALUE;
+		int bestAxis = -1;
+		int bestBin = 0;
+
+		for (int axis = 0; axis < 2; axis++) {
+			float[] centers = axis == 0 ? leafCentersX : leafCentersY;
+			float min = axis == 0 ? minX : minY;
+			float extent = axis == 0 ? maxX - minX : maxY - minY;
+			if (extent <= 0.0f)
+				continue;
+
+			binLeaves(centers, begin, end, min, BIN_COUNT / extent);
+
+			// Sweep from the left, bins 0..k
+			float lowerX = Float.MAX_VALUE;
+			float lowerY = Float.MAX_VALUE;
+			float upperX = -Float.MAX_VALUE;
+			float upperY = -Float.MAX_VALUE;
+			int leftCount = 0;
+			for (int k = 0; k < BIN_COUNT - 1; k++) {
+				lowerX = Math.min(lowerX, binBounds[4 * k]);
+				lowerY = Math.min(lowerY, binBounds[4 * k + 1]);
+				upperX = Math.max(upperX, binBounds[4 * k + 2]);
+				upperY = Math.max(upperY, binBounds[4 * k + 3]);
+				leftCount += binCounts[k];
+
+				leftCounts[k] = leftCount;
+				leftAreas[k] = leftCount > 0 ? perimeter(lowerX, lowerY, upperX, upperY) : 0.0f;
+			}
+
+			// Sweep from the right, bins k..BIN_COUNT - 1
+			lowerX = Float.MAX_VALUE;
+			lowerY = Float.MAX_VALUE;
+			upperX = -Float.MAX_VALUE;
+			upperY = -Float.MAX_VALUE;
+			int rightCount = 0;
+			for (int k = BIN_COUNT - 1; k > 0; k--) {
+				lowerX = Math.min(lowerX, binBounds[4 * k]);
+				lowerY = Math.min(lowerY, binBounds[4 * k + 1]);
+				upperX = Math.max(upperX, binBounds[4 * k + 2]);
+				upperY = Math.max(upperY, binBounds[4 * k + 3]);
+				rightCount += binCounts[k];
+
+				int left = leftCounts[k - 1];
+				if (left == 0 || rightCount == 0)
+					continue;
+
+				float cost = left * leftAreas[k - 1] + rightCount * perimeter(lowerX, lowerY, upperX, upperY);
+				if (cost < bestCost) {
+					bestCost = cost;
+					bestAxis = axis;
+					bestBin = k;
+				}
+			}
+		}
+
+		if (bestAxis == -1)
+			return begin;
+
+		float[] centers = bestAxis == 0 ? leafCentersX : leafCentersY;
+		float min = bestAxis == 0 ? minX : minY;
+		float scale = BIN_COUNT / (bestAxis == 0 ? maxX - minX : maxY - minY);
+
+		int i = begin;
+		int j = end;
+		while (i < j) {
+			if (binIndex(centers[i], min, scale) < bestBin) {
+				i++;
+			} else {
+				j--;
+				swapLeaves(i, j);
+			}
+		}
+
+		return i;
+	}
+
+	private void binLeaves(float[] centers, int begin, int end, float min, float scale) {
+		Arrays.fill(binCounts, 0);
+		for (int k = 0; k < BIN_COUNT; k++) {
+			binBounds[4 * k] = Float.MAX_VALUE;
+			binBounds[4 * k + 1] = Float.MAX_VALUE;
+			binBounds[4 * k + 2] = -Float.MAX_VALUE;
+			binBounds[4 * k + 3] = -Float.MAX_VALUE;
+		}
+
+		Nodes n = nodes;
+		for (int i = begin; i < end; i++) {
+			int bin = binIndex(centers[i], min, scale);
+			int leaf = leafIndices[i];
+
+			binCounts[bin]++;
+			binBounds[4 * bin] = Math.min(binBounds[4 * bin], n.lowerX[leaf]);
+			binBounds[4 * bin + 1] = Math.min(binBounds[4 * bin + 1], n.lowerY[leaf]);
+			binBounds[4 * bin + 2] = Math.max(binBounds[4 * bin + 2], n.upperX[leaf]);
+			binBounds[4 * bin + 3] = Math.max(binBounds[4 * bin + 3], n.upperY[leaf]);
+		}
+	}
+
+	private static int binIndex(float center, float min, float scale) {
+		return Math.min((int) ((center - min) * scale), BIN_COUNT - 1);
+	}
+
+	private void swapLeaves(int i, int j) {
+		int index = leafIndices[i];
+		leafIndices[i] = leafIndices[j];
+		leafIndices[j] = index;
+
+		float x = leafCentersX[i];
+		leafCentersX[i] = leafCentersX[j];
+		leafCentersX[j] = x;
+
+		float y = leafCentersY[i];
+		leafCentersY[i] = leafCentersY[j];
+		leafCentersY[j] = y;
+	}
+
+	private static float perimeter(float lowerX, float lowerY, float upperX, float upperY) {
+		return 2.0f * (upperX - lowerX + upperY - lowerY);
+	}
+
+	private static long aabbOffset(String bound, String component) {
+		return AABB.LAYOUT().byteOffset(PathElement.groupElement(bound), PathElement.groupElement(component));
+	}
+
+	private static long rayOffset(String vector, String component) {
+		return RayCastInput.LAYOUT().byteOffset(PathElement.groupElement(vector), PathElement.groupElement(component));
+	}
+
+	/**
+	 * Receives the proxies hit by a ray cast.
+	 * <p>
+	 * The handler returns the new ray fraction.
+	 * <ul>
+	 * <li>return a value of 0 to terminate the ray cast
+	 * <li>return a value less than maxFraction to clip the ray
+	 * <li>return a value of maxFraction to continue the ray cast without clipping
+	 * </ul>
+	 */
+	@FunctionalInterface
+	public static interface RayCastHandler {
+
+		float rayCast(int proxyId, long userData, float maxFraction);
+
+	}
+
+	/**
+	 * An immutable copy of the tree published by {@link JavaDynamicTree#publish()}.
+	 * All methods are lock free and safe to call from any number of threads.
+	 */
+	public static final class Snapshot {
+
+		private final Nodes nodes;
+
+		private Snapshot(Nodes nodes) {
+			this.nodes = nodes;
+		}
+
+		/**
+		 * Query an AABB for overlapping proxies.
+		 *
+		 * @return the number of proxies passed to the handler
+		 */
+		public int query(float lowerX, float lowerY, float upperX, float upperY, long maskBits,
+				TreeQueryCallback.Handler handler) {
+			return nodes.query(lowerX, lowerY, upperX, upperY, maskBits, handler);
+		}
+
+		/**
+		 * Query an AABB for overlapping proxies.
+		 *
+		 * @return the number of proxies passed to the handler
+		 */
+		public int query(AABB aabb, long maskBits, TreeQueryCallback.Handler handler) {
+			MemorySegment segment = aabb.memorySegment();
+			return query(segment.get(JAVA_FLOAT, LOWER_X_OFFSET), segment.get(JAVA_FLOAT, LOWER_Y_OFFSET),
+					segment.get(JAVA_FLOAT, UPPER_X_OFFSET), segment.get(JAVA_FLOAT, UPPER_Y_OFFSET), maskBits,
+					handler);
+		}
+
+		/**
+		 * Ray cast against the proxies in the tree.
+		 *
+		 * @return the number of proxies passed to the handler
+		 */
+		public int rayCast(float originX, float originY, float translationX, float translationY, float maxFraction,
+				long maskBits, RayCastHandler handler) {
+			return nodes.rayCast(originX, originY, translationX, translationY, maxFraction, maskBits, handler);
+		}
+
+		/**
+		 * Ray cast against the proxies in the tree.
+		 *
+		 * @return the number of proxies passed to the handler
+		 */
+		public int rayCast(RayCastInput input, long maskBits, RayCastHandler handler) {
+			MemorySegment segment = input.memorySegment();
+			return rayCast(segment.get(JAVA_FLOAT, ORIGIN_X_OFFSET), segment.get(JAVA_FLOAT, ORIGIN_Y_OFFSET),
+					segment.get(JAVA_FLOAT, TRANSLATION_X_OFFSET), segment.get(JAVA_FLOAT, TRANSLATION_Y_OFFSET),
+					segment.get(JAVA_FLOAT, MAX_FRACTION_OFFSET), maskBits, handler);
+		}
+
+		public int getHeight() {
+			return nodes.getHeight();
+		}
+
+		public float getAreaRatio() {
+			return nodes.getAreaRatio();
+		}
+
+		public AABB getRootBounds(AABB target) {
+			return nodes.getRootBounds(target);
+		}
+
+		public int getProxyCount() {
+			return nodes.proxyCount;
+		}
+
+		/**
+		 * Get proxy user data. The proxy must have existed at publish time.
+		 */
+		public long getUserData(int proxyId) {
+			nodes.checkProxy(proxyId);
+			return nodes.userData[proxyId];
+		}
+
+		/**
+		 * Get the category bits of a proxy. The proxy must have existed at publish
+		 * time.
+		 */
+		public long getCategoryBits(int proxyId) {
+			nodes.checkProxy(proxyId);
+			return nodes.categoryBits[proxyId];
+		}
+
+		/**
+		 * Get the AABB of a proxy. The proxy must have existed at publish time.
+		 */
+		public AABB getAABB(AABB target, int proxyId) {
+			nodes.checkProxy(proxyId);
+			return nodes.getAABB(target, proxyId);
+		}
+
+	}
+
+	/**
+	 * The node storage. Node i is described by index i of all arrays. Leaves have
+	 * height 0, free nodes height -1 and link the free list through parent.
+	 */
+	private static final class Nodes {
+
+		private static final int NODE_BYTES = 4 * 4 + 2 * 8 + 4 * 4 + 1;
+
+		private float[] lowerX;
+		private float[] lowerY;
+		private float[] upperX;
+		private float[] upperY;
+
+		private long[] categoryBits;
+		private long[] userData;
+
+		private int[] parent;
+		private int[] child1;
+		private int[] child2;
+		private int[] height;
+
+		private boolean[] enlarged;
+
+		private int capacity;
+		private int root;
+		private int nodeCount;
+		private int proxyCount;
+
+		/**
+		 * All nodes in use are below this.
+		 */
+		private int highWater;
+
+		private Nodes(int capacity) {
+			lowerX = new float[capacity];
+			lowerY = new float[capacity];
+			upperX = new float[capacity];
+			upperY = new float[capacity];
+			categoryBits = new long[capacity];
+			userData = new long[capacity];
+			parent = new int[capacity];
+			child1 = new int[capacity];
+			child2 = new int[capacity];
+			height = new int[capacity];
+			enlarged = new boolean[capacity];
+
+			this.capacity = capacity;
+			root = NULL_NODE;
+		}
+
+		private Nodes(Nodes other) {
+			lowerX = other.lowerX.clone();
+			lowerY = other.lowerY.clone();
+			upperX = other.upperX.clone();
+			upperY = other.upperY.clone();
+			categoryBits = other.categoryBits.clone();
+			userData = other.userData.clone();
+			parent = other.parent.clone();
+			child1 = other.child1.clone();
+			child2 = other.child2.clone();
+			height = other.height.clone();
+			enlarged = other.enlarged.clone();
+
+			capacity = other.capacity;
+			root = other.root;
+			nodeCount = other.nodeCount;
+			proxyCount = other.proxyCount;
+			highWater = other.highWater;
+		}
+
+		/**
+		 * A trimmed copy of the nodes up to the high water mark for a snapshot. The
+		 * parent links and enlarged flags are only needed by the tree and are left
+		 * out. The user data is shared if given.
+		 */
+		private Nodes(Nodes other, long[] userData) {
+			int count = other.highWater;
+
+			lowerX = Arrays.copyOf(other.lowerX, count);
+			lowerY = Arrays.copyOf(other.lowerY, count);
+			upperX = Arrays.copyOf(other.upperX, count);
+			upperY = Arrays.copyOf(other.upperY, count);
+			categoryBits = Arrays.copyOf(other.categoryBits, count);
+			this.userData = userData != null ? userData : Arrays.copyOf(other.userData, count);
+			child1 = Arrays.copyOf(other.child1, count);
+			child2 = Arrays.copyOf(other.child2, count);
+			height = Arrays.copyOf(other.height, count);
+
+			capacity = count;
+			root = other.root;
+			nodeCount = other.nodeCount;
+			proxyCount = other.proxyCount;
+			highWater = count;
+		}
+
+		private Nodes copy() {
+			return new Nodes(this);
+		}
+
+		private Nodes snapshot(long[] userData) {
+			return new Nodes(this, userData);
+		}
+
+		private void adopt(Nodes other) {
+			lowerX = other.lowerX;
+			lowerY = other.lowerY;
+			upperX = other.upperX;
+			upperY = other.upperY;
+			categoryBits = other.categoryBits;
+			userData = other.userData;
+			parent = other.parent;
+			child1 = other.child1;
+			child2 = other.child2;
+			height = other.height;
+			enlarged = other.enlarged;
+
+			capacity = other.capacity;
+			root = other.root;
+			nodeCount = other.nodeCount;
+			proxyCount = other.proxyCount;
+			highWater = other.highWater;
+		}
+
+		private void grow(int newCapacity) {
+			lowerX = Arrays.copyOf(lowerX, newCapacity);
+			lowerY = Arrays.copyOf(lowerY, newCapacity);
+			upperX = Arrays.copyOf(upperX, newCapacity);
+			upperY = Arrays.copyOf(upperY, newCapacity);
+			categoryBits = Arrays.copyOf(categoryBits, newCapacity);
+			userData = Arrays.copyOf(userData, newCapacity);
+			parent = Arrays.copyOf(parent, newCapacity);
+			child1 = Arrays.copyOf(child1, newCapacity);
+			child2 = Arrays.copyOf(child2, newCapacity);
+			height = Arrays.copyOf(height, newCapacity);
+			enlarged = Arrays.copyOf(enlarged, newCapacity);
+
+			capacity = newCapacity;
+		}
+
+		private void checkProxy(int proxyId) {
+			if (proxyId < 0 || proxyId >= capacity || height[proxyId] != 0)
+				throw new IllegalArgumentException("Invalid proxy id: " + proxyId);
+		}
+
+		private void setBounds(int index, float lowerX, float lowerY, float upperX, float upperY) {
+			this.lowerX[index] = lowerX;
+			this.lowerY[index] = lowerY;
+			this.upperX[index] = upperX;
+			this.upperY[index] = upperY;
+		}
+
+		private void union(int index, int a, int b) {
+			lowerX[index] = Math.min(lowerX[a], lowerX[b]);
+			lowerY[index] = Math.min(lowerY[a], lowerY[b]);
+			upperX[index] = Math.max(upperX[a], upperX[b]);
+			upperY[index] = Math.max(upperY[a], upperY[b]);
+		}
+
+		private boolean enlarge(int index, float lowerX, float lowerY, float upperX, float upperY) {
+			boolean changed = false;
+
+			if (lowerX < this.lowerX[index]) {
+				this.lowerX[index] = lowerX;
+				changed = true;
+			}
+			if (lowerY < this.lowerY[index]) {
+				this.lowerY[index] = lowerY;
+				changed = true;
+			}
+			if (this.upperX[index] < upperX) {
+				this.upperX[index] = upperX;
+				changed = true;
+			}
+			if (this.upperY[index] < upperY) {
+				this.upperY[index] = upperY;
+				changed = true;
+			}
+
+			return changed;
+		}
+
+		private boolean contains(int index, int other) {
+			return lowerX[index] <= lowerX[other] && lowerY[index] <= lowerY[other] && upperX[other] <= upperX[index]
+					&& upperY[other] <= upperY[index];
+		}
+
+		private float perimeter(int index) {
+			return JavaDynamicTree.perimeter(lowerX[index], lowerY[index], upperX[index], upperY[index]);
+		}
+
+		private float unionPerimeter(int index, float lowerX, float lowerY, float upperX, float upperY) {
+			return JavaDynamicTree.perimeter(Math.min(this.lowerX[index], lowerX), Math.min(this.lowerY[index], lowerY),
+					Math.max(this.upperX[index], upperX), Math.max(this.upperY[index], upperY));
+		}
+
+		private float unionPerimeter(int a, int b) {
+			return unionPerimeter(a, lowerX[b], lowerY[b], upperX[b], upperY[b]);
+		}
+
+		private float centerX(int index) {
+			return 0.5f * (lowerX[index] + upperX[index]);
+		}
+
+		private float centerY(int index) {
+			return 0.5f * (lowerY[index] + upperY[index]);
+		}
+
+		private int getHeight() {
+			return root == NULL_NODE ? 0 : height[root];
+		}
+
+		private float getAreaRatio() {
+			if (root == NULL_NODE)
+				return 0.0f;
+
+			float rootArea = perimeter(root);
+
+			float totalArea = 0.0f;
+			for (int i = 0; i < capacity; i++) {
+				// Only internal nodes are part of the ratio, like in Box2D
+				if (height[i] <= 0 || i == root)
+					continue;
+
+				totalArea += perimeter(i);
+			}
+
+			return rootArea > 0.0f ? totalArea / rootArea : 0.0f;
+		}
+
+		private AABB getRootBounds(AABB target) {
+			if (root == NULL_NODE)
+				return writeAABB(target, 0.0f, 0.0f, 0.0f, 0.0f);
+
+			return getAABB(target, root);
+		}
+
+		private AABB getAABB(AABB target, int index) {
+			return writeAABB(target, lowerX[index], lowerY[index], upperX[index], upperY[index]);
+		}
+
+		private static AABB writeAABB(AABB target, float lowerX, float lowerY, float upperX, float upperY) {
+			MemorySegment segment = target.memorySegment();
+			segment.set(JAVA_FLOAT, LOWER_X_OFFSET, lowerX);
+			segment.set(JAVA_FLOAT, LOWER_Y_OFFSET, lowerY);
+			segment.set(JAVA_FLOAT, UPPER_X_OFFSET, upperX);
+			segment.set(JAVA_FLOAT, UPPER_Y_OFFSET, upperY);
+			return target;
+		}
+
+		private int query(float queryLowerX, float queryLowerY, float queryUpperX, float queryUpperY, long maskBits,
+				TreeQueryCallback.Handler handler) {
+			if (root == NULL_NODE)
+				return 0;
+
+			TraversalStack stack = TraversalStack.acquire();
+			try {
+				int[] items = stack.items;
+				int stackCount = 0;
+				items[stackCount++] = root;
+
+				int leafCount = 0;
+				while (stackCount > 0) {
+					int nodeIndex = items[--stackCount];
+
+					if ((categoryBits[nodeIndex] & maskBits) == 0)
+						continue;
+
+					if (lowerX[nodeIndex] > queryUpperX || lowerY[nodeIndex] > queryUpperY
+							|| queryLowerX > upperX[nodeIndex] || queryLowerY > upperY[nodeIndex])
+						continue;
+
+					if (height[nodeIndex] == 0) {
+						leafCount++;
+
+						if (!handler.treeQuery(nodeIndex, userData[nodeIndex]))
+							return leafCount;
+					} else {
+						if (stackCount + 2 > items.length)
+							items = stack.grow();
+
+						items[stackCount++] = child1[nodeIndex];
+						items[stackCount++] = child2[nodeIndex];
+					}
+				}
+
+				return leafCount;
+			} finally {
+				stack.release();
+			}
+		}
+
+		private int rayCast(float originX, float originY, float translationX, float translationY, float maxFraction,
+				long maskBits, RayCastHandler handler) {
+			if (root == NULL_NODE)
+				return 0;
+
+			float length = (float) Math.sqrt(translationX * translationX + translationY * translationY);
+			float rX = length > 0.0f ? translationX / length : 0.0f;
+			float rY = length > 0.0f ? translationY / length : 0.0f;
+
+			// v is perpendicular to the segment.
+			float vX = -rY;
+			float vY = rX;
+			float absVX = Math.abs(vX);
+			float absVY = Math.abs(vY);
+
+			// Build a bounding box for the segment.
+			float endX = originX + maxFraction * translationX;
+			float endY = originY + maxFraction * translationY;
+			float segmentLowerX = Math.min(originX, endX);
+			float segmentLowerY = Math.min(originY, endY);
+			float segmentUpperX = Math.max(originX, endX);
+			float segmentUpperY = Math.max(originY, endY);
+
+			TraversalStack stack = TraversalStack.acquire();
+			try {
+				int[] items = stack.items;
+				int stackCount = 0;
+				items[stackCount++] = root;
+
+				int leafCount = 0;
+				while (stackCount > 0) {
+					int nodeIndex = items[--stackCount];
+
+					if ((categoryBits[nodeIndex] & maskBits) == 0)
+						continue;
+
+					if (lowerX[nodeIndex] > segmentUpperX || lowerY[nodeIndex] > segmentUpperY
+							|| segmentLowerX > upperX[nodeIndex] || segmentLowerY > upperY[nodeIndex])
+						continue;
+
+					// Separating axis for segment
+					// |dot(v, p1 - c)| > dot(|v|, h)
+					float cX = 0.5f * (lowerX[nodeIndex] + upperX[nodeIndex]);
+					float cY = 0.5f * (lowerY[nodeIndex] + upperY[nodeIndex]);
+					float hX = 0.5f * (upperX[nodeIndex] - lowerX[nodeIndex]);
+					float hY = 0.5f * (upperY[nodeIndex] - lowerY[nodeIndex]);
+					float term1 = Math.abs(vX * (originX - cX) + vY * (originY - cY));
+					float term2 = absVX * hX + absVY * hY;
+					if (term2 < term1)
+						continue;
+
+					if (height[nodeIndex] == 0) {
+						leafCount++;
+
+						float value = handler.rayCast(nodeIndex, userData[nodeIndex], maxFraction);
+
+						// The client has terminated the ray cast.
+						if (value == 0.0f)
+							return leafCount;
+
+						if (0.0f < value && value <= maxFraction) {
+							// Update segment bounding box.
+							maxFraction = value;
+							endX = originX + maxFraction * translationX;
+							endY = originY + maxFraction * translationY;
+							segmentLowerX = Math.min(originX, endX);
+							segmentLowerY = Math.min(originY, endY);
+							segmentUpperX = Math.max(originX, endX);
+							segmentUpperY = Math.max(originY, endY);
+						}
+					} else {
+						if (stackCount + 2 > items.length)
+							items = stack.grow();
+
+						items[stackCount++] = child1[nodeIndex];
+						items[stackCount++] = child2[nodeIndex];
+					}
+				}
+
+				return leafCount;
+			} finally {
+				stack.release();
+			}
+		}
+
+	}
+
+	private static record PendingRebuild(JavaDynamicTree tree, long version) {
+	};
+
+	/**
+	 * Per thread traversal stack. A handler that queries again from inside a
+	 * query gets a fresh stack.
+	 */
+	private static final class TraversalStack {
+
+		private int[] items = new int[64];
+		private boolean busy;
+
+		private static TraversalStack acquire() {
+			TraversalStack stack = STACKS.get();
+			if (stack.busy)
+				stack = new TraversalStack();
+
+			stack.busy = true;
+			return stack;
+		}
+
+		private int[] grow() {
+			items = Arrays.copyOf(items, 2 * items.length);
+			return items;
+		}
+
+		private void release() {
+			busy = false;
+		}
+
+	}
+
+}
@@ -1,5 +1,6 @@
 package volucris.engine.physics.box2d.dynamicTree;
 
+import java.lang.foreign.Arena;
 import java.lang.foreign.FunctionDescriptor;
 import java.lang.foreign.MemorySegment;
 import java.lang.invoke.MethodHandle;
@@ -7,6 +8,7 @@ import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodHandles.Lookup;
 
 import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
+import volucris.engine.physics.box2d.utils.HandlerTable;
 
 import static java.lang.foreign.ValueLayout.*;
 import static volucris.engine.physics.box2d.utils.FFMUtils.*;
@@ -15,6 +17,10 @@ import static volucris.engine.physics.box2d.utils.FFMUtils.*;
  * This function receives proxies found in the AABB query.
  * <p>
  * Returns true if the query should continue.
+ * <p>
+ * Subclasses own one upcall stub each. For short-lived lambdas use a
+ * {@link Handler} instead: all handlers share one upcall stub and are found
+ * through the context pointer returned by {@link #register(Handler)}.
  */
 public abstract class TreeQueryCallback {
 
@@ -24,6 +30,8 @@ public abstract class TreeQueryCallback {
 
 	private static final MethodHandle TREE_QUERY_CALLBACK_HANDLE;
 
+	private static final HandlerTable<Handler> HANDLERS;
+
 	private final MemorySegment treeQueryCallbackAddress;
 
 	static {
@@ -39,10 +47,16 @@ public abstract class TreeQueryCallback {
 		
 		TREE_QUERY_CALLBACK_HANDLE = upcallHandle(LOOKUP, TreeQueryCallback.class, "treeQueryCallback", TREE_QUERY_CALLBACK_DESCR);
 		//@formatter:on
+
+		HANDLERS = new HandlerTable<>();
 	}
 
 	public TreeQueryCallback() {
-		treeQueryCallbackAddress = upcallStub(this, TREE_QUERY_CALLBACK_HANDLE, TREE_QUERY_CALLBACK_DESCR);
+		this(Arena.ofAuto());
+	}
+
+	public TreeQueryCallback(Arena arena) {
+		treeQueryCallbackAddress = upcallStub(this, TREE_QUERY_CALLBACK_HANDLE, TREE_QUERY_CALLBACK_DESCR, arena);
 	}
 
 	protected abstract boolean treeQueryCallback(int proxyId, long userData, MemorySegment context);
@@ -51,4 +65,55 @@ public abstract class TreeQueryCallback {
 		return treeQueryCallbackAddress;
 	}
 
+	/**
+	 * The tree query callback that dispatches to the handler registered for the
+	 * context pointer.
+	 */
+	public static TreeQueryCallback shared() {
+		return Shared.INSTANCE;
+	}
+
+	/**
+	 * Register a handler for the shared callback and return its context pointer.
+	 * Release it once it is no longer used.
+	 */
+	public static MemorySegment register(Handler handler) {
+		return HANDLERS.register(handler);
+	}
+
+	/**
+	 * Release a context pointer returned by {@link #register(Handler)}.
+	 */
+	public static void release(MemorySegment context) {
+		HANDLERS.release(context);
+	}
+
+	/**
+	 * Tree query handler used with the shared callback.
+	 */
+	@FunctionalInterface
+	public static interface Handler {
+
+		boolean treeQuery(int proxyId, long userData);
+
+	}
+
+	private static final class Shared extends TreeQueryCallback {
+
+		private static final Shared INSTANCE = new Shared();
+
+		private Shared() {
+			super(Arena.global());
+		}
+
+		@Override
+		protected boolean treeQueryCallback(int proxyId, long userData, MemorySegment context) {
+			Handler handler = HANDLERS.get(context);
+
+			// Stop the query if the handler was released
+			return handler != null && handler.treeQuery(proxyId, userData);
+		}
+
+	}
+
 }
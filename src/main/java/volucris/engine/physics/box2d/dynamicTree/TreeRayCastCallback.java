@@ -41,7 +41,7 @@ public abstract class TreeRayCastCallback {
 			throw new Box2DRuntimeException("Cannot create private lookup: " + className);
 		}
 		
-		TREE_RAY_CAST_CALLBACK_DESCR = functionDescr(ADDRESS, JAVA_INT, JAVA_LONG, ADDRESS);
+		TREE_RAY_CAST_CALLBACK_DESCR = functionDescr(JAVA_FLOAT, ADDRESS, JAVA_INT, JAVA_LONG, ADDRESS);
 		
 		TREE_RAY_CAST_CALLBACK_HANDLE = upcallHandle(LOOKUP, TreeRayCastCallback.class, "treeRayCastCallback", TREE_RAY_CAST_CALLBACK_DESCR);
 	}
@@ -50,7 +50,7 @@ public abstract class TreeRayCastCallback {
 		treeRayCastCallbackAddress = upcallStub(this, TREE_RAY_CAST_CALLBACK_HANDLE, TREE_RAY_CAST_CALLBACK_DESCR);
 	}
 
-	protected abstract boolean treeRayCastCallback(MemorySegment input, int proxyId, long userData, MemorySegment context);
+	protected abstract float treeRayCastCallback(MemorySegment input, int proxyId, long userData, MemorySegment context);
 	//@formatter:on
 
 	public MemorySegment memorySegment() {
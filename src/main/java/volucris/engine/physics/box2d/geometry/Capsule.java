@@ -114,6 +114,15 @@ public final class Capsule {
 		MemorySegment.copy(memorySegment, 0, b2Capsule, 0, LAYOUT.byteSize());
 	}
 
+	/**
+	 * Copy the capsule into target, starting at offset. See {@link GeometryKernels}
+	 * for the layout.
+	 */
+	public float[] get(float[] target, int offset) {
+		MemorySegment.copy(b2Capsule, JAVA_FLOAT, 0L, target, offset, GeometryKernels.CAPSULE_STRIDE);
+		return target;
+	}
+
 	/**
 	 * Compute mass properties of a capsule.
 	 */
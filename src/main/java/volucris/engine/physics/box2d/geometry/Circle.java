@@ -102,6 +102,15 @@ public final class Circle {
 		MemorySegment.copy(memorySegment, 0, b2Circle, 0, LAYOUT.byteSize());
 	}
 
+	/**
+	 * Copy the circle into target, starting at offset. See {@link GeometryKernels}
+	 * for the layout.
+	 */
+	public float[] get(float[] target, int offset) {
+		MemorySegment.copy(b2Circle, JAVA_FLOAT, 0L, target, offset, GeometryKernels.CIRCLE_STRIDE);
+		return target;
+	}
+
 	/**
 	 * Compute mass properties of a circle.
 	 */
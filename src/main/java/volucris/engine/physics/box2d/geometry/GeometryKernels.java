@@ -0,0 +1,853 @@
+package volucris.engine.physics.box2d.geometry;
+
+import volucris.engine.physics.box2d.utils.MathUtils;
+
+/**
+ * Java implementations of the Box2D geometry functions on flat float arrays.
+ * <p>
+ * The methods keep no shared state and never touch native memory, so they can
+ * be called from any number of threads at once, e.g. from parallel streams.
+ * Temporary values live in a per-thread scratch array, so no call allocates.
+ * Results follow the native functions operation by operation and match them
+ * within float round-off. {@link #pointInPolygon} and the rounded polygon
+ * ray-cast use a direct distance test instead of GJK.
+ * <p>
+ * The native rounded polygon ray-cast is a shape cast that stops anywhere
+ * within a quarter of the linear slop of the surface, so only the hit distance
+ * measured along the surface normal agrees within that tolerance. For rays
+ * that graze the surface the fraction and point can differ by much more (up to
+ * about 0.02 for unit sized shapes), the normal can differ near rounded
+ * corners, and one version may hit where the other misses.
+ * <p>
+ * Like the native functions, a ray that starts inside a shape reports a hit
+ * at fraction zero with the origin as point and a zero normal.
+ * <p>
+ * Every shape, transform and result is packed into a float array at a given
+ * offset, so many shapes can be stored back to back:
+ * <ul>
+ * <li>Polygon ({@value #POLYGON_STRIDE} floats): 8 vertices, 8 normals,
+ * centroid, radius, count. This mirrors b2Polygon.
+ * <li>Circle ({@value #CIRCLE_STRIDE} floats): center, radius.
+ * <li>Capsule ({@value #CAPSULE_STRIDE} floats): center1, center2, radius.
+ * <li>Segment ({@value #SEGMENT_STRIDE} floats): point1, point2.
+ * <li>Transform ({@value #TRANSFORM_STRIDE} floats): p.x, p.y, q.c, q.s.
+ * <li>Mass data ({@value #MASS_STRIDE} floats): mass, center, rotational
+ * inertia.
+ * <li>AABB ({@value #AABB_STRIDE} floats): lower bound, upper bound.
+ * <li>Cast output ({@value #CAST_STRIDE} floats): point, normal, fraction.
+ * <li>Shape proxy ({@value #PROXY_STRIDE} floats): 8 points, count, radius.
+ * This mirrors b2ShapeProxy.
+ * </ul>
+ */
+public final class GeometryKernels {
+
+	public static final int MAX_POLYGON_VERTICES = 8;
+
+	public static final int POLYGON_VERTICES = 0;
+	public static final int POLYGON_NORMALS = 2 * MAX_POLYGON_VERTICES;
+	public static final int POLYGON_CENTROID = 4 * MAX_POLYGON_VERTICES;
+	public static final int POLYGON_RADIUS = POLYGON_CENTROID + 2;
+	public static final int POLYGON_COUNT = POLYGON_RADIUS + 1;
+	public static final int POLYGON_STRIDE = POLYGON_COUNT + 1;
+
+	public static final int CIRCLE_STRIDE = 3;
+	public static final int CAPSULE_STRIDE = 5;
+	public static final int SEGMENT_STRIDE = 4;
+	public static final int TRANSFORM_STRIDE = 4;
+	public static final int MASS_STRIDE = 4;
+	public static final int AABB_STRIDE = 4;
+	public static final int CAST_STRIDE = 5;
+
+	public static final int PROXY_POINTS = 0;
+	public static final int PROXY_COUNT = 2 * MAX_POLYGON_VERTICES;
+	public static final int PROXY_RADIUS = PROXY_COUNT + 1;
+	public static final int PROXY_STRIDE = PROXY_RADIUS + 1;
+
+	private static final float FLT_EPSILON = 1.1920929e-7f;
+	private static final float LINEAR_SLOP = 0.005f;
+	private static final float SHAPE_CAST_TOLERANCE = 0.25f * LINEAR_SLOP;
+
+	// Pushed out polygon vertices followed by one cast output
+	private static final int SCRATCH_CAST = 2 * MAX_POLYGON_VERTICES;
+	private static final ThreadLocal<float[]> SCRATCH = ThreadLocal
+			.withInitial(() -> new float[SCRATCH_CAST + CAST_STRIDE]);
+
+	private GeometryKernels() {
+
+	}
+
+	/**
+	 * Compute mass properties of a circle.
+	 */
+	public static void computeCircleMass(float[] circle, int offset, float density, float[] target, int targetOffset) {
+		computeCircleMass(circle[offset], circle[offset + 1], circle[offset + 2], density, target, targetOffset);
+	}
+
+	/**
+	 * Compute mass properties of a capsule.
+	 */
+	public static void computeCapsuleMass(float[] capsule, int offset, float density, float[] target, int targetOffset) {
+		float x1 = capsule[offset];
+		float y1 = capsule[offset + 1];
+		float x2 = capsule[offset + 2];
+		float y2 = capsule[offset + 3];
+		float radius = capsule[offset + 4];
+		computeCapsuleMass(x1, y1, x2, y2, radius, density, target, targetOffset);
+	}
+
+	/**
+	 * Compute mass properties of a polygon.
+	 */
+	public static void computePolygonMass(float[] polygon, int offset, float density, float[] target, int targetOffset) {
+		int count = (int) polygon[offset + POLYGON_COUNT];
+		float radius = polygon[offset + POLYGON_RADIUS];
+		int v = offset + POLYGON_VERTICES;
+		int n = offset + POLYGON_NORMALS;
+
+		if (count == 1) {
+			computeCircleMass(polygon[v], polygon[v + 1], radius, density, target, targetOffset);
+			return;
+		}
+
+		if (count == 2) {
+			computeCapsuleMass(polygon[v], polygon[v + 1], polygon[v + 2], polygon[v + 3], radius, density, target, targetOffset);
+			return;
+		}
+
+		float[] vertices = SCRATCH.get();
+
+		if (radius > 0.0f) {
+			// Approximate mass of rounded polygons by pushing out the vertices.
+			float sqrt2 = 1.412f;
+			for (int i = 0; i < count; i++) {
+				int j = i == 0 ? count - 1 : i - 1;
+				float midX = polygon[n + 2 * j] + polygon[n + 2 * i];
+				float midY = polygon[n + 2 * j + 1] + polygon[n + 2 * i + 1];
+
+				float length = (float) Math.sqrt(midX * midX + midY * midY);
+				if (length < FLT_EPSILON) {
+					midX = 0.0f;
+					midY = 0.0f;
+				} else {
+					float invLength = 1.0f / length;
+					midX = invLength * midX;
+					midY = invLength * midY;
+				}
+
+				vertices[2 * i] = polygon[v + 2 * i] + sqrt2 * radius * midX;
+				vertices[2 * i + 1] = polygon[v + 2 * i + 1] + sqrt2 * radius * midY;
+			}
+		} else {
+			System.arraycopy(polygon, v, vertices, 0, 2 * count);
+		}
+
+		float centerX = 0.0f;
+		float centerY = 0.0f;
+		float area = 0.0f;
+		float rotationalInertia = 0.0f;
+
+		// Get a reference point for forming triangles.
+		// Use the first vertex to reduce round-off errors.
+		float rx = vertices[0];
+		float ry = vertices[1];
+
+		final float inv3 = 1.0f / 3.0f;
+
+		for (int i = 1; i < count - 1; i++) {
+			// Triangle edges
+			float ex1 = vertices[2 * i] - rx;
+			float ey1 = vertices[2 * i + 1] - ry;
+			float ex2 = vertices[2 * i + 2] - rx;
+			float ey2 = vertices[2 * i + 3] - ry;
+
+			float d = ex1 * ey2 - ey1 * ex2;
+
+			float triangleArea = 0.5f * d;
+			area += triangleArea;
+
+			// Area weighted centroid, r at origin
+			centerX = centerX + triangleArea * inv3 * (ex1 + ex2);
+			centerY = centerY + triangleArea * inv3 * (ey1 + ey2);
+
+			float intx2 = ex1 * ex1 + ex2 * ex1 + ex2 * ex2;
+			float inty2 = ey1 * ey1 + ey2 * ey1 + ey2 * ey2;
+
+			rotationalInertia += (0.25f * inv3 * d) * (intx2 + inty2);
+		}
+
+		float mass = density * area;
+
+		// Center of mass, shift back from origin at r
+		float invArea = 1.0f / area;
+		centerX *= invArea;
+		centerY *= invArea;
+		float massCenterX = rx + centerX;
+		float massCenterY = ry + centerY;
+
+		// Inertia tensor relative to the local origin (point s).
+		float inertia = density * rotationalInertia;
+
+		// Shift to center of mass then to original body origin.
+		float massCenterSq = massCenterX * massCenterX + massCenterY * massCenterY;
+		float centerSq = centerX * centerX + centerY * centerY;
+		inertia += mass * (massCenterSq - centerSq);
+
+		target[targetOffset] = mass;
+		target[targetOffset + 1] = massCenterX;
+		target[targetOffset + 2] = massCenterY;
+		target[targetOffset + 3] = inertia;
+	}
+
+	/**
+	 * Compute the bounding box of a transformed circle.
+	 */
+	public static void computeCircleAABB(float[] circle, int offset, float[] transform, int transformOffset, float[] target, int targetOffset) {
+		float x = circle[offset];
+		float y = circle[offset + 1];
+		float r = circle[offset + 2];
+
+		float px = transformPointX(transform, transformOffset, x, y);
+		float py = transformPointY(transform, transformOffset, x, y);
+
+		target[targetOffset] = px - r;
+		target[targetOffset + 1] = py - r;
+		target[targetOffset + 2] = px + r;
+		target[targetOffset + 3] = py + r;
+	}
+
+	/**
+	 * Compute the bounding box of a transformed capsule.
+	 */
+	public static void computeCapsuleAABB(float[] capsule, int offset, float[] transform, int transformOffset, float[] target, int targetOffset) {
+		float x1 = capsule[offset];
+		float y1 = capsule[offset + 1];
+		float x2 = capsule[offset + 2];
+		float y2 = capsule[offset + 3];
+		float r = capsule[offset + 4];
+
+		float v1x = transformPointX(transform, transformOffset, x1, y1);
+		float v1y = transformPointY(transform, transformOffset, x1, y1);
+		float v2x = transformPointX(transform, transformOffset, x2, y2);
+		float v2y = transformPointY(transform, transformOffset, x2, y2);
+
+		target[targetOffset] = min(v1x, v2x) - r;
+		target[targetOffset + 1] = min(v1y, v2y) - r;
+		target[targetOffset + 2] = max(v1x, v2x) + r;
+		target[targetOffset + 3] = max(v1y, v2y) + r;
+	}
+
+	/**
+	 * Compute the bounding box of a transformed polygon.
+	 */
+	public static void computePolygonAABB(float[] polygon, int offset, float[] transform, int transformOffset, float[] target, int targetOffset) {
+		int count = (int) polygon[offset + POLYGON_COUNT];
+		float r = polygon[offset + POLYGON_RADIUS];
+		int v = offset + POLYGON_VERTICES;
+
+		float lowerX = transformPointX(transform, transformOffset, polygon[v], polygon[v + 1]);
+		float lowerY = transformPointY(transform, transformOffset, polygon[v], polygon[v + 1]);
+		float upperX = lowerX;
+		float upperY = lowerY;
+
+		for (int i = 1; i < count; i++) {
+			float x = polygon[v + 2 * i];
+			float y = polygon[v + 2 * i + 1];
+			float wx = transformPointX(transform, transformOffset, x, y);
+			float wy = transformPointY(transform, transformOffset, x, y);
+			lowerX = min(lowerX, wx);
+			lowerY = min(lowerY, wy);
+			upperX = max(upperX, wx);
+			upperY = max(upperY, wy);
+		}
+
+		target[targetOffset] = lowerX - r;
+		target[targetOffset + 1] = lowerY - r;
+		target[targetOffset + 2] = upperX + r;
+		target[targetOffset + 3] = upperY + r;
+	}
+
+	/**
+	 * Compute the bounding box of a transformed line segment.
+	 */
+	public static void computeSegmentAABB(float[] segment, int offset, float[] transform, int transformOffset, float[] target, int targetOffset) {
+		float x1 = segment[offset];
+		float y1 = segment[offset + 1];
+		float x2 = segment[offset + 2];
+		float y2 = segment[offset + 3];
+
+		float v1x = transformPointX(transform, transformOffset, x1, y1);
+		float v1y = transformPointY(transform, transformOffset, x1, y1);
+		float v2x = transformPointX(transform, transformOffset, x2, y2);
+		float v2y = transformPointY(transform, transformOffset, x2, y2);
+
+		target[targetOffset] = min(v1x, v2x);
+		target[targetOffset + 1] = min(v1y, v2y);
+		target[targetOffset + 2] = max(v1x, v2x);
+		target[targetOffset + 3] = max(v1y, v2y);
+	}
+
+	/**
+	 * Test a point for overlap with a circle in local space.
+	 */
+	public static boolean pointInCircle(float[] circle, int offset, float x, float y) {
+		float dx = circle[offset] - x;
+		float dy = circle[offset + 1] - y;
+		float r = circle[offset + 2];
+		return dx * dx + dy * dy <= r * r;
+	}
+
+	/**
+	 * Test a point for overlap with a capsule in local space.
+	 */
+	public static boolean pointInCapsule(float[] capsule, int offset, float x, float y) {
+		float p1x = capsule[offset];
+		float p1y = capsule[offset + 1];
+		float p2x = capsule[offset + 2];
+		float p2y = capsule[offset + 3];
+		float r = capsule[offset + 4];
+		return distanceSquaredToSegment(p1x, p1y, p2x, p2y, x, y) <= r * r;
+	}
+
+	/**
+	 * Test a point for overlap with a convex polygon in local space.
+	 */
+	public static boolean pointInPolygon(float[] polygon, int offset, float x, float y) {
+		float r = polygon[offset + POLYGON_RADIUS];
+		return distanceSquaredToPolygonCore(polygon, offset, x, y) <= r * r;
+	}
+
+	/**
+	 * Ray cast versus circle shape in local space. Returns true on a hit and
+	 * writes the cast output to target.
+	 */
+	public static boolean rayCastCircle(float[] circle, int offset, float originX, float originY, float translationX,
+			float translationY, float maxFraction, float[] target, int targetOffset) {
+
+		float cx = circle[offset];
+		float cy = circle[offset + 1];
+		float r = circle[offset + 2];
+		return rayCastCircle(cx, cy, r, originX, originY, translationX, translationY, maxFraction, target, targetOffset);
+	}
+
+	/**
+	 * Ray cast versus capsule shape in local space. Returns true on a hit and
+	 * writes the cast output to target.
+	 */
+	public static boolean rayCastCapsule(float[] capsule, int offset, float originX, float originY, float translationX,
+			float translationY, float maxFraction, float[] target, int targetOffset) {
+
+		float x1 = capsule[offset];
+		float y1 = capsule[offset + 1];
+		float x2 = capsule[offset + 2];
+		float y2 = capsule[offset + 3];
+		float r = capsule[offset + 4];
+		return rayCastCapsule(x1, y1, x2, y2, r, originX, originY, translationX, translationY, maxFraction, target,
+				targetOffset);
+	}
+
+	/**
+	 * Ray cast versus segment shape in local space. Optionally treat the segment
+	 * as one-sided with hits from the left side being treated as a miss. Returns
+	 * true on a hit and writes the cast output to target.
+	 */
+	public static boolean rayCastSegment(float[] segment, int offset, float originX, float originY, float translationX,
+			float translationY, float maxFraction, boolean oneSided, float[] target, int targetOffset) {
+
+		float v1x = segment[offset];
+		float v1y = segment[offset + 1];
+		float v2x = segment[offset + 2];
+		float v2y = segment[offset + 3];
+
+		if (oneSided) {
+			// Skip left-side collision
+			float sx = originX - v1x;
+			float sy = originY - v1y;
+			float ex = v2x - v1x;
+			float ey = v2y - v1y;
+			if (sx * ey - sy * ex < 0.0f)
+				return false;
+		}
+
+		float ex = v2x - v1x;
+		float ey = v2y - v1y;
+		float length = (float) Math.sqrt(ex * ex + ey * ey);
+		if (length < FLT_EPSILON)
+			return false;
+
+		float invLength = 1.0f / length;
+		float eUnitX = invLength * ex;
+		float eUnitY = invLength * ey;
+
+		// Normal points to the right, looking from v1 towards v2
+		float normalX = eUnitY;
+		float normalY = -eUnitX;
+
+		// Intersect ray with infinite segment using normal
+		float numerator = normalX * (v1x - originX) + normalY * (v1y - originY);
+		float denominator = normalX * translationX + normalY * translationY;
+
+		if (denominator == 0.0f)
+			return false;
+
+		float t = numerator / denominator;
+		if (t < 0.0f || maxFraction < t)
+			return false;
+
+		// Intersection point on infinite segment
+		float px = originX + t * translationX;
+		float py = originY + t * translationY;
+
+		// Compute position of p along segment
+		float s = (px - v1x) * eUnitX + (py - v1y) * eUnitY;
+		if (s < 0.0f || length < s)
+			return false;
+
+		if (numerator > 0.0f) {
+			normalX = -normalX;
+			normalY = -normalY;
+		}
+
+		writeCastOutput(target, targetOffset, px, py, normalX, normalY, t);
+		return true;
+	}
+
+	/**
+	 * Ray cast versus polygon shape in local space. Returns true on a hit and
+	 * writes the cast output to target.
+	 */
+	public static boolean rayCastPolygon(float[] polygon, int offset, float originX, float originY, float translationX,
+			float translationY, float maxFraction, float[] target, int targetOffset) {
+
+		int count = (int) polygon[offset + POLYGON_COUNT];
+		float radius = polygon[offset + POLYGON_RADIUS];
+		int v = offset + POLYGON_VERTICES;
+		int n = offset + POLYGON_NORMALS;
+
+		if (radius == 0.0f) {
+			float lower = 0.0f;
+			float upper = maxFraction;
+
+			int index = -1;
+
+			for (int i = 0; i < count; i++) {
+				// p = p1 + a * d
+				// dot(normal, p - v) = 0
+				// dot(normal, p1 - v) + a * dot(normal, d) = 0
+				float nx = polygon[n + 2 * i];
+				float ny = polygon[n + 2 * i + 1];
+				float numerator = nx * (polygon[v + 2 * i] - originX) + ny * (polygon[v + 2 * i + 1] - originY);
+				float denominator = nx * translationX + ny * translationY;
+
+				if (denominator == 0.0f) {
+					if (numerator < 0.0f)
+						return false;
+				} else {
+					if (denominator < 0.0f && numerator < lower * denominator) {
+						// The segment enters this half-space.
+						lower = numerator / denominator;
+						index = i;
+					} else if (denominator > 0.0f && numerator < upper * denominator) {
+						// The segment exits this half-space.
+						upper = numerator / denominator;
+					}
+				}
+
+				if (upper < lower)
+					return false;
+			}
+
+			if (index < 0) {
+				// ray starts inside the polygon
+				return initialOverlap(true, originX, originY, target, targetOffset);
+			}
+
+			float px = originX + lower * translationX;
+			float py = originY + lower * translationY;
+			writeCastOutput(target, targetOffset, px, py, polygon[n + 2 * index], polygon[n + 2 * index + 1], lower);
+			return true;
+		}
+
+		// The native version uses a shape cast, which stops once the ray is within
+		// radius - linear slop of the core. A rounded polygon is the union of its core
+		// and one capsule per edge, so the first hit is the closest capsule hit with
+		// that reduced radius. The point is then pushed out to the real surface.
+		float castRadius = Math.max(LINEAR_SLOP, radius - LINEAR_SLOP);
+
+		// The shape cast already stops within its tolerance of the target
+		float overlapRadius = castRadius + SHAPE_CAST_TOLERANCE;
+		float distanceSq = distanceSquaredToPolygonCore(polygon, offset, originX, originY);
+		if (distanceSq < overlapRadius * overlapRadius)
+			return initialOverlap(true, originX, originY, target, targetOffset);
+
+		float[] edgeOutput = SCRATCH.get();
+		float bestFraction = Float.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			int j = i + 1 < count ? i + 1 : 0;
+			float v1x = polygon[v + 2 * i];
+			float v1y = polygon[v + 2 * i + 1];
+			float v2x = polygon[v + 2 * j];
+			float v2y = polygon[v + 2 * j + 1];
+
+			boolean hit = rayCastCapsule(v1x, v1y, v2x, v2y, castRadius, originX, originY, translationX,
+					translationY, maxFraction, edgeOutput, SCRATCH_CAST);
+
+			if (hit && edgeOutput[SCRATCH_CAST + 4] < bestFraction) {
+				bestFraction = edgeOutput[SCRATCH_CAST + 4];
+				System.arraycopy(edgeOutput, SCRATCH_CAST, target, targetOffset, CAST_STRIDE);
+			}
+		}
+
+		if (bestFraction == Float.MAX_VALUE)
+			return false;
+
+		float push = radius - castRadius;
+		target[targetOffset] += push * target[targetOffset + 2];
+		target[targetOffset + 1] += push * target[targetOffset + 3];
+		return true;
+	}
+
+	/**
+	 * Transform a polygon. This is useful for transferring a shape from one body
+	 * to another. Source and target may be the same.
+	 */
+	public static void transformPolygon(float[] transform, int transformOffset, float[] polygon, int offset, float[] target, int targetOffset) {
+		if (polygon != target || offset != targetOffset)
+			System.arraycopy(polygon, offset, target, targetOffset, POLYGON_STRIDE);
+
+		float c = transform[transformOffset + 2];
+		float s = transform[transformOffset + 3];
+
+		int count = (int) polygon[offset + POLYGON_COUNT];
+		for (int i = 0; i < count; i++) {
+			int vi = targetOffset + POLYGON_VERTICES + 2 * i;
+			float x = target[vi];
+			float y = target[vi + 1];
+			target[vi] = transformPointX(transform, transformOffset, x, y);
+			target[vi + 1] = transformPointY(transform, transformOffset, x, y);
+
+			int ni = targetOffset + POLYGON_NORMALS + 2 * i;
+			float nx = target[ni];
+			float ny = target[ni + 1];
+			target[ni] = c * nx - s * ny;
+			target[ni + 1] = s * nx + c * ny;
+		}
+
+		int ci = targetOffset + POLYGON_CENTROID;
+		float x = target[ci];
+		float y = target[ci + 1];
+		target[ci] = transformPointX(transform, transformOffset, x, y);
+		target[ci + 1] = transformPointY(transform, transformOffset, x, y);
+	}
+
+	private static void computeCircleMass(float x, float y, float radius, float density, float[] target, int targetOffset) {
+		float rr = radius * radius;
+		float mass = density * MathUtils.PI * rr;
+
+		// inertia about the local origin
+		target[targetOffset] = mass;
+		target[targetOffset + 1] = x;
+		target[targetOffset + 2] = y;
+		target[targetOffset + 3] = mass * (0.5f * rr + (x * x + y * y));
+	}
+
+	private static void computeCapsuleMass(float x1, float y1, float x2, float y2, float radius, float density,
+			float[] target, int targetOffset) {
+
+		float rr = radius * radius;
+		float dx = x2 - x1;
+		float dy = y2 - y1;
+		float length = (float) Math.sqrt(dx * dx + dy * dy);
+		float ll = length * length;
+
+		float circleMass = density * (MathUtils.PI * rr);
+		float boxMass = density * (2.0f * radius * length);
+
+		float mass = circleMass + boxMass;
+		float centerX = 0.5f * x1 + 0.5f * x2;
+		float centerY = 0.5f * y1 + 0.5f * y2;
+
+		// two offset half circles, both halves add up to full circle and each half is
+		// offset by half length
+		// semicircle centroid = 4 r / 3 pi
+		float lc = 4.0f * radius / (3.0f * MathUtils.PI);
+		float h = 0.5f * length;
+
+		float circleInertia = circleMass * (0.5f * rr + h * h + 2.0f * h * lc);
+		float boxInertia = boxMass * (4.0f * rr + ll) / 12.0f;
+		float rotationalInertia = circleInertia + boxInertia;
+
+		// shift to center of mass
+		rotationalInertia += mass * (centerX * centerX + centerY * centerY);
+
+		target[targetOffset] = mass;
+		target[targetOffset + 1] = centerX;
+		target[targetOffset + 2] = centerY;
+		target[targetOffset + 3] = rotationalInertia;
+	}
+
+	private static boolean rayCastCircle(float cx, float cy, float radius, float originX, float originY,
+			float translationX, float translationY, float maxFraction, float[] target, int targetOffset) {
+
+		// Shift ray so circle center is the origin
+		float sx = originX - cx;
+		float sy = originY - cy;
+
+		float rr = radius * radius;
+
+		float length = (float) Math.sqrt(translationX * translationX + translationY * translationY);
+		if (length == 0.0f) {
+			// zero length ray
+			return initialOverlap(sx * sx + sy * sy < rr, originX, originY, target, targetOffset);
+		}
+
+		float dx = 0.0f;
+		float dy = 0.0f;
+		if (length >= FLT_EPSILON) {
+			float invLength = 1.0f / length;
+			dx = invLength * translationX;
+			dy = invLength * translationY;
+		}
+
+		// Find closest point on ray to origin
+		// solve: dot(s + t * d, d) = 0
+		float t = -(sx * dx + sy * dy);
+
+		// c is the closest point on the line to the origin
+		float closestX = sx + t * dx;
+		float closestY = sy + t * dy;
+
+		float cc = closestX * closestX + closestY * closestY;
+
+		if (cc > rr) {
+			// closest point is outside the circle
+			return false;
+		}
+
+		// Pythagoras
+		float h = (float) Math.sqrt(rr - cc);
+
+		float fraction = t - h;
+
+		if (fraction < 0.0f || maxFraction * length < fraction) {
+			// outside the range of the ray segment or the ray starts inside
+			return initialOverlap(sx * sx + sy * sy < rr, originX, originY, target, targetOffset);
+		}
+
+		// hit point relative to center
+		float hitX = sx + fraction * dx;
+		float hitY = sy + fraction * dy;
+
+		float hitLength = (float) Math.sqrt(hitX * hitX + hitY * hitY);
+		float normalX = 0.0f;
+		float normalY = 0.0f;
+		if (hitLength >= FLT_EPSILON) {
+			float invHitLength = 1.0f / hitLength;
+			normalX = invHitLength * hitX;
+			normalY = invHitLength * hitY;
+		}
+
+		float px = cx + radius * normalX;
+		float py = cy + radius * normalY;
+		writeCastOutput(target, targetOffset, px, py, normalX, normalY, fraction / length);
+		return true;
+	}
+
+	private static boolean rayCastCapsule(float v1x, float v1y, float v2x, float v2y, float radius, float originX,
+			float originY, float translationX, float translationY, float maxFraction, float[] target, int targetOffset) {
+
+		float ex = v2x - v1x;
+		float ey = v2y - v1y;
+		float capsuleLength = (float) Math.sqrt(ex * ex + ey * ey);
+
+		if (capsuleLength < FLT_EPSILON) {
+			// Capsule is really a circle
+			return rayCastCircle(v1x, v1y, radius, originX, originY, translationX, translationY, maxFraction, target,
+					targetOffset);
+		}
+
+		float invCapsuleLength = 1.0f / capsuleLength;
+		float ax = invCapsuleLength * ex;
+		float ay = invCapsuleLength * ey;
+
+		// Ray from capsule start to ray start
+		float qx = originX - v1x;
+		float qy = originY - v1y;
+		float qa = qx * ax + qy * ay;
+
+		// Vector to ray start that is perpendicular to capsule axis
+		float qpx = qx + -qa * ax;
+		float qpy = qy + -qa * ay;
+
+		// Does the ray start within the infinite length capsule?
+		if (qpx * qpx + qpy * qpy < radius * radius) {
+			if (qa < 0.0f) {
+				// start point behind capsule segment
+				return rayCastCircle(v1x, v1y, radius, originX, originY, translationX, translationY, maxFraction,
+						target, targetOffset);
+			}
+
+			if (qa > capsuleLength) {
+				// start point ahead of capsule segment
+				return rayCastCircle(v2x, v2y, radius, originX, originY, translationX, translationY, maxFraction,
+						target, targetOffset);
+			}
+
+			// ray starts inside capsule
+			return initialOverlap(true, originX, originY, target, targetOffset);
+		}
+
+		// Perpendicular to capsule axis, pointing right
+		float nx = ay;
+		float ny = -ax;
+
+		float rayLength = (float) Math.sqrt(translationX * translationX + translationY * translationY);
+		float ux = 0.0f;
+		float uy = 0.0f;
+		if (rayLength >= FLT_EPSILON) {
+			float invRayLength = 1.0f / rayLength;
+			ux = invRayLength * translationX;
+			uy = invRayLength * translationY;
+		}
+
+		// Cramer's rule [a -u]
+		float den = -ax * uy + ux * ay;
+		if (-FLT_EPSILON < den && den < FLT_EPSILON) {
+			// Ray is parallel to capsule and outside infinite length capsule
+			return false;
+		}
+
+		float b1x = qx - radius * nx;
+		float b1y = qy - radius * ny;
+		float b2x = qx + radius * nx;
+		float b2y = qy + radius * ny;
+
+		float invDen = 1.0f / den;
+
+		// Cramer's rule [a b1]
+		float s21 = (ax * b1y - b1x * ay) * invDen;
+
+		// Cramer's rule [a b2]
+		float s22 = (ax * b2y - b2x * ay) * invDen;
+
+		float s2;
+		float bx;
+		float by;
+		if (s21 < s22) {
+			s2 = s21;
+			bx = b1x;
+			by = b1y;
+		} else {
+			s2 = s22;
+			bx = b2x;
+			by = b2y;
+			nx = -nx;
+			ny = -ny;
+		}
+
+		if (s2 < 0.0f || maxFraction * rayLength < s2)
+			return false;
+
+		// Cramer's rule [b -u]
+		float s1 = (-bx * uy + ux * by) * invDen;
+
+		if (s1 < 0.0f) {
+			// ray passes behind capsule segment (v1)
+			return rayCastCircle(v1x, v1y, radius, originX, originY, translationX, translationY, maxFraction, target,
+					targetOffset);
+		} else if (capsuleLength < s1) {
+			// ray passes ahead of capsule segment (v2)
+			return rayCastCircle(v2x, v2y, radius, originX, originY, translationX, translationY, maxFraction, target,
+					targetOffset);
+		}
+
+		// ray hits capsule side
+		float t = s1 / capsuleLength;
+		float px = (1.0f - t) * v1x + t * v2x + radius * nx;
+		float py = (1.0f - t) * v1y + t * v2y + radius * ny;
+		writeCastOutput(target, targetOffset, px, py, nx, ny, s2 / rayLength);
+		return true;
+	}
+
+	private static float distanceSquaredToPolygonCore(float[] polygon, int offset, float x, float y) {
+		int count = (int) polygon[offset + POLYGON_COUNT];
+		int v = offset + POLYGON_VERTICES;
+		int n = offset + POLYGON_NORMALS;
+
+		if (count >= 3) {
+			boolean inside = true;
+			for (int i = 0; i < count && inside; i++) {
+				float dx = x - polygon[v + 2 * i];
+				float dy = y - polygon[v + 2 * i + 1];
+				inside = polygon[n + 2 * i] * dx + polygon[n + 2 * i + 1] * dy <= 0.0f;
+			}
+
+			if (inside)
+				return 0.0f;
+		}
+
+		// Outside the core, so the closest edge decides
+		float minDistanceSq = Float.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			int j = i + 1 < count ? i + 1 : 0;
+			float v1x = polygon[v + 2 * i];
+			float v1y = polygon[v + 2 * i + 1];
+			float v2x = polygon[v + 2 * j];
+			float v2y = polygon[v + 2 * j + 1];
+			minDistanceSq = Math.min(minDistanceSq, distanceSquaredToSegment(v1x, v1y, v2x, v2y, x, y));
+		}
+
+		return minDistanceSq;
+	}
+
+	private static float distanceSquaredToSegment(float p1x, float p1y, float p2x, float p2y, float x, float y) {
+		float dx = p2x - p1x;
+		float dy = p2y - p1y;
+		float dd = dx * dx + dy * dy;
+
+		float cx = p1x;
+		float cy = p1y;
+		if (dd != 0.0f) {
+			// Get closest point on segment
+			float t = ((x - p1x) * dx + (y - p1y) * dy) / dd;
+			t = t < 0.0f ? 0.0f : (t > 1.0f ? 1.0f : t);
+			cx = p1x + t * dx;
+			cy = p1y + t * dy;
+		}
+
+		float ox = cx - x;
+		float oy = cy - y;
+		return ox * ox + oy * oy;
+	}
+
+	private static float transformPointX(float[] transform, int offset, float x, float y) {
+		return (transform[offset + 2] * x - transform[offset + 3] * y) + transform[offset];
+	}
+
+	private static float transformPointY(float[] transform, int offset, float x, float y) {
+		return (transform[offset + 3] * x + transform[offset + 2] * y) + transform[offset + 1];
+	}
+
+	private static boolean initialOverlap(boolean overlap, float originX, float originY, float[] target, int offset) {
+		if (overlap)
+			writeCastOutput(target, offset, originX, originY, 0.0f, 0.0f, 0.0f);
+
+		return overlap;
+	}
+
+	private static void writeCastOutput(float[] target, int offset, float px, float py, float nx, float ny, float fraction) {
+		target[offset] = px;
+		target[offset + 1] = py;
+		target[offset + 2] = nx;
+		target[offset + 3] = ny;
+		target[offset + 4] = fraction;
+	}
+
+	private static float min(float a, float b) {
+		return a < b ? a : b;
+	}
+
+	private static float max(float a, float b) {
+		return a > b ? a : b;
+	}
+
+}
@@ -93,8 +93,8 @@ public final class Polygon {
 		B2_COMPUTE_POLYGON_MASS = downcallHandle("b2ComputePolygonMass", MassData.LAYOUT(), ADDRESS, JAVA_FLOAT);
 		B2_COMPUTE_POLYGON_AABB = downcallHandle("b2ComputePolygonAABB", AABB.LAYOUT(), ADDRESS, Transform.LAYOUT());
 		B2_POINT_IN_POLYGON = downcallHandle("b2PointInPolygon", JAVA_BOOLEAN, Vec2.LAYOUT(), ADDRESS);
-		B2_RAY_CAST_POLYGON = downcallHandle("b2RayCastPolygon", LAYOUT, CastOutput.LAYOUT(), ADDRESS, ADDRESS);
-		B2_SHAPE_CAST_POLYGON = downcallHandle("b2ShapeCastPolygon", LAYOUT, CastOutput.LAYOUT(), ADDRESS, ADDRESS);
+		B2_RAY_CAST_POLYGON = downcallHandle("b2RayCastPolygon", CastOutput.LAYOUT(), ADDRESS, ADDRESS);
+		B2_SHAPE_CAST_POLYGON = downcallHandle("b2ShapeCastPolygon", CastOutput.LAYOUT(), ADDRESS, ADDRESS);
 		
 		VERTICES_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("vertices"));
 		NORMALS_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("normals"));
@@ -135,6 +135,25 @@ public final class Polygon {
 		MemorySegment.copy(memorySegment, 0L, b2Polygon, 0L, LAYOUT.byteSize());
 	}
 
+	/**
+	 * Copy the polygon into target, starting at offset. See
+	 * {@link GeometryKernels} for the layout.
+	 */
+	public float[] get(float[] target, int offset) {
+		MemorySegment.copy(b2Polygon, JAVA_FLOAT, 0L, target, offset, GeometryKernels.POLYGON_COUNT);
+		target[offset + GeometryKernels.POLYGON_COUNT] = getVertexCount();
+		return target;
+	}
+
+	/**
+	 * Copy a polygon from source, starting at offset. See {@link GeometryKernels}
+	 * for the layout.
+	 */
+	public void set(float[] source, int offset) {
+		MemorySegment.copy(source, offset, b2Polygon, JAVA_FLOAT, 0L, GeometryKernels.POLYGON_COUNT);
+		COUNT.set(b2Polygon, (int) source[offset + GeometryKernels.POLYGON_COUNT]);
+	}
+
 	/**
 	 * Transform a polygon. This is useful for transferring a shape from one body to
 	 * another.
@@ -58,15 +58,15 @@ public final class RayCastInput {
 	public RayCastInput(Arena arena) {
 		b2RayCastInput = arena.allocate(LAYOUT);
 
-		origin = new Vec2(b2RayCastInput.asSlice(ORIGIN_OFFSET, LAYOUT));
-		translation = new Vec2(b2RayCastInput.asSlice(TRANSLATION_OFFSET, LAYOUT));
+		origin = new Vec2(b2RayCastInput.asSlice(ORIGIN_OFFSET, Vec2.LAYOUT()));
+		translation = new Vec2(b2RayCastInput.asSlice(TRANSLATION_OFFSET, Vec2.LAYOUT()));
 	}
 
 	public RayCastInput(MemorySegment memorySegment) {
 		b2RayCastInput = memorySegment;
 
-		origin = new Vec2(b2RayCastInput.asSlice(ORIGIN_OFFSET, LAYOUT));
-		translation = new Vec2(b2RayCastInput.asSlice(TRANSLATION_OFFSET, LAYOUT));
+		origin = new Vec2(b2RayCastInput.asSlice(ORIGIN_OFFSET, Vec2.LAYOUT()));
+		translation = new Vec2(b2RayCastInput.asSlice(TRANSLATION_OFFSET, Vec2.LAYOUT()));
 	}
 
 	public void set(MemorySegment memorySegment) {
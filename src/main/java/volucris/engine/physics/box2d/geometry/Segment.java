@@ -74,6 +74,15 @@ public final class Segment {
 		MemorySegment.copy(memorySegment, 0, b2Segment, 0, LAYOUT.byteSize());
 	}
 
+	/**
+	 * Copy the segment into target, starting at offset. See {@link GeometryKernels}
+	 * for the layout.
+	 */
+	public float[] get(float[] target, int offset) {
+		MemorySegment.copy(b2Segment, JAVA_FLOAT, 0L, target, offset, GeometryKernels.SEGMENT_STRIDE);
+		return target;
+	}
+
 	/**
 	 * Compute the bounding box of a transformed line segment.
 	 */
@@ -5,11 +5,14 @@ import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.SequenceLayout;
 import java.lang.foreign.StructLayout;
+import java.lang.invoke.MethodHandle;
 import java.lang.invoke.VarHandle;
 
 import org.joml.Vector2f;
 
+import volucris.engine.physics.box2d.math.Rot;
 import volucris.engine.physics.box2d.math.Vec2;
+import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
 
 import static java.lang.foreign.ValueLayout.*;
 import static volucris.engine.physics.box2d.utils.FFMUtils.*;
@@ -28,6 +31,9 @@ public final class ShapeProxy {
 	private static final VarHandle COUNT;
 	private static final VarHandle RADIUS;
 
+	private static final MethodHandle B2_MAKE_PROXY;
+	private static final MethodHandle B2_MAKE_OFFSET_PROXY;
+
 	private static final long[] POINT_OFFSETS;
 
 	private final MemorySegment b2ShapeProxy;
@@ -46,6 +52,9 @@ public final class ShapeProxy {
 		COUNT = varHandle(LAYOUT, "count");
 		RADIUS = varHandle(LAYOUT, "radius");
 
+		B2_MAKE_PROXY = downcallHandle("b2MakeProxy", LAYOUT, ADDRESS, JAVA_INT, JAVA_FLOAT);
+		B2_MAKE_OFFSET_PROXY = downcallHandle("b2MakeOffsetProxy", LAYOUT, ADDRESS, JAVA_INT, JAVA_FLOAT, Vec2.LAYOUT(), Rot.LAYOUT());
+
 		SequenceLayout POINTS_SEQUENCE = (SequenceLayout) LAYOUT.select(PathElement.groupElement("points"));
 		POINT_OFFSETS = new long[8];
 		for (int i = 0; i < 8; i++) {
@@ -106,6 +115,27 @@ public final class ShapeProxy {
 		RADIUS.set(b2ShapeProxy, radius);
 	}
 
+	/**
+	 * Copy the proxy to target, starting at offset. See {@link GeometryKernels}
+	 * for the layout.
+	 */
+	public float[] get(float[] target, int offset) {
+		MemorySegment.copy(b2ShapeProxy, JAVA_FLOAT, 0L, target, offset, GeometryKernels.PROXY_COUNT);
+		target[offset + GeometryKernels.PROXY_COUNT] = getCount();
+		target[offset + GeometryKernels.PROXY_RADIUS] = getRadius();
+		return target;
+	}
+
+	/**
+	 * Copy a proxy from source, starting at offset. See {@link GeometryKernels}
+	 * for the layout.
+	 */
+	public void set(float[] source, int offset) {
+		MemorySegment.copy(source, offset, b2ShapeProxy, JAVA_FLOAT, 0L, GeometryKernels.PROXY_COUNT);
+		COUNT.set(b2ShapeProxy, (int) source[offset + GeometryKernels.PROXY_COUNT]);
+		RADIUS.set(b2ShapeProxy, source[offset + GeometryKernels.PROXY_RADIUS]);
+	}
+
 	public int getCount() {
 		return (int) COUNT.get(b2ShapeProxy);
 	}
@@ -114,6 +144,73 @@ public final class ShapeProxy {
 		return (float) RADIUS.get(b2ShapeProxy);
 	}
 
+	/**
+	 * Make a proxy for use in overlap, shape cast, and related functions. This is
+	 * a deep copy of the points.
+	 */
+	public static ShapeProxy makeProxy(ShapeProxy target, Vector2f[] points, float radius) {
+		try (Arena arena = Arena.ofConfined()) {
+			int count = Math.min(points.length, 8);
+			MemorySegment pointsAddr = arena.allocate(Vec2.LAYOUT(), count);
+			for (int i = 0; i < count; i++) {
+				pointsAddr.setAtIndex(JAVA_FLOAT, 2 * i, points[i].x);
+				pointsAddr.setAtIndex(JAVA_FLOAT, 2 * i + 1, points[i].y);
+			}
+
+			MemorySegment segment = (MemorySegment) B2_MAKE_PROXY.invoke(arena, pointsAddr, count, radius);
+			target.set(segment);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot make proxy: " + className);
+		}
+	}
+
+	/**
+	 * Make a proxy for use in overlap, shape cast, and related functions. This is
+	 * a deep copy of the points.
+	 */
+	public static ShapeProxy makeProxy(Vector2f[] points, float radius) {
+		return makeProxy(new ShapeProxy(), points, radius);
+	}
+
+	/**
+	 * Make a proxy with a transform. This is a deep copy of the points.
+	 */
+	public static ShapeProxy makeOffsetProxy(ShapeProxy target, Vector2f[] points, float radius, Vector2f position,
+			float rotation) {
+		try (Arena arena = Arena.ofConfined()) {
+			int count = Math.min(points.length, 8);
+			MemorySegment pointsAddr = arena.allocate(Vec2.LAYOUT(), count);
+			for (int i = 0; i < count; i++) {
+				pointsAddr.setAtIndex(JAVA_FLOAT, 2 * i, points[i].x);
+				pointsAddr.setAtIndex(JAVA_FLOAT, 2 * i + 1, points[i].y);
+			}
+
+			Vec2 positionVec = new Vec2(arena);
+			positionVec.set(position);
+			Rot rot = new Rot(arena);
+			rot.setAngleRadians(rotation);
+
+			MemorySegment positionAddr = positionVec.memorySegment();
+			MemorySegment rotAddr = rot.memorySegment();
+			MethodHandle method = B2_MAKE_OFFSET_PROXY;
+			MemorySegment segment = (MemorySegment) method.invoke(arena, pointsAddr, count, radius, positionAddr, rotAddr);
+			target.set(segment);
+			return target;
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot make offset proxy: " + className);
+		}
+	}
+
+	/**
+	 * Make a proxy with a transform. This is a deep copy of the points.
+	 */
+	public static ShapeProxy makeOffsetProxy(Vector2f[] points, float radius, Vector2f position, float rotation) {
+		return makeOffsetProxy(new ShapeProxy(), points, radius, position, rotation);
+	}
+
 	public MemorySegment memorySegment() {
 		return b2ShapeProxy;
 	}
@@ -14,6 +14,7 @@ import volucris.engine.physics.box2d.Box2D;
 import volucris.engine.physics.box2d.body.Body;
 import volucris.engine.physics.box2d.math.Vec2;
 import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
+import volucris.engine.physics.box2d.utils.MathUtils;
 import volucris.engine.physics.box2d.world.World;
 import volucris.engine.physics.box2d.world.World.WorldId;
 
@@ -41,6 +42,9 @@ public sealed class Joint permits DistanceJoint, MotorJoint, MouseJoint, FilterJ
 	private static final MethodHandle B2_JOINT_GET_WORLD;
 	private static final MethodHandle B2_JOINT_GET_LOCAL_ANCHOR_A;
 	private static final MethodHandle B2_JOINT_GET_LOCAL_ANCHOR_B;
+	private static final MethodHandle B2_JOINT_GET_LOCAL_AXIS_A;
+	private static final MethodHandle B2_JOINT_SET_REFERENCE_ANGLE;
+	private static final MethodHandle B2_JOINT_GET_REFERENCE_ANGLE;
 	private static final MethodHandle B2_JOINT_SET_COLLIDE_CONNECTED;
 	private static final MethodHandle B2_JOINT_GET_COLLIDE_CONNECTED;
 	private static final MethodHandle B2_JOINT_WAKE_BODIES;
@@ -71,6 +75,9 @@ public sealed class Joint permits DistanceJoint, MotorJoint, MouseJoint, FilterJ
 		B2_JOINT_GET_WORLD = downcallHandle("b2Joint_GetWorld", World.LAYOUT(), JOINT_ID_LAYOUT);
 		B2_JOINT_GET_LOCAL_ANCHOR_A = downcallHandle("b2Joint_GetLocalAnchorA", Vec2.LAYOUT(), JOINT_ID_LAYOUT);
 		B2_JOINT_GET_LOCAL_ANCHOR_B = downcallHandle("b2Joint_GetLocalAnchorB", Vec2.LAYOUT(), JOINT_ID_LAYOUT);
+		B2_JOINT_GET_LOCAL_AXIS_A = downcallHandle("b2Joint_GetLocalAxisA", Vec2.LAYOUT(), JOINT_ID_LAYOUT);
+		B2_JOINT_SET_REFERENCE_ANGLE = downcallHandleVoid("b2Joint_SetReferenceAngle", JOINT_ID_LAYOUT, JAVA_FLOAT);
+		B2_JOINT_GET_REFERENCE_ANGLE = downcallHandle("b2Joint_GetReferenceAngle", JAVA_FLOAT, JOINT_ID_LAYOUT);
 		B2_JOINT_SET_COLLIDE_CONNECTED = downcallHandleVoid("b2Joint_SetCollideConnected", JOINT_ID_LAYOUT, JAVA_BOOLEAN);
 		B2_JOINT_GET_COLLIDE_CONNECTED = downcallHandle("b2Joint_GetCollideConnected", JAVA_BOOLEAN, JOINT_ID_LAYOUT);
 		B2_JOINT_WAKE_BODIES = downcallHandleVoid("b2Joint_WakeBodies", JOINT_ID_LAYOUT);
@@ -258,6 +265,69 @@ public sealed class Joint permits DistanceJoint, MotorJoint, MouseJoint, FilterJ
 		return getLocalAnchorB(new Vector2f());
 	}
 
+	/**
+	 * Get the local axis on bodyA. Used by prismatic and wheel joints.
+	 */
+	public final Vector2f getLocalAxisA(Vector2f target) {
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment segment = (MemorySegment) B2_JOINT_GET_LOCAL_AXIS_A.invoke(arena, b2JointId);
+			vecTmp.set(segment);
+			return vecTmp.get(target);
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot get local axis A: " + className);
+		}
+	}
+
+	/**
+	 * Get the local axis on bodyA. Used by prismatic and wheel joints.
+	 */
+	public final Vector2f getLocalAxisA() {
+		return getLocalAxisA(new Vector2f());
+	}
+
+	/**
+	 * Set the reference angle in radians, must be in [-pi,pi]. Used by prismatic,
+	 * revolute and weld joints.
+	 */
+	public final void setReferenceAngleRadians(float angleInRadians) {
+		try {
+			B2_JOINT_SET_REFERENCE_ANGLE.invokeExact(b2JointId, angleInRadians);
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot set reference angle: " + className);
+		}
+	}
+
+	/**
+	 * Set the reference angle in degrees, must be in [-180,180]. Used by
+	 * prismatic, revolute and weld joints.
+	 */
+	public final void setReferenceAngle(float angleInDegrees) {
+		setReferenceAngleRadians(MathUtils.toRadians(angleInDegrees));
+	}
+
+	/**
+	 * Get the reference angle in radians. Used by prismatic, revolute and weld
+	 * joints.
+	 */
+	public final float getReferenceAngleRadians() {
+		try {
+			return (float) B2_JOINT_GET_REFERENCE_ANGLE.invokeExact(b2JointId);
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot get reference angle: " + className);
+		}
+	}
+
+	/**
+	 * Get the reference angle in degrees. Used by prismatic, revolute and weld
+	 * joints.
+	 */
+	public final float getReferenceAngle() {
+		return MathUtils.toDegrees(getReferenceAngleRadians());
+	}
+
 	/**
 	 * Toggle collision between connected bodies.
 	 */
@@ -376,6 +446,17 @@ public sealed class Joint permits DistanceJoint, MotorJoint, MouseJoint, FilterJ
 		return new JointId(index1, world0, generation);
 	}
 
+	/**
+	 * Store a joint id into a long, like b2StoreJointId. The null joint id is
+	 * stored as zero.
+	 */
+	public static long storeJointId(MemorySegment memorySegment, long offset) {
+		long index1 = (int) INDEX_1.get(memorySegment, offset) & 0xFFFFFFFFL;
+		long world0 = (short) WORLD_0.get(memorySegment, offset) & 0xFFFFL;
+		long generation = (short) GENERATION.get(memorySegment, offset) & 0xFFFFL;
+		return (index1 << 32) | (world0 << 16) | generation;
+	}
+
 	public static record JointId(int index1, short world0, short generation) {
 	};
 }
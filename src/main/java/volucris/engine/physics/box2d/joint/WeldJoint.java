@@ -5,7 +5,6 @@ import java.lang.foreign.MemorySegment;
 import java.lang.invoke.MethodHandle;
 
 import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
-import volucris.engine.physics.box2d.utils.MathUtils;
 import volucris.engine.physics.box2d.world.World;
 
 import static java.lang.foreign.ValueLayout.*;
@@ -14,8 +13,6 @@ import static volucris.engine.physics.box2d.utils.FFMUtils.*;
 public final class WeldJoint extends Joint {
 
 	private static final MethodHandle B2_CREATE_WELD_JOINT;
-	private static final MethodHandle B2_WELD_JOINT_GET_REFERENCE_ANGLE;
-	private static final MethodHandle B2_WELD_JOINT_SET_REFERENCE_ANGLE;
 	private static final MethodHandle B2_WELD_JOINT_SET_LINEAR_HERTZ;
 	private static final MethodHandle B2_WELD_JOINT_GET_LINEAR_HERTZ;
 	private static final MethodHandle B2_WELD_JOINT_SET_LINEAR_DAMPING_RATIO;
@@ -28,8 +25,6 @@ public final class WeldJoint extends Joint {
 	static {
 		//@formatter:off
 		B2_CREATE_WELD_JOINT = downcallHandle("b2CreateWeldJoint", JOINT_ID_LAYOUT, World.LAYOUT(), ADDRESS);
-		B2_WELD_JOINT_GET_REFERENCE_ANGLE = downcallHandle("b2WeldJoint_GetReferenceAngle", JAVA_FLOAT, JOINT_ID_LAYOUT);
-		B2_WELD_JOINT_SET_REFERENCE_ANGLE = downcallHandleVoid("b2WeldJoint_SetReferenceAngle", JOINT_ID_LAYOUT, JAVA_FLOAT);
 		B2_WELD_JOINT_SET_LINEAR_HERTZ = downcallHandleVoid("b2WeldJoint_SetLinearHertz", JOINT_ID_LAYOUT, JAVA_FLOAT);
 		B2_WELD_JOINT_GET_LINEAR_HERTZ = downcallHandle("b2WeldJoint_GetLinearHertz", JAVA_FLOAT, JOINT_ID_LAYOUT);
 		B2_WELD_JOINT_SET_LINEAR_DAMPING_RATIO = downcallHandleVoid("b2WeldJoint_SetLinearDampingRatio", JOINT_ID_LAYOUT, JAVA_FLOAT);
@@ -62,44 +57,6 @@ public final class WeldJoint extends Joint {
 		super(b2WeldJoint, world, arena);
 	}
 
-	/**
-	 * Get the weld joint reference angle in radians.
-	 */
-	public float getReferenceAngleRadians() {
-		try {
-			return (float) B2_WELD_JOINT_GET_REFERENCE_ANGLE.invokeExact(b2JointId);
-		} catch (Throwable e) {
-			String className = e.getClass().getSimpleName();
-			throw new Box2DRuntimeException("Cannot get reference angle: " + className);
-		}
-	}
-
-	/**
-	 * Get the weld joint reference angle in degrees.
-	 */
-	public float getReferenceAngle() {
-		return MathUtils.toDegrees(getReferenceAngleRadians());
-	}
-
-	/**
-	 * Set the weld joint reference angle in radians, must be in [-pi,pi].
-	 */
-	public void setReferenceAngleRadians(float angleInRadians) {
-		try {
-			B2_WELD_JOINT_SET_REFERENCE_ANGLE.invokeExact(b2JointId, angleInRadians);
-		} catch (Throwable e) {
-			String className = e.getClass().getSimpleName();
-			throw new Box2DRuntimeException("Cannot set reference angle: " + className);
-		}
-	}
-
-	/**
-	 * Set the weld joint reference angle in radians, must be in [-180,180].
-	 */
-	public void setReferenceAngle(float angleInDegrees) {
-		setReferenceAngleRadians(MathUtils.toRadians(angleInDegrees));
-	}
-
 	/**
 	 * Set the weld joint linear stiffness in Hertz. 0 is rigid.
 	 */
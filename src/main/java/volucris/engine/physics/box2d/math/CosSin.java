@@ -3,12 +3,10 @@ package volucris.engine.physics.box2d.math;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
-import java.lang.foreign.SegmentAllocator;
 import java.lang.foreign.StructLayout;
-import java.lang.invoke.MethodHandle;
 import java.lang.invoke.VarHandle;
 
-import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
+import volucris.engine.physics.box2d.utils.MathUtils;
 
 import static java.lang.foreign.ValueLayout.*;
 import static volucris.engine.physics.box2d.utils.FFMUtils.*;
@@ -20,8 +18,6 @@ public final class CosSin {
 	private static final VarHandle COSINE;
 	private static final VarHandle SINE;
 
-	private static final MethodHandle B2_COMPUTE_COS_SIN;
-
 	private final MemorySegment b2CosSin;
 
 	static {
@@ -34,8 +30,6 @@ public final class CosSin {
 
 		COSINE = varHandle(LAYOUT, "cosine");
 		SINE = varHandle(LAYOUT, "sine");
-
-		B2_COMPUTE_COS_SIN = downcallHandle("b2ComputeCosSin", LAYOUT, JAVA_FLOAT);
 	}
 
 	public CosSin(Arena arena) {
@@ -87,15 +81,11 @@ public final class CosSin {
 	}
 
 	public static CosSin computeCosSin(CosSin target, float radians) {
-		try (Arena arena = Arena.ofConfined()) {
-			SegmentAllocator allocator = arena;
-			MemorySegment segment = (MemorySegment) B2_COMPUTE_COS_SIN.invokeExact(allocator, radians);
-			target.set(segment);
-			return target;
-		} catch (Throwable e) {
-			String className = e.getClass().getSimpleName();
-			throw new Box2DRuntimeException("Cannot compute cosSin: " + className);
-		}
+		float[] cosSin = new float[2];
+		MathUtils.computeCosSin(radians, cosSin, 0);
+		target.setCosine(cosSin[0]);
+		target.setSine(cosSin[1]);
+		return target;
 	}
 
 	public static StructLayout LAYOUT() {
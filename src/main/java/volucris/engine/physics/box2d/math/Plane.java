@@ -57,6 +57,10 @@ public final class Plane {
 		return "Plane (Normal: " + normal.toString() + ", Offset: " + getOffset() + ")";
 	}
 	
+	public void set(MemorySegment memorySegment) {
+		MemorySegment.copy(memorySegment, 0, b2Plane, 0, LAYOUT.byteSize());
+	}
+	
 	public Vector2f getNormal(Vector2f target) {
 		return normal.get(target);
 	}
@@ -73,6 +77,10 @@ public final class Plane {
 		return (float) OFFSET.get(b2Plane);
 	}
 	
+	public void setOffset(float offset) {
+		OFFSET.set(b2Plane, offset);
+	}
+	
 	public MemorySegment memorySegment() {
 		return b2Plane;
 	}
@@ -4,10 +4,8 @@ import java.lang.foreign.Arena;
 import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.StructLayout;
-import java.lang.invoke.MethodHandle;
 import java.lang.invoke.VarHandle;
 
-import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
 import volucris.engine.physics.box2d.utils.MathUtils;
 
 import static java.lang.foreign.ValueLayout.*;
@@ -20,8 +18,6 @@ public final class Rot {
 	private static final VarHandle C;
 	private static final VarHandle S;
 
-	private static final MethodHandle B2_ATAN2;
-
 	private final MemorySegment b2Rot;
 
 	private final CosSin cosSinTmp;
@@ -36,8 +32,6 @@ public final class Rot {
 
 		C = varHandle(LAYOUT, "c");
 		S = varHandle(LAYOUT, "s");
-
-		B2_ATAN2 = downcallHandle("b2Atan2", JAVA_FLOAT, JAVA_FLOAT, JAVA_FLOAT);
 	}
 
 	public Rot() {
@@ -94,12 +88,7 @@ public final class Rot {
 	}
 
 	public float getAngleRadians() {
-		try {
-			return (float) B2_ATAN2.invokeExact(getS(), getC());
-		} catch (Throwable e) {
-			String className = e.getClass().getSimpleName();
-			throw new Box2DRuntimeException("Cannot get rotation angle: " + className);
-		}
+		return MathUtils.atan2(getS(), getC());
 	}
 
 	public void setAngle(float angle) {
@@ -10,6 +10,8 @@ import org.joml.Vector2f;
 
 import volucris.engine.physics.box2d.utils.MathUtils;
 
+import static java.lang.foreign.ValueLayout.*;
+
 public final class Transform {
 
 	private static StructLayout LAYOUT;
@@ -82,6 +84,39 @@ public final class Transform {
 		p.set(position);
 	}
 	
+	public float getPositionX() {
+		return b2Transform.get(JAVA_FLOAT, P_OFFSET);
+	}
+	
+	public float getPositionY() {
+		return b2Transform.get(JAVA_FLOAT, P_OFFSET + 4);
+	}
+	
+	/**
+	 * Cosine of the rotation (q.c).
+	 */
+	public float getCosine() {
+		return b2Transform.get(JAVA_FLOAT, Q_OFFSET);
+	}
+	
+	/**
+	 * Sine of the rotation (q.s).
+	 */
+	public float getSine() {
+		return b2Transform.get(JAVA_FLOAT, Q_OFFSET + 4);
+	}
+	
+	/**
+	 * Write p.x, p.y, q.c, q.s to target, starting at offset.
+	 */
+	public float[] get(float[] target, int offset) {
+		target[offset] = getPositionX();
+		target[offset + 1] = getPositionY();
+		target[offset + 2] = getCosine();
+		target[offset + 3] = getSine();
+		return target;
+	}
+	
 	public float getRotation() {
 		return MathUtils.toDegrees(getRotationRadians());
 	}
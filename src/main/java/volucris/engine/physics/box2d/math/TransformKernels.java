@@ -0,0 +1,213 @@
+package volucris.engine.physics.box2d.math;
+
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * Bulk point and vector transforms on flat float arrays.
+ * <p>
+ * Points and vectors are stored as x, y pairs. Offsets are float indices and
+ * counts are numbers of points. Transforms are given either as a
+ * {@link Transform} or as four floats (p.x, p.y, q.c, q.s), which is the memory
+ * layout of b2Transform. Source and target may be the same array at the same
+ * offset.
+ * <p>
+ * The kernels use the Vector API when the {@code jdk.incubator.vector} module
+ * is present at runtime (--add-modules jdk.incubator.vector) and a scalar loop
+ * otherwise. Both perform the same float operations in the same order as the
+ * Box2D math functions, so results match the native functions exactly.
+ */
+public final class TransformKernels {
+
+	private static final boolean VECTORIZED;
+
+	static {
+		VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+	}
+
+	private TransformKernels() {
+
+	}
+
+	/**
+	 * Is the Vector API used for the kernels.
+	 */
+	public static boolean isVectorized() {
+		return VECTORIZED;
+	}
+
+	/**
+	 * Transform local points to world points (b2TransformPoint).
+	 */
+	public static void transformPoints(Transform transform, float[] src, float[] dst, int count) {
+		transformPoints(transform, src, 0, dst, 0, count);
+	}
+
+	/**
+	 * Transform local points to world points (b2TransformPoint).
+	 */
+	public static void transformPoints(Transform transform, float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+		float px = transform.getPositionX();
+		float py = transform.getPositionY();
+		float c = transform.getCosine();
+		float s = transform.getSine();
+		transformPoints(px, py, c, s, src, srcOffset, dst, dstOffset, count);
+	}
+
+	/**
+	 * Transform local points to world points (b2TransformPoint).
+	 */
+	public static void transformPoints(float px, float py, float c, float s, float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+		checkPoints(src, srcOffset, dst, dstOffset, count);
+
+		int done = 0;
+		if (VECTORIZED)
+			done = VectorTransformKernels.transformPoints(px, py, c, s, src, srcOffset, dst, dstOffset, count);
+
+		for (int i = done; i < count; i++) {
+			int si = srcOffset + 2 * i;
+			int di = dstOffset + 2 * i;
+			float x = src[si];
+			float y = src[si + 1];
+			dst[di] = (c * x - s * y) + px;
+			dst[di + 1] = (s * x + c * y) + py;
+		}
+	}
+
+	/**
+	 * Transform world points to local points (b2InvTransformPoint).
+	 */
+	public static void invTransformPoints(Transform transform, float[] src, float[] dst, int count) {
+		invTransformPoints(transform, src, 0, dst, 0, count);
+	}
+
+	/**
+	 * Transform world points to local points (b2InvTransformPoint).
+	 */
+	public static void invTransformPoints(Transform transform, float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+		float px = transform.getPositionX();
+		float py = transform.getPositionY();
+		float c = transform.getCosine();
+		float s = transform.getSine();
+		invTransformPoints(px, py, c, s, src, srcOffset, dst, dstOffset, count);
+	}
+
+	/**
+	 * Transform world points to local points (b2InvTransformPoint).
+	 */
+	public static void invTransformPoints(float px, float py, float c, float s, float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+		checkPoints(src, srcOffset, dst, dstOffset, count);
+
+		int done = 0;
+		if (VECTORIZED)
+			done = VectorTransformKernels.invTransformPoints(px, py, c, s, src, srcOffset, dst, dstOffset, count);
+
+		for (int i = done; i < count; i++) {
+			int si = srcOffset + 2 * i;
+			int di = dstOffset + 2 * i;
+			float vx = src[si] - px;
+			float vy = src[si + 1] - py;
+			dst[di] = c * vx + s * vy;
+			dst[di + 1] = -s * vx + c * vy;
+		}
+	}
+
+	/**
+	 * Rotate local vectors to world vectors (b2RotateVector).
+	 */
+	public static void rotateVectors(Transform transform, float[] src, float[] dst, int count) {
+		rotateVectors(transform, src, 0, dst, 0, count);
+	}
+
+	/**
+	 * Rotate local vectors to world vectors (b2RotateVector).
+	 */
+	public static void rotateVectors(Transform transform, float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+		rotateVectors(transform.getCosine(), transform.getSine(), src, srcOffset, dst, dstOffset, count);
+	}
+
+	/**
+	 * Rotate local vectors to world vectors (b2RotateVector).
+	 */
+	public static void rotateVectors(float c, float s, float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+		checkPoints(src, srcOffset, dst, dstOffset, count);
+
+		int done = 0;
+		if (VECTORIZED)
+			done = VectorTransformKernels.rotateVectors(c, s, src, srcOffset, dst, dstOffset, count);
+
+		for (int i = done; i < count; i++) {
+			int si = srcOffset + 2 * i;
+			int di = dstOffset + 2 * i;
+			float x = src[si];
+			float y = src[si + 1];
+			dst[di] = c * x - s * y;
+			dst[di + 1] = s * x + c * y;
+		}
+	}
+
+	/**
+	 * Rotate world vectors to local vectors (b2InvRotateVector).
+	 */
+	public static void invRotateVectors(Transform transform, float[] src, float[] dst, int count) {
+		invRotateVectors(transform, src, 0, dst, 0, count);
+	}
+
+	/**
+	 * Rotate world vectors to local vectors (b2InvRotateVector).
+	 */
+	public static void invRotateVectors(Transform transform, float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+		invRotateVectors(transform.getCosine(), transform.getSine(), src, srcOffset, dst, dstOffset, count);
+	}
+
+	/**
+	 * Rotate world vectors to local vectors (b2InvRotateVector).
+	 */
+	public static void invRotateVectors(float c, float s, float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+		checkPoints(src, srcOffset, dst, dstOffset, count);
+
+		int done = 0;
+		if (VECTORIZED)
+			done = VectorTransformKernels.invRotateVectors(c, s, src, srcOffset, dst, dstOffset, count);
+
+		for (int i = done; i < count; i++) {
+			int si = srcOffset + 2 * i;
+			int di = dstOffset + 2 * i;
+			float x = src[si];
+			float y = src[si + 1];
+			dst[di] = c * x + s * y;
+			dst[di + 1] = -s * x + c * y;
+		}
+	}
+
+	/**
+	 * Transform local points to world points using a transform table.
+	 * <p>
+	 * {@code transforms} holds four floats (p.x, p.y, q.c, q.s) per transform.
+	 * Transform {@code i} is applied to the points {@code firstPoint[i]} up to
+	 * {@code firstPoint[i + 1]}, so {@code firstPoint} needs
+	 * {@code transformCount + 1} entries. This fits renderers that keep the
+	 * vertices of each body in one contiguous run.
+	 */
+	public static void transformPoints(float[] transforms, int[] firstPoint, int transformCount, float[] src, float[] dst) {
+		for (int i = 0; i < transformCount; i++) {
+			int t = 4 * i;
+			int first = firstPoint[i];
+			int count = firstPoint[i + 1] - first;
+
+			float px = transforms[t];
+			float py = transforms[t + 1];
+			float c = transforms[t + 2];
+			float s = transforms[t + 3];
+			transformPoints(px, py, c, s, src, 2 * first, dst, 2 * first, count);
+		}
+	}
+
+	private static void checkPoints(float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+		if (count < 0)
+			throw new IllegalArgumentException("Negative point count: " + count);
+
+		checkBounds(src.length, srcOffset, 2L * count, "Source");
+		checkBounds(dst.length, dstOffset, 2L * count, "Target");
+	}
+
+}
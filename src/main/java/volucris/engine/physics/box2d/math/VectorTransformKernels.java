@@ -0,0 +1,113 @@
+package volucris.engine.physics.box2d.math;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API implementation of {@link TransformKernels}.
+ * <p>
+ * Only loaded when the incubator module is present. Every method handles the
+ * largest prefix that fills whole vectors and returns the number of points it
+ * processed; the caller finishes the tail with the scalar loop.
+ * <p>
+ * The x, y pairs are processed interleaved. A pair swap turns (x, y) into (y,
+ * x), so one multiply-add per component yields both outputs. Separate mul and
+ * add (no fma) keep the rounding of the scalar Box2D code.
+ */
+final class VectorTransformKernels {
+
+	private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+	private static final VectorShuffle<Float> SWAP_PAIRS;
+	private static final VectorMask<Float> ODD_LANES;
+
+	private static final FloatVector MINUS_PLUS;
+	private static final FloatVector PLUS_MINUS;
+
+	static {
+		SWAP_PAIRS = VectorShuffle.fromOp(SPECIES, i -> i ^ 1);
+
+		boolean[] oddLanes = new boolean[SPECIES.length()];
+		for (int i = 0; i < oddLanes.length; i++)
+			oddLanes[i] = (i & 1) == 1;
+		ODD_LANES = VectorMask.fromArray(SPECIES, oddLanes, 0);
+
+		MINUS_PLUS = FloatVector.broadcast(SPECIES, -1.0f).blend(1.0f, ODD_LANES);
+		PLUS_MINUS = FloatVector.broadcast(SPECIES, 1.0f).blend(-1.0f, ODD_LANES);
+	}
+
+	private VectorTransformKernels() {
+
+	}
+
+	static int transformPoints(float px, float py, float c, float s, float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+		int floats = SPECIES.loopBound(2 * count);
+
+		FloatVector cos = FloatVector.broadcast(SPECIES, c);
+		FloatVector sin = MINUS_PLUS.mul(s);
+		FloatVector p = FloatVector.broadcast(SPECIES, px).blend(py, ODD_LANES);
+
+		for (int i = 0; i < floats; i += SPECIES.length()) {
+			FloatVector v = FloatVector.fromArray(SPECIES, src, srcOffset + i);
+			FloatVector swapped = v.rearrange(SWAP_PAIRS);
+
+			// x: (c * x - s * y) + px, y: (c * y + s * x) + py
+			v.mul(cos).add(swapped.mul(sin)).add(p).intoArray(dst, dstOffset + i);
+		}
+
+		return floats / 2;
+	}
+
+	static int invTransformPoints(float px, float py, float c, float s, float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+		int floats = SPECIES.loopBound(2 * count);
+
+		FloatVector cos = FloatVector.broadcast(SPECIES, c);
+		FloatVector sin = PLUS_MINUS.mul(s);
+		FloatVector p = FloatVector.broadcast(SPECIES, px).blend(py, ODD_LANES);
+
+		for (int i = 0; i < floats; i += SPECIES.length()) {
+			FloatVector v = FloatVector.fromArray(SPECIES, src, srcOffset + i).sub(p);
+			FloatVector swapped = v.rearrange(SWAP_PAIRS);
+
+			// x: c * vx + s * vy, y: c * vy - s * vx
+			v.mul(cos).add(swapped.mul(sin)).intoArray(dst, dstOffset + i);
+		}
+
+		return floats / 2;
+	}
+
+	static int rotateVectors(float c, float s, float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+		int floats = SPECIES.loopBound(2 * count);
+
+		FloatVector cos = FloatVector.broadcast(SPECIES, c);
+		FloatVector sin = MINUS_PLUS.mul(s);
+
+		for (int i = 0; i < floats; i += SPECIES.length()) {
+			FloatVector v = FloatVector.fromArray(SPECIES, src, srcOffset + i);
+			FloatVector swapped = v.rearrange(SWAP_PAIRS);
+
+			v.mul(cos).add(swapped.mul(sin)).intoArray(dst, dstOffset + i);
+		}
+
+		return floats / 2;
+	}
+
+	static int invRotateVectors(float c, float s, float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+		int floats = SPECIES.loopBound(2 * count);
+
+		FloatVector cos = FloatVector.broadcast(SPECIES, c);
+		FloatVector sin = PLUS_MINUS.mul(s);
+
+		for (int i = 0; i < floats; i += SPECIES.length()) {
+			FloatVector v = FloatVector.fromArray(SPECIES, src, srcOffset + i);
+			FloatVector swapped = v.rearrange(SWAP_PAIRS);
+
+			v.mul(cos).add(swapped.mul(sin)).intoArray(dst, dstOffset + i);
+		}
+
+		return floats / 2;
+	}
+
+}
@@ -112,6 +112,26 @@ public final class SensorEvents {
 
 	}
 
+	/**
+	 * The raw b2SensorBeginTouchEvent array. Holds {@link #getBeginCount()} events
+	 * laid out as {@link SensorBeginTouchEvent#LAYOUT()}. Only valid until the
+	 * next step.
+	 */
+	public MemorySegment getBeginEvents() {
+		MemorySegment array = (MemorySegment) BEGIN_EVENTS.get(b2SensorEvents);
+		return array.asSlice(0L, getBeginCount() * SensorBeginTouchEvent.LAYOUT().byteSize());
+	}
+
+	/**
+	 * The raw b2SensorEndTouchEvent array. Holds {@link #getEndCount()} events
+	 * laid out as {@link SensorEndTouchEvent#LAYOUT()}. Only valid until the next
+	 * step.
+	 */
+	public MemorySegment getEndEvents() {
+		MemorySegment array = (MemorySegment) END_EVENTS.get(b2SensorEvents);
+		return array.asSlice(0L, getEndCount() * SensorEndTouchEvent.LAYOUT().byteSize());
+	}
+
 	/**
 	 * The number of begin sensor events.
 	 */
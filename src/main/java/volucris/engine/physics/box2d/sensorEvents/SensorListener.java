@@ -1,5 +1,6 @@
 package volucris.engine.physics.box2d.sensorEvents;
 
+import volucris.engine.physics.box2d.world.EventCapture;
 import volucris.engine.physics.box2d.world.World;
 
 public abstract class SensorListener implements SensorBeginHandler, SensorEndHandler {
@@ -13,6 +14,14 @@ public abstract class SensorListener implements SensorBeginHandler, SensorEndHan
 	public final void handleSensorEvents(World world) {
 		world.getSensorEvents(sensorEvents);
 
+		handleSensorEvents(sensorEvents);
+	}
+
+	/**
+	 * Handle previously captured sensor events, for example of an
+	 * {@link EventCapture} frame.
+	 */
+	public final void handleSensorEvents(SensorEvents sensorEvents) {
 		sensorEvents.handleBeginEvents(this);
 		sensorEvents.handleEndEvents(this);
 	}
@@ -85,7 +85,7 @@ public final class ChainDef {
 
 		POINTS = varHandle(LAYOUT, "points");
 		COUNT = varHandle(LAYOUT, "count");
-		MATERIALS = varHandle(LAYOUT, "metrials");
+		MATERIALS = varHandle(LAYOUT, "materials");
 		MATERIAL_COUNT = varHandle(LAYOUT, "materialCount");
 		IS_LOOP = varHandle(LAYOUT, "isLoop");
 		ENABLE_SENSOR_EVENTS = varHandle(LAYOUT, "enableSensorEvents");
@@ -137,6 +137,21 @@ public final class ChainDef {
 		COUNT.set(b2ChainDef, points.length);
 	}
 
+	/**
+	 * Copy at least 4 points stored as consecutive b2Vec2 from a segment.
+	 */
+	public void setPoints(MemorySegment points, long offset, int count) {
+		long byteSize = count * Vec2.LAYOUT().byteSize();
+
+		if (pointArray == null || pointArray.byteSize() < byteSize)
+			pointArray = arena.allocate(MemoryLayout.sequenceLayout(count, Vec2.LAYOUT()));
+
+		MemorySegment.copy(points, offset, pointArray, 0L, byteSize);
+
+		POINTS.set(b2ChainDef, pointArray);
+		COUNT.set(b2ChainDef, count);
+	}
+
 	/**
 	 * Surface materials for each segment. These are cloned.
 	 */
@@ -155,6 +170,23 @@ public final class ChainDef {
 		MATERIAL_COUNT.set(b2ChainDef, materials.length);
 	}
 
+	/**
+	 * Copy surface materials stored as consecutive b2SurfaceMaterial from a
+	 * segment. Either one material or one per point.
+	 */
+	public void setSurfaceMaterials(MemorySegment materials, long offset, int count) {
+		StructLayout layout = SurfaceMaterial.LAYOUT();
+		long byteSize = count * layout.byteSize();
+
+		if (materialArray == null || materialArray.byteSize() < byteSize)
+			materialArray = arena.allocate(MemoryLayout.sequenceLayout(count, layout));
+
+		MemorySegment.copy(materials, offset, materialArray, 0L, byteSize);
+
+		MATERIALS.set(b2ChainDef, materialArray);
+		MATERIAL_COUNT.set(b2ChainDef, count);
+	}
+
 	/**
 	 * Enable sensors to detect this chain. False by default.
 	 */
@@ -66,7 +66,7 @@ public final class QueryFilter {
 	 * The collision category bits of this query. Normally you would just set one
 	 * bit.
 	 */
-	public void setCategoryBits(float categoryBits) {
+	public void setCategoryBits(long categoryBits) {
 		CATEGORY_BITS.set(b2QueryFilter, categoryBits);
 	}
 
@@ -74,8 +74,8 @@ public final class QueryFilter {
 	 * The collision category bits of this query. Normally you would just set one
 	 * bit.
 	 */
-	public float getCategoryBits() {
-		return (float) CATEGORY_BITS.get(b2QueryFilter);
+	public long getCategoryBits() {
+		return (long) CATEGORY_BITS.get(b2QueryFilter);
 	}
 
 	/**
@@ -83,7 +83,7 @@ public final class QueryFilter {
 	 * <p>
 	 * This states the shape categories that this query would accept for collision.
 	 */
-	public void setMaskBits(float maskBits) {
+	public void setMaskBits(long maskBits) {
 		MASK_BITS.set(b2QueryFilter, maskBits);
 	}
 
@@ -92,8 +92,8 @@ public final class QueryFilter {
 	 * <p>
 	 * This states the shape categories that this query would accept for collision.
 	 */
-	public float getMaskBits() {
-		return (float) MASK_BITS.get(b2QueryFilter);
+	public long getMaskBits() {
+		return (long) MASK_BITS.get(b2QueryFilter);
 	}
 
 	public MemorySegment memorySegment() {
@@ -798,16 +798,24 @@ public final class Shape {
 	/**
 	 * Get a copy of the shape's convex polygon. Asserts the type is correct.
 	 */
-	public Polygon getPolygon() {
+	public Polygon getPolygon(Polygon target) {
 		try (Arena arena = Arena.ofConfined()) {
 			MemorySegment segment = (MemorySegment) B2_SHAPE_GET_POLYGON.invoke(arena, b2ShapeId);
-			return new Polygon(segment);
+			target.set(segment);
+			return target;
 		} catch (Throwable e) {
 			String className = e.getClass().getSimpleName();
-			throw new Box2DRuntimeException("Cannot get segment: " + className);
+			throw new Box2DRuntimeException("Cannot get polygon: " + className);
 		}
 	}
 
+	/**
+	 * Get a copy of the shape's convex polygon. Asserts the type is correct.
+	 */
+	public Polygon getPolygon() {
+		return getPolygon(new Polygon());
+	}
+
 	/**
 	 * Allows you to change a shape to be a circle or update the current circle.
 	 */
@@ -1044,6 +1052,24 @@ public final class Shape {
 		return new ShapeId(index1, world0, generation);
 	}
 
+	/**
+	 * Store a shape id into a long, like b2StoreShapeId. The null shape id is
+	 * stored as zero.
+	 */
+	public static long storeShapeId(MemorySegment memorySegment, long offset) {
+		long index1 = (int) INDEX_1.get(memorySegment, offset) & 0xFFFFFFFFL;
+		long world0 = (short) WORLD_0.get(memorySegment, offset) & 0xFFFFL;
+		long generation = (short) GENERATION.get(memorySegment, offset) & 0xFFFFL;
+		return (index1 << 32) | (world0 << 16) | generation;
+	}
+
+	/**
+	 * Load a shape id stored with {@link #storeShapeId}, like b2LoadShapeId.
+	 */
+	public static ShapeId loadShapeId(long id) {
+		return new ShapeId((int) (id >>> 32), (short) (id >>> 16), (short) id);
+	}
+
 	public static record ShapeId(int index1, short world0, short generation) {
 	};
 }
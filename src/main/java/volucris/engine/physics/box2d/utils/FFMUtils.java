@@ -79,6 +79,29 @@ public final class FFMUtils {
 		}
 	}
 
+	/**
+	 * Check that {@code size} elements starting at {@code offset} fit into an
+	 * array of the given length.
+	 */
+	public static void checkBounds(int length, long offset, long size, String name) {
+		if (offset < 0 || offset + size > length)
+			throw new ArrayIndexOutOfBoundsException(name + " range out of bounds: " + offset + ", " + size);
+	}
+
+	/**
+	 * Check an array of {@code count} elements with {@code stride} floats each.
+	 * An array that holds exactly one element is shared by all of them.
+	 *
+	 * @return true if the array is shared
+	 */
+	public static boolean checkBounds(float[] array, int stride, int count, String name) {
+		if (array.length == stride)
+			return true;
+
+		checkBounds(array.length, 0L, (long) count * stride, name);
+		return false;
+	}
+
 	public static FunctionDescriptor functionDescrVoid(MemoryLayout... argLayouts) {
 		return FunctionDescriptor.ofVoid(argLayouts);
 	}
@@ -0,0 +1,99 @@
+package volucris.engine.physics.box2d.utils;
+
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Slot table that maps Box2D context pointers to Java handlers.
+ * <p>
+ * A shared upcall stub passes the context pointer it receives to
+ * {@link #get(MemorySegment)} to find the handler of the current call. The
+ * context pointer is not a real address, it encodes the slot index. This lets
+ * one upcall stub per callback type serve any number of short-lived handlers.
+ * <p>
+ * Registering and releasing are synchronized, lookups are lock free.
+ * <p>
+ * An exception thrown by an upcall crashes the JVM, so a lookup of a released
+ * or unknown context returns null and the stub decides how to carry on.
+ */
+public final class HandlerTable<T> {
+
+	private volatile AtomicReferenceArray<T> handlers;
+
+	private int[] freeSlots;
+	private int freeCount;
+	private int slotCount;
+
+	public HandlerTable() {
+		this(16);
+	}
+
+	public HandlerTable(int initialCapacity) {
+		handlers = new AtomicReferenceArray<>(Math.max(initialCapacity, 1));
+		freeSlots = new int[Math.max(initialCapacity, 1)];
+	}
+
+	/**
+	 * Register a handler and return the context pointer that identifies it. The
+	 * handler stays registered until {@link #release(MemorySegment)} is called.
+	 */
+	public synchronized MemorySegment register(T handler) {
+		if (handler == null)
+			throw new IllegalArgumentException("Handler is null.");
+
+		int slot;
+		if (freeCount > 0) {
+			slot = freeSlots[--freeCount];
+		} else {
+			slot = slotCount++;
+
+			AtomicReferenceArray<T> current = handlers;
+			if (slot == current.length()) {
+				AtomicReferenceArray<T> grown = new AtomicReferenceArray<>(2 * current.length());
+				for (int i = 0; i < current.length(); i++)
+					grown.set(i, current.get(i));
+				handlers = grown;
+			}
+		}
+
+		handlers.set(slot, handler);
+		return MemorySegment.ofAddress(slot + 1L);
+	}
+
+	/**
+	 * The handler registered for a context pointer, or null if there is none.
+	 */
+	public T get(MemorySegment context) {
+		long slot = context.address() - 1L;
+
+		AtomicReferenceArray<T> current = handlers;
+		return slot >= 0 && slot < current.length() ? current.get((int) slot) : null;
+	}
+
+	/**
+	 * Release the slot of a context pointer returned by {@link #register}.
+	 */
+	public synchronized void release(MemorySegment context) {
+		int slot = (int) (context.address() - 1L);
+
+		if (slot < 0 || slot >= slotCount || handlers.get(slot) == null)
+			throw new IllegalArgumentException("Context is not registered: " + context.address());
+
+		handlers.set(slot, null);
+
+		if (freeCount == freeSlots.length) {
+			int[] grown = new int[2 * freeSlots.length];
+			System.arraycopy(freeSlots, 0, grown, 0, freeCount);
+			freeSlots = grown;
+		}
+		freeSlots[freeCount++] = slot;
+	}
+
+	/**
+	 * The number of registered handlers.
+	 */
+	public synchronized int size() {
+		return slotCount - freeCount;
+	}
+
+}
@@ -2,6 +2,16 @@ package volucris.engine.physics.box2d.utils;
 
 public final class MathUtils {
 
+	/**
+	 * Box2D's single precision pi (b2_pi).
+	 */
+	public static final float PI = 3.14159265359f;
+
+	private static final float TWO_PI = 2.0f * PI;
+	private static final float HALF_PI = 0.5f * PI;
+	private static final float PI_SQUARED = PI * PI;
+	private static final float FIVE_PI_SQUARED = 5.0f * PI_SQUARED;
+
 	private MathUtils() {
 
 	}
@@ -14,4 +24,100 @@ public final class MathUtils {
 		return (float) (radians * 180 / Math.PI);
 	}
 
+	/**
+	 * Compute an approximate arctangent in the range [-pi, pi]. This is hand coded
+	 * for cross-platform determinism. The atan2 function in the standard library
+	 * is not cross-platform deterministic. Accurate to around 0.0023 degrees.
+	 * <p>
+	 * Pure Java port of b2Atan2. The result is bit-identical to the native
+	 * function.
+	 */
+	public static float atan2(float y, float x) {
+		if (x == 0.0f && y == 0.0f)
+			return 0.0f;
+
+		float ax = x < 0.0f ? -x : x;
+		float ay = y < 0.0f ? -y : y;
+
+		// Same branch layout as the native build, so NaN and infinity map the same
+		// way
+		float a;
+		if (ay > ax)
+			a = ax / ay;
+		else if (ax > ay)
+			a = ay / ax;
+		else
+			a = ax / ax;
+
+		// Minimax polynomial approximation to atan(a) on [0,1]
+		float s = a * a;
+		float c = s * a;
+		float q = s * s;
+		float r = 0.024840285f * q + 0.18681418f;
+		float t = -0.094097948f * q - 0.33213072f;
+		r = r * s + t;
+		r = r * c + a;
+
+		// Map to full circle
+		if (ay > ax)
+			r = 1.57079637f - r;
+
+		if (x < 0.0f)
+			r = 3.14159274f - r;
+
+		if (y < 0.0f)
+			r = -r;
+
+		return r;
+	}
+
+	/**
+	 * Convert any angle into the range [-pi, pi].
+	 */
+	public static float unwindAngle(float radians) {
+		return (float) Math.IEEEremainder(radians, TWO_PI);
+	}
+
+	/**
+	 * Compute the cosine and sine of an angle in radians. Implemented for
+	 * cross-platform determinism.
+	 * <p>
+	 * Pure Java port of b2ComputeCosSin. The cosine is written to
+	 * {@code target[offset]} and the sine to {@code target[offset + 1]}. The
+	 * result is bit-identical to the native function.
+	 */
+	public static void computeCosSin(float radians, float[] target, int offset) {
+		float x = unwindAngle(radians);
+
+		// cosine needs angle in [-pi/2, pi/2]
+		float c;
+		if (x < -HALF_PI) {
+			float y = x + PI;
+			float y2 = y * y;
+			c = -(PI_SQUARED - 4.0f * y2) / (PI_SQUARED + y2);
+		} else if (x > HALF_PI) {
+			float y = x - PI;
+			float y2 = y * y;
+			c = -(PI_SQUARED - 4.0f * y2) / (PI_SQUARED + y2);
+		} else {
+			float y2 = x * x;
+			c = (PI_SQUARED - 4.0f * y2) / (PI_SQUARED + y2);
+		}
+
+		// sine needs angle in [0, pi]
+		float s;
+		if (x < 0.0f) {
+			float y = x + PI;
+			s = -16.0f * y * (PI - y) / (FIVE_PI_SQUARED - 4.0f * y * (PI - y));
+		} else {
+			s = 16.0f * x * (PI - x) / (FIVE_PI_SQUARED - 4.0f * x * (PI - x));
+		}
+
+		float mag = (float) Math.sqrt(s * s + c * c);
+		float invMag = mag > 0.0f ? 1.0f / mag : 0.0f;
+
+		target[offset] = c * invMag;
+		target[offset + 1] = s * invMag;
+	}
+
 }
@@ -0,0 +1,198 @@
+package volucris.engine.physics.box2d.utils;
+
+import java.util.Arrays;
+
+/**
+ * Assigns dense int slots to long keys, for example body ids stored with
+ * {@link volucris.engine.physics.box2d.body.Body#storeBodyId}.
+ * <p>
+ * Keys are found through an open addressing hash table on primitive arrays,
+ * so lookups do not box or allocate. Removed slots go to a free list and are
+ * handed out again before new ones, which keeps the slot range compact. Zero
+ * is not a valid key.
+ */
+public final class SlotMap {
+
+	public static final int NONE = -1;
+
+	private long[] keys;
+	private int[] values;
+	private int mask;
+
+	private long[] slotKeys;
+	private int[] freeNext;
+	private int freeSlot;
+	private int slotCount;
+	private int size;
+
+	public SlotMap() {
+		this(16);
+	}
+
+	public SlotMap(int initialCapacity) {
+		if (initialCapacity < 0)
+			throw new IllegalArgumentException("Negative capacity: " + initialCapacity);
+
+		int capacity = Math.max(initialCapacity, 1);
+		int tableSize = Integer.highestOneBit(Math.max(2 * capacity - 1, 8)) << 1;
+
+		keys = new long[tableSize];
+		values = new int[tableSize];
+		mask = tableSize - 1;
+
+		slotKeys = new long[capacity];
+		freeNext = new int[capacity];
+		freeSlot = NONE;
+	}
+
+	/**
+	 * The slot of a key, or {@link #NONE}.
+	 */
+	public int get(long key) {
+		int position = find(key);
+		return position == NONE ? NONE : values[position];
+	}
+
+	/**
+	 * The slot of a key. A key that is not in the map gets a new slot.
+	 */
+	public int obtain(long key) {
+		int position = find(key);
+		return position == NONE ? add(key) : values[position];
+	}
+
+	/**
+	 * Give a new slot to a key that is not in the map.
+	 *
+	 * @return the new slot
+	 */
+	public int add(long key) {
+		if (key == 0L)
+			throw new IllegalArgumentException("Zero key.");
+
+		int slot;
+		if (freeSlot != NONE) {
+			slot = freeSlot;
+			freeSlot = freeNext[slot];
+		} else {
+			if (slotCount == slotKeys.length) {
+				slotKeys = Arrays.copyOf(slotKeys, 2 * slotCount);
+				freeNext = Arrays.copyOf(freeNext, 2 * slotCount);
+			}
+			slot = slotCount++;
+		}
+
+		if (2 * (size + 1) > keys.length)
+			grow();
+
+		int i = mix(key) & mask;
+		while (keys[i] != 0L)
+			i = (i + 1) & mask;
+
+		keys[i] = key;
+		values[i] = slot;
+		slotKeys[slot] = key;
+		size++;
+		return slot;
+	}
+
+	/**
+	 * Remove a key and free its slot.
+	 *
+	 * @return the freed slot, or {@link #NONE} if the key was not in the map
+	 */
+	public int remove(long key) {
+		int hole = find(key);
+		if (hole == NONE)
+			return NONE;
+
+		int slot = values[hole];
+
+		// Backward shift deletion keeps the probe sequences intact
+		for (int i = (hole + 1) & mask; keys[i] != 0L; i = (i + 1) & mask) {
+			int home = mix(keys[i]) & mask;
+			if (((i - home) & mask) >= ((i - hole) & mask)) {
+				keys[hole] = keys[i];
+				values[hole] = values[i];
+				hole = i;
+			}
+		}
+		keys[hole] = 0L;
+
+		slotKeys[slot] = 0L;
+		freeNext[slot] = freeSlot;
+		freeSlot = slot;
+		size--;
+		return slot;
+	}
+
+	/**
+	 * Remove all keys and free all slots.
+	 */
+	public void clear() {
+		Arrays.fill(keys, 0L);
+		Arrays.fill(slotKeys, 0, slotCount, 0L);
+		freeSlot = NONE;
+		slotCount = 0;
+		size = 0;
+	}
+
+	/**
+	 * The key of a slot, or zero if the slot is free.
+	 */
+	public long getKey(int slot) {
+		return slotKeys[slot];
+	}
+
+	/**
+	 * The number of slots handed out so far, free ones included. All slots are
+	 * below this.
+	 */
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * The number of keys.
+	 */
+	public int size() {
+		return size;
+	}
+
+	private int find(long key) {
+		for (int i = mix(key) & mask;; i = (i + 1) & mask) {
+			long current = keys[i];
+			if (current == key)
+				return current == 0L ? NONE : i;
+			if (current == 0L)
+				return NONE;
+		}
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+
+		keys = new long[2 * oldKeys.length];
+		values = new int[2 * oldKeys.length];
+		mask = keys.length - 1;
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == 0L)
+				continue;
+
+			int j = mix(oldKeys[i]) & mask;
+			while (keys[j] != 0L)
+				j = (j + 1) & mask;
+
+			keys[j] = oldKeys[i];
+			values[j] = oldValues[i];
+		}
+	}
+
+	private static int mix(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+}
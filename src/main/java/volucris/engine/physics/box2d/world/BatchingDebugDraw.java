@@ -0,0 +1,598 @@
+package volucris.engine.physics.box2d.world;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.lang.foreign.ValueLayout.OfInt;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import org.joml.Vector2f;
+
+import volucris.engine.physics.box2d.math.Transform;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * A debug draw that accumulates all primitives of {@link World#draw} into
+ * off-heap buffers ready for upload to the GPU.
+ * <p>
+ * The primitives are sorted into one {@link Batch} per type:
+ * <ul>
+ * <li>lines: two vertices per line, x, y
+ * <li>triangles: three vertices per triangle, x, y. Solid polygons are
+ * triangulated as fans, their outlines go to the lines.
+ * <li>circles: one instance per circle, x, y, radius
+ * <li>solid circles: one instance per circle, x, y, radius, cos, sin
+ * <li>capsules: one instance per capsule, x1, y1, x2, y2, radius
+ * <li>points: one instance per point, x, y, size
+ * <li>strings: one instance per string, x, y. The null terminated UTF-8 text
+ * is stored in {@link #getStringBytes()} at the offsets of
+ * {@link #getStringOffsets()}.
+ * </ul>
+ * Every element has one color, stored as RGBA bytes. Triangles use the fill
+ * alpha, everything else is opaque.
+ * <p>
+ * The upcalls read the Box2D arguments directly, no Java objects are created
+ * per primitive. The buffers only grow and are reused by the next frame.
+ * Growing replaces the segments, so get them again after each frame. All
+ * buffers are allocated in the arena of the constructor, replaced ones are
+ * freed with it.
+ * <p>
+ * The abstract draw methods append to the same buffers, so custom overlays
+ * can be added between {@link #clear()} and the upload.
+ */
+public class BatchingDebugDraw extends DebugDraw {
+
+	/**
+	 * Little endian ints store 0xAABBGGRR as R, G, B, A bytes.
+	 */
+	private static final OfInt RGBA = JAVA_INT.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+	private static final long POSITION_X_OFFSET;
+	private static final long POSITION_Y_OFFSET;
+	private static final long ROTATION_C_OFFSET;
+	private static final long ROTATION_S_OFFSET;
+
+	private final Arena arena;
+
+	private final Batch lines;
+	private final Batch triangles;
+	private final Batch circles;
+	private final Batch solidCircles;
+	private final Batch capsules;
+	private final Batch points;
+	private final Batch strings;
+
+	private MemorySegment stringOffsets;
+	private MemorySegment stringBytes;
+	private long stringByteCount;
+
+	private float[] polygon;
+
+	private int fillAlpha;
+	private float transformScale;
+
+	static {
+		POSITION_X_OFFSET = transformOffset("p", "x");
+		POSITION_Y_OFFSET = transformOffset("p", "y");
+		ROTATION_C_OFFSET = transformOffset("q", "c");
+		ROTATION_S_OFFSET = transformOffset("q", "s");
+	}
+
+	public BatchingDebugDraw() {
+		this(Arena.ofAuto());
+	}
+
+	public BatchingDebugDraw(Arena arena) {
+		super(arena);
+
+		this.arena = arena;
+
+		lines = new Batch(arena, 2, 1024);
+		triangles = new Batch(arena, 2, 1024);
+		circles = new Batch(arena, 3, 64);
+		solidCircles = new Batch(arena, 5, 256);
+		capsules = new Batch(arena, 5, 64);
+		points = new Batch(arena, 3, 64);
+		strings = new Batch(arena, 2, 16);
+
+		stringOffsets = arena.allocate(JAVA_LONG, strings.capacity);
+		stringBytes = arena.allocate(256);
+
+		polygon = new float[16];
+
+		fillAlpha = 0x80;
+		transformScale = 0.2f;
+	}
+
+	/**
+	 * Reset all batches. Call before {@link World#draw}.
+	 */
+	public void clear() {
+		lines.count = 0;
+		triangles.count = 0;
+		circles.count = 0;
+		solidCircles.count = 0;
+		capsules.count = 0;
+		points.count = 0;
+		strings.count = 0;
+		stringByteCount = 0;
+	}
+
+	/**
+	 * Clear the batches and draw the world into them.
+	 */
+	public void draw(World world) {
+		clear();
+		world.draw(this);
+	}
+
+	@Override
+	protected void drawPolygon(MemorySegment vertices, int vertexCount, int color, MemorySegment context) {
+		float[] polygon = polygon(vertexCount);
+		MemorySegment.copy(vertices, JAVA_FLOAT, 0L, polygon, 0, 2 * vertexCount);
+		addOutline(polygon, vertexCount, rgba(color, 0xFF));
+	}
+
+	@Override
+	protected void drawSolidPolygon(MemorySegment transform, MemorySegment vertices, int vertexCount, float radius,
+			int color, MemorySegment context) {
+		float[] polygon = polygon(vertexCount);
+		MemorySegment.copy(vertices, JAVA_FLOAT, 0L, polygon, 0, 2 * vertexCount);
+		addSolidPolygon(transform, polygon, vertexCount, radius, color);
+	}
+
+	@Override
+	protected void drawCircle(MemorySegment center, float radius, int color, MemorySegment context) {
+		int index = circles.add(rgba(color, 0xFF));
+		circles.put(index, 0, center.get(JAVA_FLOAT, 0L));
+		circles.put(index, 1, center.get(JAVA_FLOAT, 4L));
+		circles.put(index, 2, radius);
+	}
+
+	@Override
+	protected void drawSolidCircle(MemorySegment transform, float radius, int color, MemorySegment context) {
+		int index = solidCircles.add(rgba(color, 0xFF));
+		solidCircles.put(index, 0, transform.get(JAVA_FLOAT, POSITION_X_OFFSET));
+		solidCircles.put(index, 1, transform.get(JAVA_FLOAT, POSITION_Y_OFFSET));
+		solidCircles.put(index, 2, radius);
+		solidCircles.put(index, 3, transform.get(JAVA_FLOAT, ROTATION_C_OFFSET));
+		solidCircles.put(index, 4, transform.get(JAVA_FLOAT, ROTATION_S_OFFSET));
+	}
+
+	@Override
+	protected void drawSolidCapsule(MemorySegment p1, MemorySegment p2, float radius, int color,
+			MemorySegment context) {
+		addCapsule(p1.get(JAVA_FLOAT, 0L), p1.get(JAVA_FLOAT, 4L), p2.get(JAVA_FLOAT, 0L), p2.get(JAVA_FLOAT, 4L),
+				radius, color);
+	}
+
+	@Override
+	protected void drawSegment(MemorySegment p1, MemorySegment p2, int color, MemorySegment context) {
+		addLine(p1.get(JAVA_FLOAT, 0L), p1.get(JAVA_FLOAT, 4L), p2.get(JAVA_FLOAT, 0L), p2.get(JAVA_FLOAT, 4L),
+				rgba(color, 0xFF));
+	}
+
+	@Override
+	protected void drawTransform(MemorySegment transform, MemorySegment context) {
+		float x = transform.get(JAVA_FLOAT, POSITION_X_OFFSET);
+		float y = transform.get(JAVA_FLOAT, POSITION_Y_OFFSET);
+		float c = transform.get(JAVA_FLOAT, ROTATION_C_OFFSET);
+		float s = transform.get(JAVA_FLOAT, ROTATION_S_OFFSET);
+
+		float scale = transformScale;
+		addLine(x, y, x + scale * c, y + scale * s, rgba(0xFF0000, 0xFF));
+		addLine(x, y, x - scale * s, y + scale * c, rgba(0x00FF00, 0xFF));
+	}
+
+	@Override
+	protected void drawPoint(MemorySegment p, float size, int color, MemorySegment context) {
+		addPoint(p.get(JAVA_FLOAT, 0L), p.get(JAVA_FLOAT, 4L), size, color);
+	}
+
+	@Override
+	protected void drawString(MemorySegment p, MemorySegment string, int color, MemorySegment context) {
+		long length = 0;
+		while (string.get(JAVA_BYTE, length) != 0)
+			length++;
+
+		int index = addString(p.get(JAVA_FLOAT, 0L), p.get(JAVA_FLOAT, 4L), length, color);
+		MemorySegment.copy(string, 0L, stringBytes, stringOffsets.getAtIndex(JAVA_LONG, index), length);
+	}
+
+	@Override
+	protected void drawPolygon(float[] vertices, int vertexCount, int color) {
+		addOutline(vertices, vertexCount / 2, rgba(color, 0xFF));
+	}
+
+	@Override
+	protected void drawSolidPolygon(Transform transform, float[] vertices, int vertexCount, float radius, int color) {
+		float[] polygon = polygon(vertexCount / 2);
+		System.arraycopy(vertices, 0, polygon, 0, vertexCount);
+		addSolidPolygon(transform.memorySegment(), polygon, vertexCount / 2, radius, color);
+	}
+
+	@Override
+	protected void drawCircle(Vector2f center, float radius, int color) {
+		int index = circles.add(rgba(color, 0xFF));
+		circles.put(index, 0, center.x);
+		circles.put(index, 1, center.y);
+		circles.put(index, 2, radius);
+	}
+
+	@Override
+	protected void drawSolidCircle(Transform transform, float radius, int color) {
+		drawSolidCircle(transform.memorySegment(), radius, color, MemorySegment.NULL);
+	}
+
+	@Override
+	protected void drawSolidCapsule(Vector2f p1, Vector2f p2, float radius, int color) {
+		addCapsule(p1.x, p1.y, p2.x, p2.y, radius, color);
+	}
+
+	@Override
+	protected void drawSegment(Vector2f p1, Vector2f p2, int color) {
+		addLine(p1.x, p1.y, p2.x, p2.y, rgba(color, 0xFF));
+	}
+
+	@Override
+	protected void drawPoint(Vector2f p, float size, int color) {
+		addPoint(p.x, p.y, size, color);
+	}
+
+	@Override
+	protected void drawTransform(Transform transform) {
+		drawTransform(transform.memorySegment(), MemorySegment.NULL);
+	}
+
+	@Override
+	protected void drawString(Vector2f p, String string, int color) {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+
+		int index = addString(p.x, p.y, bytes.length, color);
+		MemorySegment.copy(bytes, 0, stringBytes, JAVA_BYTE, stringOffsets.getAtIndex(JAVA_LONG, index), bytes.length);
+	}
+
+	private void addLine(float x1, float y1, float x2, float y2, int rgba) {
+		int index = lines.add(rgba);
+		lines.put(index, 0, x1);
+		lines.put(index, 1, y1);
+
+		index = lines.add(rgba);
+		lines.put(index, 0, x2);
+		lines.put(index, 1, y2);
+	}
+
+	private void addOutline(float[] vertices, int vertexCount, int rgba) {
+		for (int i = 0; i < vertexCount; i++) {
+			int j = i + 1 < vertexCount ? i + 1 : 0;
+			addLine(vertices[2 * i], vertices[2 * i + 1], vertices[2 * j], vertices[2 * j + 1], rgba);
+		}
+	}
+
+	/**
+	 * Transform the polygon to world space, push rounded polygons out by their
+	 * radius and add the fill triangles and the outline.
+	 */
+	private void addSolidPolygon(MemorySegment transform, float[] vertices, int vertexCount, float radius, int color) {
+		float px = transform.get(JAVA_FLOAT, POSITION_X_OFFSET);
+		float py = transform.get(JAVA_FLOAT, POSITION_Y_OFFSET);
+		float c = transform.get(JAVA_FLOAT, ROTATION_C_OFFSET);
+		float s = transform.get(JAVA_FLOAT, ROTATION_S_OFFSET);
+
+		if (radius > 0.0f && vertexCount > 2)
+			inflate(vertices, vertexCount, radius);
+
+		for (int i = 0; i < vertexCount; i++) {
+			float x = vertices[2 * i];
+			float y = vertices[2 * i + 1];
+			vertices[2 * i] = c * x - s * y + px;
+			vertices[2 * i + 1] = s * x + c * y + py;
+		}
+
+		int fill = rgba(color, fillAlpha);
+		for (int i = 1; i < vertexCount - 1; i++) {
+			addVertex(triangles, vertices[0], vertices[1], fill);
+			addVertex(triangles, vertices[2 * i], vertices[2 * i + 1], fill);
+			addVertex(triangles, vertices[2 * i + 2], vertices[2 * i + 3], fill);
+		}
+
+		addOutline(vertices, vertexCount, rgba(color, 0xFF));
+	}
+
+	/**
+	 * Move the vertices of a convex CCW polygon out along the mitered edge
+	 * normals. Approximates the rounded corners with sharp ones.
+	 */
+	private void inflate(float[] vertices, int vertexCount, float radius) {
+		float[] inflated = polygon;
+		int offset = 2 * vertexCount;
+
+		for (int i = 0; i < vertexCount; i++) {
+			int previous = i > 0 ? i - 1 : vertexCount - 1;
+			int next = i + 1 < vertexCount ? i + 1 : 0;
+
+			float n1x = vertices[2 * i + 1] - vertices[2 * previous + 1];
+			float n1y = vertices[2 * previous] - vertices[2 * i];
+			float n2x = vertices[2 * next + 1] - vertices[2 * i + 1];
+			float n2y = vertices[2 * i] - vertices[2 * next];
+
+			float length1 = (float) Math.sqrt(n1x * n1x + n1y * n1y);
+			float length2 = (float) Math.sqrt(n2x * n2x + n2y * n2y);
+			if (length1 > 0.0f) {
+				n1x /= length1;
+				n1y /= length1;
+			}
+			if (length2 > 0.0f) {
+				n2x /= length2;
+				n2y /= length2;
+			}
+
+			float scale = radius / Math.max(1.0f + n1x * n2x + n1y * n2y, 0.1f);
+			inflated[offset + 2 * i] = vertices[2 * i] + (n1x + n2x) * scale;
+			inflated[offset + 2 * i + 1] = vertices[2 * i + 1] + (n1y + n2y) * scale;
+		}
+
+		System.arraycopy(inflated, offset, vertices, 0, 2 * vertexCount);
+	}
+
+	private void addCapsule(float x1, float y1, float x2, float y2, float radius, int color) {
+		int index = capsules.add(rgba(color, 0xFF));
+		capsules.put(index, 0, x1);
+		capsules.put(index, 1, y1);
+		capsules.put(index, 2, x2);
+		capsules.put(index, 3, y2);
+		capsules.put(index, 4, radius);
+	}
+
+	private void addPoint(float x, float y, float size, int color) {
+		int index = points.add(rgba(color, 0xFF));
+		points.put(index, 0, x);
+		points.put(index, 1, y);
+		points.put(index, 2, size);
+	}
+
+	/**
+	 * Add a string instance and reserve {@code length} + 1 bytes for its text.
+	 * The terminating zero is written here.
+	 */
+	private int addString(float x, float y, long length, int color) {
+		int index = strings.add(rgba(color, 0xFF));
+		strings.put(index, 0, x);
+		strings.put(index, 1, y);
+
+		if (stringOffsets.byteSize() < 8L * strings.capacity) {
+			MemorySegment newOffsets = arena.allocate(JAVA_LONG, strings.capacity);
+			MemorySegment.copy(stringOffsets, 0L, newOffsets, 0L, 8L * index);
+			stringOffsets = newOffsets;
+		}
+
+		if (stringBytes.byteSize() < stringByteCount + length + 1) {
+			long capacity = Math.max(2 * stringBytes.byteSize(), stringByteCount + length + 1);
+			MemorySegment newBytes = arena.allocate(capacity);
+			MemorySegment.copy(stringBytes, 0L, newBytes, 0L, stringByteCount);
+			stringBytes = newBytes;
+		}
+
+		stringOffsets.setAtIndex(JAVA_LONG, index, stringByteCount);
+		stringBytes.set(JAVA_BYTE, stringByteCount + length, (byte) 0);
+		stringByteCount += length + 1;
+
+		return index;
+	}
+
+	private static void addVertex(Batch batch, float x, float y, int rgba) {
+		int index = batch.add(rgba);
+		batch.put(index, 0, x);
+		batch.put(index, 1, y);
+	}
+
+	/**
+	 * Scratch for one polygon and its inflated copy.
+	 */
+	private float[] polygon(int vertexCount) {
+		if (polygon.length < 4 * vertexCount)
+			polygon = new float[4 * vertexCount];
+		return polygon;
+	}
+
+	private static int rgba(int color, int alpha) {
+		int r = (color >> 16) & 0xFF;
+		int g = (color >> 8) & 0xFF;
+		int b = color & 0xFF;
+		return (alpha << 24) | (b << 16) | (g << 8) | r;
+	}
+
+	private static long transformOffset(String field, String component) {
+		return Transform.LAYOUT().byteOffset(PathElement.groupElement(field), PathElement.groupElement(component));
+	}
+
+	/**
+	 * Alpha of the triangle fill color, 0 to 255. Default 128.
+	 */
+	public void setFillAlpha(int fillAlpha) {
+		this.fillAlpha = fillAlpha & 0xFF;
+	}
+
+	public int getFillAlpha() {
+		return fillAlpha;
+	}
+
+	/**
+	 * Length of the axes drawn for transforms. Default 0.2.
+	 */
+	public void setTransformScale(float transformScale) {
+		this.transformScale = transformScale;
+	}
+
+	public float getTransformScale() {
+		return transformScale;
+	}
+
+	/**
+	 * Line vertices, two per line.
+	 */
+	public Batch getLines() {
+		return lines;
+	}
+
+	/**
+	 * Triangle vertices, three per triangle.
+	 */
+	public Batch getTriangles() {
+		return triangles;
+	}
+
+	/**
+	 * Circle instances: x, y, radius.
+	 */
+	public Batch getCircles() {
+		return circles;
+	}
+
+	/**
+	 * Solid circle instances: x, y, radius, cos, sin.
+	 */
+	public Batch getSolidCircles() {
+		return solidCircles;
+	}
+
+	/**
+	 * Capsule instances: x1, y1, x2, y2, radius.
+	 */
+	public Batch getCapsules() {
+		return capsules;
+	}
+
+	/**
+	 * Point instances: x, y, size.
+	 */
+	public Batch getPoints() {
+		return points;
+	}
+
+	/**
+	 * String instances: x, y.
+	 */
+	public Batch getStrings() {
+		return strings;
+	}
+
+	/**
+	 * The byte offset of each string into {@link #getStringBytes()}. Holds one
+	 * long per string.
+	 */
+	public MemorySegment getStringOffsets() {
+		return stringOffsets;
+	}
+
+	/**
+	 * The null terminated UTF-8 text of all strings. Holds
+	 * {@link #getStringByteCount()} valid bytes.
+	 */
+	public MemorySegment getStringBytes() {
+		return stringBytes;
+	}
+
+	public long getStringByteCount() {
+		return stringByteCount;
+	}
+
+	/**
+	 * One primitive type. The data buffer holds {@link #getStride()} floats per
+	 * element, the color buffer one RGBA int per element.
+	 */
+	public static final class Batch {
+
+		private final Arena arena;
+		private final int stride;
+
+		private MemorySegment data;
+		private MemorySegment colors;
+
+		private int capacity;
+		private int count;
+
+		private Batch(Arena arena, int stride, int initialCapacity) {
+			this.arena = arena;
+			this.stride = stride;
+			allocate(initialCapacity);
+		}
+
+		private int add(int rgba) {
+			if (count == capacity)
+				allocate(2 * capacity);
+
+			colors.setAtIndex(RGBA, count, rgba);
+			return count++;
+		}
+
+		private void put(int index, int component, float value) {
+			data.setAtIndex(JAVA_FLOAT, (long) index * stride + component, value);
+		}
+
+		private void allocate(int capacity) {
+			MemorySegment newData = arena.allocate(JAVA_FLOAT, (long) stride * capacity);
+			MemorySegment newColors = arena.allocate(JAVA_INT, capacity);
+
+			if (count > 0) {
+				MemorySegment.copy(data, 0L, newData, 0L, 4L * stride * count);
+				MemorySegment.copy(colors, 0L, newColors, 0L, 4L * count);
+			}
+
+			data = newData;
+			colors = newColors;
+			this.capacity = capacity;
+		}
+
+		/**
+		 * The number of elements.
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * The number of floats per element.
+		 */
+		public int getStride() {
+			return stride;
+		}
+
+		public int getCapacity() {
+			return capacity;
+		}
+
+		/**
+		 * The element data. Holds {@link #getCount()} times {@link #getStride()}
+		 * valid floats.
+		 */
+		public MemorySegment getData() {
+			return data;
+		}
+
+		/**
+		 * The element colors as RGBA bytes. Holds {@link #getCount()} valid ints.
+		 */
+		public MemorySegment getColors() {
+			return colors;
+		}
+
+		/**
+		 * The number of valid bytes in {@link #getData()}.
+		 */
+		public long getDataByteSize() {
+			return 4L * stride * count;
+		}
+
+		/**
+		 * The number of valid bytes in {@link #getColors()}.
+		 */
+		public long getColorsByteSize() {
+			return 4L * count;
+		}
+
+	}
+
+}
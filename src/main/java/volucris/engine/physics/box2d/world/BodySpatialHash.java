@@ -0,0 +1,423 @@
+package volucris.engine.physics.box2d.world;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import volucris.engine.physics.box2d.body.Body;
+import volucris.engine.physics.box2d.bodyEvents.BodyEvents;
+import volucris.engine.physics.box2d.bodyEvents.BodyMoveEvent;
+import volucris.engine.physics.box2d.math.Transform;
+import volucris.engine.physics.box2d.utils.SlotMap;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Java side spatial hash of body positions for radius and nearest neighbor
+ * queries.
+ * <p>
+ * Call {@link #update(World)} after each step. It reads the body move events
+ * of the step and moves every reported body to the bucket of its new cell, so
+ * the cost is proportional to the number of moved bodies. Bodies that never
+ * move, like static bodies, are not reported by Box2D; add them with
+ * {@link #put(long, float, float)}. Destroyed bodies must be removed with
+ * {@link #remove(long)}. Bodies are identified by ids stored with
+ * {@link Body#storeBodyId}, positions are body origins.
+ * <p>
+ * All data lives in primitive arrays. Queries only visit the cells between the
+ * lowest and highest occupied cell, and fall back to a scan of all bodies when
+ * that is cheaper, so a huge or infinite radius is not a problem. Queries take
+ * a read lock and may run on
+ * many threads at once, also while the world is stepping. Only
+ * {@link #update(World)}, {@link #put}, {@link #remove} and {@link #clear()}
+ * take the write lock. Call {@link #update(World)} from one thread at a time.
+ */
+public final class BodySpatialHash {
+
+	private static final long MOVE_EVENT_SIZE;
+	private static final long MOVE_EVENT_BODY_ID_OFFSET;
+	private static final long MOVE_EVENT_POSITION_OFFSET;
+
+	private static final int NONE = SlotMap.NONE;
+
+	private final ReentrantReadWriteLock lock;
+
+	private final float cellSize;
+	private final float inverseCellSize;
+
+	private final int[] bucketHeads;
+	private final int bucketMask;
+
+	private final SlotMap slots;
+
+	private float[] positionsX;
+	private float[] positionsY;
+	private int[] cellsX;
+	private int[] cellsY;
+	private int[] next;
+	private int[] previous;
+
+	private int minCellX;
+	private int minCellY;
+	private int maxCellX;
+	private int maxCellY;
+
+	private final BodyEvents bodyEvents;
+
+	static {
+		MOVE_EVENT_SIZE = BodyMoveEvent.LAYOUT().byteSize();
+		MOVE_EVENT_BODY_ID_OFFSET = BodyMoveEvent.LAYOUT().byteOffset(PathElement.groupElement("bodyId"));
+
+		long transformOffset = BodyMoveEvent.LAYOUT().byteOffset(PathElement.groupElement("transform"));
+		MOVE_EVENT_POSITION_OFFSET = transformOffset + Transform.LAYOUT().byteOffset(PathElement.groupElement("p"));
+	}
+
+	/**
+	 * @param cellSize         The edge length of a grid cell. About the typical
+	 *                         query radius works well.
+	 * @param expectedBodyCount The expected number of bodies. The arrays grow if
+	 *                         needed.
+	 */
+	public BodySpatialHash(float cellSize, int expectedBodyCount) {
+		if (!(cellSize > 0.0f))
+			throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+		if (expectedBodyCount < 0)
+			throw new IllegalArgumentException("Negative body count: " + expectedBodyCount);
+
+		this.cellSize = cellSize;
+		this.inverseCellSize = 1.0f / cellSize;
+
+		lock = new ReentrantReadWriteLock();
+
+		int bucketCount = Integer.highestOneBit(Math.max(2 * expectedBodyCount - 1, 16)) << 1;
+		bucketHeads = new int[bucketCount];
+		bucketMask = bucketCount - 1;
+		Arrays.fill(bucketHeads, NONE);
+
+		int capacity = Math.max(expectedBodyCount, 16);
+		slots = new SlotMap(capacity);
+		positionsX = new float[capacity];
+		positionsY = new float[capacity];
+		cellsX = new int[capacity];
+		cellsY = new int[capacity];
+		next = new int[capacity];
+		previous = new int[capacity];
+		resetBounds();
+
+		bodyEvents = new BodyEvents(Arena.ofAuto());
+	}
+
+	/**
+	 * Apply the body move events of the last step.
+	 */
+	public void update(World world) {
+		world.getBodyEvents(bodyEvents);
+
+		MemorySegment events = bodyEvents.getMoveEvents();
+		int moveCount = bodyEvents.getMoveCount();
+
+		lock.writeLock().lock();
+		try {
+			for (int i = 0; i < moveCount; i++) {
+				long offset = i * MOVE_EVENT_SIZE;
+
+				long bodyId = Body.storeBodyId(events, offset + MOVE_EVENT_BODY_ID_OFFSET);
+				float x = events.get(JAVA_FLOAT, offset + MOVE_EVENT_POSITION_OFFSET);
+				float y = events.get(JAVA_FLOAT, offset + MOVE_EVENT_POSITION_OFFSET + 4);
+
+				putInternal(bodyId, x, y);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Insert a body or move it to a new position.
+	 */
+	public void put(long bodyId, float x, float y) {
+		if (bodyId == 0L)
+			throw new IllegalArgumentException("Null body id.");
+
+		lock.writeLock().lock();
+		try {
+			putInternal(bodyId, x, y);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Remove a body.
+	 *
+	 * @return false if the body was not in the hash
+	 */
+	public boolean remove(long bodyId) {
+		lock.writeLock().lock();
+		try {
+			int index = slots.remove(bodyId);
+			if (index == NONE)
+				return false;
+
+			unlink(index);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Remove all bodies.
+	 */
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			Arrays.fill(bucketHeads, NONE);
+			slots.clear();
+			resetBounds();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Collect the bodies within {@code radius} of a point.
+	 *
+	 * @param results Receives the stored body ids.
+	 * @return the number of bodies found. Only the first {@code results.length}
+	 *         are written.
+	 */
+	public int queryRadius(float x, float y, float radius, long[] results) {
+		float radiusSquared = radius * radius;
+
+		lock.readLock().lock();
+		try {
+			int minX = Math.max(cell(x - radius), minCellX);
+			int minY = Math.max(cell(y - radius), minCellY);
+			int maxX = Math.min(cell(x + radius), maxCellX);
+			int maxY = Math.min(cell(y + radius), maxCellY);
+
+			if (minX > maxX || minY > maxY)
+				return 0;
+
+			int found = 0;
+
+			long cellCount = ((long) maxX - minX + 1) * ((long) maxY - minY + 1);
+			if (cellCount > slots.getSlotCount()) {
+				for (int i = 0; i < slots.getSlotCount(); i++) {
+					long bodyId = slots.getKey(i);
+					if (bodyId != 0L)
+						found = collect(i, bodyId, x, y, radiusSquared, results, found);
+				}
+				return found;
+			}
+
+			for (int cy = minY; cy <= maxY; cy++) {
+				for (int cx = minX; cx <= maxX; cx++) {
+					for (int i = bucketHeads[bucket(cx, cy)]; i != NONE; i = next[i]) {
+						if (cellsX[i] == cx && cellsY[i] == cy)
+							found = collect(i, slots.getKey(i), x, y, radiusSquared, results, found);
+					}
+				}
+			}
+
+			return found;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private int collect(int index, long bodyId, float x, float y, float radiusSquared, long[] results, int found) {
+		float dx = positionsX[index] - x;
+		float dy = positionsY[index] - y;
+		if (dx * dx + dy * dy > radiusSquared)
+			return found;
+
+		if (found < results.length)
+			results[found] = bodyId;
+		return found + 1;
+	}
+
+	/**
+	 * Collect the {@code k} bodies nearest to a point, closest first.
+	 *
+	 * @param maxRadius        Bodies further away are ignored.
+	 * @param results          Receives the stored body ids. Needs room for k ids.
+	 * @param distancesSquared Receives the squared distances. Needs room for k
+	 *                         floats.
+	 * @return the number of bodies found, at most k
+	 */
+	public int queryNearest(float x, float y, int k, float maxRadius, long[] results, float[] distancesSquared) {
+		if (k < 0)
+			throw new IllegalArgumentException("Negative k: " + k);
+		if (results.length < k || distancesSquared.length < k)
+			throw new ArrayIndexOutOfBoundsException("Result range out of bounds: " + k);
+
+		if (k == 0)
+			return 0;
+
+		float maxRadiusSquared = maxRadius * maxRadius;
+
+		lock.readLock().lock();
+		try {
+			int centerX = cell(x);
+			int centerY = cell(y);
+			int count = slots.size();
+
+			// Rings beyond the occupied cells are empty
+			long occupiedRing = Math.max(Math.max((long) centerX - minCellX, (long) maxCellX - centerX),
+					Math.max((long) centerY - minCellY, (long) maxCellY - centerY));
+			double radiusRing = Math.ceil(maxRadius * inverseCellSize) + 1.0;
+			int maxRing = (int) Math.min(Math.min(occupiedRing, radiusRing), Integer.MAX_VALUE / 2);
+
+			int found = 0;
+			int seen = 0;
+			for (int ring = 0; ring <= maxRing; ring++) {
+				for (int cy = centerY - ring; cy <= centerY + ring; cy++) {
+					boolean edgeRow = cy == centerY - ring || cy == centerY + ring;
+					int step = edgeRow ? 1 : 2 * ring;
+
+					for (int cx = centerX - ring; cx <= centerX + ring; cx += step) {
+						for (int i = bucketHeads[bucket(cx, cy)]; i != NONE; i = next[i]) {
+							if (cellsX[i] != cx || cellsY[i] != cy)
+								continue;
+
+							seen++;
+
+							float dx = positionsX[i] - x;
+							float dy = positionsY[i] - y;
+							float distanceSquared = dx * dx + dy * dy;
+
+							if (distanceSquared > maxRadiusSquared)
+								continue;
+							if (found == k && distanceSquared >= distancesSquared[k - 1])
+								continue;
+
+							// insertion into the sorted k best
+							int j = found < k ? found++ : k - 1;
+							while (j > 0 && distancesSquared[j - 1] > distanceSquared) {
+								distancesSquared[j] = distancesSquared[j - 1];
+								results[j] = results[j - 1];
+								j--;
+							}
+							distancesSquared[j] = distanceSquared;
+							results[j] = slots.getKey(i);
+						}
+					}
+				}
+
+				// every body outside the visited rings is at least this far away
+				float reach = ring * cellSize;
+				if (found == k && distancesSquared[k - 1] <= reach * reach)
+					break;
+				if (seen == count)
+					break;
+			}
+
+			return found;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * The number of bodies in the hash.
+	 */
+	public int getBodyCount() {
+		lock.readLock().lock();
+		try {
+			return slots.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public float getCellSize() {
+		return cellSize;
+	}
+
+	private void putInternal(long bodyId, float x, float y) {
+		int cx = cell(x);
+		int cy = cell(y);
+
+		int index = slots.get(bodyId);
+		if (index == NONE) {
+			index = slots.add(bodyId);
+			if (index == positionsX.length)
+				growBodies();
+		} else if (cellsX[index] != cx || cellsY[index] != cy) {
+			unlink(index);
+		} else {
+			positionsX[index] = x;
+			positionsY[index] = y;
+			return;
+		}
+
+		positionsX[index] = x;
+		positionsY[index] = y;
+		cellsX[index] = cx;
+		cellsY[index] = cy;
+		link(index);
+
+		minCellX = Math.min(minCellX, cx);
+		minCellY = Math.min(minCellY, cy);
+		maxCellX = Math.max(maxCellX, cx);
+		maxCellY = Math.max(maxCellY, cy);
+	}
+
+	/**
+	 * The occupied bounds only grow until the hash is cleared, so they may be
+	 * larger than needed after removals.
+	 */
+	private void resetBounds() {
+		minCellX = Integer.MAX_VALUE;
+		minCellY = Integer.MAX_VALUE;
+		maxCellX = Integer.MIN_VALUE;
+		maxCellY = Integer.MIN_VALUE;
+	}
+
+	private void link(int index) {
+		int bucket = bucket(cellsX[index], cellsY[index]);
+		int head = bucketHeads[bucket];
+
+		next[index] = head;
+		previous[index] = NONE;
+		if (head != NONE)
+			previous[head] = index;
+		bucketHeads[bucket] = index;
+	}
+
+	private void unlink(int index) {
+		int before = previous[index];
+		int after = next[index];
+
+		if (before != NONE)
+			next[before] = after;
+		else
+			bucketHeads[bucket(cellsX[index], cellsY[index])] = after;
+
+		if (after != NONE)
+			previous[after] = before;
+	}
+
+	private void growBodies() {
+		int capacity = 2 * positionsX.length;
+		positionsX = Arrays.copyOf(positionsX, capacity);
+		positionsY = Arrays.copyOf(positionsY, capacity);
+		cellsX = Arrays.copyOf(cellsX, capacity);
+		cellsY = Arrays.copyOf(cellsY, capacity);
+		next = Arrays.copyOf(next, capacity);
+		previous = Arrays.copyOf(previous, capacity);
+	}
+
+	private int cell(float coordinate) {
+		return (int) Math.floor(coordinate * inverseCellSize);
+	}
+
+	private int bucket(int cx, int cy) {
+		return ((cx * 73856093) ^ (cy * 19349663)) & bucketMask;
+	}
+
+}
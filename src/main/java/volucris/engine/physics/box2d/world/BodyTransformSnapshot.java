@@ -0,0 +1,264 @@
+package volucris.engine.physics.box2d.world;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import volucris.engine.physics.box2d.body.Body;
+import volucris.engine.physics.box2d.bodyEvents.BodyEvents;
+import volucris.engine.physics.box2d.bodyEvents.BodyMoveEvent;
+import volucris.engine.physics.box2d.math.Transform;
+import volucris.engine.physics.box2d.utils.SlotMap;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * A triple-buffered snapshot of body transforms.
+ * <p>
+ * Set it with {@link World#setTransformSnapshot(BodyTransformSnapshot)}. After
+ * every {@link World#step} the body move events are applied to a master copy,
+ * which is copied into a free frame and published atomically. A render thread
+ * reads the last completed frame with {@link #acquire()} without locking while
+ * the next step runs, for example one started by
+ * {@link World#stepAsync(float, int)}.
+ * <p>
+ * A body gets a slot on its first move event and keeps it until it is removed
+ * with {@link #remove(Body)}. Static bodies and bodies moved by the user are not
+ * reported by Box2D, add them with {@link #update(Body)}.
+ * <p>
+ * Only one writer, the stepping thread, and one reader thread are supported.
+ */
+public final class BodyTransformSnapshot {
+
+	private static final int FRESH = 4;
+	private static final int INDEX_MASK = 3;
+
+	private static final long MOVE_EVENT_SIZE;
+	private static final long MOVE_EVENT_TRANSFORM_OFFSET;
+	private static final long MOVE_EVENT_BODY_ID_OFFSET;
+
+	private final Frame[] frames;
+	private final AtomicInteger middle;
+
+	private int back;
+	private int front;
+
+	private final SlotMap slots;
+	private final BodyEvents bodyEvents;
+	private final Transform transform;
+
+	private long[] bodyIds;
+	private float[] transforms;
+
+	static {
+		MOVE_EVENT_SIZE = BodyMoveEvent.LAYOUT().byteSize();
+		MOVE_EVENT_TRANSFORM_OFFSET = BodyMoveEvent.LAYOUT().byteOffset(PathElement.groupElement("transform"));
+		MOVE_EVENT_BODY_ID_OFFSET = BodyMoveEvent.LAYOUT().byteOffset(PathElement.groupElement("bodyId"));
+	}
+
+	public BodyTransformSnapshot() {
+		this(64);
+	}
+
+	public BodyTransformSnapshot(int initialCapacity) {
+		if (initialCapacity < 0)
+			throw new IllegalArgumentException("Negative capacity: " + initialCapacity);
+
+		int capacity = Math.max(initialCapacity, 1);
+
+		frames = new Frame[] { new Frame(capacity), new Frame(capacity), new Frame(capacity) };
+		middle = new AtomicInteger(1);
+		back = 0;
+		front = 2;
+
+		slots = new SlotMap(capacity);
+
+		Arena arena = Arena.ofAuto();
+		bodyEvents = new BodyEvents(arena);
+		transform = new Transform(arena);
+
+		bodyIds = new long[capacity];
+		transforms = new float[4 * capacity];
+	}
+
+	/**
+	 * Apply the body move events of the last step and publish a new frame. Called
+	 * by {@link World#step} on the stepping thread.
+	 */
+	public void update(World world) {
+		world.getBodyEvents(bodyEvents);
+
+		MemorySegment events = bodyEvents.getMoveEvents();
+		int moveCount = bodyEvents.getMoveCount();
+
+		for (int i = 0; i < moveCount; i++) {
+			long offset = i * MOVE_EVENT_SIZE;
+
+			long bodyId = Body.storeBodyId(events, offset + MOVE_EVENT_BODY_ID_OFFSET);
+			int slot = obtainSlot(bodyId);
+
+			MemorySegment.copy(events, JAVA_FLOAT, offset + MOVE_EVENT_TRANSFORM_OFFSET, transforms, 4 * slot, 4);
+		}
+
+		publish(world.getStepCount());
+	}
+
+	/**
+	 * Write the current transform of a body into the master copy. It becomes
+	 * visible with the next published frame. Use it for static bodies and bodies
+	 * moved by the user.
+	 */
+	public void update(Body body) {
+		int slot = obtainSlot(Body.storeBodyId(body.memorySegment(), 0L));
+
+		body.getTransform(transform);
+		MemorySegment.copy(transform.memorySegment(), JAVA_FLOAT, 0L, transforms, 4 * slot, 4);
+	}
+
+	/**
+	 * Free the slot of a body. Call it before destroying the body.
+	 */
+	public void remove(Body body) {
+		int slot = slots.remove(Body.storeBodyId(body.memorySegment(), 0L));
+		if (slot != SlotMap.NONE)
+			bodyIds[slot] = 0L;
+	}
+
+	/**
+	 * Drop all slots.
+	 */
+	public void clear() {
+		Arrays.fill(bodyIds, 0, slots.getSlotCount(), 0L);
+		slots.clear();
+	}
+
+	private int obtainSlot(long bodyId) {
+		int slot = slots.get(bodyId);
+		if (slot != SlotMap.NONE)
+			return slot;
+
+		slot = slots.add(bodyId);
+		if (slot == bodyIds.length) {
+			bodyIds = Arrays.copyOf(bodyIds, 2 * slot);
+			transforms = Arrays.copyOf(transforms, 8 * slot);
+		}
+
+		bodyIds[slot] = bodyId;
+		return slot;
+	}
+
+	/**
+	 * Copy the master copy into the back frame and swap it with the middle one.
+	 */
+	private void publish(long stepCount) {
+		Frame frame = frames[back];
+		frame.set(bodyIds, transforms, slots.getSlotCount(), stepCount);
+
+		back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+	}
+
+	/**
+	 * The last published frame. The frame stays unchanged until the next call.
+	 * Only call it from one thread.
+	 */
+	public Frame acquire() {
+		if ((middle.get() & FRESH) != 0)
+			front = middle.getAndSet(front) & INDEX_MASK;
+
+		return frames[front];
+	}
+
+	/**
+	 * The slot of a body, or -1 if it has none. Only call it from the stepping
+	 * thread.
+	 */
+	public int getSlot(Body body) {
+		return slots.get(Body.storeBodyId(body.memorySegment(), 0L));
+	}
+
+	/**
+	 * Body transforms of one step.
+	 */
+	public static final class Frame {
+
+		private long[] bodyIds;
+		private float[] transforms;
+
+		private int count;
+		private long stepCount;
+
+		private Frame(int capacity) {
+			bodyIds = new long[capacity];
+			transforms = new float[4 * capacity];
+		}
+
+		private void set(long[] bodyIds, float[] transforms, int count, long stepCount) {
+			if (this.bodyIds.length < count) {
+				this.bodyIds = new long[bodyIds.length];
+				this.transforms = new float[transforms.length];
+			}
+
+			System.arraycopy(bodyIds, 0, this.bodyIds, 0, count);
+			System.arraycopy(transforms, 0, this.transforms, 0, 4 * count);
+
+			this.count = count;
+			this.stepCount = stepCount;
+		}
+
+		/**
+		 * The number of slots. Free slots have a body id of zero.
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * The {@link World#getStepCount()} when the frame was published.
+		 */
+		public long getStepCount() {
+			return stepCount;
+		}
+
+		/**
+		 * The body id of a slot, stored with {@link Body#storeBodyId}.
+		 */
+		public long getBodyId(int slot) {
+			return bodyIds[slot];
+		}
+
+		public float getPositionX(int slot) {
+			return transforms[4 * slot];
+		}
+
+		public float getPositionY(int slot) {
+			return transforms[4 * slot + 1];
+		}
+
+		public float getCos(int slot) {
+			return transforms[4 * slot + 2];
+		}
+
+		public float getSin(int slot) {
+			return transforms[4 * slot + 3];
+		}
+
+		/**
+		 * The stored body ids. Holds {@link #getCount()} valid longs.
+		 */
+		public long[] getBodyIds() {
+			return bodyIds;
+		}
+
+		/**
+		 * The transforms as position x, position y, cos and sin per slot. Holds
+		 * {@link #getCount()} valid quadruples.
+		 */
+		public float[] getTransforms() {
+			return transforms;
+		}
+
+	}
+
+}
@@ -0,0 +1,349 @@
+package volucris.engine.physics.box2d.world;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+
+import org.joml.Vector2f;
+
+import volucris.engine.physics.box2d.Box2D;
+import volucris.engine.physics.box2d.dynamicTree.TreeStats;
+import volucris.engine.physics.box2d.geometry.ShapeProxy;
+import volucris.engine.physics.box2d.shape.QueryFilter;
+import volucris.engine.physics.box2d.shape.Shape;
+import volucris.engine.physics.box2d.world.functions.CastResultFunction;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Collects the hits of ray and shape casts into growable off-heap buffers.
+ * <p>
+ * Use it with {@link World#castRay(CastCollector, Vector2f, Vector2f, QueryFilter)}
+ * or {@link World#castShape(CastCollector, ShapeProxy, Vector2f, QueryFilter)}.
+ * Hits are stored in columns: shape ids (stored with
+ * {@link Shape#storeShapeId}), points and normals as x, y float pairs and
+ * fractions. The buffers only grow, so a collector reused every frame does not
+ * allocate once it is large enough.
+ * <p>
+ * Box2D reports hits in tree order, not by distance. Without a limit the cast
+ * is not clipped and every shape along the ray is reported. With a limit of n
+ * hits the collector either keeps the n closest hits or terminates after the n
+ * hits found first:
+ * <ul>
+ * <li>Nearest: once n hits are held a closer hit replaces the farthest one, and
+ * the cast is clipped to the farthest kept fraction, so Box2D skips everything
+ * behind it.</li>
+ * <li>Terminating: the cast stops after n hits, which are not necessarily the
+ * closest ones. Only useful when any hit will do, see {@link #anyHit()}.</li>
+ * </ul>
+ * If sorting is enabled the hits are sorted by fraction once the cast is done.
+ */
+public final class CastCollector extends CastResultFunction {
+
+	private final TreeStats treeStats;
+
+	private MemorySegment shapeIds;
+	private MemorySegment points;
+	private MemorySegment normals;
+	private MemorySegment fractions;
+
+	private int capacity;
+	private int count;
+
+	private int maxHits;
+	private boolean nearest;
+	private boolean sorted;
+	private int farthest;
+
+	private MemorySegment sortShapeIds;
+	private MemorySegment sortPoints;
+	private MemorySegment sortNormals;
+	private long[] sortKeys;
+
+	public CastCollector() {
+		this(16);
+	}
+
+	public CastCollector(int initialCapacity) {
+		this(initialCapacity, Integer.MAX_VALUE, true, true);
+	}
+
+	/**
+	 * @param initialCapacity The initial number of hits of the buffers.
+	 * @param maxHits         The maximum number of hits.
+	 * @param nearest         Keep the closest {@code maxHits} hits and clip the
+	 *                        cast, instead of terminating after {@code maxHits}
+	 *                        hits.
+	 * @param sorted          Sort the hits by fraction after the cast.
+	 */
+	public CastCollector(int initialCapacity, int maxHits, boolean nearest, boolean sorted) {
+		if (initialCapacity < 0)
+			throw new IllegalArgumentException("Negative capacity: " + initialCapacity);
+		if (maxHits < 1)
+			throw new IllegalArgumentException("Max hits must be positive: " + maxHits);
+
+		this.maxHits = maxHits;
+		this.nearest = nearest;
+		this.sorted = sorted;
+
+		treeStats = new TreeStats();
+
+		allocate(Math.max(initialCapacity, 1));
+	}
+
+	/**
+	 * All hits along the cast, sorted by fraction.
+	 */
+	public static CastCollector allHits() {
+		return new CastCollector(16, Integer.MAX_VALUE, true, true);
+	}
+
+	/**
+	 * The {@code n} closest hits, sorted by fraction.
+	 */
+	public static CastCollector firstHits(int n) {
+		return new CastCollector(n, n, true, true);
+	}
+
+	/**
+	 * Stop at the first hit found, which is not necessarily the closest one.
+	 * Useful for line of sight checks.
+	 */
+	public static CastCollector anyHit() {
+		return new CastCollector(1, 1, false, false);
+	}
+
+	void begin() {
+		count = 0;
+		farthest = -1;
+	}
+
+	void end() {
+		if (!sorted || count < 2)
+			return;
+
+		// fractions are not negative, so their raw bits sort like the floats
+		for (int i = 0; i < count; i++) {
+			long bits = Float.floatToRawIntBits(fractions.getAtIndex(JAVA_FLOAT, i));
+			sortKeys[i] = (bits << 32) | i;
+		}
+		Arrays.sort(sortKeys, 0, count);
+
+		MemorySegment.copy(shapeIds, 0, sortShapeIds, 0, 8L * count);
+		MemorySegment.copy(points, 0, sortPoints, 0, 8L * count);
+		MemorySegment.copy(normals, 0, sortNormals, 0, 8L * count);
+
+		for (int i = 0; i < count; i++) {
+			int from = (int) sortKeys[i];
+			shapeIds.setAtIndex(JAVA_LONG, i, sortShapeIds.getAtIndex(JAVA_LONG, from));
+			points.setAtIndex(JAVA_FLOAT, 2L * i, sortPoints.getAtIndex(JAVA_FLOAT, 2L * from));
+			points.setAtIndex(JAVA_FLOAT, 2L * i + 1, sortPoints.getAtIndex(JAVA_FLOAT, 2L * from + 1));
+			normals.setAtIndex(JAVA_FLOAT, 2L * i, sortNormals.getAtIndex(JAVA_FLOAT, 2L * from));
+			normals.setAtIndex(JAVA_FLOAT, 2L * i + 1, sortNormals.getAtIndex(JAVA_FLOAT, 2L * from + 1));
+			fractions.setAtIndex(JAVA_FLOAT, i, Float.intBitsToFloat((int) (sortKeys[i] >>> 32)));
+		}
+	}
+
+	@Override
+	protected float castResultFunction(MemorySegment shapeId, MemorySegment point, MemorySegment normal,
+			float fraction, MemorySegment context) {
+		if (count < maxHits) {
+			if (count == capacity)
+				grow();
+
+			store(count++, shapeId, point, normal, fraction);
+
+			if (count < maxHits)
+				return 1.0f;
+			if (!nearest)
+				return 0.0f;
+
+			findFarthest();
+			return fractions.getAtIndex(JAVA_FLOAT, farthest);
+		}
+
+		// Full, replace the farthest hit if this one is closer
+		if (fraction < fractions.getAtIndex(JAVA_FLOAT, farthest)) {
+			store(farthest, shapeId, point, normal, fraction);
+			findFarthest();
+		}
+
+		return fractions.getAtIndex(JAVA_FLOAT, farthest);
+	}
+
+	private void store(int index, MemorySegment shapeId, MemorySegment point, MemorySegment normal,
+			float fraction) {
+		shapeIds.setAtIndex(JAVA_LONG, index, Shape.storeShapeId(shapeId, 0L));
+		MemorySegment.copy(point, 0L, points, 8L * index, 8L);
+		MemorySegment.copy(normal, 0L, normals, 8L * index, 8L);
+		fractions.setAtIndex(JAVA_FLOAT, index, fraction);
+	}
+
+	private void findFarthest() {
+		farthest = 0;
+		float max = fractions.getAtIndex(JAVA_FLOAT, 0);
+
+		for (int i = 1; i < count; i++) {
+			float fraction = fractions.getAtIndex(JAVA_FLOAT, i);
+			if (fraction > max) {
+				max = fraction;
+				farthest = i;
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		Arena arena = Arena.ofAuto();
+
+		MemorySegment newShapeIds = arena.allocate(JAVA_LONG, capacity);
+		MemorySegment newPoints = arena.allocate(JAVA_FLOAT, 2L * capacity);
+		MemorySegment newNormals = arena.allocate(JAVA_FLOAT, 2L * capacity);
+		MemorySegment newFractions = arena.allocate(JAVA_FLOAT, capacity);
+
+		sortShapeIds = arena.allocate(JAVA_LONG, capacity);
+		sortPoints = arena.allocate(JAVA_FLOAT, 2L * capacity);
+		sortNormals = arena.allocate(JAVA_FLOAT, 2L * capacity);
+		sortKeys = new long[capacity];
+
+		if (count > 0) {
+			MemorySegment.copy(shapeIds, 0, newShapeIds, 0, 8L * count);
+			MemorySegment.copy(points, 0, newPoints, 0, 8L * count);
+			MemorySegment.copy(normals, 0, newNormals, 0, 8L * count);
+			MemorySegment.copy(fractions, 0, newFractions, 0, 4L * count);
+		}
+
+		shapeIds = newShapeIds;
+		points = newPoints;
+		normals = newNormals;
+		fractions = newFractions;
+
+		this.capacity = capacity;
+	}
+
+	private void grow() {
+		allocate(2 * capacity);
+	}
+
+	/**
+	 * The number of collected hits.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	public boolean hasHit() {
+		return count > 0;
+	}
+
+	/**
+	 * The stored shape id of a hit.
+	 */
+	public long getShapeId(int index) {
+		checkIndex(index);
+		return shapeIds.getAtIndex(JAVA_LONG, index);
+	}
+
+	/**
+	 * The shape of a hit.
+	 */
+	public Shape getShape(int index, World world) {
+		return Box2D.getShape(Shape.loadShapeId(getShapeId(index)), world.getWorldId());
+	}
+
+	public Vector2f getPoint(Vector2f target, int index) {
+		checkIndex(index);
+		return target.set(points.getAtIndex(JAVA_FLOAT, 2L * index), points.getAtIndex(JAVA_FLOAT, 2L * index + 1));
+	}
+
+	public Vector2f getNormal(Vector2f target, int index) {
+		checkIndex(index);
+		return target.set(normals.getAtIndex(JAVA_FLOAT, 2L * index), normals.getAtIndex(JAVA_FLOAT, 2L * index + 1));
+	}
+
+	public float getFraction(int index) {
+		checkIndex(index);
+		return fractions.getAtIndex(JAVA_FLOAT, index);
+	}
+
+	/**
+	 * The shape id buffer. Holds {@link #getCount()} valid longs.
+	 */
+	public MemorySegment getShapeIds() {
+		return shapeIds;
+	}
+
+	/**
+	 * The point buffer. Holds {@link #getCount()} valid x, y float pairs.
+	 */
+	public MemorySegment getPoints() {
+		return points;
+	}
+
+	/**
+	 * The normal buffer. Holds {@link #getCount()} valid x, y float pairs.
+	 */
+	public MemorySegment getNormals() {
+		return normals;
+	}
+
+	/**
+	 * The fraction buffer. Holds {@link #getCount()} valid floats.
+	 */
+	public MemorySegment getFractions() {
+		return fractions;
+	}
+
+	/**
+	 * The tree stats of the last cast.
+	 */
+	public TreeStats getTreeStats() {
+		return treeStats;
+	}
+
+	/**
+	 * The maximum number of hits.
+	 */
+	public void setMaxHits(int maxHits) {
+		if (maxHits < 1)
+			throw new IllegalArgumentException("Max hits must be positive: " + maxHits);
+
+		this.maxHits = maxHits;
+	}
+
+	public int getMaxHits() {
+		return maxHits;
+	}
+
+	/**
+	 * Keep the closest {@link #getMaxHits()} hits and clip the cast, instead of
+	 * terminating after {@link #getMaxHits()} hits.
+	 */
+	public void setNearest(boolean nearest) {
+		this.nearest = nearest;
+	}
+
+	public boolean isNearest() {
+		return nearest;
+	}
+
+	/**
+	 * Sort the hits by fraction after the cast.
+	 */
+	public void setSorted(boolean sorted) {
+		this.sorted = sorted;
+	}
+
+	public boolean isSorted() {
+		return sorted;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= count)
+			throw new IndexOutOfBoundsException("Hit index out of bounds: " + index);
+	}
+
+}
@@ -0,0 +1,386 @@
+package volucris.engine.physics.box2d.world;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemoryLayout.PathElement;
+
+import org.joml.Vector2f;
+
+import volucris.engine.physics.box2d.collision.CollisionPlane;
+import volucris.engine.physics.box2d.collision.Mover;
+import volucris.engine.physics.box2d.collision.PlaneResult;
+import volucris.engine.physics.box2d.collision.PlaneSolverResult;
+import volucris.engine.physics.box2d.geometry.Capsule;
+import volucris.engine.physics.box2d.math.Plane;
+import volucris.engine.physics.box2d.math.Vec2;
+import volucris.engine.physics.box2d.shape.QueryFilter;
+import volucris.engine.physics.box2d.world.functions.PlaneResultFunction;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Kinematic capsule character mover.
+ * <p>
+ * Runs the Box2D mover loop: collide the capsule with the world to gather
+ * collision planes, solve the planes for the desired translation, cast the
+ * capsule along the solved translation and repeat until the movement is below
+ * the tolerance. The collision planes live in one reusable off-heap buffer and
+ * all native arguments are preallocated, so moving does not allocate.
+ * <p>
+ * The capsule is axis aligned and defined relative to the mover position. The
+ * planes of the last iteration stay available for velocity clipping and ground
+ * checks until the next move.
+ * <p>
+ * A mover only uses its own scratch memory, so different movers of the same
+ * world may move on different threads at once. A single mover is not thread
+ * safe. Do not move while the world is stepping.
+ */
+public final class CharacterMover {
+
+	private static final long PLANE_SIZE;
+	private static final long PLANE_OFFSET;
+	private static final long PUSH_LIMIT_OFFSET;
+	private static final long PUSH_OFFSET;
+	private static final long CLIP_VELOCITY_OFFSET;
+
+	private static final long PLANE_RESULT_SIZE;
+	private static final long PLANE_RESULT_PLANE_OFFSET;
+	private static final long PLANE_RESULT_HIT_OFFSET;
+
+	private static final long NORMAL_Y_OFFSET;
+
+	private final World world;
+
+	private final float center1X;
+	private final float center1Y;
+	private final float center2X;
+	private final float center2Y;
+
+	private final Capsule mover;
+
+	private final QueryFilter collideFilter;
+	private final QueryFilter castFilter;
+
+	private final MemorySegment planes;
+	private final int planeCapacity;
+	private int planeCount;
+
+	private final PlaneCollector planeCollector;
+	private final PlaneSolverResult solverResult;
+
+	private final Vec2 targetDelta;
+	private final Vec2 velocity;
+	private final Vec2 clippedVelocity;
+	private final Vec2 translation;
+
+	private float positionX;
+	private float positionY;
+
+	private int maxIterations;
+	private float tolerance;
+	private float pushLimit;
+	private boolean clipVelocity;
+
+	private int iterationCount;
+	private int solverIterationCount;
+
+	static {
+		PLANE_SIZE = CollisionPlane.LAYOUT().byteSize();
+		PLANE_OFFSET = CollisionPlane.LAYOUT().byteOffset(PathElement.groupElement("plane"));
+		PUSH_LIMIT_OFFSET = CollisionPlane.LAYOUT().byteOffset(PathElement.groupElement("pushLimit"));
+		PUSH_OFFSET = CollisionPlane.LAYOUT().byteOffset(PathElement.groupElement("push"));
+		CLIP_VELOCITY_OFFSET = CollisionPlane.LAYOUT().byteOffset(PathElement.groupElement("clipVelocity"));
+
+		PLANE_RESULT_SIZE = PlaneResult.LAYOUT().byteSize();
+		PLANE_RESULT_PLANE_OFFSET = PlaneResult.LAYOUT().byteOffset(PathElement.groupElement("plane"));
+		PLANE_RESULT_HIT_OFFSET = PlaneResult.LAYOUT().byteOffset(PathElement.groupElement("hit"));
+
+		NORMAL_Y_OFFSET = PLANE_OFFSET + Plane.LAYOUT().byteOffset(PathElement.groupElement("normal")) + 4;
+	}
+
+	/**
+	 * @param world         The world to move in.
+	 * @param capsule       The capsule relative to the mover position.
+	 * @param planeCapacity The maximum number of collision planes per iteration.
+	 */
+	public CharacterMover(World world, Capsule capsule, int planeCapacity) {
+		this(world, capsule, planeCapacity, Arena.ofAuto());
+	}
+
+	/**
+	 * @param world         The world to move in.
+	 * @param capsule       The capsule relative to the mover position.
+	 * @param planeCapacity The maximum number of collision planes per iteration.
+	 */
+	public CharacterMover(World world, Capsule capsule, int planeCapacity, Arena arena) {
+		if (planeCapacity < 1)
+			throw new IllegalArgumentException("Plane capacity must be positive: " + planeCapacity);
+
+		this.world = world;
+		this.planeCapacity = planeCapacity;
+
+		Vector2f center = new Vector2f();
+		capsule.getCenter1(center);
+		center1X = center.x;
+		center1Y = center.y;
+		capsule.getCenter2(center);
+		center2X = center.x;
+		center2Y = center.y;
+
+		mover = new Capsule(arena);
+		mover.setRadius(capsule.getRadius());
+
+		collideFilter = new QueryFilter(arena);
+		castFilter = new QueryFilter(arena);
+
+		planes = arena.allocate(CollisionPlane.LAYOUT(), planeCapacity);
+
+		planeCollector = new PlaneCollector(arena);
+		solverResult = new PlaneSolverResult(arena);
+
+		targetDelta = new Vec2(arena);
+		velocity = new Vec2(arena);
+		clippedVelocity = new Vec2(arena);
+		translation = new Vec2(arena);
+
+		maxIterations = 5;
+		tolerance = 0.01f;
+		pushLimit = Float.MAX_VALUE;
+		clipVelocity = true;
+	}
+
+	/**
+	 * Move by the desired translation and return the resolved position.
+	 */
+	public Vector2f move(Vector2f target, float translationX, float translationY) {
+		move(translationX, translationY);
+		return target.set(positionX, positionY);
+	}
+
+	/**
+	 * Move by the desired translation.
+	 */
+	public void move(float translationX, float translationY) {
+		float targetX = positionX + translationX;
+		float targetY = positionY + translationY;
+		float toleranceSquared = tolerance * tolerance;
+
+		iterationCount = 0;
+		solverIterationCount = 0;
+
+		for (int iteration = 0; iteration < maxIterations; iteration++) {
+			iterationCount++;
+
+			mover.setCenter1(positionX + center1X, positionY + center1Y);
+			mover.setCenter2(positionX + center2X, positionY + center2Y);
+
+			planeCount = 0;
+			world.collideMover(mover, collideFilter, planeCollector, MemorySegment.NULL);
+
+			targetDelta.set(targetX - positionX, targetY - positionY);
+			Mover.solvePlanes(solverResult, targetDelta, planes, planeCount);
+			solverIterationCount += solverResult.getIterationCount();
+
+			translation.set(solverResult.getTranslationX(), solverResult.getTranslationY());
+			float fraction = world.castMover(mover, translation, castFilter);
+
+			float deltaX = fraction * translation.getX();
+			float deltaY = fraction * translation.getY();
+			positionX += deltaX;
+			positionY += deltaY;
+
+			if (deltaX * deltaX + deltaY * deltaY < toleranceSquared)
+				break;
+		}
+	}
+
+	/**
+	 * Clip a velocity against the collision planes of the last move, so the mover
+	 * does not keep pushing into walls or the ground.
+	 */
+	public Vector2f clipVelocity(Vector2f target, Vector2f velocity) {
+		this.velocity.set(velocity);
+		Mover.clipVector(clippedVelocity, this.velocity, planes, planeCount);
+		return clippedVelocity.get(target);
+	}
+
+	/**
+	 * Clip a velocity in place against the collision planes of the last move.
+	 */
+	public Vector2f clipVelocity(Vector2f velocity) {
+		return clipVelocity(velocity, velocity);
+	}
+
+	/**
+	 * Is there a collision plane from the last move whose normal y component is at
+	 * least {@code minNormalY}? For y up, 0.7 accepts slopes up to about 45
+	 * degrees.
+	 */
+	public boolean isGrounded(float minNormalY) {
+		for (int i = 0; i < planeCount; i++) {
+			if (planes.get(JAVA_FLOAT, i * PLANE_SIZE + NORMAL_Y_OFFSET) >= minNormalY)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The number of collision planes gathered in the last iteration of the last
+	 * move.
+	 */
+	public int getPlaneCount() {
+		return planeCount;
+	}
+
+	/**
+	 * Copy a collision plane of the last move to target.
+	 */
+	public CollisionPlane getPlane(CollisionPlane target, int index) {
+		if (index < 0 || index >= planeCount)
+			throw new IndexOutOfBoundsException("Plane index out of bounds: " + index);
+
+		target.set(planes.asSlice(index * PLANE_SIZE, PLANE_SIZE));
+		return target;
+	}
+
+	/**
+	 * The collision plane buffer. Holds {@link #getPlaneCount()} valid
+	 * b2CollisionPlane structs.
+	 */
+	public MemorySegment getPlanes() {
+		return planes;
+	}
+
+	public int getPlaneCapacity() {
+		return planeCapacity;
+	}
+
+	public Vector2f getPosition(Vector2f target) {
+		return target.set(positionX, positionY);
+	}
+
+	public Vector2f getPosition() {
+		return getPosition(new Vector2f());
+	}
+
+	public float getPositionX() {
+		return positionX;
+	}
+
+	public float getPositionY() {
+		return positionY;
+	}
+
+	public void setPosition(float x, float y) {
+		positionX = x;
+		positionY = y;
+	}
+
+	public void setPosition(Vector2f position) {
+		setPosition(position.x, position.y);
+	}
+
+	/**
+	 * The filter used to gather collision planes. Modify it in place.
+	 */
+	public QueryFilter getCollideFilter() {
+		return collideFilter;
+	}
+
+	/**
+	 * The filter used to cast the mover. Modify it in place. Leaving other movers
+	 * out of the cast filter gives soft collision between movers.
+	 */
+	public QueryFilter getCastFilter() {
+		return castFilter;
+	}
+
+	/**
+	 * The maximum number of collide, solve and cast iterations per move. Default
+	 * 5.
+	 */
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	public int getMaxIterations() {
+		return maxIterations;
+	}
+
+	/**
+	 * A move stops once an iteration moves less than this distance. Default 0.01.
+	 */
+	public void setTolerance(float tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	public float getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * The push limit given to every gathered plane. The default FLT_MAX makes the
+	 * planes as rigid as possible.
+	 */
+	public void setPushLimit(float pushLimit) {
+		this.pushLimit = pushLimit;
+	}
+
+	public float getPushLimit() {
+		return pushLimit;
+	}
+
+	/**
+	 * Should {@link #clipVelocity} clip against the gathered planes. Default true.
+	 */
+	public void setClipVelocity(boolean clipVelocity) {
+		this.clipVelocity = clipVelocity;
+	}
+
+	public boolean isClipVelocity() {
+		return clipVelocity;
+	}
+
+	/**
+	 * The number of mover iterations used by the last move.
+	 */
+	public int getIterationCount() {
+		return iterationCount;
+	}
+
+	/**
+	 * The summed plane solver iterations of the last move. For diagnostics.
+	 */
+	public int getSolverIterationCount() {
+		return solverIterationCount;
+	}
+
+	private final class PlaneCollector extends PlaneResultFunction {
+
+		private PlaneCollector(Arena arena) {
+			super(arena);
+		}
+
+		@Override
+		protected boolean planeResultFunction(MemorySegment shapeId, MemorySegment planeResult,
+				MemorySegment context) {
+			MemorySegment result = planeResult.reinterpret(PLANE_RESULT_SIZE);
+
+			if (!result.get(JAVA_BOOLEAN, PLANE_RESULT_HIT_OFFSET))
+				return true;
+
+			if (planeCount < planeCapacity) {
+				long offset = planeCount * PLANE_SIZE;
+				MemorySegment.copy(result, PLANE_RESULT_PLANE_OFFSET, planes, offset + PLANE_OFFSET, Plane.LAYOUT().byteSize());
+				planes.set(JAVA_FLOAT, offset + PUSH_LIMIT_OFFSET, pushLimit);
+				planes.set(JAVA_FLOAT, offset + PUSH_OFFSET, 0.0f);
+				planes.set(JAVA_BOOLEAN, offset + CLIP_VELOCITY_OFFSET, clipVelocity);
+				planeCount++;
+			}
+
+			return true;
+		}
+
+	}
+
+}
@@ -0,0 +1,209 @@
+package volucris.engine.physics.box2d.world;
+
+import java.lang.foreign.Arena;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import volucris.engine.physics.box2d.geometry.Capsule;
+import volucris.engine.physics.box2d.shape.QueryFilter;
+
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * Advances many capsule character movers per tick on a {@link ForkJoinPool}.
+ * <p>
+ * All movers share one capsule shape. Positions, translations and results are
+ * stored as x, y pairs. Query filters are stored as category bits, mask bits
+ * pairs; pass null to use the default query filter.
+ * <p>
+ * The movers are split into one contiguous chunk per worker. Each chunk runs on
+ * its own {@link CharacterMover}, so every thread has private off-heap scratch
+ * and plane buffers and nothing is allocated per mover. Box2D queries are safe
+ * to run concurrently, but only between steps: do not call {@link #move} while
+ * the world is stepping.
+ * <p>
+ * A batch itself is not thread safe. Call {@link #move} from one thread at a
+ * time.
+ */
+public final class CharacterMoverBatch {
+
+	private final ForkJoinPool pool;
+
+	private final CharacterMover[] movers;
+
+	private final long defaultCategoryBits;
+	private final long defaultMaskBits;
+
+	private int minChunkSize;
+	private float minGroundNormalY;
+
+	public CharacterMoverBatch(World world, Capsule capsule, int planeCapacity) {
+		this(world, capsule, planeCapacity, ForkJoinPool.commonPool());
+	}
+
+	public CharacterMoverBatch(World world, Capsule capsule, int planeCapacity, ForkJoinPool pool) {
+		this.pool = pool;
+
+		Arena arena = Arena.ofAuto();
+
+		movers = new CharacterMover[Math.max(pool.getParallelism(), 1)];
+		for (int i = 0; i < movers.length; i++)
+			movers[i] = new CharacterMover(world, capsule, planeCapacity, arena);
+
+		QueryFilter defaultFilter = new QueryFilter(arena);
+		defaultCategoryBits = defaultFilter.getCategoryBits();
+		defaultMaskBits = defaultFilter.getMaskBits();
+
+		minChunkSize = 16;
+		minGroundNormalY = 0.7f;
+	}
+
+	/**
+	 * Move {@code count} movers.
+	 *
+	 * @param positions     The current positions.
+	 * @param translations  The desired translations.
+	 * @param collideFilters The filters used to gather collision planes, or null.
+	 * @param castFilters   The filters used to cast the movers, or null.
+	 * @param count         The number of movers.
+	 * @param results       The resolved positions. May be the positions array.
+	 * @param grounded      Receives if a mover touches a plane that counts as
+	 *                      ground, see {@link #setMinGroundNormalY}. May be null.
+	 */
+	public void move(float[] positions, float[] translations, long[] collideFilters, long[] castFilters, int count,
+			float[] results, boolean[] grounded) {
+		if (count < 0)
+			throw new IllegalArgumentException("Negative mover count: " + count);
+
+		checkBounds(positions.length, 0L, 2L * count, "Position");
+		checkBounds(translations.length, 0L, 2L * count, "Translation");
+		checkBounds(results.length, 0L, 2L * count, "Result");
+
+		if (collideFilters != null)
+			checkBounds(collideFilters.length, 0L, 2L * count, "Collide filter");
+		if (castFilters != null)
+			checkBounds(castFilters.length, 0L, 2L * count, "Cast filter");
+		if (grounded != null)
+			checkBounds(grounded.length, 0L, count, "Grounded");
+
+		int chunkCount = Math.min(movers.length, Math.max(1, count / Math.max(minChunkSize, 1)));
+
+		MoveTask task = new MoveTask(positions, translations, collideFilters, castFilters, count, results, grounded,
+				chunkCount, 0, chunkCount);
+
+		if (chunkCount == 1)
+			task.compute();
+		else
+			pool.invoke(task);
+	}
+
+	private void moveChunk(CharacterMover mover, float[] positions, float[] translations, long[] collideFilters,
+			long[] castFilters, int first, int last, float[] results, boolean[] grounded) {
+		for (int i = first; i < last; i++) {
+			int index = 2 * i;
+
+			if (collideFilters != null)
+				mover.getCollideFilter().set(collideFilters[index], collideFilters[index + 1]);
+			else
+				mover.getCollideFilter().set(defaultCategoryBits, defaultMaskBits);
+
+			if (castFilters != null)
+				mover.getCastFilter().set(castFilters[index], castFilters[index + 1]);
+			else
+				mover.getCastFilter().set(defaultCategoryBits, defaultMaskBits);
+
+			mover.setPosition(positions[index], positions[index + 1]);
+			mover.move(translations[index], translations[index + 1]);
+
+			results[index] = mover.getPositionX();
+			results[index + 1] = mover.getPositionY();
+
+			if (grounded != null)
+				grounded[i] = mover.isGrounded(minGroundNormalY);
+		}
+	}
+
+	/**
+	 * The smallest number of movers per worker before the batch is split. Default
+	 * 16.
+	 */
+	public void setMinChunkSize(int minChunkSize) {
+		this.minChunkSize = minChunkSize;
+	}
+
+	public int getMinChunkSize() {
+		return minChunkSize;
+	}
+
+	/**
+	 * A plane counts as ground if its normal y component is at least this value.
+	 * Default 0.7, about 45 degrees for y up.
+	 */
+	public void setMinGroundNormalY(float minGroundNormalY) {
+		this.minGroundNormalY = minGroundNormalY;
+	}
+
+	public float getMinGroundNormalY() {
+		return minGroundNormalY;
+	}
+
+	/**
+	 * The per worker movers. Use them to change the iteration count, tolerance or
+	 * push limit of the batch.
+	 */
+	public CharacterMover[] getMovers() {
+		return movers;
+	}
+
+	private final class MoveTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final float[] positions;
+		private final float[] translations;
+		private final long[] collideFilters;
+		private final long[] castFilters;
+		private final int count;
+		private final float[] results;
+		private final boolean[] grounded;
+
+		private final int chunkCount;
+		private final int firstChunk;
+		private final int lastChunk;
+
+		private MoveTask(float[] positions, float[] translations, long[] collideFilters, long[] castFilters,
+				int count, float[] results, boolean[] grounded, int chunkCount, int firstChunk, int lastChunk) {
+			this.positions = positions;
+			this.translations = translations;
+			this.collideFilters = collideFilters;
+			this.castFilters = castFilters;
+			this.count = count;
+			this.results = results;
+			this.grounded = grounded;
+			this.chunkCount = chunkCount;
+			this.firstChunk = firstChunk;
+			this.lastChunk = lastChunk;
+		}
+
+		@Override
+		protected void compute() {
+			if (lastChunk - firstChunk == 1) {
+				int first = (int) ((long) count * firstChunk / chunkCount);
+				int last = (int) ((long) count * lastChunk / chunkCount);
+				moveChunk(movers[firstChunk], positions, translations, collideFilters, castFilters, first, last,
+						results, grounded);
+				return;
+			}
+
+			int middle = (firstChunk + lastChunk) >>> 1;
+			invokeAll(split(firstChunk, middle), split(middle, lastChunk));
+		}
+
+		private MoveTask split(int firstChunk, int lastChunk) {
+			return new MoveTask(positions, translations, collideFilters, castFilters, count, results, grounded,
+					chunkCount, firstChunk, lastChunk);
+		}
+
+	}
+
+}
@@ -21,6 +21,21 @@ import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
 import static java.lang.foreign.ValueLayout.*;
 import static volucris.engine.physics.box2d.utils.FFMUtils.*;
 
+/**
+ * This struct holds callbacks you can implement to draw a Box2D world.
+ * <p>
+ * Box2D calls the protected methods with {@link MemorySegment} arguments. By
+ * default they convert the arguments to Java objects and call the abstract
+ * draw methods. Subclasses may override them to read the raw arguments
+ * directly, see {@link BatchingDebugDraw}.
+ * <p>
+ * Before a primitive reaches these methods it passes three optional filters:
+ * camera culling ({@link #setCamera(float, float, float, float)}), a screen
+ * space size threshold ({@link #setSubPixelMode(SubPixelMode, float)}) and a
+ * per frame primitive cap ({@link #setMaxPrimitives(int)}). The camera also
+ * sets the drawing bounds, so Box2D skips shapes outside of it without an
+ * upcall.
+ */
 public abstract class DebugDraw {
 
 	private static final StructLayout LAYOUT;
@@ -97,6 +112,22 @@ public abstract class DebugDraw {
 
 	private float[] vertices;
 
+	private final MemorySegment lodPoint;
+
+	private boolean cameraCulling;
+	private float cameraLowerX;
+	private float cameraLowerY;
+	private float cameraUpperX;
+	private float cameraUpperY;
+
+	private SubPixelMode subPixelMode;
+	private float pixelsPerMeter;
+	private float minPixelSize;
+
+	private int maxPrimitives;
+	private int primitiveCount;
+	private int skippedCount;
+
 	static {
 		//@formatter:off
 		LAYOUT = MemoryLayout.structLayout(
@@ -176,15 +207,15 @@ public abstract class DebugDraw {
 
 		DRAWING_BOUNDS_OFFSET = LAYOUT.byteOffset(PathElement.groupElement("drawingBounds"));
 		
-		DRAW_POLYGON_HANDLE = upcallHandle(LOOKUP, DebugDraw.class, "drawPolygon", DRAW_POLYGON_DESCR);
-		DRAW_SOLID_POLYGON_HANDLE = upcallHandle(LOOKUP, DebugDraw.class, "drawSolidPolygon", DRAW_SOLID_POLYGON_DESCR);
-		DRAW_CIRCLE_HANDLE = upcallHandle(LOOKUP, DebugDraw.class, "drawCircle", DRAW_CIRCLE_DESCR);
-		DRAW_SOLID_CIRCLE_HANDLE = upcallHandle(LOOKUP, DebugDraw.class, "drawSolidCircle", DRAW_SOLID_CIRCLE_DESCR);
-		DRAW_SOLID_CAPSULE_HANDLE = upcallHandle(LOOKUP, DebugDraw.class, "drawSolidCapsule", DRAW_SOLID_CAPSULE_DESCR);
-		DRAW_SEGMENT_HANDLE = upcallHandle(LOOKUP, DebugDraw.class, "drawSegment", DRAW_SEGMENT_DESCR);
-		DRAW_TRANSFORM_HANDLE = upcallHandle(LOOKUP, DebugDraw.class, "drawTransform", DRAW_TRANSFORM_DESCR);
-		DRAW_POINT_HANDLE = upcallHandle(LOOKUP, DebugDraw.class, "drawPoint", DRAW_POINT_DESCR);
-		DRAW_STRING_HANDLE = upcallHandle(LOOKUP, DebugDraw.class, "drawString", DRAW_STRING_DESCR);		
+		DRAW_POLYGON_HANDLE = upcallHandle(LOOKUP, DebugDraw.class, "drawPolygonFcn", DRAW_POLYGON_DESCR);
+		DRAW_SOLID_POLYGON_HANDLE = upcallHandle(LOOKUP, DebugDraw.class, "drawSolidPolygonFcn", DRAW_SOLID_POLYGON_DESCR);
+		DRAW_CIRCLE_HANDLE = upcallHandle(LOOKUP, DebugDraw.class, "drawCircleFcn", DRAW_CIRCLE_DESCR);
+		DRAW_SOLID_CIRCLE_HANDLE = upcallHandle(LOOKUP, DebugDraw.class, "drawSolidCircleFcn", DRAW_SOLID_CIRCLE_DESCR);
+		DRAW_SOLID_CAPSULE_HANDLE = upcallHandle(LOOKUP, DebugDraw.class, "drawSolidCapsuleFcn", DRAW_SOLID_CAPSULE_DESCR);
+		DRAW_SEGMENT_HANDLE = upcallHandle(LOOKUP, DebugDraw.class, "drawSegmentFcn", DRAW_SEGMENT_DESCR);
+		DRAW_TRANSFORM_HANDLE = upcallHandle(LOOKUP, DebugDraw.class, "drawTransformFcn", DRAW_TRANSFORM_DESCR);
+		DRAW_POINT_HANDLE = upcallHandle(LOOKUP, DebugDraw.class, "drawPointFcn", DRAW_POINT_DESCR);
+		DRAW_STRING_HANDLE = upcallHandle(LOOKUP, DebugDraw.class, "drawStringFcn", DRAW_STRING_DESCR);		
 		//@formatter:on
 	}
 
@@ -229,50 +260,234 @@ public abstract class DebugDraw {
 		vectorTmp2 = new Vector2f();
 
 		vertices = new float[250];
+
+		lodPoint = arena.allocate(Vec2.LAYOUT());
+
+		subPixelMode = SubPixelMode.DRAW;
+		pixelsPerMeter = 1.0f;
+		minPixelSize = 1.0f;
+
+		maxPrimitives = Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Reset the per frame counters. Called by {@link World#draw(DebugDraw)}.
+	 */
+	void beginFrame() {
+		primitiveCount = 0;
+		skippedCount = 0;
+	}
+
+	/**
+	 * Apply the camera, size and cap filters to a primitive with the given world
+	 * bounds. Sub-pixel primitives may be replaced by a point.
+	 */
+	private boolean accept(float lowerX, float lowerY, float upperX, float upperY, int color, boolean lod) {
+		if (primitiveCount >= maxPrimitives) {
+			skippedCount++;
+			return false;
+		}
+
+		if (cameraCulling && (lowerX > cameraUpperX || lowerY > cameraUpperY || cameraLowerX > upperX
+				|| cameraLowerY > upperY)) {
+			skippedCount++;
+			return false;
+		}
+
+		if (lod && subPixelMode != SubPixelMode.DRAW) {
+			float size = Math.max(upperX - lowerX, upperY - lowerY) * pixelsPerMeter;
+			if (size < minPixelSize) {
+				if (subPixelMode == SubPixelMode.POINT) {
+					primitiveCount++;
+					lodPoint.set(JAVA_FLOAT, 0L, 0.5f * (lowerX + upperX));
+					lodPoint.set(JAVA_FLOAT, 4L, 0.5f * (lowerY + upperY));
+					drawPoint(lodPoint, minPixelSize, color, MemorySegment.NULL);
+				} else {
+					skippedCount++;
+				}
+				return false;
+			}
+		}
+
+		primitiveCount++;
+		return true;
+	}
+
+	private boolean filtering() {
+		return cameraCulling || subPixelMode != SubPixelMode.DRAW;
 	}
 
 	@SuppressWarnings("unused")
-	private void drawPolygon(MemorySegment vertices, int vertexCount, int color, MemorySegment context) {
-		int counter = 0;
-		for (int i = 0; i < vertexCount; i++) {
-			long offset = i * Vec2.LAYOUT().byteSize();
-			MemorySegment.copy(vertices, offset, vec2Tmp.memorySegment(), 0, Vec2.LAYOUT().byteSize());
-			this.vertices[counter++] = vec2Tmp.getX();
-			this.vertices[counter++] = vec2Tmp.getY();
+	private void drawPolygonFcn(MemorySegment vertices, int vertexCount, int color, MemorySegment context) {
+		if (filtering()) {
+			float lowerX = Float.MAX_VALUE;
+			float lowerY = Float.MAX_VALUE;
+			float upperX = -Float.MAX_VALUE;
+			float upperY = -Float.MAX_VALUE;
+			for (int i = 0; i < vertexCount; i++) {
+				float x = vertices.getAtIndex(JAVA_FLOAT, 2L * i);
+				float y = vertices.getAtIndex(JAVA_FLOAT, 2L * i + 1);
+				lowerX = Math.min(lowerX, x);
+				lowerY = Math.min(lowerY, y);
+				upperX = Math.max(upperX, x);
+				upperY = Math.max(upperY, y);
+			}
+
+			if (!accept(lowerX, lowerY, upperX, upperY, color, true))
+				return;
+		} else if (!accept(0.0f, 0.0f, 0.0f, 0.0f, color, false)) {
+			return;
 		}
-		drawPolygon(this.vertices, vertexCount * 2, color);
+
+		drawPolygon(vertices, vertexCount, color, context);
+	}
+
+	@SuppressWarnings("unused")
+	private void drawSolidPolygonFcn(MemorySegment transform, MemorySegment vertices, int vertexCount, float radius,
+			int color, MemorySegment context) {
+		if (filtering()) {
+			float lowerX = Float.MAX_VALUE;
+			float lowerY = Float.MAX_VALUE;
+			float upperX = -Float.MAX_VALUE;
+			float upperY = -Float.MAX_VALUE;
+			for (int i = 0; i < vertexCount; i++) {
+				float x = vertices.getAtIndex(JAVA_FLOAT, 2L * i);
+				float y = vertices.getAtIndex(JAVA_FLOAT, 2L * i + 1);
+				lowerX = Math.min(lowerX, x);
+				lowerY = Math.min(lowerY, y);
+				upperX = Math.max(upperX, x);
+				upperY = Math.max(upperY, y);
+			}
+
+			// Rotate the local box into world space
+			float px = transform.getAtIndex(JAVA_FLOAT, 0);
+			float py = transform.getAtIndex(JAVA_FLOAT, 1);
+			float c = transform.getAtIndex(JAVA_FLOAT, 2);
+			float s = transform.getAtIndex(JAVA_FLOAT, 3);
+
+			float cx = 0.5f * (lowerX + upperX);
+			float cy = 0.5f * (lowerY + upperY);
+			float hx = 0.5f * (upperX - lowerX);
+			float hy = 0.5f * (upperY - lowerY);
+
+			float wx = c * cx - s * cy + px;
+			float wy = s * cx + c * cy + py;
+			float ex = Math.abs(c) * hx + Math.abs(s) * hy + radius;
+			float ey = Math.abs(s) * hx + Math.abs(c) * hy + radius;
+
+			if (!accept(wx - ex, wy - ey, wx + ex, wy + ey, color, true))
+				return;
+		} else if (!accept(0.0f, 0.0f, 0.0f, 0.0f, color, false)) {
+			return;
+		}
+
+		drawSolidPolygon(transform, vertices, vertexCount, radius, color, context);
+	}
+
+	@SuppressWarnings("unused")
+	private void drawCircleFcn(MemorySegment center, float radius, int color, MemorySegment context) {
+		float x = center.get(JAVA_FLOAT, 0L);
+		float y = center.get(JAVA_FLOAT, 4L);
+		if (accept(x - radius, y - radius, x + radius, y + radius, color, true))
+			drawCircle(center, radius, color, context);
+	}
+
+	@SuppressWarnings("unused")
+	private void drawSolidCircleFcn(MemorySegment transform, float radius, int color, MemorySegment context) {
+		float x = transform.getAtIndex(JAVA_FLOAT, 0);
+		float y = transform.getAtIndex(JAVA_FLOAT, 1);
+		if (accept(x - radius, y - radius, x + radius, y + radius, color, true))
+			drawSolidCircle(transform, radius, color, context);
+	}
+
+	@SuppressWarnings("unused")
+	private void drawSolidCapsuleFcn(MemorySegment p1, MemorySegment p2, float radius, int color,
+			MemorySegment context) {
+		float x1 = p1.get(JAVA_FLOAT, 0L);
+		float y1 = p1.get(JAVA_FLOAT, 4L);
+		float x2 = p2.get(JAVA_FLOAT, 0L);
+		float y2 = p2.get(JAVA_FLOAT, 4L);
+		if (accept(Math.min(x1, x2) - radius, Math.min(y1, y2) - radius, Math.max(x1, x2) + radius,
+				Math.max(y1, y2) + radius, color, true))
+			drawSolidCapsule(p1, p2, radius, color, context);
+	}
+
+	@SuppressWarnings("unused")
+	private void drawSegmentFcn(MemorySegment p1, MemorySegment p2, int color, MemorySegment context) {
+		float x1 = p1.get(JAVA_FLOAT, 0L);
+		float y1 = p1.get(JAVA_FLOAT, 4L);
+		float x2 = p2.get(JAVA_FLOAT, 0L);
+		float y2 = p2.get(JAVA_FLOAT, 4L);
+		if (accept(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2), color, true))
+			drawSegment(p1, p2, color, context);
+	}
+
+	@SuppressWarnings("unused")
+	private void drawTransformFcn(MemorySegment transform, MemorySegment context) {
+		float x = transform.getAtIndex(JAVA_FLOAT, 0);
+		float y = transform.getAtIndex(JAVA_FLOAT, 1);
+		if (accept(x, y, x, y, 0, false))
+			drawTransform(transform, context);
+	}
+
+	@SuppressWarnings("unused")
+	private void drawPointFcn(MemorySegment p, float size, int color, MemorySegment context) {
+		float x = p.get(JAVA_FLOAT, 0L);
+		float y = p.get(JAVA_FLOAT, 4L);
+		if (accept(x, y, x, y, color, false))
+			drawPoint(p, size, color, context);
 	}
 
 	@SuppressWarnings("unused")
-	private void drawSolidPolygon(MemorySegment transform, MemorySegment vertices, int vertexCount, float radius,
+	private void drawStringFcn(MemorySegment p, MemorySegment string, int color, MemorySegment context) {
+		float x = p.get(JAVA_FLOAT, 0L);
+		float y = p.get(JAVA_FLOAT, 4L);
+		if (accept(x, y, x, y, color, false))
+			drawString(p, string, color, context);
+	}
+
+	/**
+	 * Receives a closed polygon. The vertices are {@code vertexCount} x, y float
+	 * pairs.
+	 */
+	protected void drawPolygon(MemorySegment vertices, int vertexCount, int color, MemorySegment context) {
+		MemorySegment.copy(vertices, JAVA_FLOAT, 0L, this.vertices, 0, vertexCount * 2);
+		drawPolygon(this.vertices, vertexCount * 2, color);
+	}
+
+	/**
+	 * Receives a solid closed polygon. The vertices are {@code vertexCount} x, y
+	 * float pairs in local space.
+	 */
+	protected void drawSolidPolygon(MemorySegment transform, MemorySegment vertices, int vertexCount, float radius,
 			int color, MemorySegment context) {
 		transformTmp.set(transform);
 
-		int counter = 0;
-		for (int i = 0; i < vertexCount; i++) {
-			long offset = i * Vec2.LAYOUT().byteSize();
-			MemorySegment.copy(vertices, offset, vec2Tmp.memorySegment(), 0, Vec2.LAYOUT().byteSize());
-			this.vertices[counter++] = vec2Tmp.getX();
-			this.vertices[counter++] = vec2Tmp.getY();
-		}
+		MemorySegment.copy(vertices, JAVA_FLOAT, 0L, this.vertices, 0, vertexCount * 2);
 		drawSolidPolygon(transformTmp, this.vertices, vertexCount * 2, radius, color);
 	}
 
-	@SuppressWarnings("unused")
-	private void drawCircle(MemorySegment center, float radius, int color, MemorySegment context) {
+	/**
+	 * Receives a circle.
+	 */
+	protected void drawCircle(MemorySegment center, float radius, int color, MemorySegment context) {
 		vec2Tmp.set(center);
 		vec2Tmp.get(vectorTmp);
 		drawCircle(vectorTmp, radius, color);
 	}
 
-	@SuppressWarnings("unused")
-	private void drawSolidCircle(MemorySegment transform, float radius, int color, MemorySegment context) {
+	/**
+	 * Receives a solid circle.
+	 */
+	protected void drawSolidCircle(MemorySegment transform, float radius, int color, MemorySegment context) {
 		transformTmp.set(transform);
 		drawSolidCircle(transformTmp, radius, color);
 	}
 
-	@SuppressWarnings("unused")
-	private void drawSolidCapsule(MemorySegment p1, MemorySegment p2, float radius, int color, MemorySegment context) {
+	/**
+	 * Receives a solid capsule.
+	 */
+	protected void drawSolidCapsule(MemorySegment p1, MemorySegment p2, float radius, int color, MemorySegment context) {
 		vec2Tmp.set(p1);
 		vec2Tmp.get(vectorTmp);
 		vec2Tmp.set(p2);
@@ -280,8 +495,10 @@ public abstract class DebugDraw {
 		drawSolidCapsule(vectorTmp, vectorTmp2, radius, color);
 	}
 
-	@SuppressWarnings("unused")
-	private void drawSegment(MemorySegment p1, MemorySegment p2, int color, MemorySegment context) {
+	/**
+	 * Receives a line segment.
+	 */
+	protected void drawSegment(MemorySegment p1, MemorySegment p2, int color, MemorySegment context) {
 		vec2Tmp.set(p1);
 		vec2Tmp.get(vectorTmp);
 		vec2Tmp.set(p2);
@@ -289,21 +506,27 @@ public abstract class DebugDraw {
 		drawSegment(vectorTmp, vectorTmp2, color);
 	}
 
-	@SuppressWarnings("unused")
-	private void drawTransform(MemorySegment transform, MemorySegment context) {
+	/**
+	 * Receives a transform.
+	 */
+	protected void drawTransform(MemorySegment transform, MemorySegment context) {
 		transformTmp.set(transform);
 		drawTransform(transformTmp);
 	}
 
-	@SuppressWarnings("unused")
-	private void drawPoint(MemorySegment p, float size, int color, MemorySegment context) {
+	/**
+	 * Receives a point.
+	 */
+	protected void drawPoint(MemorySegment p, float size, int color, MemorySegment context) {
 		vec2Tmp.set(p);
 		vec2Tmp.get(vectorTmp);
 		drawPoint(vectorTmp, size, color);
 	}
 
-	@SuppressWarnings("unused")
-	private void drawString(MemorySegment p, MemorySegment string, int color, MemorySegment context) {
+	/**
+	 * Receives a null terminated string.
+	 */
+	protected void drawString(MemorySegment p, MemorySegment string, int color, MemorySegment context) {
 		vec2Tmp.set(p);
 		vec2Tmp.get(vectorTmp);
 		String name = string.getString(0);
@@ -482,6 +705,99 @@ public abstract class DebugDraw {
 		this.drawingBounds.set(drawingBounds.memorySegment());
 	}
 
+	/**
+	 * Restrict drawing to a camera rectangle. Sets the drawing bounds, so Box2D
+	 * skips shapes outside of it, and culls all other primitives outside of it
+	 * before they are drawn.
+	 */
+	public void setCamera(float centerX, float centerY, float halfWidth, float halfHeight) {
+		cameraLowerX = centerX - halfWidth;
+		cameraLowerY = centerY - halfHeight;
+		cameraUpperX = centerX + halfWidth;
+		cameraUpperY = centerY + halfHeight;
+		cameraCulling = true;
+
+		drawingBounds.setLowerBound(vectorTmp.set(cameraLowerX, cameraLowerY));
+		drawingBounds.setUpperBound(vectorTmp.set(cameraUpperX, cameraUpperY));
+		useDrawingBounds(true);
+	}
+
+	/**
+	 * Restrict drawing to the view of a camera centered on a world position with
+	 * a viewport in pixels. Also sets the screen scale used by the sub-pixel
+	 * threshold.
+	 */
+	public void setCamera(float centerX, float centerY, float viewportWidth, float viewportHeight,
+			float pixelsPerMeter) {
+		this.pixelsPerMeter = pixelsPerMeter;
+		setCamera(centerX, centerY, 0.5f * viewportWidth / pixelsPerMeter, 0.5f * viewportHeight / pixelsPerMeter);
+	}
+
+	/**
+	 * Stop restricting drawing to the camera.
+	 */
+	public void clearCamera() {
+		cameraCulling = false;
+		useDrawingBounds(false);
+	}
+
+	/**
+	 * The screen scale used by the sub-pixel threshold. Default 1.
+	 */
+	public void setPixelsPerMeter(float pixelsPerMeter) {
+		this.pixelsPerMeter = pixelsPerMeter;
+	}
+
+	public float getPixelsPerMeter() {
+		return pixelsPerMeter;
+	}
+
+	/**
+	 * What to do with shapes whose larger screen extent is below
+	 * {@code minPixelSize} pixels. Points, transforms and strings are never
+	 * affected. Default {@link SubPixelMode#DRAW}.
+	 */
+	public void setSubPixelMode(SubPixelMode subPixelMode, float minPixelSize) {
+		this.subPixelMode = subPixelMode;
+		this.minPixelSize = minPixelSize;
+	}
+
+	public SubPixelMode getSubPixelMode() {
+		return subPixelMode;
+	}
+
+	public float getMinPixelSize() {
+		return minPixelSize;
+	}
+
+	/**
+	 * The maximum number of primitives drawn per {@link World#draw(DebugDraw)}.
+	 * Further primitives are skipped. Default unlimited.
+	 */
+	public void setMaxPrimitives(int maxPrimitives) {
+		this.maxPrimitives = maxPrimitives;
+	}
+
+	public int getMaxPrimitives() {
+		return maxPrimitives;
+	}
+
+	/**
+	 * The number of primitives drawn by the last {@link World#draw(DebugDraw)},
+	 * including sub-pixel points.
+	 */
+	public int getPrimitiveCount() {
+		return primitiveCount;
+	}
+
+	/**
+	 * The number of primitives culled, skipped or capped by the last
+	 * {@link World#draw(DebugDraw)}.
+	 */
+	public int getSkippedCount() {
+		return skippedCount;
+	}
+
 	public MemorySegment memorySegment() {
 		return b2DebugDraw;
 	}
@@ -490,4 +806,26 @@ public abstract class DebugDraw {
 		return LAYOUT;
 	}
 
+	/**
+	 * Handling of shapes below the screen space size threshold.
+	 */
+	public static enum SubPixelMode {
+
+		/**
+		 * Draw them as usual.
+		 */
+		DRAW,
+
+		/**
+		 * Draw a point at their center instead.
+		 */
+		POINT,
+
+		/**
+		 * Skip them.
+		 */
+		SKIP
+
+	}
+
 }
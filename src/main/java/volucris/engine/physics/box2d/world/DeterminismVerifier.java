@@ -0,0 +1,271 @@
+package volucris.engine.physics.box2d.world;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.util.Arrays;
+import java.util.function.Function;
+
+import org.joml.Vector2f;
+
+import volucris.engine.physics.box2d.body.Body;
+import volucris.engine.physics.box2d.bodyEvents.BodyEvents;
+import volucris.engine.physics.box2d.bodyEvents.BodyMoveEvent;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Steps two worlds built from the same scene side by side and checks that they
+ * stay bit identical, for example one single threaded and one with workers set
+ * by {@link WorldDef#setWorkerCount(int)} and a task system.
+ * <p>
+ * The state of a body is its transform and its linear and angular velocity,
+ * stored by body index. After every step the transforms are taken in bulk from
+ * the body move events, the velocities of the bodies returned by the scene are
+ * read, and both state arrays are hashed and compared with
+ * {@link Arrays#mismatch(float[], int, int, float[], int, int)}. The first
+ * difference stops the run and is reported with its step, body index and
+ * values.
+ * <p>
+ * The scene function must create the same bodies in the same order for both
+ * worlds. Static bodies do not need to be returned.
+ */
+public final class DeterminismVerifier implements AutoCloseable {
+
+	private static final int STATE_SIZE = 7;
+
+	private static final long MOVE_EVENT_SIZE;
+	private static final long MOVE_EVENT_TRANSFORM_OFFSET;
+	private static final long MOVE_EVENT_BODY_ID_OFFSET;
+
+	private static final String[] FIELDS = { "position x", "position y", "cosine", "sine", "linear velocity x",
+			"linear velocity y", "angular velocity" };
+
+	private final World worldA;
+	private final World worldB;
+	private final Body[] bodiesA;
+	private final Body[] bodiesB;
+
+	private final BodyEvents bodyEvents;
+	private final Vector2f vector;
+
+	private float[] stateA;
+	private float[] stateB;
+	private int slotCount;
+
+	private long hashA;
+	private long hashB;
+
+	private long stepCount;
+	private long divergentStep;
+	private int divergentBody;
+	private int divergentField;
+
+	static {
+		MOVE_EVENT_SIZE = BodyMoveEvent.LAYOUT().byteSize();
+		MOVE_EVENT_TRANSFORM_OFFSET = BodyMoveEvent.LAYOUT().byteOffset(PathElement.groupElement("transform"));
+		MOVE_EVENT_BODY_ID_OFFSET = BodyMoveEvent.LAYOUT().byteOffset(PathElement.groupElement("bodyId"));
+	}
+
+	/**
+	 * Create both worlds and build the scene in each.
+	 *
+	 * @param scene  Builds the scene in a world and returns its moving bodies.
+	 * @param worldA The definition of the reference world.
+	 * @param worldB The definition of the world to verify.
+	 */
+	public DeterminismVerifier(Function<World, Body[]> scene, WorldDef worldA, WorldDef worldB) {
+		this.worldA = new World(worldA);
+		this.worldB = new World(worldB);
+
+		bodiesA = scene.apply(this.worldA);
+		bodiesB = scene.apply(this.worldB);
+
+		if (bodiesA.length != bodiesB.length)
+			throw new IllegalStateException("Scenes differ: " + bodiesA.length + " and " + bodiesB.length + " bodies");
+
+		bodyEvents = new BodyEvents(Arena.ofAuto());
+		vector = new Vector2f();
+
+		stateA = new float[STATE_SIZE * 64];
+		stateB = new float[STATE_SIZE * 64];
+
+		divergentStep = -1L;
+		divergentBody = -1;
+		divergentField = -1;
+	}
+
+	/**
+	 * Step both worlds until they diverge.
+	 *
+	 * @return true if both worlds stayed identical for all steps
+	 */
+	public boolean run(int steps, float timeStep, int subStepCount) {
+		for (int i = 0; i < steps; i++) {
+			if (!step(timeStep, subStepCount))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Step both worlds once and compare them.
+	 *
+	 * @return true if both worlds are identical
+	 */
+	public boolean step(float timeStep, int subStepCount) {
+		if (divergentStep != -1L)
+			return false;
+
+		worldA.step(timeStep, subStepCount);
+		worldB.step(timeStep, subStepCount);
+		stepCount++;
+
+		stateA = capture(worldA, bodiesA, stateA);
+		stateB = capture(worldB, bodiesB, stateB);
+
+		// Both arrays cover the same slots, unused ones stay zero
+		if (stateA.length != stateB.length) {
+			int length = Math.max(stateA.length, stateB.length);
+			stateA = Arrays.copyOf(stateA, length);
+			stateB = Arrays.copyOf(stateB, length);
+		}
+
+		int length = STATE_SIZE * slotCount;
+		hashA = hash(hashA, stateA, length);
+		hashB = hash(hashB, stateB, length);
+
+		int index = Arrays.mismatch(stateA, 0, length, stateB, 0, length);
+		if (index < 0)
+			return true;
+
+		divergentStep = stepCount;
+		divergentBody = index / STATE_SIZE;
+		divergentField = index % STATE_SIZE;
+		return false;
+	}
+
+	/**
+	 * Write the transforms of the moved bodies and the velocities of the scene
+	 * bodies into a state array, growing it if needed.
+	 */
+	private float[] capture(World world, Body[] bodies, float[] state) {
+		world.getBodyEvents(bodyEvents);
+
+		MemorySegment events = bodyEvents.getMoveEvents();
+		int moveCount = bodyEvents.getMoveCount();
+
+		for (int i = 0; i < moveCount; i++) {
+			long offset = i * MOVE_EVENT_SIZE;
+
+			int slot = slot(Body.storeBodyId(events, offset + MOVE_EVENT_BODY_ID_OFFSET));
+			state = ensureCapacity(state, slot);
+
+			MemorySegment.copy(events, JAVA_FLOAT, offset + MOVE_EVENT_TRANSFORM_OFFSET, state, STATE_SIZE * slot, 4);
+		}
+
+		for (int i = 0; i < bodies.length; i++) {
+			Body body = bodies[i];
+
+			int slot = slot(Body.storeBodyId(body.memorySegment(), 0L));
+			state = ensureCapacity(state, slot);
+
+			int j = STATE_SIZE * slot;
+			body.getLinearVelocity(vector);
+			state[j + 4] = vector.x;
+			state[j + 5] = vector.y;
+			state[j + 6] = body.getAngularVelocity();
+		}
+
+		return state;
+	}
+
+	private float[] ensureCapacity(float[] state, int slot) {
+		slotCount = Math.max(slotCount, slot + 1);
+
+		if (state.length < STATE_SIZE * slotCount)
+			return Arrays.copyOf(state, Math.max(STATE_SIZE * slotCount, 2 * state.length));
+
+		return state;
+	}
+
+	/**
+	 * The slot of a stored body id is the body index. It is the same in both
+	 * worlds, the world index is not.
+	 */
+	private static int slot(long bodyId) {
+		return (int) (bodyId >>> 32) - 1;
+	}
+
+	private static long hash(long hash, float[] state, int length) {
+		for (int i = 0; i < length; i++)
+			hash = 31L * hash + Float.floatToRawIntBits(state[i]);
+		return hash;
+	}
+
+	/**
+	 * A description of the first divergence, or null if there is none.
+	 */
+	public String getReport() {
+		if (divergentStep == -1L)
+			return null;
+
+		int index = STATE_SIZE * divergentBody + divergentField;
+		return "Step " + divergentStep + ": body " + divergentBody + " differs in " + FIELDS[divergentField] + ", "
+				+ stateA[index] + " and " + stateB[index];
+	}
+
+	/**
+	 * The first step in which the worlds differ, or -1.
+	 */
+	public long getDivergentStep() {
+		return divergentStep;
+	}
+
+	/**
+	 * The index of the first body that differs, or -1.
+	 */
+	public int getDivergentBody() {
+		return divergentBody;
+	}
+
+	/**
+	 * The number of steps run.
+	 */
+	public long getStepCount() {
+		return stepCount;
+	}
+
+	/**
+	 * The running hash of the reference world over all steps.
+	 */
+	public long getHashA() {
+		return hashA;
+	}
+
+	/**
+	 * The running hash of the verified world over all steps.
+	 */
+	public long getHashB() {
+		return hashB;
+	}
+
+	public World getWorldA() {
+		return worldA;
+	}
+
+	public World getWorldB() {
+		return worldB;
+	}
+
+	/**
+	 * Destroy both worlds.
+	 */
+	@Override
+	public void close() {
+		worldA.destroyWorld();
+		worldB.destroyWorld();
+	}
+
+}
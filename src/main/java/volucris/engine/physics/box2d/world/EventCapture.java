@@ -0,0 +1,267 @@
+package volucris.engine.physics.box2d.world;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import volucris.engine.physics.box2d.bodyEvents.BodyEvents;
+import volucris.engine.physics.box2d.contactEvents.ContactEvents;
+import volucris.engine.physics.box2d.sensorEvents.SensorEvents;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Captures the contact, sensor and body events of every step into a pooled
+ * pair of off-heap frames.
+ * <p>
+ * Set it with {@link World#setEventCapture(EventCapture)}. After every
+ * {@link World#step} the event arrays are bulk copied into a free frame, which
+ * is then queued for the consumer. Game logic on another thread takes the frame
+ * of step N with {@link #take()} or {@link #poll()} while step N+1 runs, and
+ * hands it back with {@link #release(Frame)}. The step never waits for the
+ * consumer: if no frame is free, the oldest frame not taken yet is overwritten,
+ * and if the consumer holds both frames the events of the step are dropped.
+ * Both count as dropped frames, see {@link #getDroppedFrames()}. The frame
+ * buffers only grow, so capturing does not allocate once they are large
+ * enough.
+ * <p>
+ * The frames expose the captured events through the usual
+ * {@link ContactEvents}, {@link SensorEvents} and {@link BodyEvents} wrappers,
+ * which can be passed to the listeners. Shape and body ids in the events may be
+ * invalid if they were destroyed after the step.
+ * <p>
+ * Only one stepping thread and one consumer thread are supported.
+ */
+public final class EventCapture {
+
+	private static final long CONTACT_BEGIN_EVENTS_OFFSET;
+	private static final long CONTACT_END_EVENTS_OFFSET;
+	private static final long CONTACT_HIT_EVENTS_OFFSET;
+	private static final long CONTACT_BEGIN_COUNT_OFFSET;
+	private static final long CONTACT_END_COUNT_OFFSET;
+	private static final long CONTACT_HIT_COUNT_OFFSET;
+
+	private static final long SENSOR_BEGIN_EVENTS_OFFSET;
+	private static final long SENSOR_END_EVENTS_OFFSET;
+	private static final long SENSOR_BEGIN_COUNT_OFFSET;
+	private static final long SENSOR_END_COUNT_OFFSET;
+
+	private static final long MOVE_EVENTS_OFFSET;
+	private static final long MOVE_COUNT_OFFSET;
+
+	private final ArrayBlockingQueue<Frame> free;
+	private final ArrayBlockingQueue<Frame> ready;
+
+	private final ContactEvents contactEvents;
+	private final SensorEvents sensorEvents;
+	private final BodyEvents bodyEvents;
+
+	private volatile long droppedFrames;
+
+	static {
+		CONTACT_BEGIN_EVENTS_OFFSET = ContactEvents.LAYOUT().byteOffset(PathElement.groupElement("beginEvents"));
+		CONTACT_END_EVENTS_OFFSET = ContactEvents.LAYOUT().byteOffset(PathElement.groupElement("endEvents"));
+		CONTACT_HIT_EVENTS_OFFSET = ContactEvents.LAYOUT().byteOffset(PathElement.groupElement("hitEvents"));
+		CONTACT_BEGIN_COUNT_OFFSET = ContactEvents.LAYOUT().byteOffset(PathElement.groupElement("beginCount"));
+		CONTACT_END_COUNT_OFFSET = ContactEvents.LAYOUT().byteOffset(PathElement.groupElement("endCount"));
+		CONTACT_HIT_COUNT_OFFSET = ContactEvents.LAYOUT().byteOffset(PathElement.groupElement("hitCount"));
+
+		SENSOR_BEGIN_EVENTS_OFFSET = SensorEvents.LAYOUT().byteOffset(PathElement.groupElement("beginEvents"));
+		SENSOR_END_EVENTS_OFFSET = SensorEvents.LAYOUT().byteOffset(PathElement.groupElement("endEvents"));
+		SENSOR_BEGIN_COUNT_OFFSET = SensorEvents.LAYOUT().byteOffset(PathElement.groupElement("beginCount"));
+		SENSOR_END_COUNT_OFFSET = SensorEvents.LAYOUT().byteOffset(PathElement.groupElement("endCount"));
+
+		MOVE_EVENTS_OFFSET = BodyEvents.LAYOUT().byteOffset(PathElement.groupElement("moveEvents"));
+		MOVE_COUNT_OFFSET = BodyEvents.LAYOUT().byteOffset(PathElement.groupElement("moveCount"));
+	}
+
+	public EventCapture(World world) {
+		free = new ArrayBlockingQueue<>(2);
+		ready = new ArrayBlockingQueue<>(2);
+
+		free.add(new Frame(world));
+		free.add(new Frame(world));
+
+		Arena arena = Arena.ofAuto();
+		contactEvents = new ContactEvents(arena);
+		sensorEvents = new SensorEvents(arena);
+		bodyEvents = new BodyEvents(arena);
+	}
+
+	/**
+	 * Copy the events of the last step into a free frame and queue it. Called by
+	 * {@link World#step} on the stepping thread.
+	 */
+	public void capture(World world) {
+		Frame frame = free.poll();
+
+		if (frame == null) {
+			// The consumer is behind, the oldest frame not taken yet is lost
+			frame = ready.poll();
+			droppedFrames++;
+
+			if (frame == null)
+				return;
+		}
+
+		world.getContactEvents(contactEvents);
+		world.getSensorEvents(sensorEvents);
+		world.getBodyEvents(bodyEvents);
+
+		frame.capture(contactEvents, sensorEvents, bodyEvents, world.getStepCount());
+
+		ready.add(frame);
+	}
+
+	/**
+	 * The oldest captured frame, or null if there is none.
+	 */
+	public Frame poll() {
+		return ready.poll();
+	}
+
+	/**
+	 * The oldest captured frame. Waits for the next step if there is none.
+	 */
+	public Frame take() throws InterruptedException {
+		return ready.take();
+	}
+
+	/**
+	 * Hand a frame back for the next capture. The frame must not be used after
+	 * this.
+	 */
+	public void release(Frame frame) {
+		free.add(frame);
+	}
+
+	/**
+	 * The number of captured frames not taken yet.
+	 */
+	public int getReadyCount() {
+		return ready.size();
+	}
+
+	/**
+	 * The number of frames lost because the consumer did not keep up, either
+	 * overwritten before they were taken or not captured at all.
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	/**
+	 * The events of one step.
+	 */
+	public static final class Frame {
+
+		private final Buffer contactBegin;
+		private final Buffer contactEnd;
+		private final Buffer contactHit;
+		private final Buffer sensorBegin;
+		private final Buffer sensorEnd;
+		private final Buffer bodyMove;
+
+		private final MemorySegment b2ContactEvents;
+		private final MemorySegment b2SensorEvents;
+		private final MemorySegment b2BodyEvents;
+
+		private final ContactEvents contactEvents;
+		private final SensorEvents sensorEvents;
+		private final BodyEvents bodyEvents;
+
+		private long stepCount;
+
+		private Frame(World world) {
+			contactBegin = new Buffer();
+			contactEnd = new Buffer();
+			contactHit = new Buffer();
+			sensorBegin = new Buffer();
+			sensorEnd = new Buffer();
+			bodyMove = new Buffer();
+
+			Arena arena = Arena.ofAuto();
+			b2ContactEvents = arena.allocate(ContactEvents.LAYOUT());
+			b2SensorEvents = arena.allocate(SensorEvents.LAYOUT());
+			b2BodyEvents = arena.allocate(BodyEvents.LAYOUT());
+
+			contactEvents = new ContactEvents(b2ContactEvents, world);
+			sensorEvents = new SensorEvents(b2SensorEvents, world);
+			bodyEvents = new BodyEvents(b2BodyEvents, world);
+		}
+
+		private void capture(ContactEvents contactEvents, SensorEvents sensorEvents, BodyEvents bodyEvents,
+				long stepCount) {
+			b2ContactEvents.set(ADDRESS, CONTACT_BEGIN_EVENTS_OFFSET, contactBegin.copy(contactEvents.getBeginEvents()));
+			b2ContactEvents.set(ADDRESS, CONTACT_END_EVENTS_OFFSET, contactEnd.copy(contactEvents.getEndEvents()));
+			b2ContactEvents.set(ADDRESS, CONTACT_HIT_EVENTS_OFFSET, contactHit.copy(contactEvents.getHitEvents()));
+			b2ContactEvents.set(JAVA_INT, CONTACT_BEGIN_COUNT_OFFSET, contactEvents.getBeginCount());
+			b2ContactEvents.set(JAVA_INT, CONTACT_END_COUNT_OFFSET, contactEvents.getEndCount());
+			b2ContactEvents.set(JAVA_INT, CONTACT_HIT_COUNT_OFFSET, contactEvents.getHitCount());
+
+			b2SensorEvents.set(ADDRESS, SENSOR_BEGIN_EVENTS_OFFSET, sensorBegin.copy(sensorEvents.getBeginEvents()));
+			b2SensorEvents.set(ADDRESS, SENSOR_END_EVENTS_OFFSET, sensorEnd.copy(sensorEvents.getEndEvents()));
+			b2SensorEvents.set(JAVA_INT, SENSOR_BEGIN_COUNT_OFFSET, sensorEvents.getBeginCount());
+			b2SensorEvents.set(JAVA_INT, SENSOR_END_COUNT_OFFSET, sensorEvents.getEndCount());
+
+			b2BodyEvents.set(ADDRESS, MOVE_EVENTS_OFFSET, bodyMove.copy(bodyEvents.getMoveEvents()));
+			b2BodyEvents.set(JAVA_INT, MOVE_COUNT_OFFSET, bodyEvents.getMoveCount());
+
+			this.stepCount = stepCount;
+		}
+
+		/**
+		 * The {@link World#getStepCount()} of the captured step.
+		 */
+		public long getStepCount() {
+			return stepCount;
+		}
+
+		/**
+		 * The captured contact events. Valid until the frame is released.
+		 */
+		public ContactEvents getContactEvents() {
+			return contactEvents;
+		}
+
+		/**
+		 * The captured sensor events. Valid until the frame is released.
+		 */
+		public SensorEvents getSensorEvents() {
+			return sensorEvents;
+		}
+
+		/**
+		 * The captured body events. Valid until the frame is released.
+		 */
+		public BodyEvents getBodyEvents() {
+			return bodyEvents;
+		}
+
+	}
+
+	/**
+	 * A growable off-heap copy of one event array.
+	 */
+	private static final class Buffer {
+
+		private MemorySegment data;
+
+		private Buffer() {
+			data = Arena.ofAuto().allocate(64L);
+		}
+
+		private MemorySegment copy(MemorySegment events) {
+			long byteSize = events.byteSize();
+
+			if (data.byteSize() < byteSize)
+				data = Arena.ofAuto().allocate(Math.max(byteSize, 2L * data.byteSize()), 8L);
+
+			MemorySegment.copy(events, 0L, data, 0L, byteSize);
+			return data;
+		}
+
+	}
+
+}
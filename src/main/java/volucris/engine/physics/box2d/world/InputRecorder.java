@@ -0,0 +1,1102 @@
+package volucris.engine.physics.box2d.world;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.joml.Vector2f;
+
+import volucris.engine.physics.box2d.body.Body;
+import volucris.engine.physics.box2d.body.BodyDef;
+import volucris.engine.physics.box2d.body.BodyType;
+import volucris.engine.physics.box2d.geometry.Capsule;
+import volucris.engine.physics.box2d.geometry.Circle;
+import volucris.engine.physics.box2d.geometry.MassData;
+import volucris.engine.physics.box2d.geometry.Polygon;
+import volucris.engine.physics.box2d.geometry.Segment;
+import volucris.engine.physics.box2d.joint.DistanceJoint;
+import volucris.engine.physics.box2d.joint.DistanceJointDef;
+import volucris.engine.physics.box2d.joint.FilterJoint;
+import volucris.engine.physics.box2d.joint.FilterJointDef;
+import volucris.engine.physics.box2d.joint.Joint;
+import volucris.engine.physics.box2d.joint.JointType;
+import volucris.engine.physics.box2d.joint.MotorJoint;
+import volucris.engine.physics.box2d.joint.MotorJointDef;
+import volucris.engine.physics.box2d.joint.MouseJoint;
+import volucris.engine.physics.box2d.joint.MouseJointDef;
+import volucris.engine.physics.box2d.joint.PrismaticJoint;
+import volucris.engine.physics.box2d.joint.PrismaticJointDef;
+import volucris.engine.physics.box2d.joint.RevoluteJoint;
+import volucris.engine.physics.box2d.joint.RevoluteJointDef;
+import volucris.engine.physics.box2d.joint.WeldJoint;
+import volucris.engine.physics.box2d.joint.WeldJointDef;
+import volucris.engine.physics.box2d.joint.WheelJoint;
+import volucris.engine.physics.box2d.joint.WheelJointDef;
+import volucris.engine.physics.box2d.math.Transform;
+import volucris.engine.physics.box2d.shape.Filter;
+import volucris.engine.physics.box2d.shape.Shape;
+import volucris.engine.physics.box2d.shape.ShapeDef;
+import volucris.engine.physics.box2d.shape.ShapeType;
+import volucris.engine.physics.box2d.shape.SurfaceMaterial;
+import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
+import volucris.engine.physics.box2d.utils.SlotMap;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Records every mutating call on a world into an append-only binary log, which
+ * {@link InputReplayer} feeds into a fresh world.
+ * <p>
+ * The recorder is a facade: create and destroy bodies, shapes and joints, apply
+ * forces and impulses, change world, body, shape and joint settings and drive
+ * joints through it, and it performs the call and appends a record. Steps are
+ * recorded by {@link World#step(float, int)} itself while the recorder is set
+ * on the world, so steps run by a {@link StepDriver} are included, and a
+ * {@link QualityController} routes its settings through the recorder of its
+ * world. Objects are referenced by handles, which are slots reused after the
+ * object is destroyed. Destroying a body drops the handles of its shapes and
+ * joints.
+ * <p>
+ * The log header holds the {@link WorldDef} of the world. The replay must run
+ * in a world created from the same def, see {@link InputReplayer#createWorld()}.
+ * Definitions and geometry are stored as raw struct bytes, pointers such as
+ * callbacks, names and user data are cleared on replay.
+ * <p>
+ * Not recorded are chains, objects created or changed directly, world
+ * callbacks and filters, joint tuning, which the bundled Box2D does not expose,
+ * shape material ids and event flags, and body names, user data and event
+ * flags. Bodies, shapes and joints created outside the recorder cannot be
+ * referenced.
+ * <p>
+ * Records are collected in an off-heap buffer and written through a
+ * {@link FileChannel} when it is full, after every step if
+ * {@link #setFlushOnStep(boolean)} is set, and on {@link #close()}. Each record
+ * is an opcode, the payload size and the payload, in native byte order.
+ */
+public final class InputRecorder implements AutoCloseable {
+
+	/**
+	 * The magic number 'B2IL'.
+	 */
+	public static final int MAGIC = 0x4232494C;
+	public static final int VERSION = 2;
+
+	static final int STEP = 1;
+	static final int SET_GRAVITY = 2;
+	static final int CREATE_BODY = 3;
+	static final int DESTROY_BODY = 4;
+	static final int CREATE_SHAPE = 5;
+	static final int DESTROY_SHAPE = 6;
+	static final int CREATE_JOINT = 7;
+	static final int DESTROY_JOINT = 8;
+	static final int APPLY_FORCE = 9;
+	static final int APPLY_FORCE_TO_CENTER = 10;
+	static final int APPLY_TORQUE = 11;
+	static final int APPLY_LINEAR_IMPULSE = 12;
+	static final int APPLY_LINEAR_IMPULSE_TO_CENTER = 13;
+	static final int APPLY_ANGULAR_IMPULSE = 14;
+	static final int SET_LINEAR_VELOCITY = 15;
+	static final int SET_ANGULAR_VELOCITY = 16;
+	static final int SET_TRANSFORM = 17;
+	static final int SET_AWAKE = 18;
+	static final int SET_TYPE = 19;
+	static final int ENABLE_MOTOR = 20;
+	static final int SET_MOTOR_SPEED = 21;
+	static final int SET_TARGET = 22;
+	static final int SET_LINEAR_OFFSET = 23;
+	static final int SET_ANGULAR_OFFSET = 24;
+	static final int ENABLE_SLEEPING = 25;
+	static final int ENABLE_CONTINUOUS = 26;
+	static final int ENABLE_SPECULATIVE = 27;
+	static final int ENABLE_WARM_STARTING = 28;
+	static final int SET_CONTACT_TUNING = 29;
+	static final int SET_MAXIMUM_LINEAR_SPEED = 30;
+	static final int SET_RESTITUTION_THRESHOLD = 31;
+	static final int SET_HIT_EVENT_THRESHOLD = 32;
+	static final int EXPLODE = 33;
+	static final int SET_LINEAR_DAMPING = 34;
+	static final int SET_ANGULAR_DAMPING = 35;
+	static final int SET_GRAVITY_SCALE = 36;
+	static final int ENABLE_BODY_SLEEP = 37;
+	static final int SET_SLEEP_THRESHOLD = 38;
+	static final int SET_ENABLED = 39;
+	static final int SET_FIXED_ROTATION = 40;
+	static final int SET_BULLET = 41;
+	static final int SET_MASS_DATA = 42;
+	static final int APPLY_MASS_FROM_SHAPES = 43;
+	static final int SET_DENSITY = 44;
+	static final int SET_FRICTION = 45;
+	static final int SET_RESTITUTION = 46;
+	static final int SET_SURFACE_MATERIAL = 47;
+	static final int SET_FILTER = 48;
+	static final int SET_GEOMETRY = 49;
+	static final int SET_COLLIDE_CONNECTED = 50;
+	static final int SET_REFERENCE_ANGLE = 51;
+	static final int ENABLE_LIMIT = 52;
+	static final int SET_LIMITS = 53;
+	static final int ENABLE_SPRING = 54;
+	static final int SET_SPRING_HERTZ = 55;
+	static final int SET_SPRING_DAMPING_RATIO = 56;
+	static final int SET_MAX_MOTOR_FORCE = 57;
+	static final int SET_MAX_MOTOR_TORQUE = 58;
+	static final int SET_LENGTH = 59;
+	static final int SET_LINEAR_HERTZ = 60;
+	static final int SET_LINEAR_DAMPING_RATIO = 61;
+	static final int SET_ANGULAR_HERTZ = 62;
+	static final int SET_ANGULAR_DAMPING_RATIO = 63;
+	static final int SET_MAX_FORCE = 64;
+	static final int SET_MAX_TORQUE = 65;
+	static final int SET_CORRECTION_FACTOR = 66;
+
+	/**
+	 * The magic number and version followed by the {@link WorldDef}.
+	 */
+	static final long HEADER_SIZE = 8L + WorldDef.LAYOUT().byteSize();
+	static final long RECORD_HEADER_SIZE = 8L;
+
+	private static final long BUFFER_SIZE = 64L * 1024L;
+
+	private final World world;
+	private final FileChannel channel;
+
+	private final MemorySegment buffer;
+	private long position;
+
+	private final SlotMap bodySlots;
+	private final SlotMap shapeSlots;
+	private final SlotMap jointSlots;
+
+	private int[] shapeBodies;
+	private int[] jointBodies;
+
+	private final Transform transform;
+
+	private boolean flushOnStep;
+	private long bytesWritten;
+
+	/**
+	 * Create the log file for a world created with the default {@link WorldDef}.
+	 */
+	public InputRecorder(World world, Path path) {
+		this(world, new WorldDef(), path);
+	}
+
+	/**
+	 * Create the log file, replacing an existing one, and set the recorder on the
+	 * world. The world should be empty and created from the def, which is written
+	 * into the header.
+	 */
+	public InputRecorder(World world, WorldDef worldDef, Path path) {
+		this.world = world;
+
+		try {
+			channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+		} catch (IOException e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot create input log: " + className, e);
+		}
+
+		buffer = Arena.ofAuto().allocate(BUFFER_SIZE, 8L);
+
+		bodySlots = new SlotMap(64);
+		shapeSlots = new SlotMap(64);
+		jointSlots = new SlotMap(16);
+
+		shapeBodies = new int[64];
+		jointBodies = new int[2 * 16];
+
+		transform = new Transform(Arena.ofAuto());
+
+		flushOnStep = true;
+
+		buffer.set(JAVA_INT, 0L, MAGIC);
+		buffer.set(JAVA_INT, 4L, VERSION);
+		MemorySegment.copy(worldDef.memorySegment(), 0L, buffer, 8L, WorldDef.LAYOUT().byteSize());
+		position = HEADER_SIZE;
+
+		world.setInputRecorder(this);
+	}
+
+	/**
+	 * Record a step. Called by {@link World#step(float, int)} before stepping.
+	 */
+	void recordStep(float timeStep, int subStepCount) {
+		long offset = begin(STEP, 8L);
+		buffer.set(JAVA_FLOAT, offset, timeStep);
+		buffer.set(JAVA_INT, offset + 4, subStepCount);
+
+		if (flushOnStep)
+			flush();
+	}
+
+	/**
+	 * Step the world. Same as {@link World#step(float, int)}.
+	 */
+	public void step(float timeStep, int subStepCount) {
+		world.step(timeStep, subStepCount);
+	}
+
+	public void setGravity(float x, float y) {
+		long offset = begin(SET_GRAVITY, 8L);
+		buffer.set(JAVA_FLOAT, offset, x);
+		buffer.set(JAVA_FLOAT, offset + 4, y);
+
+		world.setGravity(x, y);
+	}
+
+	public void setGravity(Vector2f gravity) {
+		setGravity(gravity.x, gravity.y);
+	}
+
+	public void enableSleeping(boolean enableSleeping) {
+		recordWorldInt(ENABLE_SLEEPING, enableSleeping ? 1 : 0);
+		world.enableSleeping(enableSleeping);
+	}
+
+	public void enableContinuous(boolean enableContinuous) {
+		recordWorldInt(ENABLE_CONTINUOUS, enableContinuous ? 1 : 0);
+		world.enableContinuous(enableContinuous);
+	}
+
+	public void enableSpeculative(boolean enableSpeculative) {
+		recordWorldInt(ENABLE_SPECULATIVE, enableSpeculative ? 1 : 0);
+		world.enableSpeculative(enableSpeculative);
+	}
+
+	public void enableWarmStarting(boolean enableWarmStarting) {
+		recordWorldInt(ENABLE_WARM_STARTING, enableWarmStarting ? 1 : 0);
+		world.enableWarmStarting(enableWarmStarting);
+	}
+
+	public void setContactTuning(float hertz, float dampingRatio, float pushSpeed) {
+		long offset = begin(SET_CONTACT_TUNING, 12L);
+		buffer.set(JAVA_FLOAT, offset, hertz);
+		buffer.set(JAVA_FLOAT, offset + 4, dampingRatio);
+		buffer.set(JAVA_FLOAT, offset + 8, pushSpeed);
+
+		world.setContactTuning(hertz, dampingRatio, pushSpeed);
+	}
+
+	public void setMaximumLinearSpeed(float maximumLinearSpeed) {
+		recordWorldFloat(SET_MAXIMUM_LINEAR_SPEED, maximumLinearSpeed);
+		world.setMaximumLinearSpeed(maximumLinearSpeed);
+	}
+
+	public void setRestitutionThreshold(float restitutionThreshold) {
+		recordWorldFloat(SET_RESTITUTION_THRESHOLD, restitutionThreshold);
+		world.setRestitutionThreshold(restitutionThreshold);
+	}
+
+	public void setHitEventThreshold(float hitEventThreshold) {
+		recordWorldFloat(SET_HIT_EVENT_THRESHOLD, hitEventThreshold);
+		world.setHitEventThreshold(hitEventThreshold);
+	}
+
+	public void explode(ExplosionDef explosionDef) {
+		long byteSize = ExplosionDef.LAYOUT().byteSize();
+		long offset = begin(EXPLODE, byteSize);
+		MemorySegment.copy(explosionDef.memorySegment(), 0L, buffer, offset, byteSize);
+
+		world.explode(explosionDef);
+	}
+
+	private void recordWorldInt(int opcode, int value) {
+		long offset = begin(opcode, 4L);
+		buffer.set(JAVA_INT, offset, value);
+	}
+
+	private void recordWorldFloat(int opcode, float value) {
+		long offset = begin(opcode, 4L);
+		buffer.set(JAVA_FLOAT, offset, value);
+	}
+
+	public Body createBody(BodyDef bodyDef) {
+		Body body = new Body(world, bodyDef);
+		int handle = bodySlots.add(Body.storeBodyId(body.memorySegment(), 0L));
+
+		long byteSize = BodyDef.LAYOUT().byteSize();
+		long offset = begin(CREATE_BODY, 8L + byteSize);
+		buffer.set(JAVA_INT, offset, handle);
+		buffer.set(JAVA_INT, offset + 4, 0);
+		MemorySegment.copy(bodyDef.memorySegment(), 0L, buffer, offset + 8, byteSize);
+
+		return body;
+	}
+
+	/**
+	 * Destroy a body with its shapes and joints.
+	 */
+	public void destroyBody(Body body) {
+		int handle = bodySlots.remove(Body.storeBodyId(body.memorySegment(), 0L));
+		if (handle == SlotMap.NONE)
+			throw new IllegalArgumentException("Body was not created by the recorder");
+
+		long offset = begin(DESTROY_BODY, 4L);
+		buffer.set(JAVA_INT, offset, handle);
+
+		int shapeCount = shapeSlots.getSlotCount();
+		for (int i = 0; i < shapeCount; i++) {
+			if (shapeBodies[i] == handle && shapeSlots.getKey(i) != 0L)
+				shapeSlots.remove(shapeSlots.getKey(i));
+		}
+
+		int jointCount = jointSlots.getSlotCount();
+		for (int i = 0; i < jointCount; i++) {
+			if ((jointBodies[2 * i] == handle || jointBodies[2 * i + 1] == handle) && jointSlots.getKey(i) != 0L)
+				jointSlots.remove(jointSlots.getKey(i));
+		}
+
+		body.destroyBody();
+	}
+
+	public void setLinearDamping(Body body, float linearDamping) {
+		recordBodyFloat(SET_LINEAR_DAMPING, body, linearDamping, false);
+		body.setLinearDamping(linearDamping);
+	}
+
+	public void setAngularDamping(Body body, float angularDamping) {
+		recordBodyFloat(SET_ANGULAR_DAMPING, body, angularDamping, false);
+		body.setAngularDamping(angularDamping);
+	}
+
+	public void setGravityScale(Body body, float gravityScale) {
+		recordBodyFloat(SET_GRAVITY_SCALE, body, gravityScale, false);
+		body.setGravityScale(gravityScale);
+	}
+
+	public void enableSleep(Body body, boolean enableSleep) {
+		recordBodyInt(ENABLE_BODY_SLEEP, body, enableSleep ? 1 : 0);
+		body.enableSleep(enableSleep);
+	}
+
+	public void setSleepThreshold(Body body, float sleepThreshold) {
+		recordBodyFloat(SET_SLEEP_THRESHOLD, body, sleepThreshold, false);
+		body.setSleepThreshold(sleepThreshold);
+	}
+
+	public void enable(Body body) {
+		recordBodyInt(SET_ENABLED, body, 1);
+		body.enable();
+	}
+
+	public void disable(Body body) {
+		recordBodyInt(SET_ENABLED, body, 0);
+		body.disable();
+	}
+
+	public void setFixedRotation(Body body, boolean flag) {
+		recordBodyInt(SET_FIXED_ROTATION, body, flag ? 1 : 0);
+		body.setFixedRotation(flag);
+	}
+
+	public void setBullet(Body body, boolean flag) {
+		recordBodyInt(SET_BULLET, body, flag ? 1 : 0);
+		body.setBullet(flag);
+	}
+
+	public void setMassData(Body body, MassData massData) {
+		long byteSize = MassData.LAYOUT().byteSize();
+		long offset = begin(SET_MASS_DATA, 4L + byteSize);
+		buffer.set(JAVA_INT, offset, bodyHandle(body));
+		MemorySegment.copy(massData.memorySegment(), 0L, buffer, offset + 4, byteSize);
+
+		body.setMassData(massData);
+	}
+
+	public void applyMassFromShapes(Body body) {
+		recordBodyInt(APPLY_MASS_FROM_SHAPES, body, 0);
+		body.applyMassFromShapes();
+	}
+
+	public Shape createShape(Body body, ShapeDef shapeDef, Circle circle) {
+		Shape shape = new Shape(body, shapeDef, circle);
+		recordShape(body, shapeDef, ShapeType.CIRCLE_SHAPE, circle.memorySegment(), shape);
+		return shape;
+	}
+
+	public Shape createShape(Body body, ShapeDef shapeDef, Capsule capsule) {
+		Shape shape = new Shape(body, shapeDef, capsule);
+		recordShape(body, shapeDef, ShapeType.CAPSULE_SHAPE, capsule.memorySegment(), shape);
+		return shape;
+	}
+
+	public Shape createShape(Body body, ShapeDef shapeDef, Segment segment) {
+		Shape shape = new Shape(body, shapeDef, segment);
+		recordShape(body, shapeDef, ShapeType.SEGMENT_SHAPE, segment.memorySegment(), shape);
+		return shape;
+	}
+
+	public Shape createShape(Body body, ShapeDef shapeDef, Polygon polygon) {
+		Shape shape = new Shape(body, shapeDef, polygon);
+		recordShape(body, shapeDef, ShapeType.POLYGON_SHAPE, polygon.memorySegment(), shape);
+		return shape;
+	}
+
+	private void recordShape(Body body, ShapeDef shapeDef, ShapeType type, MemorySegment geometry, Shape shape) {
+		int bodyHandle = bodyHandle(body);
+		int handle = shapeSlots.add(Shape.storeShapeId(shape.memorySegment(), 0L));
+
+		if (handle == shapeBodies.length)
+			shapeBodies = Arrays.copyOf(shapeBodies, 2 * handle);
+
+		shapeBodies[handle] = bodyHandle;
+
+		long defSize = ShapeDef.LAYOUT().byteSize();
+		long geometrySize = geometry.byteSize();
+
+		long offset = begin(CREATE_SHAPE, 16L + defSize + geometrySize);
+		buffer.set(JAVA_INT, offset, handle);
+		buffer.set(JAVA_INT, offset + 4, bodyHandle);
+		buffer.set(JAVA_INT, offset + 8, type.id());
+		buffer.set(JAVA_INT, offset + 12, 0);
+		MemorySegment.copy(shapeDef.memorySegment(), 0L, buffer, offset + 16, defSize);
+		MemorySegment.copy(geometry, 0L, buffer, offset + 16 + defSize, geometrySize);
+	}
+
+	public void destroyShape(Shape shape, boolean updateBodyMass) {
+		int handle = shapeSlots.remove(Shape.storeShapeId(shape.memorySegment(), 0L));
+		if (handle == SlotMap.NONE)
+			throw new IllegalArgumentException("Shape was not created by the recorder");
+
+		long offset = begin(DESTROY_SHAPE, 8L);
+		buffer.set(JAVA_INT, offset, handle);
+		buffer.set(JAVA_INT, offset + 4, updateBodyMass ? 1 : 0);
+
+		shape.destroyShape(updateBodyMass);
+	}
+
+	public void setDensity(Shape shape, float density, boolean updateBodyMass) {
+		recordShapeFloat(SET_DENSITY, shape, density, updateBodyMass);
+		shape.setDensity(density, updateBodyMass);
+	}
+
+	public void setFriction(Shape shape, float friction) {
+		recordShapeFloat(SET_FRICTION, shape, friction, false);
+		shape.setFriction(friction);
+	}
+
+	public void setRestitution(Shape shape, float restitution) {
+		recordShapeFloat(SET_RESTITUTION, shape, restitution, false);
+		shape.setRestitution(restitution);
+	}
+
+	public void setSurfaceMaterial(Shape shape, SurfaceMaterial surfaceMaterial) {
+		recordShapeStruct(SET_SURFACE_MATERIAL, shape, surfaceMaterial.memorySegment(), 0);
+		shape.setSurfaceMaterial(surfaceMaterial);
+	}
+
+	public void setFilter(Shape shape, Filter filter) {
+		recordShapeStruct(SET_FILTER, shape, filter.memorySegment(), 0);
+		shape.setFilter(filter);
+	}
+
+	public void setCircle(Shape shape, Circle circle) {
+		recordShapeStruct(SET_GEOMETRY, shape, circle.memorySegment(), ShapeType.CIRCLE_SHAPE.id());
+		shape.setCircle(circle);
+	}
+
+	public void setCapsule(Shape shape, Capsule capsule) {
+		recordShapeStruct(SET_GEOMETRY, shape, capsule.memorySegment(), ShapeType.CAPSULE_SHAPE.id());
+		shape.setCapsule(capsule);
+	}
+
+	public void setSegment(Shape shape, Segment segment) {
+		recordShapeStruct(SET_GEOMETRY, shape, segment.memorySegment(), ShapeType.SEGMENT_SHAPE.id());
+		shape.setSegment(segment);
+	}
+
+	public void setPolygon(Shape shape, Polygon polygon) {
+		recordShapeStruct(SET_GEOMETRY, shape, polygon.memorySegment(), ShapeType.POLYGON_SHAPE.id());
+		shape.setPolygon(polygon);
+	}
+
+	private void recordShapeFloat(int opcode, Shape shape, float value, boolean flag) {
+		long offset = begin(opcode, 12L);
+		buffer.set(JAVA_INT, offset, shapeHandle(shape));
+		buffer.set(JAVA_FLOAT, offset + 4, value);
+		buffer.set(JAVA_INT, offset + 8, flag ? 1 : 0);
+	}
+
+	private void recordShapeStruct(int opcode, Shape shape, MemorySegment struct, int type) {
+		long byteSize = struct.byteSize();
+		long offset = begin(opcode, 8L + byteSize);
+		buffer.set(JAVA_INT, offset, shapeHandle(shape));
+		buffer.set(JAVA_INT, offset + 4, type);
+		MemorySegment.copy(struct, 0L, buffer, offset + 8, byteSize);
+	}
+
+	public DistanceJoint createJoint(DistanceJointDef def) {
+		DistanceJoint joint = new DistanceJoint(world, def);
+		recordJoint(JointType.DISTANCE_JOINT, def.memorySegment(), DistanceJointDef.LAYOUT().byteSize(), joint);
+		return joint;
+	}
+
+	public FilterJoint createJoint(FilterJointDef def) {
+		FilterJoint joint = new FilterJoint(world, def);
+		recordJoint(JointType.FILTER_JOINT, def.memorySegment(), FilterJointDef.LAYOUT().byteSize(), joint);
+		return joint;
+	}
+
+	public MotorJoint createJoint(MotorJointDef def) {
+		MotorJoint joint = new MotorJoint(world, def);
+		recordJoint(JointType.MOTOR_JOINT, def.memorySegment(), MotorJointDef.LAYOUT().byteSize(), joint);
+		return joint;
+	}
+
+	public MouseJoint createJoint(MouseJointDef def) {
+		MouseJoint joint = new MouseJoint(world, def);
+		recordJoint(JointType.MOUSE_JOINT, def.memorySegment(), MouseJointDef.LAYOUT().byteSize(), joint);
+		return joint;
+	}
+
+	public PrismaticJoint createJoint(PrismaticJointDef def) {
+		PrismaticJoint joint = new PrismaticJoint(world, def);
+		recordJoint(JointType.PRISMATIC_JOINT, def.memorySegment(), PrismaticJointDef.LAYOUT().byteSize(), joint);
+		return joint;
+	}
+
+	public RevoluteJoint createJoint(RevoluteJointDef def) {
+		RevoluteJoint joint = new RevoluteJoint(world, def);
+		recordJoint(JointType.REVOLUTE_JOINT, def.memorySegment(), RevoluteJointDef.LAYOUT().byteSize(), joint);
+		return joint;
+	}
+
+	public WeldJoint createJoint(WeldJointDef def) {
+		WeldJoint joint = new WeldJoint(world, def);
+		recordJoint(JointType.WELD_JOINT, def.memorySegment(), WeldJointDef.LAYOUT().byteSize(), joint);
+		return joint;
+	}
+
+	public WheelJoint createJoint(WheelJointDef def) {
+		WheelJoint joint = new WheelJoint(world, def);
+		recordJoint(JointType.WHEEL_JOINT, def.memorySegment(), WheelJointDef.LAYOUT().byteSize(), joint);
+		return joint;
+	}
+
+	private void recordJoint(JointType type, MemorySegment def, long defSize, Joint joint) {
+		int bodyA = bodyHandle(joint.getBodyA());
+		int bodyB = bodyHandle(joint.getBodyB());
+		int handle = jointSlots.add(Joint.storeJointId(joint.memorySegment(), 0L));
+
+		if (2 * handle == jointBodies.length)
+			jointBodies = Arrays.copyOf(jointBodies, 4 * handle);
+
+		jointBodies[2 * handle] = bodyA;
+		jointBodies[2 * handle + 1] = bodyB;
+
+		long offset = begin(CREATE_JOINT, 16L + defSize);
+		buffer.set(JAVA_INT, offset, type.getId());
+		buffer.set(JAVA_INT, offset + 4, bodyA);
+		buffer.set(JAVA_INT, offset + 8, bodyB);
+		buffer.set(JAVA_INT, offset + 12, handle);
+		MemorySegment.copy(def, 0L, buffer, offset + 16, defSize);
+	}
+
+	public void destroyJoint(Joint joint) {
+		int handle = jointSlots.remove(Joint.storeJointId(joint.memorySegment(), 0L));
+		if (handle == SlotMap.NONE)
+			throw new IllegalArgumentException("Joint was not created by the recorder");
+
+		long offset = begin(DESTROY_JOINT, 4L);
+		buffer.set(JAVA_INT, offset, handle);
+
+		joint.destroyJoint();
+	}
+
+	public void setCollideConnected(Joint joint, boolean shouldCollide) {
+		long offset = begin(SET_COLLIDE_CONNECTED, 8L);
+		buffer.set(JAVA_INT, offset, jointHandle(joint));
+		buffer.set(JAVA_INT, offset + 4, shouldCollide ? 1 : 0);
+
+		joint.setCollideConnected(shouldCollide);
+	}
+
+	public void applyForce(Body body, Vector2f force, Vector2f point, boolean wake) {
+		long offset = begin(APPLY_FORCE, 24L);
+		buffer.set(JAVA_INT, offset, bodyHandle(body));
+		buffer.set(JAVA_FLOAT, offset + 4, force.x);
+		buffer.set(JAVA_FLOAT, offset + 8, force.y);
+		buffer.set(JAVA_FLOAT, offset + 12, point.x);
+		buffer.set(JAVA_FLOAT, offset + 16, point.y);
+		buffer.set(JAVA_INT, offset + 20, wake ? 1 : 0);
+
+		body.applyForce(force, point, wake);
+	}
+
+	public void applyForceToCenter(Body body, Vector2f force, boolean wake) {
+		long offset = begin(APPLY_FORCE_TO_CENTER, 16L);
+		buffer.set(JAVA_INT, offset, bodyHandle(body));
+		buffer.set(JAVA_FLOAT, offset + 4, force.x);
+		buffer.set(JAVA_FLOAT, offset + 8, force.y);
+		buffer.set(JAVA_INT, offset + 12, wake ? 1 : 0);
+
+		body.applyForceToCenter(force, wake);
+	}
+
+	public void applyTorque(Body body, float torque, boolean wake) {
+		recordBodyFloat(APPLY_TORQUE, body, torque, wake);
+		body.applyTorque(torque, wake);
+	}
+
+	public void applyLinearImpulse(Body body, Vector2f impulse, Vector2f point, boolean wake) {
+		long offset = begin(APPLY_LINEAR_IMPULSE, 24L);
+		buffer.set(JAVA_INT, offset, bodyHandle(body));
+		buffer.set(JAVA_FLOAT, offset + 4, impulse.x);
+		buffer.set(JAVA_FLOAT, offset + 8, impulse.y);
+		buffer.set(JAVA_FLOAT, offset + 12, point.x);
+		buffer.set(JAVA_FLOAT, offset + 16, point.y);
+		buffer.set(JAVA_INT, offset + 20, wake ? 1 : 0);
+
+		body.applyLinearImpulse(impulse, point, wake);
+	}
+
+	public void applyLinearImpulseToCenter(Body body, Vector2f impulse, boolean wake) {
+		long offset = begin(APPLY_LINEAR_IMPULSE_TO_CENTER, 16L);
+		buffer.set(JAVA_INT, offset, bodyHandle(body));
+		buffer.set(JAVA_FLOAT, offset + 4, impulse.x);
+		buffer.set(JAVA_FLOAT, offset + 8, impulse.y);
+		buffer.set(JAVA_INT, offset + 12, wake ? 1 : 0);
+
+		body.applyLinearImpulseToCenter(impulse, wake);
+	}
+
+	public void applyAngularImpulse(Body body, float impulse, boolean wake) {
+		recordBodyFloat(APPLY_ANGULAR_IMPULSE, body, impulse, wake);
+		body.applyAngularImpulse(impulse, wake);
+	}
+
+	private void recordBodyFloat(int opcode, Body body, float value, boolean flag) {
+		long offset = begin(opcode, 12L);
+		buffer.set(JAVA_INT, offset, bodyHandle(body));
+		buffer.set(JAVA_FLOAT, offset + 4, value);
+		buffer.set(JAVA_INT, offset + 8, flag ? 1 : 0);
+	}
+
+	public void setLinearVelocity(Body body, Vector2f linearVelocity) {
+		long offset = begin(SET_LINEAR_VELOCITY, 12L);
+		buffer.set(JAVA_INT, offset, bodyHandle(body));
+		buffer.set(JAVA_FLOAT, offset + 4, linearVelocity.x);
+		buffer.set(JAVA_FLOAT, offset + 8, linearVelocity.y);
+
+		body.setLinearVelocity(linearVelocity);
+	}
+
+	public void setAngularVelocity(Body body, float angularVelocity) {
+		recordBodyFloat(SET_ANGULAR_VELOCITY, body, angularVelocity, false);
+		body.setAngularVelocity(angularVelocity);
+	}
+
+	/**
+	 * Set the world transform of a body. The rotation is recorded as cosine and
+	 * sine, so the replay gets the exact same rotation.
+	 */
+	public void setTransformRadians(Body body, float x, float y, float rotation) {
+		transform.setPosition(x, y);
+		transform.setRotationRadians(rotation);
+		setTransform(body, transform);
+	}
+
+	public void setTransform(Body body, Transform transform) {
+		long byteSize = Transform.LAYOUT().byteSize();
+		long offset = begin(SET_TRANSFORM, 4L + byteSize);
+		buffer.set(JAVA_INT, offset, bodyHandle(body));
+		MemorySegment.copy(transform.memorySegment(), 0L, buffer, offset + 4, byteSize);
+
+		body.setTransform(transform);
+	}
+
+	public void setAwake(Body body, boolean awake) {
+		recordBodyInt(SET_AWAKE, body, awake ? 1 : 0);
+		body.setAwake(awake);
+	}
+
+	public void setType(Body body, BodyType type) {
+		recordBodyInt(SET_TYPE, body, type.id());
+		body.setType(type);
+	}
+
+	private void recordBodyInt(int opcode, Body body, int value) {
+		long offset = begin(opcode, 8L);
+		buffer.set(JAVA_INT, offset, bodyHandle(body));
+		buffer.set(JAVA_INT, offset + 4, value);
+	}
+
+	/**
+	 * Enable the motor of a distance, prismatic, revolute or wheel joint.
+	 */
+	public void enableMotor(Joint joint, boolean enableMotor) {
+		long offset = begin(ENABLE_MOTOR, 8L);
+		buffer.set(JAVA_INT, offset, jointHandle(joint));
+		buffer.set(JAVA_INT, offset + 4, enableMotor ? 1 : 0);
+
+		enableMotor0(joint, enableMotor);
+	}
+
+	/**
+	 * Set the motor speed of a distance, prismatic, revolute or wheel joint.
+	 */
+	public void setMotorSpeed(Joint joint, float motorSpeed) {
+		long offset = begin(SET_MOTOR_SPEED, 8L);
+		buffer.set(JAVA_INT, offset, jointHandle(joint));
+		buffer.set(JAVA_FLOAT, offset + 4, motorSpeed);
+
+		setMotorSpeed0(joint, motorSpeed);
+	}
+
+	public void setTarget(MouseJoint joint, Vector2f target) {
+		long offset = begin(SET_TARGET, 12L);
+		buffer.set(JAVA_INT, offset, jointHandle(joint));
+		buffer.set(JAVA_FLOAT, offset + 4, target.x);
+		buffer.set(JAVA_FLOAT, offset + 8, target.y);
+
+		joint.setTarget(target);
+	}
+
+	public void setLinearOffset(MotorJoint joint, Vector2f linearOffset) {
+		long offset = begin(SET_LINEAR_OFFSET, 12L);
+		buffer.set(JAVA_INT, offset, jointHandle(joint));
+		buffer.set(JAVA_FLOAT, offset + 4, linearOffset.x);
+		buffer.set(JAVA_FLOAT, offset + 8, linearOffset.y);
+
+		joint.setLinearOffset(linearOffset);
+	}
+
+	public void setAngularOffsetRadians(MotorJoint joint, float angularOffset) {
+		long offset = begin(SET_ANGULAR_OFFSET, 8L);
+		buffer.set(JAVA_INT, offset, jointHandle(joint));
+		buffer.set(JAVA_FLOAT, offset + 4, angularOffset);
+
+		joint.setAngularOffsetRadians(angularOffset);
+	}
+
+	/**
+	 * Set the reference angle of a prismatic, revolute, weld or wheel joint.
+	 */
+	public void setReferenceAngleRadians(Joint joint, float angleInRadians) {
+		recordJointFloat(SET_REFERENCE_ANGLE, joint, angleInRadians);
+		joint.setReferenceAngleRadians(angleInRadians);
+	}
+
+	/**
+	 * Enable the limit of a distance, prismatic, revolute or wheel joint.
+	 */
+	public void enableLimit(Joint joint, boolean enableLimit) {
+		recordJointInt(ENABLE_LIMIT, joint, enableLimit ? 1 : 0);
+		enableLimit0(joint, enableLimit);
+	}
+
+	/**
+	 * Set the limits of a prismatic, revolute or wheel joint, or the length range
+	 * of a distance joint.
+	 */
+	public void setLimits(Joint joint, float lower, float upper) {
+		long offset = begin(SET_LIMITS, 12L);
+		buffer.set(JAVA_INT, offset, jointHandle(joint));
+		buffer.set(JAVA_FLOAT, offset + 4, lower);
+		buffer.set(JAVA_FLOAT, offset + 8, upper);
+
+		setLimits0(joint, lower, upper);
+	}
+
+	/**
+	 * Enable the spring of a distance, prismatic, revolute or wheel joint.
+	 */
+	public void enableSpring(Joint joint, boolean enableSpring) {
+		recordJointInt(ENABLE_SPRING, joint, enableSpring ? 1 : 0);
+		enableSpring0(joint, enableSpring);
+	}
+
+	/**
+	 * Set the spring stiffness of a distance, mouse, prismatic, revolute or wheel
+	 * joint.
+	 */
+	public void setSpringHertz(Joint joint, float springHertz) {
+		recordJointFloat(SET_SPRING_HERTZ, joint, springHertz);
+		setSpringHertz0(joint, springHertz);
+	}
+
+	/**
+	 * Set the spring damping ratio of a distance, mouse, prismatic, revolute or
+	 * wheel joint.
+	 */
+	public void setSpringDampingRatio(Joint joint, float springDampingRatio) {
+		recordJointFloat(SET_SPRING_DAMPING_RATIO, joint, springDampingRatio);
+		setSpringDampingRatio0(joint, springDampingRatio);
+	}
+
+	/**
+	 * Set the maximum motor force of a distance or prismatic joint.
+	 */
+	public void setMaxMotorForce(Joint joint, float maxMotorForce) {
+		recordJointFloat(SET_MAX_MOTOR_FORCE, joint, maxMotorForce);
+		setMaxMotorForce0(joint, maxMotorForce);
+	}
+
+	/**
+	 * Set the maximum motor torque of a revolute or wheel joint.
+	 */
+	public void setMaxMotorTorque(Joint joint, float maxMotorTorque) {
+		recordJointFloat(SET_MAX_MOTOR_TORQUE, joint, maxMotorTorque);
+		setMaxMotorTorque0(joint, maxMotorTorque);
+	}
+
+	public void setLength(DistanceJoint joint, float length) {
+		recordJointFloat(SET_LENGTH, joint, length);
+		joint.setLength(length);
+	}
+
+	public void setLinearHertz(WeldJoint joint, float hertz) {
+		recordJointFloat(SET_LINEAR_HERTZ, joint, hertz);
+		joint.setLinearHertz(hertz);
+	}
+
+	public void setLinearDampingRatio(WeldJoint joint, float dampingRatio) {
+		recordJointFloat(SET_LINEAR_DAMPING_RATIO, joint, dampingRatio);
+		joint.setLinearDampingRatio(dampingRatio);
+	}
+
+	public void setAngularHertz(WeldJoint joint, float hertz) {
+		recordJointFloat(SET_ANGULAR_HERTZ, joint, hertz);
+		joint.setAngularHertz(hertz);
+	}
+
+	public void setAngularDampingRatio(WeldJoint joint, float dampingRatio) {
+		recordJointFloat(SET_ANGULAR_DAMPING_RATIO, joint, dampingRatio);
+		joint.setAngularDampingRatio(dampingRatio);
+	}
+
+	/**
+	 * Set the maximum force of a motor or mouse joint.
+	 */
+	public void setMaxForce(Joint joint, float maxForce) {
+		recordJointFloat(SET_MAX_FORCE, joint, maxForce);
+		setMaxForce0(joint, maxForce);
+	}
+
+	public void setMaxTorque(MotorJoint joint, float maxTorque) {
+		recordJointFloat(SET_MAX_TORQUE, joint, maxTorque);
+		joint.setMaxTorque(maxTorque);
+	}
+
+	public void setCorrectionFactor(MotorJoint joint, float correctionFactor) {
+		recordJointFloat(SET_CORRECTION_FACTOR, joint, correctionFactor);
+		joint.setCorrectionFactor(correctionFactor);
+	}
+
+	private void recordJointInt(int opcode, Joint joint, int value) {
+		long offset = begin(opcode, 8L);
+		buffer.set(JAVA_INT, offset, jointHandle(joint));
+		buffer.set(JAVA_INT, offset + 4, value);
+	}
+
+	private void recordJointFloat(int opcode, Joint joint, float value) {
+		long offset = begin(opcode, 8L);
+		buffer.set(JAVA_INT, offset, jointHandle(joint));
+		buffer.set(JAVA_FLOAT, offset + 4, value);
+	}
+
+	static void enableMotor0(Joint joint, boolean enableMotor) {
+		switch (joint) {
+		case DistanceJoint distance -> distance.enableMotor(enableMotor);
+		case PrismaticJoint prismatic -> prismatic.enableMotor(enableMotor);
+		case RevoluteJoint revolute -> revolute.enableMotor(enableMotor);
+		case WheelJoint wheel -> wheel.enableMotor(enableMotor);
+		default -> throw new IllegalArgumentException("Joint has no motor: " + joint.getType());
+		}
+	}
+
+	static void setMotorSpeed0(Joint joint, float motorSpeed) {
+		switch (joint) {
+		case DistanceJoint distance -> distance.setMotorSpeed(motorSpeed);
+		case PrismaticJoint prismatic -> prismatic.setMotorSpeed(motorSpeed);
+		case RevoluteJoint revolute -> revolute.setMotorSpeed(motorSpeed);
+		case WheelJoint wheel -> wheel.setMotorSpeed(motorSpeed);
+		default -> throw new IllegalArgumentException("Joint has no motor: " + joint.getType());
+		}
+	}
+
+	static void enableLimit0(Joint joint, boolean enableLimit) {
+		switch (joint) {
+		case DistanceJoint distance -> distance.enableLimit(enableLimit);
+		case PrismaticJoint prismatic -> prismatic.enableLimit(enableLimit);
+		case RevoluteJoint revolute -> revolute.enableLimit(enableLimit);
+		case WheelJoint wheel -> wheel.enableLimit(enableLimit);
+		default -> throw new IllegalArgumentException("Joint has no limit: " + joint.getType());
+		}
+	}
+
+	static void setLimits0(Joint joint, float lower, float upper) {
+		switch (joint) {
+		case DistanceJoint distance -> distance.setLengthRange(lower, upper);
+		case PrismaticJoint prismatic -> prismatic.setLimits(lower, upper);
+		case RevoluteJoint revolute -> revolute.setLimits(lower, upper);
+		case WheelJoint wheel -> wheel.setLimits(lower, upper);
+		default -> throw new IllegalArgumentException("Joint has no limit: " + joint.getType());
+		}
+	}
+
+	static void enableSpring0(Joint joint, boolean enableSpring) {
+		switch (joint) {
+		case DistanceJoint distance -> distance.enableSpring(enableSpring);
+		case PrismaticJoint prismatic -> prismatic.enableSpring(enableSpring);
+		case RevoluteJoint revolute -> revolute.enableSpring(enableSpring);
+		case WheelJoint wheel -> wheel.enableSpring(enableSpring);
+		default -> throw new IllegalArgumentException("Joint has no spring: " + joint.getType());
+		}
+	}
+
+	static void setSpringHertz0(Joint joint, float springHertz) {
+		switch (joint) {
+		case DistanceJoint distance -> distance.setSpringHertz(springHertz);
+		case MouseJoint mouse -> mouse.setSpringHertz(springHertz);
+		case PrismaticJoint prismatic -> prismatic.setSpringHertz(springHertz);
+		case RevoluteJoint revolute -> revolute.setSpringHertz(springHertz);
+		case WheelJoint wheel -> wheel.setSpringHertz(springHertz);
+		default -> throw new IllegalArgumentException("Joint has no spring: " + joint.getType());
+		}
+	}
+
+	static void setSpringDampingRatio0(Joint joint, float springDampingRatio) {
+		switch (joint) {
+		case DistanceJoint distance -> distance.setSpringDampingRatio(springDampingRatio);
+		case MouseJoint mouse -> mouse.setSpringDampingRatio(springDampingRatio);
+		case PrismaticJoint prismatic -> prismatic.setSpringDampingRatio(springDampingRatio);
+		case RevoluteJoint revolute -> revolute.setSpringDampingRatio(springDampingRatio);
+		case WheelJoint wheel -> wheel.setSpringDampingRatio(springDampingRatio);
+		default -> throw new IllegalArgumentException("Joint has no spring: " + joint.getType());
+		}
+	}
+
+	static void setMaxMotorForce0(Joint joint, float maxMotorForce) {
+		switch (joint) {
+		case DistanceJoint distance -> distance.setMaxMotorForce(maxMotorForce);
+		case PrismaticJoint prismatic -> prismatic.setMaxMotorForce(maxMotorForce);
+		default -> throw new IllegalArgumentException("Joint has no motor force: " + joint.getType());
+		}
+	}
+
+	static void setMaxMotorTorque0(Joint joint, float maxMotorTorque) {
+		switch (joint) {
+		case RevoluteJoint revolute -> revolute.setMaxMotorTorque(maxMotorTorque);
+		case WheelJoint wheel -> wheel.setMaxMotorTorque(maxMotorTorque);
+		default -> throw new IllegalArgumentException("Joint has no motor torque: " + joint.getType());
+		}
+	}
+
+	static void setMaxForce0(Joint joint, float maxForce) {
+		switch (joint) {
+		case MotorJoint motor -> motor.setMaxForce(maxForce);
+		case MouseJoint mouse -> mouse.setMaxForce(maxForce);
+		default -> throw new IllegalArgumentException("Joint has no maximum force: " + joint.getType());
+		}
+	}
+
+	private int bodyHandle(Body body) {
+		int handle = bodySlots.get(Body.storeBodyId(body.memorySegment(), 0L));
+		if (handle == SlotMap.NONE)
+			throw new IllegalArgumentException("Body was not created by the recorder");
+
+		return handle;
+	}
+
+	private int shapeHandle(Shape shape) {
+		int handle = shapeSlots.get(Shape.storeShapeId(shape.memorySegment(), 0L));
+		if (handle == SlotMap.NONE)
+			throw new IllegalArgumentException("Shape was not created by the recorder");
+
+		return handle;
+	}
+
+	private int jointHandle(Joint joint) {
+		int handle = jointSlots.get(Joint.storeJointId(joint.memorySegment(), 0L));
+		if (handle == SlotMap.NONE)
+			throw new IllegalArgumentException("Joint was not created by the recorder");
+
+		return handle;
+	}
+
+	/**
+	 * Append a record header and reserve the payload, padded to 4 bytes.
+	 *
+	 * @return the offset of the payload in the buffer
+	 */
+	private long begin(int opcode, long payloadSize) {
+		long size = (payloadSize + 3L) & ~3L;
+
+		if (position + RECORD_HEADER_SIZE + size > BUFFER_SIZE)
+			flush();
+
+		buffer.set(JAVA_INT, position, opcode);
+		buffer.set(JAVA_INT, position + 4, (int) size);
+
+		long offset = position + RECORD_HEADER_SIZE;
+		position = offset + size;
+		return offset;
+	}
+
+	/**
+	 * Write the buffered records to the file.
+	 */
+	public void flush() {
+		if (position == 0L)
+			return;
+
+		try {
+			ByteBuffer bytes = buffer.asSlice(0L, position).asByteBuffer();
+			while (bytes.hasRemaining())
+				channel.write(bytes);
+		} catch (IOException e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot write input log: " + className, e);
+		}
+
+		bytesWritten += position;
+		position = 0L;
+	}
+
+	/**
+	 * Flush the records and close the file. Removes the recorder from the world.
+	 */
+	@Override
+	public void close() {
+		if (world.getInputRecorder() == this)
+			world.setInputRecorder(null);
+
+		try (channel) {
+			flush();
+		} catch (IOException e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot close input log: " + className, e);
+		}
+	}
+
+	/**
+	 * Write the records after every step, so a crash loses at most one step.
+	 * Default true.
+	 */
+	public void setFlushOnStep(boolean flushOnStep) {
+		this.flushOnStep = flushOnStep;
+	}
+
+	public boolean isFlushOnStep() {
+		return flushOnStep;
+	}
+
+	/**
+	 * The number of bytes written to the file so far.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public World getWorld() {
+		return world;
+	}
+
+}
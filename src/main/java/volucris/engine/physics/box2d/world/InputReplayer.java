@@ -0,0 +1,661 @@
+package volucris.engine.physics.box2d.world;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.joml.Vector2f;
+
+import volucris.engine.physics.box2d.body.Body;
+import volucris.engine.physics.box2d.body.BodyDef;
+import volucris.engine.physics.box2d.body.BodyType;
+import volucris.engine.physics.box2d.geometry.Capsule;
+import volucris.engine.physics.box2d.geometry.Circle;
+import volucris.engine.physics.box2d.geometry.MassData;
+import volucris.engine.physics.box2d.geometry.Polygon;
+import volucris.engine.physics.box2d.geometry.Segment;
+import volucris.engine.physics.box2d.joint.DistanceJoint;
+import volucris.engine.physics.box2d.joint.DistanceJointDef;
+import volucris.engine.physics.box2d.joint.FilterJoint;
+import volucris.engine.physics.box2d.joint.FilterJointDef;
+import volucris.engine.physics.box2d.joint.Joint;
+import volucris.engine.physics.box2d.joint.JointType;
+import volucris.engine.physics.box2d.joint.MotorJoint;
+import volucris.engine.physics.box2d.joint.MotorJointDef;
+import volucris.engine.physics.box2d.joint.MouseJoint;
+import volucris.engine.physics.box2d.joint.MouseJointDef;
+import volucris.engine.physics.box2d.joint.PrismaticJoint;
+import volucris.engine.physics.box2d.joint.PrismaticJointDef;
+import volucris.engine.physics.box2d.joint.RevoluteJoint;
+import volucris.engine.physics.box2d.joint.RevoluteJointDef;
+import volucris.engine.physics.box2d.joint.WeldJoint;
+import volucris.engine.physics.box2d.joint.WeldJointDef;
+import volucris.engine.physics.box2d.joint.WheelJoint;
+import volucris.engine.physics.box2d.joint.WheelJointDef;
+import volucris.engine.physics.box2d.math.Transform;
+import volucris.engine.physics.box2d.shape.Filter;
+import volucris.engine.physics.box2d.shape.Shape;
+import volucris.engine.physics.box2d.shape.ShapeDef;
+import volucris.engine.physics.box2d.shape.ShapeType;
+import volucris.engine.physics.box2d.shape.SurfaceMaterial;
+import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
+
+import static java.lang.foreign.ValueLayout.*;
+import static volucris.engine.physics.box2d.world.InputRecorder.*;
+
+/**
+ * Feeds a log written by {@link InputRecorder} into a fresh world as fast as
+ * possible.
+ * <p>
+ * The replay is only faithful in a world created from the {@link WorldDef} of
+ * the recording, which {@link #createWorld()} reads from the log header.
+ * Callbacks, task functions and user data of the def are not stored, set them
+ * again before creating the world with {@link #getWorldDef(WorldDef)}.
+ * <p>
+ * The log is memory-mapped and decoded in place. {@link #replay(World)} runs
+ * all records, {@link #replayStep(World)} runs the records up to and including
+ * the next step, for example to inspect the world between steps. A log cut off
+ * by a crash ends at its last complete record. A record size that is negative
+ * or not a multiple of 4 cannot come from the recorder and fails the replay
+ * with a {@link Box2DRuntimeException}.
+ */
+public final class InputReplayer implements AutoCloseable {
+
+	private static final long BODY_DEF_NAME_OFFSET;
+	private static final long BODY_DEF_USER_DATA_OFFSET;
+	private static final long SHAPE_DEF_USER_DATA_OFFSET;
+	private static final long[] WORLD_DEF_POINTER_OFFSETS;
+
+	private final Arena arena;
+	private final MemorySegment log;
+
+	private long position;
+	private long stepCount;
+
+	private Body[] bodies;
+	private Shape[] shapes;
+	private Joint[] joints;
+	private int bodyCount;
+	private int shapeCount;
+	private int jointCount;
+
+	private int[] shapeBodies;
+	private int[] jointBodies;
+
+	private final BodyDef bodyDef;
+	private final ShapeDef shapeDef;
+	private final Circle circle;
+	private final Capsule capsule;
+	private final Segment segment;
+	private final Polygon polygon;
+	private final MassData massData;
+	private final SurfaceMaterial surfaceMaterial;
+	private final Filter filter;
+	private final ExplosionDef explosionDef;
+	private final Transform transform;
+	private final Vector2f vector;
+	private final Vector2f point;
+
+	static {
+		BODY_DEF_NAME_OFFSET = BodyDef.LAYOUT().byteOffset(PathElement.groupElement("name"));
+		BODY_DEF_USER_DATA_OFFSET = BodyDef.LAYOUT().byteOffset(PathElement.groupElement("userData"));
+		SHAPE_DEF_USER_DATA_OFFSET = ShapeDef.LAYOUT().byteOffset(PathElement.groupElement("userData"));
+
+		String[] pointers = { "frictionCallback", "restitutionCallback", "enqueueTask", "finishTask",
+				"userTaskContext", "userData" };
+		WORLD_DEF_POINTER_OFFSETS = new long[pointers.length];
+		for (int i = 0; i < pointers.length; i++)
+			WORLD_DEF_POINTER_OFFSETS[i] = WorldDef.LAYOUT().byteOffset(PathElement.groupElement(pointers[i]));
+	}
+
+	public InputReplayer(Path path) {
+		arena = Arena.ofShared();
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			log = channel.map(MapMode.READ_ONLY, 0L, channel.size(), arena);
+		} catch (IOException e) {
+			arena.close();
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot read input log: " + className, e);
+		}
+
+		if (log.byteSize() < HEADER_SIZE || log.get(JAVA_INT, 0L) != MAGIC) {
+			arena.close();
+			throw new Box2DRuntimeException("Invalid input log: " + path);
+		}
+
+		int version = log.get(JAVA_INT, 4L);
+		if (version != VERSION) {
+			arena.close();
+			throw new Box2DRuntimeException("Unsupported input log version: " + version);
+		}
+
+		position = HEADER_SIZE;
+
+		bodies = new Body[64];
+		shapes = new Shape[64];
+		joints = new Joint[16];
+		shapeBodies = new int[64];
+		jointBodies = new int[2 * 16];
+
+		Arena defArena = Arena.ofAuto();
+		bodyDef = new BodyDef(defArena);
+		shapeDef = new ShapeDef(defArena);
+		circle = new Circle(defArena);
+		capsule = new Capsule(defArena);
+		segment = new Segment(defArena);
+		polygon = new Polygon(defArena);
+		massData = new MassData(defArena);
+		surfaceMaterial = new SurfaceMaterial();
+		filter = new Filter(defArena);
+		explosionDef = new ExplosionDef(defArena);
+		transform = new Transform(defArena);
+		vector = new Vector2f();
+		point = new Vector2f();
+	}
+
+	/**
+	 * Copy the world def of the recording into a def. Callbacks, task functions
+	 * and user data are cleared.
+	 */
+	public WorldDef getWorldDef(WorldDef target) {
+		MemorySegment def = target.memorySegment();
+		MemorySegment.copy(log, 8L, def, 0L, WorldDef.LAYOUT().byteSize());
+
+		for (long offset : WORLD_DEF_POINTER_OFFSETS)
+			def.set(ADDRESS, offset, MemorySegment.NULL);
+
+		return target;
+	}
+
+	/**
+	 * Create a world from the world def of the recording.
+	 */
+	public World createWorld() {
+		return new World(getWorldDef(new WorldDef()));
+	}
+
+	/**
+	 * Run all remaining records.
+	 *
+	 * @return the number of steps run
+	 */
+	public long replay(World world) {
+		long start = stepCount;
+		while (replayStep(world))
+			;
+		return stepCount - start;
+	}
+
+	/**
+	 * Run the records up to and including the next step.
+	 *
+	 * @return false if the log ended before a step
+	 */
+	public boolean replayStep(World world) {
+		while (position + RECORD_HEADER_SIZE <= log.byteSize()) {
+			int opcode = log.get(JAVA_INT, position);
+			int size = log.get(JAVA_INT, position + 4);
+
+			if (size < 0 || (size & 3) != 0)
+				throw new Box2DRuntimeException("Invalid input log record size " + size + " at " + position);
+
+			long offset = position + RECORD_HEADER_SIZE;
+			if (offset + size > log.byteSize())
+				break;
+
+			position = offset + size;
+
+			if (execute(world, opcode, offset))
+				return true;
+		}
+
+		position = log.byteSize();
+		return false;
+	}
+
+	/**
+	 * Run one record.
+	 *
+	 * @return true if it was a step
+	 */
+	private boolean execute(World world, int opcode, long offset) {
+		switch (opcode) {
+		case STEP -> {
+			world.step(log.get(JAVA_FLOAT, offset), log.get(JAVA_INT, offset + 4));
+			stepCount++;
+			return true;
+		}
+		case SET_GRAVITY -> world.setGravity(log.get(JAVA_FLOAT, offset), log.get(JAVA_FLOAT, offset + 4));
+		case CREATE_BODY -> createBody(world, offset);
+		case DESTROY_BODY -> destroyBody(log.get(JAVA_INT, offset));
+		case CREATE_SHAPE -> createShape(offset);
+		case DESTROY_SHAPE -> {
+			int handle = log.get(JAVA_INT, offset);
+			shapes[handle].destroyShape(log.get(JAVA_INT, offset + 4) != 0);
+			shapes[handle] = null;
+		}
+		case CREATE_JOINT -> createJoint(world, offset);
+		case DESTROY_JOINT -> {
+			int handle = log.get(JAVA_INT, offset);
+			joints[handle].destroyJoint();
+			joints[handle] = null;
+		}
+		case APPLY_FORCE -> {
+			readVector(vector, offset + 4);
+			readVector(point, offset + 12);
+			body(offset).applyForce(vector, point, log.get(JAVA_INT, offset + 20) != 0);
+		}
+		case APPLY_FORCE_TO_CENTER -> {
+			readVector(vector, offset + 4);
+			body(offset).applyForceToCenter(vector, log.get(JAVA_INT, offset + 12) != 0);
+		}
+		case APPLY_TORQUE -> {
+			body(offset).applyTorque(log.get(JAVA_FLOAT, offset + 4), log.get(JAVA_INT, offset + 8) != 0);
+		}
+		case APPLY_LINEAR_IMPULSE -> {
+			readVector(vector, offset + 4);
+			readVector(point, offset + 12);
+			body(offset).applyLinearImpulse(vector, point, log.get(JAVA_INT, offset + 20) != 0);
+		}
+		case APPLY_LINEAR_IMPULSE_TO_CENTER -> {
+			readVector(vector, offset + 4);
+			body(offset).applyLinearImpulseToCenter(vector, log.get(JAVA_INT, offset + 12) != 0);
+		}
+		case APPLY_ANGULAR_IMPULSE -> {
+			body(offset).applyAngularImpulse(log.get(JAVA_FLOAT, offset + 4), log.get(JAVA_INT, offset + 8) != 0);
+		}
+		case SET_LINEAR_VELOCITY -> {
+			readVector(vector, offset + 4);
+			body(offset).setLinearVelocity(vector);
+		}
+		case SET_ANGULAR_VELOCITY -> body(offset).setAngularVelocity(log.get(JAVA_FLOAT, offset + 4));
+		case SET_TRANSFORM -> {
+			MemorySegment.copy(log, offset + 4, transform.memorySegment(), 0L, Transform.LAYOUT().byteSize());
+			body(offset).setTransform(transform);
+		}
+		case SET_AWAKE -> body(offset).setAwake(log.get(JAVA_INT, offset + 4) != 0);
+		case SET_TYPE -> body(offset).setType(BodyType.values()[log.get(JAVA_INT, offset + 4)]);
+		case ENABLE_MOTOR -> InputRecorder.enableMotor0(joint(offset), log.get(JAVA_INT, offset + 4) != 0);
+		case SET_MOTOR_SPEED -> InputRecorder.setMotorSpeed0(joint(offset), log.get(JAVA_FLOAT, offset + 4));
+		case SET_TARGET -> {
+			readVector(vector, offset + 4);
+			((MouseJoint) joint(offset)).setTarget(vector);
+		}
+		case SET_LINEAR_OFFSET -> {
+			readVector(vector, offset + 4);
+			((MotorJoint) joint(offset)).setLinearOffset(vector);
+		}
+		case SET_ANGULAR_OFFSET -> {
+			((MotorJoint) joint(offset)).setAngularOffsetRadians(log.get(JAVA_FLOAT, offset + 4));
+		}
+		case ENABLE_SLEEPING -> world.enableSleeping(log.get(JAVA_INT, offset) != 0);
+		case ENABLE_CONTINUOUS -> world.enableContinuous(log.get(JAVA_INT, offset) != 0);
+		case ENABLE_SPECULATIVE -> world.enableSpeculative(log.get(JAVA_INT, offset) != 0);
+		case ENABLE_WARM_STARTING -> world.enableWarmStarting(log.get(JAVA_INT, offset) != 0);
+		case SET_CONTACT_TUNING -> {
+			world.setContactTuning(log.get(JAVA_FLOAT, offset), log.get(JAVA_FLOAT, offset + 4),
+					log.get(JAVA_FLOAT, offset + 8));
+		}
+		case SET_MAXIMUM_LINEAR_SPEED -> world.setMaximumLinearSpeed(log.get(JAVA_FLOAT, offset));
+		case SET_RESTITUTION_THRESHOLD -> world.setRestitutionThreshold(log.get(JAVA_FLOAT, offset));
+		case SET_HIT_EVENT_THRESHOLD -> world.setHitEventThreshold(log.get(JAVA_FLOAT, offset));
+		case EXPLODE -> {
+			MemorySegment.copy(log, offset, explosionDef.memorySegment(), 0L, ExplosionDef.LAYOUT().byteSize());
+			world.explode(explosionDef);
+		}
+		case SET_LINEAR_DAMPING -> body(offset).setLinearDamping(log.get(JAVA_FLOAT, offset + 4));
+		case SET_ANGULAR_DAMPING -> body(offset).setAngularDamping(log.get(JAVA_FLOAT, offset + 4));
+		case SET_GRAVITY_SCALE -> body(offset).setGravityScale(log.get(JAVA_FLOAT, offset + 4));
+		case ENABLE_BODY_SLEEP -> body(offset).enableSleep(log.get(JAVA_INT, offset + 4) != 0);
+		case SET_SLEEP_THRESHOLD -> body(offset).setSleepThreshold(log.get(JAVA_FLOAT, offset + 4));
+		case SET_ENABLED -> {
+			if (log.get(JAVA_INT, offset + 4) != 0)
+				body(offset).enable();
+			else
+				body(offset).disable();
+		}
+		case SET_FIXED_ROTATION -> body(offset).setFixedRotation(log.get(JAVA_INT, offset + 4) != 0);
+		case SET_BULLET -> body(offset).setBullet(log.get(JAVA_INT, offset + 4) != 0);
+		case SET_MASS_DATA -> {
+			MemorySegment.copy(log, offset + 4, massData.memorySegment(), 0L, MassData.LAYOUT().byteSize());
+			body(offset).setMassData(massData);
+		}
+		case APPLY_MASS_FROM_SHAPES -> body(offset).applyMassFromShapes();
+		case SET_DENSITY -> {
+			shape(offset).setDensity(log.get(JAVA_FLOAT, offset + 4), log.get(JAVA_INT, offset + 8) != 0);
+		}
+		case SET_FRICTION -> shape(offset).setFriction(log.get(JAVA_FLOAT, offset + 4));
+		case SET_RESTITUTION -> shape(offset).setRestitution(log.get(JAVA_FLOAT, offset + 4));
+		case SET_SURFACE_MATERIAL -> {
+			MemorySegment.copy(log, offset + 8, surfaceMaterial.memorySegment(), 0L,
+					SurfaceMaterial.LAYOUT().byteSize());
+			shape(offset).setSurfaceMaterial(surfaceMaterial);
+		}
+		case SET_FILTER -> {
+			MemorySegment.copy(log, offset + 8, filter.memorySegment(), 0L, Filter.LAYOUT().byteSize());
+			shape(offset).setFilter(filter);
+		}
+		case SET_GEOMETRY -> setGeometry(offset);
+		case SET_COLLIDE_CONNECTED -> joint(offset).setCollideConnected(log.get(JAVA_INT, offset + 4) != 0);
+		case SET_REFERENCE_ANGLE -> joint(offset).setReferenceAngleRadians(log.get(JAVA_FLOAT, offset + 4));
+		case ENABLE_LIMIT -> InputRecorder.enableLimit0(joint(offset), log.get(JAVA_INT, offset + 4) != 0);
+		case SET_LIMITS -> {
+			InputRecorder.setLimits0(joint(offset), log.get(JAVA_FLOAT, offset + 4), log.get(JAVA_FLOAT, offset + 8));
+		}
+		case ENABLE_SPRING -> InputRecorder.enableSpring0(joint(offset), log.get(JAVA_INT, offset + 4) != 0);
+		case SET_SPRING_HERTZ -> InputRecorder.setSpringHertz0(joint(offset), log.get(JAVA_FLOAT, offset + 4));
+		case SET_SPRING_DAMPING_RATIO -> {
+			InputRecorder.setSpringDampingRatio0(joint(offset), log.get(JAVA_FLOAT, offset + 4));
+		}
+		case SET_MAX_MOTOR_FORCE -> InputRecorder.setMaxMotorForce0(joint(offset), log.get(JAVA_FLOAT, offset + 4));
+		case SET_MAX_MOTOR_TORQUE -> InputRecorder.setMaxMotorTorque0(joint(offset), log.get(JAVA_FLOAT, offset + 4));
+		case SET_LENGTH -> ((DistanceJoint) joint(offset)).setLength(log.get(JAVA_FLOAT, offset + 4));
+		case SET_LINEAR_HERTZ -> ((WeldJoint) joint(offset)).setLinearHertz(log.get(JAVA_FLOAT, offset + 4));
+		case SET_LINEAR_DAMPING_RATIO -> {
+			((WeldJoint) joint(offset)).setLinearDampingRatio(log.get(JAVA_FLOAT, offset + 4));
+		}
+		case SET_ANGULAR_HERTZ -> ((WeldJoint) joint(offset)).setAngularHertz(log.get(JAVA_FLOAT, offset + 4));
+		case SET_ANGULAR_DAMPING_RATIO -> {
+			((WeldJoint) joint(offset)).setAngularDampingRatio(log.get(JAVA_FLOAT, offset + 4));
+		}
+		case SET_MAX_FORCE -> InputRecorder.setMaxForce0(joint(offset), log.get(JAVA_FLOAT, offset + 4));
+		case SET_MAX_TORQUE -> ((MotorJoint) joint(offset)).setMaxTorque(log.get(JAVA_FLOAT, offset + 4));
+		case SET_CORRECTION_FACTOR -> {
+			((MotorJoint) joint(offset)).setCorrectionFactor(log.get(JAVA_FLOAT, offset + 4));
+		}
+		default -> throw new Box2DRuntimeException("Unknown input log record: " + opcode);
+		}
+
+		return false;
+	}
+
+	private void createBody(World world, long offset) {
+		int handle = log.get(JAVA_INT, offset);
+
+		MemorySegment def = bodyDef.memorySegment();
+		MemorySegment.copy(log, offset + 8, def, 0L, BodyDef.LAYOUT().byteSize());
+		def.set(ADDRESS, BODY_DEF_NAME_OFFSET, MemorySegment.NULL);
+		def.set(ADDRESS, BODY_DEF_USER_DATA_OFFSET, MemorySegment.NULL);
+
+		if (handle >= bodies.length)
+			bodies = Arrays.copyOf(bodies, Math.max(2 * bodies.length, handle + 1));
+
+		bodies[handle] = new Body(world, bodyDef);
+		bodyCount = Math.max(bodyCount, handle + 1);
+	}
+
+	/**
+	 * Destroy a body and forget the handles of its shapes and joints, which Box2D
+	 * destroys with it.
+	 */
+	private void destroyBody(int handle) {
+		bodies[handle].destroyBody();
+		bodies[handle] = null;
+
+		for (int i = 0; i < shapeCount; i++) {
+			if (shapeBodies[i] == handle)
+				shapes[i] = null;
+		}
+
+		for (int i = 0; i < jointCount; i++) {
+			if (jointBodies[2 * i] == handle || jointBodies[2 * i + 1] == handle)
+				joints[i] = null;
+		}
+	}
+
+	private void createShape(long offset) {
+		int handle = log.get(JAVA_INT, offset);
+		int bodyHandle = log.get(JAVA_INT, offset + 4);
+		Body body = bodies[bodyHandle];
+		ShapeType type = ShapeType.values()[log.get(JAVA_INT, offset + 8)];
+
+		long defSize = ShapeDef.LAYOUT().byteSize();
+		MemorySegment def = shapeDef.memorySegment();
+		MemorySegment.copy(log, offset + 16, def, 0L, defSize);
+		def.set(ADDRESS, SHAPE_DEF_USER_DATA_OFFSET, MemorySegment.NULL);
+
+		long geometryOffset = offset + 16 + defSize;
+
+		Shape shape = switch (type) {
+		case CIRCLE_SHAPE -> {
+			circle.set(log.asSlice(geometryOffset, Circle.LAYOUT().byteSize()));
+			yield new Shape(body, shapeDef, circle);
+		}
+		case CAPSULE_SHAPE -> {
+			capsule.set(log.asSlice(geometryOffset, Capsule.LAYOUT().byteSize()));
+			yield new Shape(body, shapeDef, capsule);
+		}
+		case SEGMENT_SHAPE -> {
+			segment.set(log.asSlice(geometryOffset, Segment.LAYOUT().byteSize()));
+			yield new Shape(body, shapeDef, segment);
+		}
+		case POLYGON_SHAPE -> {
+			polygon.set(log.asSlice(geometryOffset, Polygon.LAYOUT().byteSize()));
+			yield new Shape(body, shapeDef, polygon);
+		}
+		default -> throw new Box2DRuntimeException("Unexpected shape type in input log: " + type);
+		};
+
+		if (handle >= shapes.length) {
+			int length = Math.max(2 * shapes.length, handle + 1);
+			shapes = Arrays.copyOf(shapes, length);
+			shapeBodies = Arrays.copyOf(shapeBodies, length);
+		}
+
+		shapes[handle] = shape;
+		shapeBodies[handle] = bodyHandle;
+		shapeCount = Math.max(shapeCount, handle + 1);
+	}
+
+	private void setGeometry(long offset) {
+		Shape shape = shape(offset);
+		ShapeType type = ShapeType.values()[log.get(JAVA_INT, offset + 4)];
+		long geometryOffset = offset + 8;
+
+		switch (type) {
+		case CIRCLE_SHAPE -> {
+			circle.set(log.asSlice(geometryOffset, Circle.LAYOUT().byteSize()));
+			shape.setCircle(circle);
+		}
+		case CAPSULE_SHAPE -> {
+			capsule.set(log.asSlice(geometryOffset, Capsule.LAYOUT().byteSize()));
+			shape.setCapsule(capsule);
+		}
+		case SEGMENT_SHAPE -> {
+			segment.set(log.asSlice(geometryOffset, Segment.LAYOUT().byteSize()));
+			shape.setSegment(segment);
+		}
+		case POLYGON_SHAPE -> {
+			polygon.set(log.asSlice(geometryOffset, Polygon.LAYOUT().byteSize()));
+			shape.setPolygon(polygon);
+		}
+		default -> throw new Box2DRuntimeException("Unexpected shape type in input log: " + type);
+		}
+	}
+
+	private void createJoint(World world, long offset) {
+		JointType type = JointType.values()[log.get(JAVA_INT, offset)];
+		int bodyHandleA = log.get(JAVA_INT, offset + 4);
+		int bodyHandleB = log.get(JAVA_INT, offset + 8);
+		int handle = log.get(JAVA_INT, offset + 12);
+		Body bodyA = bodies[bodyHandleA];
+		Body bodyB = bodies[bodyHandleB];
+		long defOffset = offset + 16;
+
+		Joint joint = switch (type) {
+		case DISTANCE_JOINT -> {
+			DistanceJointDef def = new DistanceJointDef();
+			readJointDef(defOffset, def.memorySegment(), DistanceJointDef.LAYOUT());
+			def.setBodyA(bodyA);
+			def.setBodyB(bodyB);
+			yield new DistanceJoint(world, def);
+		}
+		case FILTER_JOINT -> {
+			FilterJointDef def = new FilterJointDef();
+			readJointDef(defOffset, def.memorySegment(), FilterJointDef.LAYOUT());
+			def.setBodyA(bodyA);
+			def.setBodyB(bodyB);
+			yield new FilterJoint(world, def);
+		}
+		case MOTOR_JOINT -> {
+			MotorJointDef def = new MotorJointDef();
+			readJointDef(defOffset, def.memorySegment(), MotorJointDef.LAYOUT());
+			def.setBodyA(bodyA);
+			def.setBodyB(bodyB);
+			yield new MotorJoint(world, def);
+		}
+		case MOUSE_JOINT -> {
+			MouseJointDef def = new MouseJointDef();
+			readJointDef(defOffset, def.memorySegment(), MouseJointDef.LAYOUT());
+			def.setBodyA(bodyA);
+			def.setBodyB(bodyB);
+			yield new MouseJoint(world, def);
+		}
+		case PRISMATIC_JOINT -> {
+			PrismaticJointDef def = new PrismaticJointDef();
+			readJointDef(defOffset, def.memorySegment(), PrismaticJointDef.LAYOUT());
+			def.setBodyA(bodyA);
+			def.setBodyB(bodyB);
+			yield new PrismaticJoint(world, def);
+		}
+		case REVOLUTE_JOINT -> {
+			RevoluteJointDef def = new RevoluteJointDef();
+			readJointDef(defOffset, def.memorySegment(), RevoluteJointDef.LAYOUT());
+			def.setBodyA(bodyA);
+			def.setBodyB(bodyB);
+			yield new RevoluteJoint(world, def);
+		}
+		case WELD_JOINT -> {
+			WeldJointDef def = new WeldJointDef();
+			readJointDef(defOffset, def.memorySegment(), WeldJointDef.LAYOUT());
+			def.setBodyA(bodyA);
+			def.setBodyB(bodyB);
+			yield new WeldJoint(world, def);
+		}
+		case WHEEL_JOINT -> {
+			WheelJointDef def = new WheelJointDef();
+			readJointDef(defOffset, def.memorySegment(), WheelJointDef.LAYOUT());
+			def.setBodyA(bodyA);
+			def.setBodyB(bodyB);
+			yield new WheelJoint(world, def);
+		}
+		};
+
+		if (handle >= joints.length) {
+			int length = Math.max(2 * joints.length, handle + 1);
+			joints = Arrays.copyOf(joints, length);
+			jointBodies = Arrays.copyOf(jointBodies, 2 * length);
+		}
+
+		joints[handle] = joint;
+		jointBodies[2 * handle] = bodyHandleA;
+		jointBodies[2 * handle + 1] = bodyHandleB;
+		jointCount = Math.max(jointCount, handle + 1);
+	}
+
+	private void readJointDef(long offset, MemorySegment def, StructLayout layout) {
+		MemorySegment.copy(log, offset, def, 0L, layout.byteSize());
+		def.set(ADDRESS, layout.byteOffset(PathElement.groupElement("userData")), MemorySegment.NULL);
+	}
+
+	private void readVector(Vector2f target, long offset) {
+		target.set(log.get(JAVA_FLOAT, offset), log.get(JAVA_FLOAT, offset + 4));
+	}
+
+	private Body body(long offset) {
+		return bodies[log.get(JAVA_INT, offset)];
+	}
+
+	private Shape shape(long offset) {
+		return shapes[log.get(JAVA_INT, offset)];
+	}
+
+	private Joint joint(long offset) {
+		return joints[log.get(JAVA_INT, offset)];
+	}
+
+	/**
+	 * Start again from the first record. The objects of the last replay are
+	 * forgotten, replay into a fresh world.
+	 */
+	public void rewind() {
+		position = HEADER_SIZE;
+		stepCount = 0L;
+
+		Arrays.fill(bodies, null);
+		Arrays.fill(shapes, null);
+		Arrays.fill(joints, null);
+		bodyCount = 0;
+		shapeCount = 0;
+		jointCount = 0;
+	}
+
+	/**
+	 * Unmap the log.
+	 */
+	@Override
+	public void close() {
+		arena.close();
+	}
+
+	/**
+	 * The number of steps run so far.
+	 */
+	public long getStepCount() {
+		return stepCount;
+	}
+
+	/**
+	 * The read position in the log in bytes.
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * The size of the log in bytes.
+	 */
+	public long getByteSize() {
+		return log.byteSize();
+	}
+
+	/**
+	 * The body of a handle, which is the slot the recorder gave it. Null if it was
+	 * destroyed.
+	 */
+	public Body getBody(int handle) {
+		return bodies[handle];
+	}
+
+	/**
+	 * The number of body handles, destroyed ones included.
+	 */
+	public int getBodyCount() {
+		return bodyCount;
+	}
+
+	public Shape getShape(int handle) {
+		return shapes[handle];
+	}
+
+	public int getShapeCount() {
+		return shapeCount;
+	}
+
+	public Joint getJoint(int handle) {
+		return joints[handle];
+	}
+
+	public int getJointCount() {
+		return jointCount;
+	}
+
+}
@@ -0,0 +1,175 @@
+package volucris.engine.physics.box2d.world;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+import volucris.engine.physics.box2d.Box2D;
+import volucris.engine.physics.box2d.dynamicTree.TreeStats;
+import volucris.engine.physics.box2d.geometry.ShapeProxy;
+import volucris.engine.physics.box2d.math.AABB;
+import volucris.engine.physics.box2d.shape.QueryFilter;
+import volucris.engine.physics.box2d.shape.Shape;
+import volucris.engine.physics.box2d.world.functions.OverlapResultFunction;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Collects the shapes found by overlap queries into a growable off-heap buffer.
+ * <p>
+ * Use it with {@link World#overlapAABB(OverlapCollector, AABB, QueryFilter)} or
+ * {@link World#overlapShape(OverlapCollector, ShapeProxy, QueryFilter)}. Shape
+ * ids are stored with {@link Shape#storeShapeId}. The buffer only grows, so a
+ * collector reused every frame does not allocate once it is large enough.
+ * <p>
+ * After {@link #getMaxHits()} shapes the query is terminated.
+ */
+public final class OverlapCollector extends OverlapResultFunction {
+
+	private final TreeStats treeStats;
+
+	private MemorySegment shapeIds;
+
+	private int capacity;
+	private int count;
+
+	private int maxHits;
+
+	public OverlapCollector() {
+		this(16);
+	}
+
+	public OverlapCollector(int initialCapacity) {
+		this(initialCapacity, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param initialCapacity The initial number of shapes of the buffer.
+	 * @param maxHits         The query is terminated after this many shapes.
+	 */
+	public OverlapCollector(int initialCapacity, int maxHits) {
+		if (initialCapacity < 0)
+			throw new IllegalArgumentException("Negative capacity: " + initialCapacity);
+
+		this.maxHits = maxHits;
+
+		treeStats = new TreeStats();
+
+		allocate(Math.max(initialCapacity, 1));
+	}
+
+	/**
+	 * All overlapping shapes.
+	 */
+	public static OverlapCollector allHits() {
+		return new OverlapCollector(16, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * The first {@code n} overlapping shapes found.
+	 */
+	public static OverlapCollector firstHits(int n) {
+		return new OverlapCollector(n, n);
+	}
+
+	/**
+	 * Stop at the first overlapping shape found.
+	 */
+	public static OverlapCollector anyHit() {
+		return new OverlapCollector(1, 1);
+	}
+
+	void begin() {
+		count = 0;
+	}
+
+	void load(long[] ids, int count) {
+		if (capacity < count)
+			allocate(count);
+
+		MemorySegment.copy(ids, 0, shapeIds, JAVA_LONG, 0L, count);
+		this.count = count;
+	}
+
+	void store(long[] ids) {
+		MemorySegment.copy(shapeIds, JAVA_LONG, 0L, ids, 0, count);
+	}
+
+	@Override
+	protected boolean overlapResultFunction(MemorySegment shapeId, MemorySegment context) {
+		if (count == capacity)
+			allocate(2 * capacity);
+
+		shapeIds.setAtIndex(JAVA_LONG, count, Shape.storeShapeId(shapeId, 0L));
+		count++;
+
+		return count < maxHits;
+	}
+
+	private void allocate(int capacity) {
+		MemorySegment newShapeIds = Arena.ofAuto().allocate(JAVA_LONG, capacity);
+
+		if (count > 0)
+			MemorySegment.copy(shapeIds, 0, newShapeIds, 0, 8L * count);
+
+		shapeIds = newShapeIds;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * The number of collected shapes.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	public boolean hasHit() {
+		return count > 0;
+	}
+
+	/**
+	 * The stored shape id of a collected shape.
+	 */
+	public long getShapeId(int index) {
+		if (index < 0 || index >= count)
+			throw new IndexOutOfBoundsException("Shape index out of bounds: " + index);
+
+		return shapeIds.getAtIndex(JAVA_LONG, index);
+	}
+
+	/**
+	 * A collected shape.
+	 */
+	public Shape getShape(int index, World world) {
+		return Box2D.getShape(Shape.loadShapeId(getShapeId(index)), world.getWorldId());
+	}
+
+	/**
+	 * The shape id buffer. Holds {@link #getCount()} valid longs.
+	 */
+	public MemorySegment getShapeIds() {
+		return shapeIds;
+	}
+
+	/**
+	 * The tree stats of the last query.
+	 */
+	public TreeStats getTreeStats() {
+		return treeStats;
+	}
+
+	/**
+	 * The query is terminated after this many shapes.
+	 */
+	public void setMaxHits(int maxHits) {
+		this.maxHits = maxHits;
+	}
+
+	public int getMaxHits() {
+		return maxHits;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+}
@@ -0,0 +1,487 @@
+package volucris.engine.physics.box2d.world;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.tinylog.Logger;
+
+import volucris.engine.physics.box2d.body.Body;
+
+/**
+ * Lowers the simulation quality of a world while its steps exceed a time
+ * budget, and raises it again when the load drops.
+ * <p>
+ * After every step {@link #update()} reads {@link Profile#getStep()} and keeps
+ * a moving average of it. If the average exceeds the budget for
+ * {@link #getDegradeFrames()} updates the quality drops one level, if it stays
+ * below {@link #getRecoverRatio()} times the budget for
+ * {@link #getRecoverFrames()} updates it rises one level. The levels, from full
+ * quality down, are:
+ * <ol>
+ * <li>One sub-step less per level, down to the minimum sub-step count.</li>
+ * <li>Continuous collision disabled.</li>
+ * <li>Speculative collision disabled.</li>
+ * <li>Sleeping enabled, if it was disabled.</li>
+ * <li>Sleep thresholds of the tracked bodies raised.</li>
+ * <li>Degraded contact tuning.</li>
+ * </ol>
+ * Every change is logged and passed to the {@link Listener} as a
+ * {@link Change} with the step time, the sub-step count and the
+ * {@link Counters} of the world.
+ * <p>
+ * The full quality contact tuning and flags are taken from the {@link WorldDef}
+ * of the world. Speculative collision is not part of the def, it starts enabled
+ * like in every new world. Box2D has no world wide sleep threshold, so only the
+ * bodies passed to {@link #track(Body)} get raised thresholds, one downcall per
+ * body whenever that level is entered or left.
+ * <p>
+ * The controller owns these settings. Pass {@link #getSubStepCount()} to
+ * {@link World#step(float, int)} or use {@link #step(float)}. While an
+ * {@link InputRecorder} is set on the world the settings are changed through
+ * it, so a replay sees the same quality changes.
+ */
+public final class QualityController {
+
+	private final World world;
+	private final Profile profile;
+	private final Counters counters;
+
+	private float budget;
+
+	private int maxSubStepCount;
+	private int minSubStepCount;
+
+	private boolean continuous;
+	private boolean speculative;
+	private boolean sleeping;
+
+	private final Map<Body, Float> trackedBodies;
+	private float sleepThresholdScale;
+	private boolean sleepThresholdsRaised;
+
+	private float contactHertz;
+	private float contactDampingRatio;
+	private float contactPushSpeed;
+
+	private float degradedContactHertz;
+	private float degradedContactDampingRatio;
+	private float degradedContactPushSpeed;
+
+	private int degradeFrames;
+	private int recoverFrames;
+	private float recoverRatio;
+
+	private int level;
+	private float averageStepTime;
+	private int overBudgetFrames;
+	private int underBudgetFrames;
+
+	private long changes;
+	private Listener listener;
+
+	/**
+	 * Control a world created with the default {@link WorldDef}.
+	 * 
+	 * @param world  The world to control.
+	 * @param budget The step time budget in milliseconds.
+	 */
+	public QualityController(World world, float budget) {
+		this(world, new WorldDef(), budget);
+	}
+
+	/**
+	 * @param world    The world to control.
+	 * @param worldDef The def the world was created with. Its contact tuning,
+	 *                 sleeping and continuous settings are the full quality
+	 *                 settings.
+	 * @param budget   The step time budget in milliseconds.
+	 */
+	public QualityController(World world, WorldDef worldDef, float budget) {
+		this.world = world;
+		this.budget = budget;
+
+		profile = new Profile();
+		counters = new Counters();
+
+		maxSubStepCount = 4;
+		minSubStepCount = 1;
+
+		continuous = worldDef.isContinuousEnabled();
+		speculative = true;
+		sleeping = worldDef.isSleepEnabled();
+
+		trackedBodies = new LinkedHashMap<>();
+		sleepThresholdScale = 4.0f;
+
+		contactHertz = worldDef.getContactHertz();
+		contactDampingRatio = worldDef.getContactDampingRatio();
+		contactPushSpeed = worldDef.getMaxContactPushSpeed();
+
+		degradedContactHertz = 15.0f;
+		degradedContactDampingRatio = 10.0f;
+		degradedContactPushSpeed = 3.0f;
+
+		degradeFrames = 3;
+		recoverFrames = 60;
+		recoverRatio = 0.6f;
+	}
+
+	/**
+	 * Step the world with the current sub-step count and update the quality.
+	 */
+	public void step(float timeStep) {
+		world.step(timeStep, getSubStepCount());
+		update();
+	}
+
+	/**
+	 * Read the profile of the last step and change the quality level if needed.
+	 * Call it once after every step.
+	 */
+	public void update() {
+		float stepTime = world.getProfile(profile).getStep();
+		averageStepTime = averageStepTime == 0.0f ? stepTime : 0.8f * averageStepTime + 0.2f * stepTime;
+
+		if (averageStepTime > budget) {
+			overBudgetFrames++;
+			underBudgetFrames = 0;
+		} else if (averageStepTime < recoverRatio * budget) {
+			underBudgetFrames++;
+			overBudgetFrames = 0;
+		} else {
+			overBudgetFrames = 0;
+			underBudgetFrames = 0;
+		}
+
+		if (overBudgetFrames >= degradeFrames && level < getMaxLevel()) {
+			setLevel(level + 1);
+			overBudgetFrames = 0;
+		} else if (underBudgetFrames >= recoverFrames && level > 0) {
+			setLevel(level - 1);
+			underBudgetFrames = 0;
+		}
+	}
+
+	/**
+	 * Apply a quality level, 0 being full quality.
+	 */
+	public void setLevel(int level) {
+		level = Math.max(0, Math.min(level, getMaxLevel()));
+		if (level == this.level)
+			return;
+
+		int previousLevel = this.level;
+		this.level = level;
+		apply();
+		changes++;
+
+		world.getCounters(counters);
+		Change change = new Change(previousLevel, level, averageStepTime, budget, getSubStepCount(),
+				counters.getBodyCount(), counters.getShapeCount(), counters.getContactCount(),
+				counters.getJointCount(), counters.getIslandCount());
+
+		Logger.info(
+				"Physics quality level {} -> {}: step {} ms, budget {} ms, sub-steps {}, bodies {}, contacts {}, islands {}",
+				previousLevel, level, averageStepTime, budget, change.subStepCount(), change.bodyCount(),
+				change.contactCount(), change.islandCount());
+
+		if (listener != null)
+			listener.qualityChanged(change);
+	}
+
+	/**
+	 * Apply the settings of the current level to the world.
+	 */
+	public void apply() {
+		int subStepLevels = maxSubStepCount - minSubStepCount;
+		int toggleLevel = level - subStepLevels;
+
+		boolean enableContinuous = continuous && toggleLevel < 1;
+		boolean enableSpeculative = speculative && toggleLevel < 2;
+		boolean enableSleeping = sleeping || toggleLevel >= 3;
+		boolean raiseSleepThresholds = toggleLevel >= 4;
+
+		float hertz = toggleLevel < 5 ? contactHertz : degradedContactHertz;
+		float dampingRatio = toggleLevel < 5 ? contactDampingRatio : degradedContactDampingRatio;
+		float pushSpeed = toggleLevel < 5 ? contactPushSpeed : degradedContactPushSpeed;
+
+		InputRecorder inputRecorder = world.getInputRecorder();
+		if (inputRecorder != null) {
+			inputRecorder.enableContinuous(enableContinuous);
+			inputRecorder.enableSpeculative(enableSpeculative);
+			inputRecorder.enableSleeping(enableSleeping);
+			inputRecorder.setContactTuning(hertz, dampingRatio, pushSpeed);
+		} else {
+			world.enableContinuous(enableContinuous);
+			world.enableSpeculative(enableSpeculative);
+			world.enableSleeping(enableSleeping);
+			world.setContactTuning(hertz, dampingRatio, pushSpeed);
+		}
+
+		if (raiseSleepThresholds != sleepThresholdsRaised) {
+			sleepThresholdsRaised = raiseSleepThresholds;
+			applySleepThresholds();
+		}
+	}
+
+	private void applySleepThresholds() {
+		InputRecorder inputRecorder = world.getInputRecorder();
+		float scale = sleepThresholdsRaised ? sleepThresholdScale : 1.0f;
+
+		Iterator<Map.Entry<Body, Float>> iterator = trackedBodies.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Body, Float> entry = iterator.next();
+
+			// Drop destroyed bodies instead of writing to a reused slot
+			if (!entry.getKey().isValid()) {
+				iterator.remove();
+				continue;
+			}
+
+			setSleepThreshold(inputRecorder, entry.getKey(), scale * entry.getValue());
+		}
+	}
+
+	private static void setSleepThreshold(InputRecorder inputRecorder, Body body, float sleepThreshold) {
+		if (inputRecorder != null)
+			inputRecorder.setSleepThreshold(body, sleepThreshold);
+		else
+			body.setSleepThreshold(sleepThreshold);
+	}
+
+	/**
+	 * Raise the sleep threshold of a body while the quality is at or below the
+	 * sleep threshold level. Its current threshold is the full quality one.
+	 * Destroyed bodies are dropped the next time the thresholds change.
+	 */
+	public void track(Body body) {
+		if (trackedBodies.containsKey(body))
+			return;
+
+		float sleepThreshold = body.getSleepThreshold();
+		trackedBodies.put(body, sleepThreshold);
+
+		if (sleepThresholdsRaised)
+			setSleepThreshold(world.getInputRecorder(), body, sleepThresholdScale * sleepThreshold);
+	}
+
+	/**
+	 * Stop tracking a body and restore its full quality sleep threshold.
+	 */
+	public void untrack(Body body) {
+		Float sleepThreshold = trackedBodies.remove(body);
+
+		if (sleepThreshold != null && sleepThresholdsRaised && body.isValid())
+			setSleepThreshold(world.getInputRecorder(), body, sleepThreshold);
+	}
+
+	public int getTrackedBodyCount() {
+		return trackedBodies.size();
+	}
+
+	/**
+	 * The sub-step count of the current level.
+	 */
+	public int getSubStepCount() {
+		return Math.max(maxSubStepCount - level, minSubStepCount);
+	}
+
+	/**
+	 * The current quality level, 0 being full quality.
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * The lowest quality level.
+	 */
+	public int getMaxLevel() {
+		return maxSubStepCount - minSubStepCount + 5;
+	}
+
+	/**
+	 * The step time budget in milliseconds.
+	 */
+	public void setBudget(float budget) {
+		this.budget = budget;
+	}
+
+	public float getBudget() {
+		return budget;
+	}
+
+	/**
+	 * The sub-step counts at full and lowest quality. Default 4 and 1.
+	 */
+	public void setSubStepCount(int maxSubStepCount, int minSubStepCount) {
+		if (minSubStepCount < 1 || maxSubStepCount < minSubStepCount)
+			throw new IllegalArgumentException(
+					"Invalid sub-step range: " + minSubStepCount + " to " + maxSubStepCount);
+
+		this.maxSubStepCount = maxSubStepCount;
+		this.minSubStepCount = minSubStepCount;
+		this.level = Math.min(level, getMaxLevel());
+		apply();
+	}
+
+	public int getMaxSubStepCount() {
+		return maxSubStepCount;
+	}
+
+	public int getMinSubStepCount() {
+		return minSubStepCount;
+	}
+
+	/**
+	 * Continuous collision at full quality. Default is the {@link WorldDef}
+	 * setting.
+	 */
+	public void setContinuous(boolean continuous) {
+		this.continuous = continuous;
+	}
+
+	/**
+	 * Speculative collision at full quality. Default true.
+	 */
+	public void setSpeculative(boolean speculative) {
+		this.speculative = speculative;
+	}
+
+	/**
+	 * Sleeping at full quality. Default is the {@link WorldDef} setting.
+	 */
+	public void setSleeping(boolean sleeping) {
+		this.sleeping = sleeping;
+	}
+
+	/**
+	 * The contact tuning at full quality. Default is the {@link WorldDef} tuning.
+	 */
+	public void setContactTuning(float hertz, float dampingRatio, float pushSpeed) {
+		contactHertz = hertz;
+		contactDampingRatio = dampingRatio;
+		contactPushSpeed = pushSpeed;
+	}
+
+	/**
+	 * The contact tuning at the lowest level. Default 15, 10 and 3.
+	 */
+	public void setDegradedContactTuning(float hertz, float dampingRatio, float pushSpeed) {
+		degradedContactHertz = hertz;
+		degradedContactDampingRatio = dampingRatio;
+		degradedContactPushSpeed = pushSpeed;
+	}
+
+	/**
+	 * The factor applied to the sleep thresholds of the tracked bodies at the
+	 * sleep threshold level. Default 4.
+	 */
+	public void setSleepThresholdScale(float sleepThresholdScale) {
+		this.sleepThresholdScale = sleepThresholdScale;
+
+		if (sleepThresholdsRaised)
+			applySleepThresholds();
+	}
+
+	public float getSleepThresholdScale() {
+		return sleepThresholdScale;
+	}
+
+	/**
+	 * The number of consecutive updates over budget before the quality drops.
+	 * Default 3.
+	 */
+	public void setDegradeFrames(int degradeFrames) {
+		this.degradeFrames = degradeFrames;
+	}
+
+	public int getDegradeFrames() {
+		return degradeFrames;
+	}
+
+	/**
+	 * The number of consecutive updates below the recover ratio before the
+	 * quality rises. Default 60.
+	 */
+	public void setRecoverFrames(int recoverFrames) {
+		this.recoverFrames = recoverFrames;
+	}
+
+	public int getRecoverFrames() {
+		return recoverFrames;
+	}
+
+	/**
+	 * The fraction of the budget the step time must stay below to recover.
+	 * Default 0.6.
+	 */
+	public void setRecoverRatio(float recoverRatio) {
+		this.recoverRatio = recoverRatio;
+	}
+
+	public float getRecoverRatio() {
+		return recoverRatio;
+	}
+
+	/**
+	 * The moving average of the step time in milliseconds.
+	 */
+	public float getAverageStepTime() {
+		return averageStepTime;
+	}
+
+	/**
+	 * The number of level changes.
+	 */
+	public long getChanges() {
+		return changes;
+	}
+
+	/**
+	 * Receives every level change. May be null.
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	public Listener getListener() {
+		return listener;
+	}
+
+	public World getWorld() {
+		return world;
+	}
+
+	/**
+	 * Receives the level changes of a controller.
+	 */
+	public static interface Listener {
+
+		void qualityChanged(Change change);
+
+	}
+
+	/**
+	 * A level change with the state of the world when it happened.
+	 * 
+	 * @param previousLevel The level before the change.
+	 * @param level         The new level.
+	 * @param stepTime      The moving average of the step time in milliseconds.
+	 * @param budget        The step time budget in milliseconds.
+	 * @param subStepCount  The sub-step count of the new level.
+	 */
+	public static record Change(int previousLevel, int level, float stepTime, float budget, int subStepCount,
+			int bodyCount, int shapeCount, int contactCount, int jointCount, int islandCount) {
+
+		/**
+		 * The quality dropped.
+		 */
+		public boolean isDegraded() {
+			return level > previousLevel;
+		}
+
+	}
+
+}
@@ -0,0 +1,470 @@
+package volucris.engine.physics.box2d.world;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.util.Arrays;
+
+import org.joml.Vector2f;
+
+import volucris.engine.physics.box2d.body.Body;
+import volucris.engine.physics.box2d.bodyEvents.BodyEvents;
+import volucris.engine.physics.box2d.bodyEvents.BodyMoveEvent;
+import volucris.engine.physics.box2d.math.AABB;
+import volucris.engine.physics.box2d.shape.QueryFilter;
+import volucris.engine.physics.box2d.utils.SlotMap;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Memoizes closest ray casts and AABB overlaps of a world.
+ * <p>
+ * Identical queries with the same filter bits return the cached result instead
+ * of calling into Box2D. The cache holds at most {@link #getCapacity()} entries
+ * and evicts the least recently used one. Entries are found through a
+ * {@link SlotMap} keyed by a hash of the query, the least recently used order
+ * is an intrusive list over the slots, so a lookup does not allocate.
+ * <p>
+ * By default all entries are dropped by the next {@link World#step}, so the
+ * cache only memoizes queries within one frame. With
+ * {@link #setRetainAcrossSteps(boolean)} entries survive a step unless a body
+ * move event of that step touches their region: the ray bounds or the query
+ * AABB. A moved body invalidates the entries overlapping its AABB before and
+ * after the move. The previous AABB of each moving body is remembered. For the
+ * first move of an unknown body its AABB is grown by the farthest it can have
+ * moved in the last step, {@link World#getMaximumLinearSpeed()} times
+ * {@link World#getLastTimeStep()}, plus its own extent to cover rotation. This
+ * costs one b2Body_ComputeAABB call per move event.
+ * <p>
+ * Bodies moved, created or destroyed by the user are not reported by Box2D,
+ * neither are speeds set above the maximum. Call {@link #invalidate()} or
+ * {@link #invalidate(float, float, float, float)} after such changes.
+ */
+public final class QueryCache {
+
+	private static final int RAY_CAST_CLOSEST = 0;
+	private static final int OVERLAP_AABB = 1;
+
+	private static final long MOVE_EVENT_SIZE;
+	private static final long MOVE_EVENT_BODY_ID_OFFSET;
+
+	private final World world;
+	private final int capacity;
+
+	private final SlotMap slots;
+	private final Entry[] entries;
+	private final int[] newer;
+	private final int[] older;
+	private int newest;
+	private int oldest;
+
+	private final SlotMap bodySlots;
+	private float[] bodyBounds;
+
+	private final BodyEvents bodyEvents;
+	private final MemorySegment bodyId;
+	private final AABB bodyAABB;
+	private final float[] bounds;
+
+	private long step;
+	private boolean retainAcrossSteps;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+
+	static {
+		MOVE_EVENT_SIZE = BodyMoveEvent.LAYOUT().byteSize();
+		MOVE_EVENT_BODY_ID_OFFSET = BodyMoveEvent.LAYOUT().byteOffset(PathElement.groupElement("bodyId"));
+	}
+
+	public QueryCache(World world) {
+		this(world, 256);
+	}
+
+	public QueryCache(World world, int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+
+		this.world = world;
+		this.capacity = capacity;
+
+		slots = new SlotMap(capacity);
+		entries = new Entry[capacity];
+		newer = new int[capacity];
+		older = new int[capacity];
+		newest = SlotMap.NONE;
+		oldest = SlotMap.NONE;
+
+		bodySlots = new SlotMap();
+		bodyBounds = new float[4 * 16];
+
+		Arena arena = Arena.ofAuto();
+		bodyEvents = new BodyEvents(arena);
+		bodyId = arena.allocate(Body.LAYOUT());
+		bodyAABB = new AABB(arena);
+		bounds = new float[4];
+
+		step = world.getStepCount();
+	}
+
+	/**
+	 * Cast a ray into the world to collect the closest hit, or return the cached
+	 * hit of an identical ray.
+	 */
+	public RayResult castRayClosest(RayResult target, Vector2f origin, Vector2f translation, QueryFilter queryFilter) {
+		sync();
+
+		long categoryBits = queryFilter.getCategoryBits();
+		long maskBits = queryFilter.getMaskBits();
+
+		Entry entry = find(RAY_CAST_CLOSEST, origin.x, origin.y, translation.x, translation.y, categoryBits, maskBits);
+		if (entry != null) {
+			hits++;
+			target.set(entry.rayResult, world);
+			return target;
+		}
+
+		misses++;
+		world.castRayClosest(target, origin, translation, queryFilter);
+
+		entry = insert(RAY_CAST_CLOSEST, origin.x, origin.y, translation.x, translation.y, categoryBits, maskBits);
+		if (entry.rayResult == null)
+			entry.rayResult = Arena.ofAuto().allocate(RayResult.LAYOUT());
+		MemorySegment.copy(target.memorySegment(), 0L, entry.rayResult, 0L, RayResult.LAYOUT().byteSize());
+
+		float endX = origin.x + translation.x;
+		float endY = origin.y + translation.y;
+		entry.setBounds(Math.min(origin.x, endX), Math.min(origin.y, endY), Math.max(origin.x, endX),
+				Math.max(origin.y, endY));
+
+		return target;
+	}
+
+	/**
+	 * Cast a ray into the world to collect the closest hit, or return the cached
+	 * hit of an identical ray.
+	 */
+	public RayResult castRayClosest(Vector2f origin, Vector2f translation, QueryFilter queryFilter) {
+		return castRayClosest(new RayResult(), origin, translation, queryFilter);
+	}
+
+	/**
+	 * Collect all shapes that potentially overlap the provided AABB, or load the
+	 * cached shapes of an identical query.
+	 *
+	 * @return the number of collected shapes
+	 */
+	public int overlapAABB(OverlapCollector collector, AABB aabb, QueryFilter queryFilter) {
+		sync();
+
+		MemorySegment.copy(aabb.memorySegment(), JAVA_FLOAT, 0L, bounds, 0, 4);
+
+		long categoryBits = queryFilter.getCategoryBits();
+		long maskBits = queryFilter.getMaskBits();
+
+		Entry entry = find(OVERLAP_AABB, bounds[0], bounds[1], bounds[2], bounds[3], categoryBits, maskBits);
+		if (entry != null && entry.maxHits == collector.getMaxHits()) {
+			hits++;
+			collector.load(entry.shapeIds, entry.shapeCount);
+			return entry.shapeCount;
+		}
+
+		misses++;
+		int count = world.overlapAABB(collector, aabb, queryFilter);
+
+		if (entry == null)
+			entry = insert(OVERLAP_AABB, bounds[0], bounds[1], bounds[2], bounds[3], categoryBits, maskBits);
+		if (entry.shapeIds == null || entry.shapeIds.length < count)
+			entry.shapeIds = new long[Math.max(count, 4)];
+		collector.store(entry.shapeIds);
+		entry.shapeCount = count;
+		entry.maxHits = collector.getMaxHits();
+		entry.setBounds(bounds[0], bounds[1], bounds[2], bounds[3]);
+
+		return count;
+	}
+
+	/**
+	 * The entry of a query, marked as most recently used, or null.
+	 */
+	private Entry find(int type, float a, float b, float c, float d, long categoryBits, long maskBits) {
+		int slot = slots.get(hash(type, a, b, c, d, categoryBits, maskBits));
+		if (slot == SlotMap.NONE)
+			return null;
+
+		Entry entry = entries[slot];
+		if (!entry.matches(type, a, b, c, d, categoryBits, maskBits))
+			return null;
+
+		unlink(slot);
+		linkNewest(slot);
+		return entry;
+	}
+
+	/**
+	 * The entry for a new query, evicting the least recently used one if the
+	 * cache is full. An entry with the same hash is replaced.
+	 */
+	private Entry insert(int type, float a, float b, float c, float d, long categoryBits, long maskBits) {
+		long key = hash(type, a, b, c, d, categoryBits, maskBits);
+
+		int slot = slots.get(key);
+		if (slot != SlotMap.NONE) {
+			unlink(slot);
+		} else {
+			if (slots.size() == capacity) {
+				drop(oldest);
+				evictions++;
+			}
+
+			slot = slots.add(key);
+			if (entries[slot] == null)
+				entries[slot] = new Entry();
+		}
+
+		linkNewest(slot);
+
+		Entry entry = entries[slot];
+		entry.setKey(type, a, b, c, d, categoryBits, maskBits);
+		return entry;
+	}
+
+	private void drop(int slot) {
+		unlink(slot);
+		slots.remove(slots.getKey(slot));
+	}
+
+	private void unlink(int slot) {
+		int newerSlot = newer[slot];
+		int olderSlot = older[slot];
+
+		if (newerSlot != SlotMap.NONE)
+			older[newerSlot] = olderSlot;
+		else
+			newest = olderSlot;
+
+		if (olderSlot != SlotMap.NONE)
+			newer[olderSlot] = newerSlot;
+		else
+			oldest = newerSlot;
+	}
+
+	private void linkNewest(int slot) {
+		newer[slot] = SlotMap.NONE;
+		older[slot] = newest;
+
+		if (newest != SlotMap.NONE)
+			newer[newest] = slot;
+		else
+			oldest = slot;
+
+		newest = slot;
+	}
+
+	private static long hash(int type, float a, float b, float c, float d, long categoryBits, long maskBits) {
+		long hash = type;
+		hash = 31L * hash + Float.floatToIntBits(a);
+		hash = 31L * hash + Float.floatToIntBits(b);
+		hash = 31L * hash + Float.floatToIntBits(c);
+		hash = 31L * hash + Float.floatToIntBits(d);
+		hash = 31L * hash + categoryBits;
+		hash = 31L * hash + maskBits;
+
+		// zero is not a valid slot map key
+		return hash == 0L ? 1L : hash;
+	}
+
+	/**
+	 * Drop all cached entries and the remembered body bounds.
+	 */
+	public void invalidate() {
+		invalidations += slots.size();
+		slots.clear();
+		newest = SlotMap.NONE;
+		oldest = SlotMap.NONE;
+
+		bodySlots.clear();
+	}
+
+	/**
+	 * Drop all cached entries whose region overlaps the given bounds.
+	 */
+	public void invalidate(float lowerX, float lowerY, float upperX, float upperY) {
+		for (int slot = 0; slot < slots.getSlotCount(); slot++) {
+			if (slots.getKey(slot) != 0L && entries[slot].overlaps(lowerX, lowerY, upperX, upperY)) {
+				drop(slot);
+				invalidations++;
+			}
+		}
+	}
+
+	private void sync() {
+		long worldStep = world.getStepCount();
+		if (worldStep == step)
+			return;
+
+		if (retainAcrossSteps && worldStep == step + 1) {
+			handleMoveEvents();
+		} else {
+			invalidate();
+		}
+
+		step = worldStep;
+	}
+
+	private void handleMoveEvents() {
+		world.getBodyEvents(bodyEvents);
+
+		MemorySegment events = bodyEvents.getMoveEvents();
+		int moveCount = bodyEvents.getMoveCount();
+
+		float reach = world.getMaximumLinearSpeed() * world.getLastTimeStep();
+
+		for (int i = 0; i < moveCount; i++) {
+			long offset = i * MOVE_EVENT_SIZE + MOVE_EVENT_BODY_ID_OFFSET;
+
+			MemorySegment.copy(events, offset, bodyId, 0L, Body.LAYOUT().byteSize());
+			Body.computeAABB(bodyAABB, bodyId);
+			MemorySegment.copy(bodyAABB.memorySegment(), JAVA_FLOAT, 0L, bounds, 0, 4);
+
+			long key = Body.storeBodyId(events, offset);
+			int slot = bodySlots.get(key);
+
+			if (slot == SlotMap.NONE) {
+				slot = bodySlots.add(key);
+				if (4 * slot == bodyBounds.length)
+					bodyBounds = Arrays.copyOf(bodyBounds, 2 * bodyBounds.length);
+
+				// Everywhere the body can have come from in the last step
+				float extent = Math.max(bounds[2] - bounds[0], bounds[3] - bounds[1]) + reach;
+				invalidate(bounds[0] - extent, bounds[1] - extent, bounds[2] + extent, bounds[3] + extent);
+			} else {
+				int j = 4 * slot;
+				invalidate(bodyBounds[j], bodyBounds[j + 1], bodyBounds[j + 2], bodyBounds[j + 3]);
+				invalidate(bounds[0], bounds[1], bounds[2], bounds[3]);
+			}
+
+			System.arraycopy(bounds, 0, bodyBounds, 4 * slot, 4);
+		}
+	}
+
+	/**
+	 * Keep entries across steps and only drop the ones touched by body move
+	 * events. Default false.
+	 */
+	public void setRetainAcrossSteps(boolean retainAcrossSteps) {
+		this.retainAcrossSteps = retainAcrossSteps;
+	}
+
+	public boolean isRetainAcrossSteps() {
+		return retainAcrossSteps;
+	}
+
+	/**
+	 * The number of queries answered from the cache.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * The number of queries that called into Box2D.
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Hits divided by all queries, or 0 if there were no queries.
+	 */
+	public float getHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0.0f : (float) hits / total;
+	}
+
+	/**
+	 * The number of entries dropped to stay within the capacity.
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * The number of entries dropped by steps, move events and
+	 * {@link #invalidate()}.
+	 */
+	public long getInvalidations() {
+		return invalidations;
+	}
+
+	public void resetCounters() {
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+		invalidations = 0;
+	}
+
+	/**
+	 * The number of cached entries.
+	 */
+	public int getSize() {
+		return slots.size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	private static final class Entry {
+
+		private int type;
+		private float a;
+		private float b;
+		private float c;
+		private float d;
+		private long categoryBits;
+		private long maskBits;
+
+		private float lowerX;
+		private float lowerY;
+		private float upperX;
+		private float upperY;
+
+		private MemorySegment rayResult;
+
+		private long[] shapeIds;
+		private int shapeCount;
+		private int maxHits;
+
+		private void setKey(int type, float a, float b, float c, float d, long categoryBits, long maskBits) {
+			this.type = type;
+			this.a = a;
+			this.b = b;
+			this.c = c;
+			this.d = d;
+			this.categoryBits = categoryBits;
+			this.maskBits = maskBits;
+		}
+
+		private boolean matches(int type, float a, float b, float c, float d, long categoryBits, long maskBits) {
+			return this.type == type && Float.compare(this.a, a) == 0 && Float.compare(this.b, b) == 0
+					&& Float.compare(this.c, c) == 0 && Float.compare(this.d, d) == 0
+					&& this.categoryBits == categoryBits && this.maskBits == maskBits;
+		}
+
+		private void setBounds(float lowerX, float lowerY, float upperX, float upperY) {
+			this.lowerX = lowerX;
+			this.lowerY = lowerY;
+			this.upperX = upperX;
+			this.upperY = upperY;
+		}
+
+		private boolean overlaps(float lowerX, float lowerY, float upperX, float upperY) {
+			return this.lowerX <= upperX && lowerX <= this.upperX && this.lowerY <= upperY && lowerY <= this.upperY;
+		}
+
+	}
+
+}
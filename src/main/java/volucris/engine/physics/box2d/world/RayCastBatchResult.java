@@ -0,0 +1,161 @@
+package volucris.engine.physics.box2d.world;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemoryLayout.PathElement;
+
+import volucris.engine.physics.box2d.Box2D;
+import volucris.engine.physics.box2d.shape.Shape;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Columnar results of {@link World#castRayClosestBatch}.
+ * <p>
+ * Ray {@code i} writes its hit point to {@code points[2 * i]}, its normal to
+ * {@code normals[2 * i]}, its fraction to {@code fractions[i]} and its shape
+ * id to {@code shapeIds[i]}. Shape ids are stored with
+ * {@link Shape#storeShapeId}; a ray that hits nothing stores zero, fraction 1,
+ * a zero normal and the end point of the ray.
+ * <p>
+ * The arrays are owned by this object and only grow. Reuse one result per
+ * frame to avoid allocation.
+ */
+public final class RayCastBatchResult {
+
+	private static final long SHAPE_ID_OFFSET;
+	private static final long POINT_OFFSET;
+	private static final long NORMAL_OFFSET;
+	private static final long FRACTION_OFFSET;
+	private static final long HIT_OFFSET;
+
+	private float[] points;
+	private float[] normals;
+	private float[] fractions;
+	private long[] shapeIds;
+
+	private int count;
+	private int hitCount;
+
+	static {
+		SHAPE_ID_OFFSET = RayResult.LAYOUT().byteOffset(PathElement.groupElement("shapeId"));
+		POINT_OFFSET = RayResult.LAYOUT().byteOffset(PathElement.groupElement("point"));
+		NORMAL_OFFSET = RayResult.LAYOUT().byteOffset(PathElement.groupElement("normal"));
+		FRACTION_OFFSET = RayResult.LAYOUT().byteOffset(PathElement.groupElement("fraction"));
+		HIT_OFFSET = RayResult.LAYOUT().byteOffset(PathElement.groupElement("hit"));
+	}
+
+	public RayCastBatchResult() {
+		this(0);
+	}
+
+	public RayCastBatchResult(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("Negative capacity: " + capacity);
+
+		points = new float[2 * capacity];
+		normals = new float[2 * capacity];
+		fractions = new float[capacity];
+		shapeIds = new long[capacity];
+	}
+
+	void reset(int count) {
+		if (fractions.length < count) {
+			points = new float[2 * count];
+			normals = new float[2 * count];
+			fractions = new float[count];
+			shapeIds = new long[count];
+		}
+
+		this.count = count;
+		this.hitCount = 0;
+	}
+
+	/**
+	 * Copy one b2RayResult into slot {@code index}.
+	 *
+	 * @return true if the ray hit
+	 */
+	boolean store(int index, MemorySegment rayResult, float endX, float endY) {
+		int offset = 2 * index;
+
+		if (!rayResult.get(JAVA_BOOLEAN, HIT_OFFSET)) {
+			points[offset] = endX;
+			points[offset + 1] = endY;
+			normals[offset] = 0.0f;
+			normals[offset + 1] = 0.0f;
+			fractions[index] = 1.0f;
+			shapeIds[index] = 0L;
+			return false;
+		}
+
+		MemorySegment.copy(rayResult, JAVA_FLOAT, POINT_OFFSET, points, offset, 2);
+		MemorySegment.copy(rayResult, JAVA_FLOAT, NORMAL_OFFSET, normals, offset, 2);
+		fractions[index] = rayResult.get(JAVA_FLOAT, FRACTION_OFFSET);
+		shapeIds[index] = Shape.storeShapeId(rayResult, SHAPE_ID_OFFSET);
+		return true;
+	}
+
+	synchronized void addHits(int hits) {
+		hitCount += hits;
+	}
+
+	/**
+	 * Did ray {@code index} hit a shape?
+	 */
+	public boolean hit(int index) {
+		return shapeIds[index] != 0L;
+	}
+
+	/**
+	 * The shape hit by ray {@code index}, or null if the ray hit nothing.
+	 */
+	public Shape getShape(int index, World world) {
+		if (shapeIds[index] == 0L)
+			return null;
+
+		return Box2D.getShape(Shape.loadShapeId(shapeIds[index]), world.getWorldId());
+	}
+
+	/**
+	 * The hit points as x, y pairs.
+	 */
+	public float[] getPoints() {
+		return points;
+	}
+
+	/**
+	 * The surface normals at the hit points as x, y pairs.
+	 */
+	public float[] getNormals() {
+		return normals;
+	}
+
+	/**
+	 * The fractions along the ray translations.
+	 */
+	public float[] getFractions() {
+		return fractions;
+	}
+
+	/**
+	 * The stored shape ids of the hit shapes.
+	 */
+	public long[] getShapeIds() {
+		return shapeIds;
+	}
+
+	/**
+	 * The number of rays of the last batch.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * The number of rays of the last batch that hit a shape.
+	 */
+	public synchronized int getHitCount() {
+		return hitCount;
+	}
+
+}
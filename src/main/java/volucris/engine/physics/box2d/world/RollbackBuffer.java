@@ -0,0 +1,609 @@
+package volucris.engine.physics.box2d.world;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.joml.Vector2f;
+
+import volucris.engine.physics.box2d.body.Body;
+import volucris.engine.physics.box2d.joint.DistanceJoint;
+import volucris.engine.physics.box2d.joint.Joint;
+import volucris.engine.physics.box2d.joint.MotorJoint;
+import volucris.engine.physics.box2d.joint.MouseJoint;
+import volucris.engine.physics.box2d.joint.PrismaticJoint;
+import volucris.engine.physics.box2d.joint.RevoluteJoint;
+import volucris.engine.physics.box2d.joint.WheelJoint;
+import volucris.engine.physics.box2d.math.Transform;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * A ring of saved world states for rollback networking.
+ * <p>
+ * Bodies and joints are registered once and keep their slot until they are
+ * removed. Every tick {@link #save(long)} writes the transform, velocities and
+ * awake flag of each body and the driven joint state into the frame of the
+ * tick, overwriting the oldest one. {@link #restore(long)} writes a frame back
+ * into the bodies, after which the ticks up to the present can be simulated
+ * again with corrected inputs. All frames are allocated off-heap up front,
+ * saving and restoring do not allocate.
+ * <p>
+ * Box2D 3.1 has no bulk setter for body state, so a restore makes several
+ * downcalls per body: one each for the transform, the linear velocity, the
+ * angular velocity and the awake flag. Its cost is O(bodies) downcalls, not
+ * one copy. Saving reads the state the same way.
+ * <p>
+ * The awake flag is restored with {@code b2Body_SetAwake}, which acts on the
+ * whole island. Putting one body to sleep puts every body of its island to
+ * sleep, and that can override the awake flags already restored for the other
+ * bodies of the island. Waking a body likewise wakes its island. A frame saved
+ * by Box2D itself has one flag per island. Mixed flags can only come from
+ * islands that merged or split after the save, and then the last body
+ * restored in the island decides.
+ * <p>
+ * Removed slots are reused by the next registration. Every registration gets a
+ * new generation that is saved with the state, so a restore skips the state a
+ * frame holds for an earlier occupant of the slot, the same as for a body that
+ * was registered after the frame was saved.
+ * <p>
+ * The joint state is the part the user drives: the length and motor speed of
+ * distance joints, the offsets of motor joints, the target of mouse joints and
+ * the motor speed of prismatic, revolute and wheel joints. Other joint settings
+ * are expected to stay constant within the rollback window.
+ * <p>
+ * Box2D does not expose all of its state, so a restored world is close to, but
+ * not identical with the saved one. Not restored are the warm starting impulses
+ * of contacts and joints, the contact pairs and manifolds, the sleep timers and
+ * islands, and the broad-phase tree. A resimulation therefore drifts slightly
+ * from the original run. When both peers need bit identical results, rebuild
+ * the world on every peer and restore the frame into it, so all caches start
+ * cold. {@link #writeScene} writes the registered bodies and joints with a
+ * {@link WorldSnapshot} once, and {@link #rebuild} recreates them in a new
+ * world, rebinds the slots and restores a tick. A world built by other code
+ * can be bound with {@link #rebind(Body[], int, Joint[], int)}.
+ * <p>
+ * Register only dynamic and kinematic bodies. Remove bodies and joints before
+ * destroying them.
+ */
+public final class RollbackBuffer {
+
+	private static final StructLayout BODY_STATE_LAYOUT;
+	private static final StructLayout JOINT_STATE_LAYOUT;
+
+	private static final long BODY_TRANSFORM_OFFSET;
+	private static final long BODY_LINEAR_VELOCITY_OFFSET;
+	private static final long BODY_ANGULAR_VELOCITY_OFFSET;
+	private static final long BODY_AWAKE_OFFSET;
+	private static final long BODY_GENERATION_OFFSET;
+	private static final long JOINT_GENERATION_OFFSET;
+
+	private static final long BODY_STATE_SIZE;
+	private static final long JOINT_STATE_SIZE;
+
+	private final int capacity;
+	private final int maxBodies;
+	private final int maxJoints;
+
+	private final MemorySegment frames;
+	private final long frameSize;
+	private final long[] ticks;
+	private final int[] bodyCounts;
+	private final int[] jointCounts;
+
+	private final Body[] bodies;
+	private final Joint[] joints;
+	private final int[] bodyGenerations;
+	private final int[] jointGenerations;
+	private int bodyCount;
+	private int jointCount;
+	private int generation;
+
+	private final int[] freeBodySlots;
+	private final int[] freeJointSlots;
+	private int freeBodyCount;
+	private int freeJointCount;
+
+	private Body[] sceneBodies;
+	private Joint[] sceneJoints;
+
+	private final Transform transform;
+	private final Vector2f vector;
+
+	static {
+		//@formatter:off
+		BODY_STATE_LAYOUT = MemoryLayout.structLayout(
+				Transform.LAYOUT().withName("transform"),
+				MemoryLayout.sequenceLayout(2, JAVA_FLOAT).withName("linearVelocity"),
+				JAVA_FLOAT.withName("angularVelocity"),
+				JAVA_INT.withName("awake"),
+				JAVA_INT.withName("generation"),
+				MemoryLayout.paddingLayout(4)
+			).withName("rollbackBodyState");
+
+		JOINT_STATE_LAYOUT = MemoryLayout.structLayout(
+				MemoryLayout.sequenceLayout(4, JAVA_FLOAT).withName("values"),
+				JAVA_INT.withName("generation"),
+				MemoryLayout.paddingLayout(4)
+			).withName("rollbackJointState");
+		//@formatter:on
+
+		BODY_TRANSFORM_OFFSET = BODY_STATE_LAYOUT.byteOffset(PathElement.groupElement("transform"));
+		BODY_LINEAR_VELOCITY_OFFSET = BODY_STATE_LAYOUT.byteOffset(PathElement.groupElement("linearVelocity"));
+		BODY_ANGULAR_VELOCITY_OFFSET = BODY_STATE_LAYOUT.byteOffset(PathElement.groupElement("angularVelocity"));
+		BODY_AWAKE_OFFSET = BODY_STATE_LAYOUT.byteOffset(PathElement.groupElement("awake"));
+		BODY_GENERATION_OFFSET = BODY_STATE_LAYOUT.byteOffset(PathElement.groupElement("generation"));
+		JOINT_GENERATION_OFFSET = JOINT_STATE_LAYOUT.byteOffset(PathElement.groupElement("generation"));
+
+		BODY_STATE_SIZE = BODY_STATE_LAYOUT.byteSize();
+		JOINT_STATE_SIZE = JOINT_STATE_LAYOUT.byteSize();
+	}
+
+	/**
+	 * @param capacity  The number of frames, the furthest a restore can go back.
+	 * @param maxBodies The maximum number of registered bodies.
+	 * @param maxJoints The maximum number of registered joints.
+	 */
+	public RollbackBuffer(int capacity, int maxBodies, int maxJoints) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		if (maxBodies < 0)
+			throw new IllegalArgumentException("Negative capacity: " + maxBodies);
+		if (maxJoints < 0)
+			throw new IllegalArgumentException("Negative capacity: " + maxJoints);
+
+		this.capacity = capacity;
+		this.maxBodies = maxBodies;
+		this.maxJoints = maxJoints;
+
+		frameSize = maxBodies * BODY_STATE_SIZE + maxJoints * JOINT_STATE_SIZE;
+		frames = Arena.ofAuto().allocate(Math.max(capacity * frameSize, 1L), 8L);
+
+		ticks = new long[capacity];
+		bodyCounts = new int[capacity];
+		jointCounts = new int[capacity];
+		Arrays.fill(ticks, -1L);
+
+		bodies = new Body[maxBodies];
+		joints = new Joint[maxJoints];
+		bodyGenerations = new int[maxBodies];
+		jointGenerations = new int[maxJoints];
+
+		freeBodySlots = new int[maxBodies];
+		freeJointSlots = new int[maxJoints];
+
+		sceneBodies = new Body[0];
+		sceneJoints = new Joint[0];
+
+		transform = new Transform(Arena.ofAuto());
+		vector = new Vector2f();
+	}
+
+	/**
+	 * Register a body. Reuses the slot of a removed body if there is one.
+	 *
+	 * @return the slot of the body
+	 */
+	public int addBody(Body body) {
+		int slot;
+		if (freeBodyCount > 0) {
+			slot = freeBodySlots[--freeBodyCount];
+		} else {
+			if (bodyCount == maxBodies)
+				throw new IllegalStateException("Rollback buffer is full: " + maxBodies + " bodies");
+			slot = bodyCount++;
+		}
+
+		bodies[slot] = body;
+		bodyGenerations[slot] = nextGeneration();
+		return slot;
+	}
+
+	/**
+	 * Register a joint. Reuses the slot of a removed joint if there is one.
+	 *
+	 * @return the slot of the joint
+	 */
+	public int addJoint(Joint joint) {
+		int slot;
+		if (freeJointCount > 0) {
+			slot = freeJointSlots[--freeJointCount];
+		} else {
+			if (jointCount == maxJoints)
+				throw new IllegalStateException("Rollback buffer is full: " + maxJoints + " joints");
+			slot = jointCount++;
+		}
+
+		joints[slot] = joint;
+		jointGenerations[slot] = nextGeneration();
+		return slot;
+	}
+
+	/**
+	 * Unregister a body and free its slot. Call it before destroying the body.
+	 */
+	public void removeBody(Body body) {
+		for (int i = 0; i < bodyCount; i++) {
+			if (bodies[i] == body) {
+				bodies[i] = null;
+				bodyGenerations[i] = 0;
+				freeBodySlots[freeBodyCount++] = i;
+			}
+		}
+	}
+
+	/**
+	 * Unregister a joint and free its slot. Call it before destroying the joint.
+	 */
+	public void removeJoint(Joint joint) {
+		for (int i = 0; i < jointCount; i++) {
+			if (joints[i] == joint) {
+				joints[i] = null;
+				jointGenerations[i] = 0;
+				freeJointSlots[freeJointCount++] = i;
+			}
+		}
+	}
+
+	/**
+	 * Replace the registered bodies and joints with those of a rebuilt world. They
+	 * must be in the same slots as the ones they replace, null marks a free slot.
+	 * Saved frames stay valid for the slots that keep a body or joint.
+	 */
+	public void rebind(Body[] bodies, int bodyCount, Joint[] joints, int jointCount) {
+		if (bodyCount > maxBodies)
+			throw new IllegalArgumentException("Too many bodies: " + bodyCount);
+		if (jointCount > maxJoints)
+			throw new IllegalArgumentException("Too many joints: " + jointCount);
+
+		freeBodyCount = 0;
+		for (int i = 0; i < maxBodies; i++) {
+			Body body = i < bodyCount ? bodies[i] : null;
+
+			// A slot that gets a body for the first time starts a new generation
+			if (body == null)
+				bodyGenerations[i] = 0;
+			else if (this.bodies[i] == null)
+				bodyGenerations[i] = nextGeneration();
+
+			if (body == null && i < bodyCount)
+				freeBodySlots[freeBodyCount++] = i;
+
+			this.bodies[i] = body;
+		}
+
+		freeJointCount = 0;
+		for (int i = 0; i < maxJoints; i++) {
+			Joint joint = i < jointCount ? joints[i] : null;
+
+			if (joint == null)
+				jointGenerations[i] = 0;
+			else if (this.joints[i] == null)
+				jointGenerations[i] = nextGeneration();
+
+			if (joint == null && i < jointCount)
+				freeJointSlots[freeJointCount++] = i;
+
+			this.joints[i] = joint;
+		}
+
+		this.bodyCount = bodyCount;
+		this.jointCount = jointCount;
+	}
+
+	/**
+	 * Write the registered bodies and joints in slot order, followed by other
+	 * bodies and joints such as static ground, as the scene for
+	 * {@link #rebuild}. Write it again after bodies or joints were added or
+	 * removed.
+	 *
+	 * @return the number of bytes written
+	 */
+	public long writeScene(WorldSnapshot snapshot, Path path, World world, Body[] otherBodies, int otherBodyCount,
+			Joint[] otherJoints, int otherJointCount) {
+		int sceneBodyCount = 0;
+		int sceneJointCount = 0;
+
+		if (sceneBodies.length < bodyCount + otherBodyCount)
+			sceneBodies = new Body[bodyCount + otherBodyCount];
+		if (sceneJoints.length < jointCount + otherJointCount)
+			sceneJoints = new Joint[jointCount + otherJointCount];
+
+		for (int i = 0; i < bodyCount; i++) {
+			if (bodies[i] != null)
+				sceneBodies[sceneBodyCount++] = bodies[i];
+		}
+		for (int i = 0; i < jointCount; i++) {
+			if (joints[i] != null)
+				sceneJoints[sceneJointCount++] = joints[i];
+		}
+
+		System.arraycopy(otherBodies, 0, sceneBodies, sceneBodyCount, otherBodyCount);
+		System.arraycopy(otherJoints, 0, sceneJoints, sceneJointCount, otherJointCount);
+		sceneBodyCount += otherBodyCount;
+		sceneJointCount += otherJointCount;
+
+		try {
+			return snapshot.write(path, world, sceneBodies, sceneBodyCount, sceneJoints, sceneJointCount);
+		} finally {
+			Arrays.fill(sceneBodies, 0, sceneBodyCount, null);
+			Arrays.fill(sceneJoints, 0, sceneJointCount, null);
+		}
+	}
+
+	/**
+	 * Recreate the scene written with {@link #writeScene} in a new world, bind
+	 * the occupied slots to the recreated bodies and joints and restore a tick.
+	 * Destroy the old world first. The caches of the new world start cold, so
+	 * every peer that rebuilds from the same file and tick continues
+	 * identically. With {@link WorldSnapshot#setReuseBodies(boolean)} the body
+	 * objects of the previous rebuild are reused.
+	 *
+	 * @return false if the tick is not in the buffer
+	 */
+	public boolean rebuild(long tick, WorldSnapshot snapshot, Path path, World world) {
+		if (!contains(tick))
+			return false;
+
+		snapshot.read(path, world);
+
+		Body[] readBodies = snapshot.getBodies();
+		Joint[] readJoints = snapshot.getJoints();
+		int readBodyCount = 0;
+		int readJointCount = 0;
+
+		for (int i = 0; i < bodyCount; i++) {
+			if (bodies[i] == null)
+				continue;
+			if (readBodyCount == snapshot.getBodyCount())
+				throw new IllegalStateException("Scene has fewer bodies than the rollback buffer");
+			bodies[i] = readBodies[readBodyCount++];
+		}
+
+		for (int i = 0; i < jointCount; i++) {
+			if (joints[i] == null)
+				continue;
+			if (readJointCount == snapshot.getJointCount())
+				throw new IllegalStateException("Scene has fewer joints than the rollback buffer");
+			joints[i] = readJoints[readJointCount++];
+		}
+
+		return restore(tick);
+	}
+
+	private int nextGeneration() {
+		// Zero marks a free slot
+		if (++generation == 0)
+			generation = 1;
+		return generation;
+	}
+
+	/**
+	 * Save the state of all registered bodies and joints as a tick. Overwrites the
+	 * frame of the tick {@link #getCapacity()} ticks earlier.
+	 */
+	public void save(long tick) {
+		if (tick < 0L)
+			throw new IllegalArgumentException("Negative tick: " + tick);
+
+		int index = (int) (tick % capacity);
+		long frameOffset = index * frameSize;
+
+		for (int i = 0; i < bodyCount; i++) {
+			Body body = bodies[i];
+			long offset = frameOffset + i * BODY_STATE_SIZE;
+
+			frames.set(JAVA_INT, offset + BODY_GENERATION_OFFSET, bodyGenerations[i]);
+			if (body == null)
+				continue;
+
+			body.getTransform(transform);
+			MemorySegment.copy(transform.memorySegment(), 0L, frames, offset + BODY_TRANSFORM_OFFSET,
+					Transform.LAYOUT().byteSize());
+
+			body.getLinearVelocity(vector);
+			frames.set(JAVA_FLOAT, offset + BODY_LINEAR_VELOCITY_OFFSET, vector.x);
+			frames.set(JAVA_FLOAT, offset + BODY_LINEAR_VELOCITY_OFFSET + 4, vector.y);
+			frames.set(JAVA_FLOAT, offset + BODY_ANGULAR_VELOCITY_OFFSET, body.getAngularVelocity());
+			frames.set(JAVA_INT, offset + BODY_AWAKE_OFFSET, body.isAwake() ? 1 : 0);
+		}
+
+		long jointOffset = frameOffset + maxBodies * BODY_STATE_SIZE;
+		for (int i = 0; i < jointCount; i++) {
+			Joint joint = joints[i];
+			long offset = jointOffset + i * JOINT_STATE_SIZE;
+
+			frames.set(JAVA_INT, offset + JOINT_GENERATION_OFFSET, jointGenerations[i]);
+			if (joint != null)
+				saveJoint(joint, offset);
+		}
+
+		ticks[index] = tick;
+		bodyCounts[index] = bodyCount;
+		jointCounts[index] = jointCount;
+	}
+
+	private void saveJoint(Joint joint, long offset) {
+		switch (joint) {
+		case DistanceJoint distance -> {
+			frames.set(JAVA_FLOAT, offset, distance.getLength());
+			frames.set(JAVA_FLOAT, offset + 4, distance.getMotorSpeed());
+		}
+		case MotorJoint motor -> {
+			motor.getLinearOffset(vector);
+			frames.set(JAVA_FLOAT, offset, vector.x);
+			frames.set(JAVA_FLOAT, offset + 4, vector.y);
+			frames.set(JAVA_FLOAT, offset + 8, motor.getAngularOffsetRadians());
+		}
+		case MouseJoint mouse -> {
+			mouse.getTarget(vector);
+			frames.set(JAVA_FLOAT, offset, vector.x);
+			frames.set(JAVA_FLOAT, offset + 4, vector.y);
+		}
+		case PrismaticJoint prismatic -> frames.set(JAVA_FLOAT, offset, prismatic.getMotorSpeed());
+		case RevoluteJoint revolute -> frames.set(JAVA_FLOAT, offset, revolute.getMotorSpeed());
+		case WheelJoint wheel -> frames.set(JAVA_FLOAT, offset, wheel.getMotorSpeed());
+		default -> {
+		}
+		}
+	}
+
+	/**
+	 * Write the state of a tick back into the registered bodies and joints. Bodies
+	 * and joints registered after the tick was saved are left unchanged. Costs
+	 * four downcalls per body, see the class doc for the awake flag caveat.
+	 *
+	 * @return false if the tick is not in the buffer
+	 */
+	public boolean restore(long tick) {
+		if (!contains(tick))
+			return false;
+
+		int index = (int) (tick % capacity);
+		long frameOffset = index * frameSize;
+
+		int savedBodyCount = Math.min(bodyCounts[index], bodyCount);
+		for (int i = 0; i < savedBodyCount; i++) {
+			Body body = bodies[i];
+			long offset = frameOffset + i * BODY_STATE_SIZE;
+
+			if (body == null || frames.get(JAVA_INT, offset + BODY_GENERATION_OFFSET) != bodyGenerations[i])
+				continue;
+
+			MemorySegment.copy(frames, offset + BODY_TRANSFORM_OFFSET, transform.memorySegment(), 0L,
+					Transform.LAYOUT().byteSize());
+			body.setTransform(transform);
+
+			vector.x = frames.get(JAVA_FLOAT, offset + BODY_LINEAR_VELOCITY_OFFSET);
+			vector.y = frames.get(JAVA_FLOAT, offset + BODY_LINEAR_VELOCITY_OFFSET + 4);
+			body.setLinearVelocity(vector);
+			body.setAngularVelocity(frames.get(JAVA_FLOAT, offset + BODY_ANGULAR_VELOCITY_OFFSET));
+
+			// Setting a velocity wakes the body, so the flag comes last
+			body.setAwake(frames.get(JAVA_INT, offset + BODY_AWAKE_OFFSET) != 0);
+		}
+
+		long jointOffset = frameOffset + maxBodies * BODY_STATE_SIZE;
+		int savedJointCount = Math.min(jointCounts[index], jointCount);
+		for (int i = 0; i < savedJointCount; i++) {
+			Joint joint = joints[i];
+			long offset = jointOffset + i * JOINT_STATE_SIZE;
+
+			if (joint != null && frames.get(JAVA_INT, offset + JOINT_GENERATION_OFFSET) == jointGenerations[i])
+				restoreJoint(joint, offset);
+		}
+
+		return true;
+	}
+
+	private void restoreJoint(Joint joint, long offset) {
+		switch (joint) {
+		case DistanceJoint distance -> {
+			distance.setLength(frames.get(JAVA_FLOAT, offset));
+			distance.setMotorSpeed(frames.get(JAVA_FLOAT, offset + 4));
+		}
+		case MotorJoint motor -> {
+			vector.set(frames.get(JAVA_FLOAT, offset), frames.get(JAVA_FLOAT, offset + 4));
+			motor.setLinearOffset(vector);
+			motor.setAngularOffsetRadians(frames.get(JAVA_FLOAT, offset + 8));
+		}
+		case MouseJoint mouse -> {
+			vector.set(frames.get(JAVA_FLOAT, offset), frames.get(JAVA_FLOAT, offset + 4));
+			mouse.setTarget(vector);
+		}
+		case PrismaticJoint prismatic -> prismatic.setMotorSpeed(frames.get(JAVA_FLOAT, offset));
+		case RevoluteJoint revolute -> revolute.setMotorSpeed(frames.get(JAVA_FLOAT, offset));
+		case WheelJoint wheel -> wheel.setMotorSpeed(frames.get(JAVA_FLOAT, offset));
+		default -> {
+		}
+		}
+	}
+
+	/**
+	 * Drop all frames after a tick, for example after restoring it. They are
+	 * saved again while resimulating.
+	 */
+	public void discardAfter(long tick) {
+		for (int i = 0; i < capacity; i++) {
+			if (ticks[i] > tick)
+				ticks[i] = -1L;
+		}
+	}
+
+	/**
+	 * Drop all frames. Registered bodies and joints are kept.
+	 */
+	public void clear() {
+		Arrays.fill(ticks, -1L);
+	}
+
+	/**
+	 * If the frame of a tick is still in the buffer.
+	 */
+	public boolean contains(long tick) {
+		return tick >= 0L && ticks[(int) (tick % capacity)] == tick;
+	}
+
+	/**
+	 * The oldest saved tick, or -1 if there is none.
+	 */
+	public long getOldestTick() {
+		long oldest = -1L;
+		for (int i = 0; i < capacity; i++) {
+			if (ticks[i] != -1L && (oldest == -1L || ticks[i] < oldest))
+				oldest = ticks[i];
+		}
+		return oldest;
+	}
+
+	/**
+	 * The newest saved tick, or -1 if there is none.
+	 */
+	public long getNewestTick() {
+		long newest = -1L;
+		for (int i = 0; i < capacity; i++)
+			newest = Math.max(newest, ticks[i]);
+		return newest;
+	}
+
+	/**
+	 * The number of frames.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getMaxBodies() {
+		return maxBodies;
+	}
+
+	public int getMaxJoints() {
+		return maxJoints;
+	}
+
+	/**
+	 * The number of body slots, including free ones.
+	 */
+	public int getBodyCount() {
+		return bodyCount;
+	}
+
+	/**
+	 * The number of joint slots, including free ones.
+	 */
+	public int getJointCount() {
+		return jointCount;
+	}
+
+	/**
+	 * The size of one frame in bytes.
+	 */
+	public long getFrameSize() {
+		return frameSize;
+	}
+
+}
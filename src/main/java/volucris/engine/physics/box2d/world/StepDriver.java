@@ -0,0 +1,368 @@
+package volucris.engine.physics.box2d.world;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.util.Arrays;
+
+import volucris.engine.physics.box2d.body.Body;
+import volucris.engine.physics.box2d.bodyEvents.BodyEvents;
+import volucris.engine.physics.box2d.bodyEvents.BodyMoveEvent;
+import volucris.engine.physics.box2d.utils.SlotMap;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Steps a world with a fixed time step from variable frame times.
+ * <p>
+ * {@link #update(float)} adds the frame time to an accumulator and runs as many
+ * fixed steps as fit into it, but at most {@link #getMaxSteps()}. With a step
+ * budget the limit is lowered further to the number of steps that fit into the
+ * budget, based on a moving average of the measured step time. Time that
+ * exceeds the limit is dropped instead of being carried into the next frame, so
+ * a saturated machine does not fall further and further behind.
+ * <p>
+ * The remaining time is exposed as the interpolation alpha. With
+ * interpolation enabled the driver also tracks the transforms of the last two
+ * steps from the body move events and blends them into a reusable float array.
+ * A body gets a slot on its first move event and keeps it until it is removed
+ * with {@link #remove(Body)}. Removed slots are reused by new bodies.
+ */
+public final class StepDriver {
+
+	private static final long MOVE_EVENT_SIZE;
+	private static final long MOVE_EVENT_TRANSFORM_OFFSET;
+	private static final long MOVE_EVENT_BODY_ID_OFFSET;
+
+	private final World world;
+
+	private float timeStep;
+	private int subStepCount;
+
+	private int maxSteps;
+	private float maxFrameTime;
+	private float stepBudget;
+
+	private float accumulator;
+	private float alpha;
+
+	private float averageStepTime;
+	private int lastSteps;
+	private long droppedSteps;
+
+	private boolean interpolation;
+
+	private final SlotMap slots;
+	private final BodyEvents bodyEvents;
+
+	private long[] bodyIds;
+	private float[] previous;
+	private float[] current;
+	private long[] moveSteps;
+	private float[] interpolated;
+
+	static {
+		MOVE_EVENT_SIZE = BodyMoveEvent.LAYOUT().byteSize();
+		MOVE_EVENT_TRANSFORM_OFFSET = BodyMoveEvent.LAYOUT().byteOffset(PathElement.groupElement("transform"));
+		MOVE_EVENT_BODY_ID_OFFSET = BodyMoveEvent.LAYOUT().byteOffset(PathElement.groupElement("bodyId"));
+	}
+
+	public StepDriver(World world) {
+		this(world, 1.0f / 60.0f, 4);
+	}
+
+	public StepDriver(World world, float timeStep, int subStepCount) {
+		if (timeStep <= 0.0f)
+			throw new IllegalArgumentException("Time step must be positive: " + timeStep);
+
+		this.world = world;
+		this.timeStep = timeStep;
+		this.subStepCount = subStepCount;
+
+		maxSteps = 5;
+		maxFrameTime = 0.25f;
+
+		slots = new SlotMap(64);
+		bodyEvents = new BodyEvents(Arena.ofAuto());
+
+		bodyIds = new long[64];
+		previous = new float[4 * 64];
+		current = new float[4 * 64];
+		moveSteps = new long[64];
+		interpolated = new float[4 * 64];
+	}
+
+	/**
+	 * Advance the clock by a frame time in seconds and run the due fixed steps.
+	 *
+	 * @return the number of steps run
+	 */
+	public int update(float frameTime) {
+		accumulator += Math.min(Math.max(frameTime, 0.0f), maxFrameTime);
+
+		int steps = 0;
+		int limit = getStepLimit();
+		while (accumulator >= timeStep && steps < limit) {
+			long start = System.nanoTime();
+			world.step(timeStep, subStepCount);
+			float stepTime = (System.nanoTime() - start) * 1e-9f;
+
+			averageStepTime = averageStepTime == 0.0f ? stepTime : 0.9f * averageStepTime + 0.1f * stepTime;
+
+			if (interpolation)
+				applyMoveEvents();
+
+			accumulator -= timeStep;
+			steps++;
+		}
+
+		// Drop the time that did not fit into the limit
+		if (accumulator >= timeStep) {
+			int dropped = (int) (accumulator / timeStep);
+			droppedSteps += dropped;
+			accumulator -= dropped * timeStep;
+		}
+
+		lastSteps = steps;
+		alpha = accumulator / timeStep;
+
+		if (interpolation)
+			interpolate();
+
+		return steps;
+	}
+
+	/**
+	 * The maximum number of steps of the next update.
+	 */
+	public int getStepLimit() {
+		if (stepBudget <= 0.0f || averageStepTime <= 0.0f)
+			return maxSteps;
+
+		int budgetSteps = (int) (stepBudget / averageStepTime);
+		return Math.max(1, Math.min(budgetSteps, maxSteps));
+	}
+
+	private void applyMoveEvents() {
+		world.getBodyEvents(bodyEvents);
+
+		MemorySegment events = bodyEvents.getMoveEvents();
+		int moveCount = bodyEvents.getMoveCount();
+		long stepCount = world.getStepCount();
+
+		for (int i = 0; i < moveCount; i++) {
+			long offset = i * MOVE_EVENT_SIZE;
+
+			long bodyId = Body.storeBodyId(events, offset + MOVE_EVENT_BODY_ID_OFFSET);
+			int index = slots.get(bodyId);
+
+			if (index == SlotMap.NONE) {
+				index = addSlot(bodyId);
+				MemorySegment.copy(events, JAVA_FLOAT, offset + MOVE_EVENT_TRANSFORM_OFFSET, previous, 4 * index, 4);
+			} else {
+				System.arraycopy(current, 4 * index, previous, 4 * index, 4);
+			}
+
+			MemorySegment.copy(events, JAVA_FLOAT, offset + MOVE_EVENT_TRANSFORM_OFFSET, current, 4 * index, 4);
+			moveSteps[index] = stepCount;
+		}
+	}
+
+	private int addSlot(long bodyId) {
+		int slot = slots.add(bodyId);
+		if (slot == bodyIds.length) {
+			bodyIds = Arrays.copyOf(bodyIds, 2 * slot);
+			previous = Arrays.copyOf(previous, 8 * slot);
+			current = Arrays.copyOf(current, 8 * slot);
+			moveSteps = Arrays.copyOf(moveSteps, 2 * slot);
+			interpolated = Arrays.copyOf(interpolated, 8 * slot);
+		}
+
+		bodyIds[slot] = bodyId;
+		return slot;
+	}
+
+	/**
+	 * Blend the transforms of the last two steps. Bodies that did not move in the
+	 * last step keep their current transform. The rotation is blended linearly
+	 * and normalized. Removed slots are skipped.
+	 */
+	private void interpolate() {
+		long stepCount = world.getStepCount();
+		float beta = 1.0f - alpha;
+
+		int count = slots.getSlotCount();
+		for (int i = 0; i < count; i++) {
+			if (bodyIds[i] == 0L)
+				continue;
+
+			int j = 4 * i;
+
+			if (moveSteps[i] != stepCount) {
+				System.arraycopy(current, j, interpolated, j, 4);
+				continue;
+			}
+
+			interpolated[j] = beta * previous[j] + alpha * current[j];
+			interpolated[j + 1] = beta * previous[j + 1] + alpha * current[j + 1];
+
+			float c = beta * previous[j + 2] + alpha * current[j + 2];
+			float s = beta * previous[j + 3] + alpha * current[j + 3];
+			float length = (float) Math.sqrt(c * c + s * s);
+			float invLength = length > 0.0f ? 1.0f / length : 0.0f;
+
+			interpolated[j + 2] = c * invLength;
+			interpolated[j + 3] = s * invLength;
+		}
+	}
+
+	/**
+	 * Stop interpolating a body and free its slot for the next new body. Call it
+	 * before destroying the body.
+	 */
+	public void remove(Body body) {
+		int slot = slots.remove(Body.storeBodyId(body.memorySegment(), 0L));
+		if (slot != SlotMap.NONE)
+			bodyIds[slot] = 0L;
+	}
+
+	/**
+	 * Reset the accumulator and drop all interpolation slots.
+	 */
+	public void reset() {
+		accumulator = 0.0f;
+		alpha = 0.0f;
+
+		Arrays.fill(bodyIds, 0, slots.getSlotCount(), 0L);
+		slots.clear();
+	}
+
+	/**
+	 * Track the transforms of moving bodies and interpolate them after every
+	 * update. Default false.
+	 */
+	public void setInterpolation(boolean interpolation) {
+		this.interpolation = interpolation;
+	}
+
+	public boolean isInterpolation() {
+		return interpolation;
+	}
+
+	/**
+	 * The interpolation alpha between the last two steps, in [0, 1).
+	 */
+	public float getAlpha() {
+		return alpha;
+	}
+
+	/**
+	 * The interpolated transforms as position x, position y, cos and sin per slot.
+	 * Holds {@link #getCount()} valid quadruples. The array is reused, but
+	 * replaced when the slots grow.
+	 */
+	public float[] getInterpolatedTransforms() {
+		return interpolated;
+	}
+
+	/**
+	 * The stored body ids of the slots. Removed slots have a body id of zero.
+	 */
+	public long[] getBodyIds() {
+		return bodyIds;
+	}
+
+	/**
+	 * The number of slots, removed ones included.
+	 */
+	public int getCount() {
+		return slots.getSlotCount();
+	}
+
+	/**
+	 * The slot of a body, or -1 if it has none.
+	 */
+	public int getSlot(Body body) {
+		return slots.get(Body.storeBodyId(body.memorySegment(), 0L));
+	}
+
+	public void setTimeStep(float timeStep) {
+		if (timeStep <= 0.0f)
+			throw new IllegalArgumentException("Time step must be positive: " + timeStep);
+
+		this.timeStep = timeStep;
+	}
+
+	public float getTimeStep() {
+		return timeStep;
+	}
+
+	public void setSubStepCount(int subStepCount) {
+		this.subStepCount = subStepCount;
+	}
+
+	public int getSubStepCount() {
+		return subStepCount;
+	}
+
+	/**
+	 * The maximum number of steps per update. Default 5.
+	 */
+	public void setMaxSteps(int maxSteps) {
+		this.maxSteps = Math.max(maxSteps, 1);
+	}
+
+	public int getMaxSteps() {
+		return maxSteps;
+	}
+
+	/**
+	 * Frame times are clamped to this, for example after a breakpoint. Default
+	 * 0.25 seconds.
+	 */
+	public void setMaxFrameTime(float maxFrameTime) {
+		this.maxFrameTime = maxFrameTime;
+	}
+
+	public float getMaxFrameTime() {
+		return maxFrameTime;
+	}
+
+	/**
+	 * The time in seconds the steps of one update may take. Zero disables it.
+	 * Default 0.
+	 */
+	public void setStepBudget(float stepBudget) {
+		this.stepBudget = stepBudget;
+	}
+
+	public float getStepBudget() {
+		return stepBudget;
+	}
+
+	/**
+	 * The moving average of the measured step time in seconds.
+	 */
+	public float getAverageStepTime() {
+		return averageStepTime;
+	}
+
+	/**
+	 * The number of steps run by the last update.
+	 */
+	public int getLastSteps() {
+		return lastSteps;
+	}
+
+	/**
+	 * The number of steps dropped to stay within the step limit.
+	 */
+	public long getDroppedSteps() {
+		return droppedSteps;
+	}
+
+	public World getWorld() {
+		return world;
+	}
+
+}
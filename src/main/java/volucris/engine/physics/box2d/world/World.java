@@ -3,9 +3,15 @@ package volucris.engine.physics.box2d.world;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
 import java.lang.foreign.StructLayout;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.VarHandle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.joml.Vector2f;
 
@@ -28,6 +34,7 @@ import volucris.engine.physics.box2d.world.callbacks.RestitutionCallback;
 import volucris.engine.physics.box2d.world.functions.CastResultFunction;
 import volucris.engine.physics.box2d.world.functions.CustomFilterFunction;
 import volucris.engine.physics.box2d.world.functions.OverlapResultFunction;
+import volucris.engine.physics.box2d.world.functions.PlaneResultFunction;
 import volucris.engine.physics.box2d.world.functions.PreSolveFunction;
 
 import static java.lang.foreign.ValueLayout.*;
@@ -54,6 +61,7 @@ public final class World {
 	private static final MethodHandle B2_WORLD_CAST_RAY_CLOSEST;
 	private static final MethodHandle B2_WORLD_CAST_SHAPE;
 	private static final MethodHandle B2_WORLD_CAST_MOVER;
+	private static final MethodHandle B2_WORLD_COLLIDE_MOVER;
 	private static final MethodHandle B2_WORLD_ENABLE_SLEEPING;
 	private static final MethodHandle B2_WORLD_IS_SLEEPING_ENABLED;
 	private static final MethodHandle B2_WORLD_ENABLE_CONTINUOUS;
@@ -87,6 +95,17 @@ public final class World {
 	private SensorListener sensorListener;
 	private BodyEventListener bodyListener;
 
+	private MemorySegment preSolveContext;
+
+	private BodyTransformSnapshot transformSnapshot;
+	private EventCapture eventCapture;
+	private InputRecorder inputRecorder;
+	private ExecutorService physicsThread;
+	private Thread physicsWorker;
+
+	private long stepCount;
+	private float lastTimeStep;
+
 	private Vec2 vecTmp;
 	private Vec2 vecTmp2;
 
@@ -115,6 +134,7 @@ public final class World {
 		B2_WORLD_CAST_RAY_CLOSEST = downcallHandle("b2World_CastRayClosest", RayResult.LAYOUT(), WORLD_ID_LAYOUT, Vec2.LAYOUT(), Vec2.LAYOUT(), QueryFilter.LAYOUT());
 		B2_WORLD_CAST_SHAPE = downcallHandle("b2World_CastShape", TreeStats.LAYOUT(), WORLD_ID_LAYOUT, ADDRESS, Vec2.LAYOUT(), QueryFilter.LAYOUT(), ADDRESS, ADDRESS);
 		B2_WORLD_CAST_MOVER = downcallHandle("b2World_CastMover", JAVA_FLOAT, WORLD_ID_LAYOUT, ADDRESS, Vec2.LAYOUT(), QueryFilter.LAYOUT());
+		B2_WORLD_COLLIDE_MOVER = downcallHandleVoid("b2World_CollideMover", WORLD_ID_LAYOUT, ADDRESS, QueryFilter.LAYOUT(), ADDRESS, ADDRESS);
 		B2_WORLD_ENABLE_SLEEPING = downcallHandleVoid("b2World_EnableSleeping", WORLD_ID_LAYOUT, JAVA_BOOLEAN);
 		B2_WORLD_IS_SLEEPING_ENABLED = downcallHandle("b2World_IsSleepingEnabled", JAVA_BOOLEAN, WORLD_ID_LAYOUT);
 		B2_WORLD_ENABLE_CONTINUOUS = downcallHandleVoid("b2World_EnableContinuous", WORLD_ID_LAYOUT, JAVA_BOOLEAN);
@@ -200,6 +220,8 @@ public final class World {
 	 * Destroy a world.
 	 */
 	public void destroyWorld() {
+		shutdownPhysicsThread();
+
 		Box2D.removeWorld(getWorldId(b2WorldId));
 		try {
 			B2_DESTORY_WORLD.invokeExact(b2WorldId);
@@ -227,6 +249,9 @@ public final class World {
 	 * Implementation: Invokes the set listeners for events after the step.
 	 */
 	public void step(float timeStep, int subStepCount) {
+		if (inputRecorder != null)
+			inputRecorder.recordStep(timeStep, subStepCount);
+
 		try {
 			B2_WORLD_STEP.invokeExact(b2WorldId, timeStep, subStepCount);
 		} catch (Throwable e) {
@@ -234,18 +259,126 @@ public final class World {
 			throw new Box2DRuntimeException("Cannot do physics step: " + className);
 		}
 
+		stepCount++;
+		lastTimeStep = timeStep;
+
 		if (contactListener != null)
 			contactListener.handleContactEvents(this);
 		if (sensorListener != null)
 			sensorListener.handleSensorEvents(this);
 		if (bodyListener != null)
 			bodyListener.handleBodyEvents(this);
+
+		if (transformSnapshot != null)
+			transformSnapshot.update(this);
+		if (eventCapture != null)
+			eventCapture.capture(this);
+	}
+
+	/**
+	 * Simulate a world for one time step on the physics thread of this world. The
+	 * thread is started by the first call. Steps run in the order of the calls.
+	 * <p>
+	 * Listeners are invoked and the transform snapshot is published on the
+	 * physics thread. Do not access the world from other threads until the
+	 * returned future completes, except for reading the
+	 * {@link BodyTransformSnapshot}.
+	 * <p>
+	 * The world and everything the step touches, listeners and snapshots
+	 * included, must be allocated in an arena that other threads may access. With
+	 * a confined arena the step fails with a {@link WrongThreadException}, which
+	 * completes the future exceptionally.
+	 */
+	public CompletableFuture<Void> stepAsync(float timeStep, int subStepCount) {
+		if (physicsThread == null) {
+			physicsThread = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "Box2D Physics");
+				thread.setDaemon(true);
+				physicsWorker = thread;
+				return thread;
+			});
+		}
+
+		return CompletableFuture.runAsync(() -> step(timeStep, subStepCount), physicsThread);
+	}
+
+	/**
+	 * Stop the physics thread started by {@link #stepAsync(float, int)}. Waits for
+	 * the pending steps. Called by {@link #destroyWorld()}.
+	 * <p>
+	 * Called on the physics thread itself, for example from a listener, it does
+	 * not wait, as that would deadlock. Steps already queued still run, so do
+	 * not destroy the world from the physics thread while steps are pending.
+	 */
+	public void shutdownPhysicsThread() {
+		if (physicsThread == null)
+			return;
+
+		if (Thread.currentThread() == physicsWorker)
+			physicsThread.shutdown();
+		else
+			physicsThread.close();
+
+		physicsThread = null;
+		physicsWorker = null;
+	}
+
+	/**
+	 * Publish the body transforms to the snapshot after every step. Null
+	 * disables it.
+	 */
+	public void setTransformSnapshot(BodyTransformSnapshot transformSnapshot) {
+		this.transformSnapshot = transformSnapshot;
+	}
+
+	public BodyTransformSnapshot getTransformSnapshot() {
+		return transformSnapshot;
+	}
+
+	/**
+	 * Copy the events of every step into the capture, so they can be consumed on
+	 * another thread while the next step runs. Null disables it.
+	 */
+	public void setEventCapture(EventCapture eventCapture) {
+		this.eventCapture = eventCapture;
+	}
+
+	public EventCapture getEventCapture() {
+		return eventCapture;
+	}
+
+	/**
+	 * Record the parameters of every step into the log. Set by the
+	 * {@link InputRecorder} itself. Null disables it.
+	 */
+	public void setInputRecorder(InputRecorder inputRecorder) {
+		this.inputRecorder = inputRecorder;
+	}
+
+	public InputRecorder getInputRecorder() {
+		return inputRecorder;
+	}
+
+	/**
+	 * The number of completed calls to {@link #step(float, int)}.
+	 */
+	public long getStepCount() {
+		return stepCount;
+	}
+
+	/**
+	 * The time step of the last call to {@link #step(float, int)}, or 0.
+	 */
+	public float getLastTimeStep() {
+		return lastTimeStep;
 	}
 
 	/**
 	 * Call this to draw shapes and other debug draw data.
 	 */
 	public void draw(DebugDraw debugDraw) {
+		debugDraw.beginFrame();
+
 		try {
 			B2_WORLD_DRAW.invokeExact(b2WorldId, debugDraw.memorySegment());
 		} catch (Throwable e) {
@@ -301,16 +434,13 @@ public final class World {
 	 */
 	public TreeStats overlapAABB(TreeStats target, AABB aabb, QueryFilter queryFilter, OverlapResultFunction fcn,
 			MemorySegment context) {
-		try (Arena arena = Arena.ofConfined()) {
-
+		try {
 			MemorySegment aabbAddr = aabb.memorySegment();
 			MemorySegment filterAddr = queryFilter.memorySegment();
 			MemorySegment fcnAddr = fcn.memorySegment();
-			MethodHandle method = B2_WORLD_OVERLAP_AABB;
-			MemorySegment segment = (MemorySegment) method.invoke(arena, b2WorldId, aabbAddr, filterAddr, fcnAddr,
-					context);
+			SegmentAllocator allocator = SegmentAllocator.prefixAllocator(target.memorySegment());
+			B2_WORLD_OVERLAP_AABB.invoke(allocator, b2WorldId, aabbAddr, filterAddr, fcnAddr, context);
 
-			target.set(segment);
 			return target;
 		} catch (Throwable e) {
 			String className = e.getClass().getSimpleName();
@@ -325,21 +455,51 @@ public final class World {
 		return overlapAABB(new TreeStats(), aabb, queryFilter, fcn, context);
 	}
 
+	/**
+	 * Overlap test for all shapes that potentially overlap the provided AABB. The
+	 * handler runs on the shared overlap result upcall stub.
+	 */
+	public TreeStats overlapAABB(TreeStats target, AABB aabb, QueryFilter queryFilter,
+			OverlapResultFunction.Handler handler) {
+		MemorySegment context = OverlapResultFunction.register(handler);
+		try {
+			return overlapAABB(target, aabb, queryFilter, OverlapResultFunction.shared(), context);
+		} finally {
+			OverlapResultFunction.release(context);
+		}
+	}
+
+	/**
+	 * Overlap test for all shapes that potentially overlap the provided AABB. The
+	 * handler runs on the shared overlap result upcall stub.
+	 */
+	public TreeStats overlapAABB(AABB aabb, QueryFilter queryFilter, OverlapResultFunction.Handler handler) {
+		return overlapAABB(new TreeStats(), aabb, queryFilter, handler);
+	}
+
+	/**
+	 * Collect all shapes that potentially overlap the provided AABB.
+	 * 
+	 * @return the number of collected shapes
+	 */
+	public int overlapAABB(OverlapCollector collector, AABB aabb, QueryFilter queryFilter) {
+		collector.begin();
+		overlapAABB(collector.getTreeStats(), aabb, queryFilter, collector, MemorySegment.NULL);
+		return collector.getCount();
+	}
+
 	/**
 	 * Overlap test for all shapes that overlap the provided shape proxy.
 	 */
 	public TreeStats overlapShape(TreeStats target, ShapeProxy proxy, QueryFilter queryFilter,
 			OverlapResultFunction fcn, MemorySegment context) {
-		try (Arena arena = Arena.ofConfined()) {
-
+		try {
 			MemorySegment proxyAddr = proxy.memorySegment();
 			MemorySegment filterAddr = queryFilter.memorySegment();
 			MemorySegment fcnAddr = fcn.memorySegment();
-			MethodHandle method = B2_WORLD_OVERLAP_SHAPE;
-			MemorySegment segment = (MemorySegment) method.invoke(arena, b2WorldId, proxyAddr, filterAddr, fcnAddr,
-					context);
+			SegmentAllocator allocator = SegmentAllocator.prefixAllocator(target.memorySegment());
+			B2_WORLD_OVERLAP_SHAPE.invoke(allocator, b2WorldId, proxyAddr, filterAddr, fcnAddr, context);
 
-			target.set(segment);
 			return target;
 		} catch (Throwable e) {
 			String className = e.getClass().getSimpleName();
@@ -355,13 +515,45 @@ public final class World {
 		return overlapShape(new TreeStats(), proxy, queryFilter, fcn, context);
 	}
 
+	/**
+	 * Overlap test for all shapes that overlap the provided shape proxy. The
+	 * handler runs on the shared overlap result upcall stub.
+	 */
+	public TreeStats overlapShape(TreeStats target, ShapeProxy proxy, QueryFilter queryFilter,
+			OverlapResultFunction.Handler handler) {
+		MemorySegment context = OverlapResultFunction.register(handler);
+		try {
+			return overlapShape(target, proxy, queryFilter, OverlapResultFunction.shared(), context);
+		} finally {
+			OverlapResultFunction.release(context);
+		}
+	}
+
+	/**
+	 * Overlap test for all shapes that overlap the provided shape proxy. The
+	 * handler runs on the shared overlap result upcall stub.
+	 */
+	public TreeStats overlapShape(ShapeProxy proxy, QueryFilter queryFilter, OverlapResultFunction.Handler handler) {
+		return overlapShape(new TreeStats(), proxy, queryFilter, handler);
+	}
+
+	/**
+	 * Collect all shapes that overlap the provided shape proxy.
+	 * 
+	 * @return the number of collected shapes
+	 */
+	public int overlapShape(OverlapCollector collector, ShapeProxy proxy, QueryFilter queryFilter) {
+		collector.begin();
+		overlapShape(collector.getTreeStats(), proxy, queryFilter, collector, MemorySegment.NULL);
+		return collector.getCount();
+	}
+
 	/**
 	 * Cast a ray into the world to collect shapes in the path of the ray.
 	 */
 	public TreeStats castRay(TreeStats target, Vector2f origin, Vector2f translation, QueryFilter queryFilter,
 			CastResultFunction fcn, MemorySegment context) {
-		try (Arena arena = Arena.ofConfined()) {
-
+		try {
 			vecTmp.set(origin);
 			vecTmp2.set(translation);
 
@@ -369,11 +561,9 @@ public final class World {
 			MemorySegment translationAddr = vecTmp2.memorySegment();
 			MemorySegment filterAddr = queryFilter.memorySegment();
 			MemorySegment fcnAddr = fcn.memorySegment();
-			MethodHandle method = B2_WORLD_CAST_RAY;
-			MemorySegment segment = (MemorySegment) method.invoke(arena, b2WorldId, originAddr, translationAddr,
-					filterAddr, fcnAddr, context);
+			SegmentAllocator allocator = SegmentAllocator.prefixAllocator(target.memorySegment());
+			B2_WORLD_CAST_RAY.invoke(allocator, b2WorldId, originAddr, translationAddr, filterAddr, fcnAddr, context);
 
-			target.set(segment);
 			return target;
 		} catch (Throwable e) {
 			String className = e.getClass().getSimpleName();
@@ -389,6 +579,41 @@ public final class World {
 		return castRay(new TreeStats(), origin, translation, queryFilter, fcn, context);
 	}
 
+	/**
+	 * Cast a ray into the world to collect shapes in the path of the ray. The
+	 * handler runs on the shared cast result upcall stub.
+	 */
+	public TreeStats castRay(TreeStats target, Vector2f origin, Vector2f translation, QueryFilter queryFilter,
+			CastResultFunction.Handler handler) {
+		MemorySegment context = CastResultFunction.register(handler);
+		try {
+			return castRay(target, origin, translation, queryFilter, CastResultFunction.shared(), context);
+		} finally {
+			CastResultFunction.release(context);
+		}
+	}
+
+	/**
+	 * Cast a ray into the world to collect shapes in the path of the ray. The
+	 * handler runs on the shared cast result upcall stub.
+	 */
+	public TreeStats castRay(Vector2f origin, Vector2f translation, QueryFilter queryFilter,
+			CastResultFunction.Handler handler) {
+		return castRay(new TreeStats(), origin, translation, queryFilter, handler);
+	}
+
+	/**
+	 * Cast a ray into the world and collect the shapes in the path of the ray.
+	 * 
+	 * @return the number of collected hits
+	 */
+	public int castRay(CastCollector collector, Vector2f origin, Vector2f translation, QueryFilter queryFilter) {
+		collector.begin();
+		castRay(collector.getTreeStats(), origin, translation, queryFilter, collector, MemorySegment.NULL);
+		collector.end();
+		return collector.getCount();
+	}
+
 	/**
 	 * Cast a ray into the world to collect the closest hit.
 	 */
@@ -419,23 +644,68 @@ public final class World {
 		return castRayClosest(new RayResult(), origin, translation, queryFilter);
 	}
 
+	/**
+	 * Cast {@code count} rays into the world and collect the closest hit of each.
+	 * <p>
+	 * Origins and translations are x, y pairs. A translation array of length 2 is
+	 * used for every ray. The rays are split across the given pool; every worker
+	 * uses its own scratch memory, so no world state is shared. The query filter
+	 * must be accessible from all threads. Do not call while the world is
+	 * stepping.
+	 */
+	public RayCastBatchResult castRayClosestBatch(RayCastBatchResult target, float[] origins, float[] translations,
+			int count, QueryFilter queryFilter, ForkJoinPool pool) {
+		if (count < 0)
+			throw new IllegalArgumentException("Negative ray count: " + count);
+
+		checkBounds(origins.length, 0L, 2L * count, "Origin");
+		checkBounds(translations, 2, count, "Translation");
+
+		target.reset(count);
+
+		RayCastTask task = new RayCastTask(target, origins, translations, queryFilter.memorySegment(), 0, count);
+
+		if (count <= RayCastTask.THRESHOLD)
+			task.compute();
+		else
+			pool.invoke(task);
+
+		return target;
+	}
+
+	/**
+	 * Cast {@code count} rays into the world on the common pool and collect the
+	 * closest hit of each.
+	 */
+	public RayCastBatchResult castRayClosestBatch(RayCastBatchResult target, float[] origins, float[] translations,
+			int count, QueryFilter queryFilter) {
+		return castRayClosestBatch(target, origins, translations, count, queryFilter, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Cast {@code count} rays into the world on the common pool and collect the
+	 * closest hit of each.
+	 */
+	public RayCastBatchResult castRayClosestBatch(float[] origins, float[] translations, int count,
+			QueryFilter queryFilter) {
+		return castRayClosestBatch(new RayCastBatchResult(count), origins, translations, count, queryFilter);
+	}
+
 	/**
 	 * Cast a shape through the world.
 	 */
 	public TreeStats castShape(TreeStats target, ShapeProxy proxy, Vector2f translation, QueryFilter filter,
 			CastResultFunction fcn, MemorySegment context) {
-		try (Arena arena = Arena.ofConfined()) {
+		try {
 			vecTmp.set(translation);
 
 			MemorySegment proxyAddr = proxy.memorySegment();
 			MemorySegment translationAddr = vecTmp.memorySegment();
 			MemorySegment filterAddr = filter.memorySegment();
 			MemorySegment fcnAddr = fcn.memorySegment();
-			MethodHandle method = B2_WORLD_CAST_SHAPE;
-			MemorySegment segment = (MemorySegment) method.invoke(arena, b2WorldId, proxyAddr, translationAddr,
-					filterAddr, fcnAddr, context);
+			SegmentAllocator allocator = SegmentAllocator.prefixAllocator(target.memorySegment());
+			B2_WORLD_CAST_SHAPE.invoke(allocator, b2WorldId, proxyAddr, translationAddr, filterAddr, fcnAddr, context);
 
-			target.set(segment);
 			return target;
 		} catch (Throwable e) {
 			String className = e.getClass().getSimpleName();
@@ -451,6 +721,61 @@ public final class World {
 		return castShape(new TreeStats(), proxy, translation, filter, fcn, context);
 	}
 
+	/**
+	 * Cast a shape through the world. The handler runs on the shared cast result
+	 * upcall stub.
+	 */
+	public TreeStats castShape(TreeStats target, ShapeProxy proxy, Vector2f translation, QueryFilter filter,
+			CastResultFunction.Handler handler) {
+		MemorySegment context = CastResultFunction.register(handler);
+		try {
+			return castShape(target, proxy, translation, filter, CastResultFunction.shared(), context);
+		} finally {
+			CastResultFunction.release(context);
+		}
+	}
+
+	/**
+	 * Cast a shape through the world. The handler runs on the shared cast result
+	 * upcall stub.
+	 */
+	public TreeStats castShape(ShapeProxy proxy, Vector2f translation, QueryFilter filter,
+			CastResultFunction.Handler handler) {
+		return castShape(new TreeStats(), proxy, translation, filter, handler);
+	}
+
+	/**
+	 * Cast a shape through the world and collect the shapes in its path.
+	 * 
+	 * @return the number of collected hits
+	 */
+	public int castShape(CastCollector collector, ShapeProxy proxy, Vector2f translation, QueryFilter filter) {
+		collector.begin();
+		castShape(collector.getTreeStats(), proxy, translation, filter, collector, MemorySegment.NULL);
+		collector.end();
+		return collector.getCount();
+	}
+
+	/**
+	 * Cast a capsule mover through the world.
+	 * <p>
+	 * Unlike {@link #castMover(Capsule, Vector2f, QueryFilter)} this uses no
+	 * scratch memory of the world, so it may be called from several threads at
+	 * once while the world is not stepping.
+	 */
+	public float castMover(Capsule mover, Vec2 translation, QueryFilter filter) {
+		try {
+			MemorySegment moverAddr = mover.memorySegment();
+			MemorySegment translationAddr = translation.memorySegment();
+			MemorySegment filterAddr = filter.memorySegment();
+
+			return (float) B2_WORLD_CAST_MOVER.invokeExact(b2WorldId, moverAddr, translationAddr, filterAddr);
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot cast mover: " + className);
+		}
+	}
+
 	/**
 	 * Cast a capsule mover through the world.
 	 */
@@ -469,6 +794,24 @@ public final class World {
 		}
 	}
 
+	/**
+	 * Collide a capsule mover with the world, gathering collision planes that can
+	 * be fed to {@link volucris.engine.physics.box2d.collision.Mover#solvePlanes}.
+	 * Useful for kinematic character movement.
+	 */
+	public void collideMover(Capsule mover, QueryFilter filter, PlaneResultFunction fcn, MemorySegment context) {
+		try {
+			MemorySegment moverAddr = mover.memorySegment();
+			MemorySegment filterAddr = filter.memorySegment();
+			MemorySegment fcnAddr = fcn.memorySegment();
+
+			B2_WORLD_COLLIDE_MOVER.invokeExact(b2WorldId, moverAddr, filterAddr, fcnAddr, context);
+		} catch (Throwable e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot collide mover: " + className);
+		}
+	}
+
 	/**
 	 * Enable/disable sleep.
 	 */
@@ -587,6 +930,22 @@ public final class World {
 			String className = e.getClass().getSimpleName();
 			throw new Box2DRuntimeException("Cannot set pre solve callback: " + className);
 		}
+
+		if (preSolveContext != null) {
+			PreSolveFunction.release(preSolveContext);
+			preSolveContext = null;
+		}
+	}
+
+	/**
+	 * Register the pre-solve callback. This is optional. The handler runs on the
+	 * shared pre-solve upcall stub and stays registered until the callback is
+	 * replaced.
+	 */
+	public void setPreSolveCallback(PreSolveFunction.Handler handler) {
+		MemorySegment context = PreSolveFunction.register(handler);
+		setPreSolveCallback(PreSolveFunction.shared(), context);
+		preSolveContext = context;
 	}
 
 	/**
@@ -903,4 +1262,73 @@ public final class World {
 	public static record WorldId(int index1, short generation) {
 	};
 
+	private final class RayCastTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private static final int THRESHOLD = 256;
+
+		private final RayCastBatchResult target;
+		private final float[] origins;
+		private final float[] translations;
+		private final MemorySegment filterAddr;
+		private final int first;
+		private final int last;
+
+		private RayCastTask(RayCastBatchResult target, float[] origins, float[] translations,
+				MemorySegment filterAddr, int first, int last) {
+			this.target = target;
+			this.origins = origins;
+			this.translations = translations;
+			this.filterAddr = filterAddr;
+			this.first = first;
+			this.last = last;
+		}
+
+		@Override
+		protected void compute() {
+			if (last - first > THRESHOLD) {
+				int middle = (first + last) >>> 1;
+				invokeAll(new RayCastTask(target, origins, translations, filterAddr, first, middle),
+						new RayCastTask(target, origins, translations, filterAddr, middle, last));
+				return;
+			}
+
+			boolean sharedTranslation = translations.length == 2;
+
+			try (Arena arena = Arena.ofConfined()) {
+				MemorySegment originAddr = arena.allocate(Vec2.LAYOUT());
+				MemorySegment translationAddr = arena.allocate(Vec2.LAYOUT());
+				MemorySegment result = arena.allocate(RayResult.LAYOUT());
+				SegmentAllocator allocator = SegmentAllocator.prefixAllocator(result);
+
+				if (sharedTranslation)
+					MemorySegment.copy(translations, 0, translationAddr, JAVA_FLOAT, 0L, 2);
+
+				int hits = 0;
+				for (int i = first; i < last; i++) {
+					int offset = 2 * i;
+					int translationOffset = sharedTranslation ? 0 : offset;
+
+					MemorySegment.copy(origins, offset, originAddr, JAVA_FLOAT, 0L, 2);
+					if (!sharedTranslation)
+						MemorySegment.copy(translations, offset, translationAddr, JAVA_FLOAT, 0L, 2);
+
+					B2_WORLD_CAST_RAY_CLOSEST.invoke(allocator, b2WorldId, originAddr, translationAddr, filterAddr);
+
+					float endX = origins[offset] + translations[translationOffset];
+					float endY = origins[offset + 1] + translations[translationOffset + 1];
+					if (target.store(i, result, endX, endY))
+						hits++;
+				}
+
+				target.addHits(hits);
+			} catch (Throwable e) {
+				String className = e.getClass().getSimpleName();
+				throw new Box2DRuntimeException("Cannot cast ray batch: " + className);
+			}
+		}
+
+	}
+
 }
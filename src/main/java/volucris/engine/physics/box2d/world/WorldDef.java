@@ -138,6 +138,10 @@ public final class WorldDef {
 		CONTACT_HERTZ.set(b2WorldDef, contactHertz);
 	}
 
+	public float getContactHertz() {
+		return (float) CONTACT_HERTZ.get(b2WorldDef);
+	}
+
 	/**
 	 * Contact bounciness.
 	 * <p>
@@ -148,6 +152,10 @@ public final class WorldDef {
 		CONTACT_DAMPING_RATIO.set(b2WorldDef, contactDampingRatio);
 	}
 
+	public float getContactDampingRatio() {
+		return (float) CONTACT_DAMPING_RATIO.get(b2WorldDef);
+	}
+
 	/**
 	 * This parameter controls how fast overlap is resolved and usually has units of
 	 * meters per second.
@@ -159,6 +167,10 @@ public final class WorldDef {
 		MAX_CONTACT_PUSH_SPEED.set(b2WorldDef, maxContactPushSpeed);
 	}
 
+	public float getMaxContactPushSpeed() {
+		return (float) MAX_CONTACT_PUSH_SPEED.get(b2WorldDef);
+	}
+
 	/**
 	 * Maximum linear speed. Usually meters per second.
 	 */
@@ -189,6 +201,10 @@ public final class WorldDef {
 		ENABLE_SLEEP.set(b2WorldDef, enableSleep);
 	}
 
+	public boolean isSleepEnabled() {
+		return (boolean) ENABLE_SLEEP.get(b2WorldDef);
+	}
+
 	/**
 	 * Enable continuous collision.
 	 */
@@ -196,6 +212,10 @@ public final class WorldDef {
 		ENABLE_CONTINUOUS.set(b2WorldDef, enableContinuous);
 	}
 
+	public boolean isContinuousEnabled() {
+		return (boolean) ENABLE_CONTINUOUS.get(b2WorldDef);
+	}
+
 	/**
 	 * Number of workers to use with the provided task system.
 	 * <p>
@@ -0,0 +1,1222 @@
+package volucris.engine.physics.box2d.world;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.joml.Vector2f;
+
+import volucris.engine.physics.box2d.body.Body;
+import volucris.engine.physics.box2d.body.BodyDef;
+import volucris.engine.physics.box2d.body.BodyType;
+import volucris.engine.physics.box2d.geometry.Capsule;
+import volucris.engine.physics.box2d.geometry.ChainSegment;
+import volucris.engine.physics.box2d.geometry.Circle;
+import volucris.engine.physics.box2d.geometry.MassData;
+import volucris.engine.physics.box2d.geometry.Polygon;
+import volucris.engine.physics.box2d.geometry.Segment;
+import volucris.engine.physics.box2d.joint.DistanceJoint;
+import volucris.engine.physics.box2d.joint.DistanceJointDef;
+import volucris.engine.physics.box2d.joint.FilterJoint;
+import volucris.engine.physics.box2d.joint.FilterJointDef;
+import volucris.engine.physics.box2d.joint.Joint;
+import volucris.engine.physics.box2d.joint.JointType;
+import volucris.engine.physics.box2d.joint.MotorJoint;
+import volucris.engine.physics.box2d.joint.MotorJointDef;
+import volucris.engine.physics.box2d.joint.MouseJoint;
+import volucris.engine.physics.box2d.joint.MouseJointDef;
+import volucris.engine.physics.box2d.joint.PrismaticJoint;
+import volucris.engine.physics.box2d.joint.PrismaticJointDef;
+import volucris.engine.physics.box2d.joint.RevoluteJoint;
+import volucris.engine.physics.box2d.joint.RevoluteJointDef;
+import volucris.engine.physics.box2d.joint.WeldJoint;
+import volucris.engine.physics.box2d.joint.WeldJointDef;
+import volucris.engine.physics.box2d.joint.WheelJoint;
+import volucris.engine.physics.box2d.joint.WheelJointDef;
+import volucris.engine.physics.box2d.math.Transform;
+import volucris.engine.physics.box2d.math.Vec2;
+import volucris.engine.physics.box2d.shape.Chain;
+import volucris.engine.physics.box2d.shape.Chain.ChainId;
+import volucris.engine.physics.box2d.shape.ChainDef;
+import volucris.engine.physics.box2d.shape.Filter;
+import volucris.engine.physics.box2d.shape.Shape;
+import volucris.engine.physics.box2d.shape.ShapeDef;
+import volucris.engine.physics.box2d.shape.ShapeType;
+import volucris.engine.physics.box2d.shape.SurfaceMaterial;
+import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
+import volucris.engine.physics.box2d.utils.SlotMap;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Writes bodies, shapes, chains and joints of a world into a versioned binary
+ * file through a memory-mapped {@link FileChannel}, and recreates them.
+ * <p>
+ * Box2D cannot enumerate the bodies of a world, so the bodies and joints to
+ * write are passed in. Shapes and chains are collected from the bodies. The
+ * file starts with a header, followed by fixed-size body records, shape records
+ * with their geometry, chain records with their points and materials and joint
+ * records. All values are in native byte order, a magic number detects foreign
+ * files.
+ * <p>
+ * A snapshot holds body names, types, transforms, velocities, damping, gravity
+ * scale, sleep state and flags, mass data, surface materials (per segment for
+ * chains), filters, event flags and the joint parameters exposed by Box2D,
+ * including the local axis and the reference angle. Not restored are user
+ * data, the spring targets of prismatic and revolute joints and all solver
+ * state such as warm starting impulses.
+ * <p>
+ * Joints are checked before the file is written, and a file is checked against
+ * its size before anything is created. Shapes are created without updating the
+ * body mass, which is set once per body from the stored mass data. Reading
+ * reuses its definitions, and with {@link #setReuseBodies(boolean)} also the
+ * body objects of the previous read.
+ */
+public final class WorldSnapshot {
+
+	/**
+	 * The magic number 'B2WS'.
+	 */
+	public static final int MAGIC = 0x42325753;
+	public static final int VERSION = 2;
+
+	private static final StructLayout HEADER_LAYOUT;
+	private static final StructLayout BODY_LAYOUT;
+	private static final StructLayout SHAPE_LAYOUT;
+	private static final StructLayout CHAIN_LAYOUT;
+	private static final StructLayout JOINT_LAYOUT;
+
+	private static final long HEADER_MAGIC_OFFSET;
+	private static final long HEADER_VERSION_OFFSET;
+	private static final long HEADER_BODY_COUNT_OFFSET;
+	private static final long HEADER_SHAPE_COUNT_OFFSET;
+	private static final long HEADER_CHAIN_COUNT_OFFSET;
+	private static final long HEADER_JOINT_COUNT_OFFSET;
+	private static final long HEADER_GRAVITY_OFFSET;
+
+	private static final long BODY_TYPE_OFFSET;
+	private static final long BODY_FLAGS_OFFSET;
+	private static final long BODY_TRANSFORM_OFFSET;
+	private static final long BODY_LINEAR_VELOCITY_OFFSET;
+	private static final long BODY_ANGULAR_VELOCITY_OFFSET;
+	private static final long BODY_LINEAR_DAMPING_OFFSET;
+	private static final long BODY_ANGULAR_DAMPING_OFFSET;
+	private static final long BODY_GRAVITY_SCALE_OFFSET;
+	private static final long BODY_SLEEP_THRESHOLD_OFFSET;
+	private static final long BODY_MASS_DATA_OFFSET;
+	private static final long BODY_NAME_OFFSET;
+
+	private static final long SHAPE_BODY_OFFSET;
+	private static final long SHAPE_TYPE_OFFSET;
+	private static final long SHAPE_FLAGS_OFFSET;
+	private static final long SHAPE_DENSITY_OFFSET;
+	private static final long SHAPE_MATERIAL_OFFSET;
+	private static final long SHAPE_FILTER_OFFSET;
+
+	private static final long CHAIN_BODY_OFFSET;
+	private static final long CHAIN_FLAGS_OFFSET;
+	private static final long CHAIN_POINT_COUNT_OFFSET;
+	private static final long CHAIN_FILTER_OFFSET;
+
+	private static final long JOINT_TYPE_OFFSET;
+	private static final long JOINT_BODY_A_OFFSET;
+	private static final long JOINT_BODY_B_OFFSET;
+	private static final long JOINT_FLAGS_OFFSET;
+	private static final long JOINT_LOCAL_ANCHOR_A_OFFSET;
+	private static final long JOINT_LOCAL_ANCHOR_B_OFFSET;
+	private static final long JOINT_PARAMS_OFFSET;
+
+	private static final long BODY_DEF_ROTATION_OFFSET;
+
+	private static final int PARAM_COUNT = 10;
+	private static final int NAME_LENGTH = 32;
+
+	private static final BodyType[] BODY_TYPES = BodyType.values();
+	private static final ShapeType[] SHAPE_TYPES = ShapeType.values();
+	private static final JointType[] JOINT_TYPES = JointType.values();
+
+	private static final int AWAKE = 1;
+	private static final int SLEEP_ENABLED = 2;
+	private static final int ENABLED = 4;
+	private static final int FIXED_ROTATION = 8;
+	private static final int BULLET = 16;
+
+	private static final int SENSOR = 1;
+	private static final int SENSOR_EVENTS = 2;
+	private static final int CONTACT_EVENTS = 4;
+	private static final int HIT_EVENTS = 8;
+	private static final int PRE_SOLVE_EVENTS = 16;
+
+	private static final int LOOP = 1;
+
+	private static final int COLLIDE_CONNECTED = 1;
+	private static final int SPRING = 2;
+	private static final int LIMIT = 4;
+	private static final int MOTOR = 8;
+
+	private final Transform transform;
+	private final MassData massData;
+	private final SurfaceMaterial surfaceMaterial;
+	private final Filter filter;
+	private final Vector2f vector;
+
+	private final Circle circle;
+	private final Capsule capsule;
+	private final Segment segment;
+	private final Polygon polygon;
+	private final ChainSegment chainSegment;
+
+	private final BodyDef bodyDef;
+	private final ShapeDef shapeDef;
+	private final ChainDef chainDef;
+	private final MemorySegment name;
+
+	private final DistanceJointDef distanceJointDef;
+	private final FilterJointDef filterJointDef;
+	private final MotorJointDef motorJointDef;
+	private final MouseJointDef mouseJointDef;
+	private final PrismaticJointDef prismaticJointDef;
+	private final RevoluteJointDef revoluteJointDef;
+	private final WeldJointDef weldJointDef;
+	private final WheelJointDef wheelJointDef;
+
+	private final SlotMap bodySlots;
+	private final ArrayList<Chain> chains;
+	private final HashSet<ChainId> chainIds;
+	private final float[] params;
+
+	private Shape[] bodyShapes;
+	private Shape[] segments;
+	private Shape[] shapes;
+	private int[] shapeBodies;
+	private int[] chainBodies;
+	private int[] chainPointCounts;
+	private int[] jointBodies;
+
+	private Body[] bodies;
+	private Joint[] joints;
+	private int bodyCount;
+	private int jointCount;
+
+	private boolean reuseBodies;
+
+	static {
+		//@formatter:off
+		HEADER_LAYOUT = MemoryLayout.structLayout(
+				JAVA_INT.withName("magic"),
+				JAVA_INT.withName("version"),
+				JAVA_INT.withName("bodyCount"),
+				JAVA_INT.withName("shapeCount"),
+				JAVA_INT.withName("chainCount"),
+				JAVA_INT.withName("jointCount"),
+				Vec2.LAYOUT().withName("gravity")
+			).withName("worldSnapshotHeader");
+
+		BODY_LAYOUT = MemoryLayout.structLayout(
+				JAVA_INT.withName("type"),
+				JAVA_INT.withName("flags"),
+				Transform.LAYOUT().withName("transform"),
+				Vec2.LAYOUT().withName("linearVelocity"),
+				JAVA_FLOAT.withName("angularVelocity"),
+				JAVA_FLOAT.withName("linearDamping"),
+				JAVA_FLOAT.withName("angularDamping"),
+				JAVA_FLOAT.withName("gravityScale"),
+				JAVA_FLOAT.withName("sleepThreshold"),
+				MassData.LAYOUT().withName("massData"),
+				MemoryLayout.paddingLayout(4),
+				MemoryLayout.sequenceLayout(NAME_LENGTH, JAVA_BYTE).withName("name")
+			).withName("worldSnapshotBody");
+
+		SHAPE_LAYOUT = MemoryLayout.structLayout(
+				JAVA_INT.withName("body"),
+				JAVA_INT.withName("type"),
+				JAVA_INT.withName("flags"),
+				JAVA_FLOAT.withName("density"),
+				SurfaceMaterial.LAYOUT().withName("material"),
+				Filter.LAYOUT().withName("filter")
+			).withName("worldSnapshotShape");
+
+		CHAIN_LAYOUT = MemoryLayout.structLayout(
+				JAVA_INT.withName("body"),
+				JAVA_INT.withName("flags"),
+				JAVA_INT.withName("pointCount"),
+				MemoryLayout.paddingLayout(4),
+				Filter.LAYOUT().withName("filter")
+			).withName("worldSnapshotChain");
+
+		JOINT_LAYOUT = MemoryLayout.structLayout(
+				JAVA_INT.withName("type"),
+				JAVA_INT.withName("bodyA"),
+				JAVA_INT.withName("bodyB"),
+				JAVA_INT.withName("flags"),
+				Vec2.LAYOUT().withName("localAnchorA"),
+				Vec2.LAYOUT().withName("localAnchorB"),
+				MemoryLayout.sequenceLayout(PARAM_COUNT, JAVA_FLOAT).withName("params")
+			).withName("worldSnapshotJoint");
+		//@formatter:on
+
+		HEADER_MAGIC_OFFSET = HEADER_LAYOUT.byteOffset(PathElement.groupElement("magic"));
+		HEADER_VERSION_OFFSET = HEADER_LAYOUT.byteOffset(PathElement.groupElement("version"));
+		HEADER_BODY_COUNT_OFFSET = HEADER_LAYOUT.byteOffset(PathElement.groupElement("bodyCount"));
+		HEADER_SHAPE_COUNT_OFFSET = HEADER_LAYOUT.byteOffset(PathElement.groupElement("shapeCount"));
+		HEADER_CHAIN_COUNT_OFFSET = HEADER_LAYOUT.byteOffset(PathElement.groupElement("chainCount"));
+		HEADER_JOINT_COUNT_OFFSET = HEADER_LAYOUT.byteOffset(PathElement.groupElement("jointCount"));
+		HEADER_GRAVITY_OFFSET = HEADER_LAYOUT.byteOffset(PathElement.groupElement("gravity"));
+
+		BODY_TYPE_OFFSET = BODY_LAYOUT.byteOffset(PathElement.groupElement("type"));
+		BODY_FLAGS_OFFSET = BODY_LAYOUT.byteOffset(PathElement.groupElement("flags"));
+		BODY_TRANSFORM_OFFSET = BODY_LAYOUT.byteOffset(PathElement.groupElement("transform"));
+		BODY_LINEAR_VELOCITY_OFFSET = BODY_LAYOUT.byteOffset(PathElement.groupElement("linearVelocity"));
+		BODY_ANGULAR_VELOCITY_OFFSET = BODY_LAYOUT.byteOffset(PathElement.groupElement("angularVelocity"));
+		BODY_LINEAR_DAMPING_OFFSET = BODY_LAYOUT.byteOffset(PathElement.groupElement("linearDamping"));
+		BODY_ANGULAR_DAMPING_OFFSET = BODY_LAYOUT.byteOffset(PathElement.groupElement("angularDamping"));
+		BODY_GRAVITY_SCALE_OFFSET = BODY_LAYOUT.byteOffset(PathElement.groupElement("gravityScale"));
+		BODY_SLEEP_THRESHOLD_OFFSET = BODY_LAYOUT.byteOffset(PathElement.groupElement("sleepThreshold"));
+		BODY_MASS_DATA_OFFSET = BODY_LAYOUT.byteOffset(PathElement.groupElement("massData"));
+		BODY_NAME_OFFSET = BODY_LAYOUT.byteOffset(PathElement.groupElement("name"));
+
+		SHAPE_BODY_OFFSET = SHAPE_LAYOUT.byteOffset(PathElement.groupElement("body"));
+		SHAPE_TYPE_OFFSET = SHAPE_LAYOUT.byteOffset(PathElement.groupElement("type"));
+		SHAPE_FLAGS_OFFSET = SHAPE_LAYOUT.byteOffset(PathElement.groupElement("flags"));
+		SHAPE_DENSITY_OFFSET = SHAPE_LAYOUT.byteOffset(PathElement.groupElement("density"));
+		SHAPE_MATERIAL_OFFSET = SHAPE_LAYOUT.byteOffset(PathElement.groupElement("material"));
+		SHAPE_FILTER_OFFSET = SHAPE_LAYOUT.byteOffset(PathElement.groupElement("filter"));
+
+		CHAIN_BODY_OFFSET = CHAIN_LAYOUT.byteOffset(PathElement.groupElement("body"));
+		CHAIN_FLAGS_OFFSET = CHAIN_LAYOUT.byteOffset(PathElement.groupElement("flags"));
+		CHAIN_POINT_COUNT_OFFSET = CHAIN_LAYOUT.byteOffset(PathElement.groupElement("pointCount"));
+		CHAIN_FILTER_OFFSET = CHAIN_LAYOUT.byteOffset(PathElement.groupElement("filter"));
+
+		JOINT_TYPE_OFFSET = JOINT_LAYOUT.byteOffset(PathElement.groupElement("type"));
+		JOINT_BODY_A_OFFSET = JOINT_LAYOUT.byteOffset(PathElement.groupElement("bodyA"));
+		JOINT_BODY_B_OFFSET = JOINT_LAYOUT.byteOffset(PathElement.groupElement("bodyB"));
+		JOINT_FLAGS_OFFSET = JOINT_LAYOUT.byteOffset(PathElement.groupElement("flags"));
+		JOINT_LOCAL_ANCHOR_A_OFFSET = JOINT_LAYOUT.byteOffset(PathElement.groupElement("localAnchorA"));
+		JOINT_LOCAL_ANCHOR_B_OFFSET = JOINT_LAYOUT.byteOffset(PathElement.groupElement("localAnchorB"));
+		JOINT_PARAMS_OFFSET = JOINT_LAYOUT.byteOffset(PathElement.groupElement("params"));
+
+		BODY_DEF_ROTATION_OFFSET = BodyDef.LAYOUT().byteOffset(PathElement.groupElement("rotation"));
+	}
+
+	public WorldSnapshot() {
+		Arena arena = Arena.ofAuto();
+
+		transform = new Transform(arena);
+		massData = new MassData(arena);
+		surfaceMaterial = new SurfaceMaterial();
+		filter = new Filter(arena);
+		vector = new Vector2f();
+
+		circle = new Circle(arena);
+		capsule = new Capsule(arena);
+		segment = new Segment(arena);
+		polygon = new Polygon(arena);
+		chainSegment = new ChainSegment(arena);
+
+		bodyDef = new BodyDef(arena);
+		shapeDef = new ShapeDef(arena);
+		chainDef = new ChainDef(arena);
+		name = arena.allocate(NAME_LENGTH);
+
+		distanceJointDef = new DistanceJointDef(arena);
+		filterJointDef = new FilterJointDef(arena);
+		motorJointDef = new MotorJointDef(arena);
+		mouseJointDef = new MouseJointDef(arena);
+		prismaticJointDef = new PrismaticJointDef(arena);
+		revoluteJointDef = new RevoluteJointDef(arena);
+		weldJointDef = new WeldJointDef(arena);
+		wheelJointDef = new WheelJointDef(arena);
+
+		bodySlots = new SlotMap(64);
+		chains = new ArrayList<>();
+		chainIds = new HashSet<>();
+		params = new float[PARAM_COUNT];
+
+		bodyShapes = new Shape[8];
+		segments = new Shape[8];
+		shapes = new Shape[64];
+		shapeBodies = new int[64];
+		chainBodies = new int[8];
+		chainPointCounts = new int[8];
+		jointBodies = new int[16];
+
+		bodies = new Body[0];
+		joints = new Joint[0];
+	}
+
+	/**
+	 * Write bodies with their shapes and chains, and joints into a file. Joints
+	 * must only connect bodies of the snapshot, which is checked before the file
+	 * is touched.
+	 *
+	 * @return the number of bytes written
+	 */
+	public long write(Path path, World world, Body[] bodies, int bodyCount, Joint[] joints, int jointCount) {
+		if (bodyCount < 0)
+			throw new IllegalArgumentException("Negative count: " + bodyCount);
+		if (jointCount < 0)
+			throw new IllegalArgumentException("Negative count: " + jointCount);
+		if (bodies.length < bodyCount)
+			throw new ArrayIndexOutOfBoundsException("Bodies range out of bounds: " + bodyCount);
+		if (joints.length < jointCount)
+			throw new ArrayIndexOutOfBoundsException("Joints range out of bounds: " + jointCount);
+
+		try {
+			int shapeCount = collect(bodies, bodyCount);
+			int chainCount = chains.size();
+			collectJoints(joints, jointCount);
+
+			long byteSize = HEADER_LAYOUT.byteSize();
+			byteSize += bodyCount * BODY_LAYOUT.byteSize();
+			for (int i = 0; i < shapeCount; i++)
+				byteSize += SHAPE_LAYOUT.byteSize() + geometrySize(shapes[i].getType());
+			for (int i = 0; i < chainCount; i++)
+				byteSize += CHAIN_LAYOUT.byteSize() + chainPointCounts[i] * chainPointSize();
+			byteSize += jointCount * JOINT_LAYOUT.byteSize();
+
+			writeFile(path, world, byteSize, bodies, bodyCount, shapeCount, chainCount, joints, jointCount);
+			return byteSize;
+		} finally {
+			Arrays.fill(shapes, null);
+			chains.clear();
+			chainIds.clear();
+			bodySlots.clear();
+		}
+	}
+
+	private void writeFile(Path path, World world, long byteSize, Body[] bodies, int bodyCount, int shapeCount,
+			int chainCount, Joint[] joints, int jointCount) {
+		try (Arena arena = Arena.ofConfined(); FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			MemorySegment file = channel.map(MapMode.READ_WRITE, 0L, byteSize, arena);
+
+			file.set(JAVA_INT, HEADER_MAGIC_OFFSET, MAGIC);
+			file.set(JAVA_INT, HEADER_VERSION_OFFSET, VERSION);
+			file.set(JAVA_INT, HEADER_BODY_COUNT_OFFSET, bodyCount);
+			file.set(JAVA_INT, HEADER_SHAPE_COUNT_OFFSET, shapeCount);
+			file.set(JAVA_INT, HEADER_CHAIN_COUNT_OFFSET, chainCount);
+			file.set(JAVA_INT, HEADER_JOINT_COUNT_OFFSET, jointCount);
+
+			world.getGravity(vector);
+			file.set(JAVA_FLOAT, HEADER_GRAVITY_OFFSET, vector.x);
+			file.set(JAVA_FLOAT, HEADER_GRAVITY_OFFSET + 4, vector.y);
+
+			long offset = HEADER_LAYOUT.byteSize();
+			for (int i = 0; i < bodyCount; i++)
+				offset = writeBody(file, offset, bodies[i]);
+			for (int i = 0; i < shapeCount; i++)
+				offset = writeShape(file, offset, shapes[i], shapeBodies[i]);
+			for (int i = 0; i < chainCount; i++)
+				offset = writeChain(file, offset, chains.get(i), chainBodies[i], chainPointCounts[i]);
+			for (int i = 0; i < jointCount; i++)
+				offset = writeJoint(file, offset, joints[i], jointBodies[2 * i], jointBodies[2 * i + 1]);
+
+			file.force();
+		} catch (IOException e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot write world snapshot: " + className, e);
+		}
+	}
+
+	/**
+	 * Index the bodies and collect their shapes and chains.
+	 *
+	 * @return the number of shapes, not counting chain segments
+	 */
+	private int collect(Body[] bodies, int bodyCount) {
+		bodySlots.clear();
+		chains.clear();
+		chainIds.clear();
+
+		int shapeCount = 0;
+		for (int i = 0; i < bodyCount; i++) {
+			Body body = bodies[i];
+
+			// The slots of a cleared map are handed out in order, so slot i is body i
+			long bodyId = Body.storeBodyId(body.memorySegment(), 0L);
+			if (bodySlots.get(bodyId) != SlotMap.NONE)
+				throw new IllegalArgumentException("Body is in the snapshot twice: " + i);
+			bodySlots.add(bodyId);
+
+			int count = body.getShapeCount();
+			if (bodyShapes.length < count)
+				bodyShapes = new Shape[Math.max(count, 2 * bodyShapes.length)];
+			count = body.getShapes(bodyShapes);
+
+			for (int j = 0; j < count; j++) {
+				Shape shape = bodyShapes[j];
+
+				if (shape.getType() == ShapeType.CHAIN_SEGMENT_SHAPE) {
+					Chain chain = shape.getParentChain();
+					ChainId chainId = Chain.getChainId(chain.memorySegment());
+					if (!chainIds.add(chainId))
+						continue;
+
+					int chainIndex = chains.size();
+					if (chainBodies.length == chainIndex) {
+						chainBodies = Arrays.copyOf(chainBodies, 2 * chainIndex);
+						chainPointCounts = Arrays.copyOf(chainPointCounts, 2 * chainIndex);
+					}
+
+					chains.add(chain);
+					chainBodies[chainIndex] = i;
+					chainPointCounts[chainIndex] = chainPointCount(chain);
+					continue;
+				}
+
+				if (shapes.length == shapeCount) {
+					shapes = Arrays.copyOf(shapes, 2 * shapeCount);
+					shapeBodies = Arrays.copyOf(shapeBodies, 2 * shapeCount);
+				}
+
+				shapes[shapeCount] = shape;
+				shapeBodies[shapeCount] = i;
+				shapeCount++;
+			}
+
+			Arrays.fill(bodyShapes, 0, count, null);
+		}
+
+		return shapeCount;
+	}
+
+	/**
+	 * Look up the body indices of the joints.
+	 */
+	private void collectJoints(Joint[] joints, int jointCount) {
+		if (jointBodies.length < 2 * jointCount)
+			jointBodies = new int[Math.max(2 * jointCount, 2 * jointBodies.length)];
+
+		for (int i = 0; i < jointCount; i++) {
+			Joint joint = joints[i];
+
+			int bodyA = bodySlots.get(Body.storeBodyId(joint.getBodyA().memorySegment(), 0L));
+			int bodyB = bodySlots.get(Body.storeBodyId(joint.getBodyB().memorySegment(), 0L));
+			if (bodyA == SlotMap.NONE || bodyB == SlotMap.NONE)
+				throw new IllegalArgumentException("Joint connects a body that is not in the snapshot: " + i);
+
+			jointBodies[2 * i] = bodyA;
+			jointBodies[2 * i + 1] = bodyB;
+		}
+	}
+
+	private long writeBody(MemorySegment file, long offset, Body body) {
+		BodyType type = body.getType();
+
+		int flags = 0;
+		flags |= body.isAwake() ? AWAKE : 0;
+		flags |= body.isSleepEnabled() ? SLEEP_ENABLED : 0;
+		flags |= body.isEnabled() ? ENABLED : 0;
+		flags |= body.isFixedRotation() ? FIXED_ROTATION : 0;
+		flags |= body.isBullet() ? BULLET : 0;
+
+		file.set(JAVA_INT, offset + BODY_TYPE_OFFSET, type.id());
+		file.set(JAVA_INT, offset + BODY_FLAGS_OFFSET, flags);
+
+		body.getTransform(transform);
+		MemorySegment.copy(transform.memorySegment(), 0L, file, offset + BODY_TRANSFORM_OFFSET,
+				Transform.LAYOUT().byteSize());
+
+		body.getLinearVelocity(vector);
+		file.set(JAVA_FLOAT, offset + BODY_LINEAR_VELOCITY_OFFSET, vector.x);
+		file.set(JAVA_FLOAT, offset + BODY_LINEAR_VELOCITY_OFFSET + 4, vector.y);
+		file.set(JAVA_FLOAT, offset + BODY_ANGULAR_VELOCITY_OFFSET, body.getAngularVelocity());
+
+		file.set(JAVA_FLOAT, offset + BODY_LINEAR_DAMPING_OFFSET, body.getLinearDamping());
+		file.set(JAVA_FLOAT, offset + BODY_ANGULAR_DAMPING_OFFSET, body.getAngularDamping(0.0f));
+		file.set(JAVA_FLOAT, offset + BODY_GRAVITY_SCALE_OFFSET, body.getGravityScale());
+		file.set(JAVA_FLOAT, offset + BODY_SLEEP_THRESHOLD_OFFSET, body.getSleepThreshold());
+
+		body.getMassData(massData);
+		MemorySegment.copy(massData.memorySegment(), 0L, file, offset + BODY_MASS_DATA_OFFSET,
+				MassData.LAYOUT().byteSize());
+
+		// Box2D keeps at most 31 bytes of a name
+		file.asSlice(offset + BODY_NAME_OFFSET, NAME_LENGTH).setString(0L, body.getName());
+
+		return offset + BODY_LAYOUT.byteSize();
+	}
+
+	private long writeShape(MemorySegment file, long offset, Shape shape, int bodyIndex) {
+		ShapeType type = shape.getType();
+
+		int flags = 0;
+		flags |= shape.isSensor() ? SENSOR : 0;
+		flags |= shape.areSensorEventsEnabled() ? SENSOR_EVENTS : 0;
+		flags |= shape.areContactEventsEnabled() ? CONTACT_EVENTS : 0;
+		flags |= shape.areHitEventsEnabled() ? HIT_EVENTS : 0;
+		flags |= shape.arePreSolveEventsEnabled() ? PRE_SOLVE_EVENTS : 0;
+
+		file.set(JAVA_INT, offset + SHAPE_BODY_OFFSET, bodyIndex);
+		file.set(JAVA_INT, offset + SHAPE_TYPE_OFFSET, type.id());
+		file.set(JAVA_INT, offset + SHAPE_FLAGS_OFFSET, flags);
+		file.set(JAVA_FLOAT, offset + SHAPE_DENSITY_OFFSET, shape.getDensity());
+
+		shape.getSurfaceMaterial(surfaceMaterial);
+		MemorySegment.copy(surfaceMaterial.memorySegment(), 0L, file, offset + SHAPE_MATERIAL_OFFSET,
+				SurfaceMaterial.LAYOUT().byteSize());
+
+		shape.getFilter(filter);
+		MemorySegment.copy(filter.memorySegment(), 0L, file, offset + SHAPE_FILTER_OFFSET, Filter.LAYOUT().byteSize());
+
+		MemorySegment geometry = switch (type) {
+		case CIRCLE_SHAPE -> shape.getCircle(circle).memorySegment();
+		case CAPSULE_SHAPE -> shape.getCapsule(capsule).memorySegment();
+		case SEGMENT_SHAPE -> shape.getSegment(segment).memorySegment();
+		case POLYGON_SHAPE -> shape.getPolygon(polygon).memorySegment();
+		default -> throw new IllegalStateException("Unexpected shape type: " + type);
+		};
+
+		offset += SHAPE_LAYOUT.byteSize();
+		MemorySegment.copy(geometry, 0L, file, offset, geometry.byteSize());
+
+		return offset + geometrySize(type);
+	}
+
+	private long writeChain(MemorySegment file, long offset, Chain chain, int bodyIndex, int pointCount) {
+		int segmentCount = chain.getSegmentCount();
+		Shape[] segments = getSegments(chain, segmentCount);
+
+		Shape first = segments[0];
+		boolean loop = pointCount == segmentCount;
+
+		int flags = loop ? LOOP : 0;
+		flags |= first.areSensorEventsEnabled() ? SENSOR_EVENTS : 0;
+
+		file.set(JAVA_INT, offset + CHAIN_BODY_OFFSET, bodyIndex);
+		file.set(JAVA_INT, offset + CHAIN_FLAGS_OFFSET, flags);
+		file.set(JAVA_INT, offset + CHAIN_POINT_COUNT_OFFSET, pointCount);
+
+		first.getFilter(filter);
+		MemorySegment.copy(filter.memorySegment(), 0L, file, offset + CHAIN_FILTER_OFFSET, Filter.LAYOUT().byteSize());
+
+		offset += CHAIN_LAYOUT.byteSize();
+
+		// Open chains store the ghost points at both ends
+		if (!loop) {
+			first.getChainSegment(chainSegment);
+			offset = writePoint(file, offset, chainSegment.getGhost1(vector));
+		}
+
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i].getChainSegment(chainSegment);
+			offset = writePoint(file, offset, chainSegment.getSegment().getPoint1(vector));
+		}
+
+		if (!loop) {
+			offset = writePoint(file, offset, chainSegment.getSegment().getPoint2(vector));
+			offset = writePoint(file, offset, chainSegment.getGhost2(vector));
+		}
+
+		// One material per point, segment i of an open chain uses the one of point i + 1
+		long materialSize = SurfaceMaterial.LAYOUT().byteSize();
+		for (int i = 0; i < pointCount; i++) {
+			int segmentIndex = loop ? i : Math.clamp(i - 1, 0, segmentCount - 1);
+			segments[segmentIndex].getSurfaceMaterial(surfaceMaterial);
+			MemorySegment.copy(surfaceMaterial.memorySegment(), 0L, file, offset, materialSize);
+			offset += materialSize;
+		}
+
+		Arrays.fill(segments, 0, segmentCount, null);
+		return offset;
+	}
+
+	private long writePoint(MemorySegment file, long offset, Vector2f point) {
+		file.set(JAVA_FLOAT, offset, point.x);
+		file.set(JAVA_FLOAT, offset + 4, point.y);
+		return offset + Vec2.LAYOUT().byteSize();
+	}
+
+	/**
+	 * The number of points of a chain. A loop has one point per segment, an open
+	 * chain has three more.
+	 */
+	private int chainPointCount(Chain chain) {
+		int segmentCount = chain.getSegmentCount();
+
+		// Called while the body shapes are iterated, so use the segment array
+		Shape[] segments = getSegments(chain, segmentCount);
+
+		segments[0].getChainSegment(chainSegment);
+		float ghostX = chainSegment.getGhost1(vector).x;
+		float ghostY = vector.y;
+
+		segments[segmentCount - 1].getChainSegment(chainSegment);
+		chainSegment.getSegment().getPoint1(vector);
+
+		Arrays.fill(segments, 0, segmentCount, null);
+
+		boolean loop = segmentCount > 2 && ghostX == vector.x && ghostY == vector.y;
+		return loop ? segmentCount : segmentCount + 3;
+	}
+
+	private Shape[] getSegments(Chain chain, int segmentCount) {
+		if (segments.length < segmentCount)
+			segments = new Shape[Math.max(segmentCount, 2 * segments.length)];
+
+		chain.getSegments(segments);
+		return segments;
+	}
+
+	/**
+	 * The stored size of a chain point with its surface material.
+	 */
+	private static long chainPointSize() {
+		return Vec2.LAYOUT().byteSize() + SurfaceMaterial.LAYOUT().byteSize();
+	}
+
+	private long writeJoint(MemorySegment file, long offset, Joint joint, int bodyA, int bodyB) {
+		JointType type = joint.getType();
+
+		int flags = joint.getCollideConnected() ? COLLIDE_CONNECTED : 0;
+
+		file.set(JAVA_INT, offset + JOINT_TYPE_OFFSET, type.getId());
+		file.set(JAVA_INT, offset + JOINT_BODY_A_OFFSET, bodyA);
+		file.set(JAVA_INT, offset + JOINT_BODY_B_OFFSET, bodyB);
+
+		joint.getLocalAnchorA(vector);
+		file.set(JAVA_FLOAT, offset + JOINT_LOCAL_ANCHOR_A_OFFSET, vector.x);
+		file.set(JAVA_FLOAT, offset + JOINT_LOCAL_ANCHOR_A_OFFSET + 4, vector.y);
+
+		joint.getLocalAnchorB(vector);
+		file.set(JAVA_FLOAT, offset + JOINT_LOCAL_ANCHOR_B_OFFSET, vector.x);
+		file.set(JAVA_FLOAT, offset + JOINT_LOCAL_ANCHOR_B_OFFSET + 4, vector.y);
+
+		switch (joint) {
+		case DistanceJoint distance -> {
+			flags |= distance.isSpringEnabled() ? SPRING : 0;
+			flags |= distance.isLimitEnabled() ? LIMIT : 0;
+			flags |= distance.isMotorEnabled() ? MOTOR : 0;
+			params[0] = distance.getLength();
+			params[1] = distance.getSpringHertz();
+			params[2] = distance.getSpringDampingRatio();
+			params[3] = distance.getMinLength();
+			params[4] = distance.getMaxLength();
+			params[5] = distance.getMotorSpeed();
+			params[6] = distance.getMaxMotorForce();
+		}
+		case MotorJoint motor -> {
+			motor.getLinearOffset(vector);
+			params[0] = vector.x;
+			params[1] = vector.y;
+			params[2] = motor.getAngularOffsetRadians();
+			params[3] = motor.getMaxForce();
+			params[4] = motor.getMaxTorque();
+			params[5] = motor.getCorrectionFactor();
+		}
+		case MouseJoint mouse -> {
+			mouse.getTarget(vector);
+			params[0] = vector.x;
+			params[1] = vector.y;
+			params[2] = mouse.getSpringHertz();
+			params[3] = mouse.getSpringDampingRatio();
+			params[4] = mouse.getMaxForce();
+		}
+		case PrismaticJoint prismatic -> {
+			flags |= prismatic.isSpringEnabled() ? SPRING : 0;
+			flags |= prismatic.isLimitEnabled() ? LIMIT : 0;
+			flags |= prismatic.isMotorEnabled() ? MOTOR : 0;
+			prismatic.getLocalAxisA(vector);
+			params[0] = prismatic.getSpringHertz();
+			params[1] = prismatic.getSpringDampingRatio();
+			params[2] = prismatic.getLowerLimit();
+			params[3] = prismatic.getUpperLimit();
+			params[4] = prismatic.getMotorSpeed();
+			params[5] = prismatic.getMaxMotorForce();
+			params[6] = vector.x;
+			params[7] = vector.y;
+			params[8] = prismatic.getReferenceAngleRadians();
+		}
+		case RevoluteJoint revolute -> {
+			flags |= revolute.isSpringEnabled() ? SPRING : 0;
+			flags |= revolute.isLimitEnabled() ? LIMIT : 0;
+			flags |= revolute.isMotorEnabled() ? MOTOR : 0;
+			params[0] = revolute.getSpringHertz();
+			params[1] = revolute.getSpringDampingRatio();
+			params[2] = revolute.getLowerLimit();
+			params[3] = revolute.getUpperLimit();
+			params[4] = revolute.getMotorSpeed();
+			params[5] = revolute.getMaxMotorTorque();
+			params[6] = revolute.getReferenceAngleRadians();
+		}
+		case WeldJoint weld -> {
+			params[0] = weld.getReferenceAngleRadians();
+			params[1] = weld.getLinearHertz();
+			params[2] = weld.getLinearDampingRatio();
+			params[3] = weld.getAngularHertz();
+			params[4] = weld.getAngularDampingRatio();
+		}
+		case WheelJoint wheel -> {
+			flags |= wheel.isSpringEnabled() ? SPRING : 0;
+			flags |= wheel.isLimitEnabled() ? LIMIT : 0;
+			flags |= wheel.isMotorEnabled() ? MOTOR : 0;
+			wheel.getLocalAxisA(vector);
+			params[0] = wheel.getSpringHertz();
+			params[1] = wheel.getSpringDampingRatio();
+			params[2] = wheel.getLowerLimit();
+			params[3] = wheel.getUpperLimit();
+			params[4] = wheel.getMotorSpeed();
+			params[5] = wheel.getMaxMotorTorque();
+			params[6] = vector.x;
+			params[7] = vector.y;
+		}
+		default -> {
+		}
+		}
+
+		file.set(JAVA_INT, offset + JOINT_FLAGS_OFFSET, flags);
+
+		// Unused parameters are written as zero
+		MemorySegment.copy(params, 0, file, JAVA_FLOAT, offset + JOINT_PARAMS_OFFSET, PARAM_COUNT);
+		Arrays.fill(params, 0.0f);
+
+		return offset + JOINT_LAYOUT.byteSize();
+	}
+
+	/**
+	 * Recreate the bodies, shapes, chains and joints of a file in a world and set
+	 * its gravity. The created bodies and joints are available with
+	 * {@link #getBodies()} and {@link #getJoints()}, in the order they were
+	 * written. The whole file is checked before anything is created.
+	 *
+	 * @return the number of bodies
+	 */
+	public int read(Path path, World world) {
+		try (Arena arena = Arena.ofConfined(); FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MemorySegment file = channel.map(MapMode.READ_ONLY, 0L, channel.size(), arena);
+
+			validate(file, path);
+
+			bodyCount = file.get(JAVA_INT, HEADER_BODY_COUNT_OFFSET);
+			int shapeCount = file.get(JAVA_INT, HEADER_SHAPE_COUNT_OFFSET);
+			int chainCount = file.get(JAVA_INT, HEADER_CHAIN_COUNT_OFFSET);
+			jointCount = file.get(JAVA_INT, HEADER_JOINT_COUNT_OFFSET);
+
+			world.setGravity(file.get(JAVA_FLOAT, HEADER_GRAVITY_OFFSET), file.get(JAVA_FLOAT, HEADER_GRAVITY_OFFSET + 4));
+
+			if (bodies.length < bodyCount)
+				bodies = Arrays.copyOf(bodies, bodyCount);
+			if (joints.length < jointCount)
+				joints = new Joint[jointCount];
+
+			long offset = HEADER_LAYOUT.byteSize();
+			long bodyOffset = offset;
+			for (int i = 0; i < bodyCount; i++)
+				offset = readBody(file, offset, world, i);
+			for (int i = 0; i < shapeCount; i++)
+				offset = readShape(file, offset);
+			for (int i = 0; i < chainCount; i++)
+				offset = readChain(file, offset);
+
+			// Shapes are created without mass updates, apply the stored mass once
+			for (int i = 0; i < bodyCount; i++) {
+				long massOffset = bodyOffset + i * BODY_LAYOUT.byteSize() + BODY_MASS_DATA_OFFSET;
+				if (bodies[i].getType() == BodyType.DYNAMIC_BODY) {
+					MemorySegment.copy(file, massOffset, massData.memorySegment(), 0L, MassData.LAYOUT().byteSize());
+					bodies[i].setMassData(massData);
+				}
+			}
+
+			for (int i = 0; i < jointCount; i++)
+				offset = readJoint(file, offset, world, i);
+
+			return bodyCount;
+		} catch (IOException e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot read world snapshot: " + className, e);
+		}
+	}
+
+	/**
+	 * Check the header, the counts against the file size and every record, so a
+	 * damaged file is rejected before anything is created.
+	 */
+	private static void validate(MemorySegment file, Path path) {
+		long byteSize = file.byteSize();
+
+		if (byteSize < HEADER_LAYOUT.byteSize() || file.get(JAVA_INT, HEADER_MAGIC_OFFSET) != MAGIC)
+			throw new Box2DRuntimeException("Invalid world snapshot: " + path);
+
+		int version = file.get(JAVA_INT, HEADER_VERSION_OFFSET);
+		if (version != VERSION)
+			throw new Box2DRuntimeException("Unsupported world snapshot version: " + version);
+
+		int bodyCount = file.get(JAVA_INT, HEADER_BODY_COUNT_OFFSET);
+		int shapeCount = file.get(JAVA_INT, HEADER_SHAPE_COUNT_OFFSET);
+		int chainCount = file.get(JAVA_INT, HEADER_CHAIN_COUNT_OFFSET);
+		int jointCount = file.get(JAVA_INT, HEADER_JOINT_COUNT_OFFSET);
+
+		if (bodyCount < 0 || shapeCount < 0 || chainCount < 0 || jointCount < 0)
+			throw new Box2DRuntimeException("Invalid world snapshot counts: " + path);
+
+		// The smallest possible size, before the variable records are walked
+		long minimum = HEADER_LAYOUT.byteSize();
+		minimum += bodyCount * BODY_LAYOUT.byteSize();
+		minimum += shapeCount * SHAPE_LAYOUT.byteSize();
+		minimum += chainCount * CHAIN_LAYOUT.byteSize();
+		minimum += jointCount * JOINT_LAYOUT.byteSize();
+		if (minimum > byteSize)
+			throw new Box2DRuntimeException("Truncated world snapshot: " + path);
+
+		long offset = HEADER_LAYOUT.byteSize();
+		for (int i = 0; i < bodyCount; i++) {
+			checkIndex(file.get(JAVA_INT, offset + BODY_TYPE_OFFSET), BODY_TYPES.length, path);
+			offset += BODY_LAYOUT.byteSize();
+		}
+
+		for (int i = 0; i < shapeCount; i++) {
+			checkSize(offset + SHAPE_LAYOUT.byteSize(), byteSize, path);
+			checkIndex(file.get(JAVA_INT, offset + SHAPE_BODY_OFFSET), bodyCount, path);
+
+			int type = file.get(JAVA_INT, offset + SHAPE_TYPE_OFFSET);
+			checkIndex(type, SHAPE_TYPES.length, path);
+			if (SHAPE_TYPES[type] == ShapeType.CHAIN_SEGMENT_SHAPE)
+				throw new Box2DRuntimeException("Invalid world snapshot shape type: " + path);
+
+			offset += SHAPE_LAYOUT.byteSize() + geometrySize(SHAPE_TYPES[type]);
+		}
+
+		for (int i = 0; i < chainCount; i++) {
+			checkSize(offset + CHAIN_LAYOUT.byteSize(), byteSize, path);
+			checkIndex(file.get(JAVA_INT, offset + CHAIN_BODY_OFFSET), bodyCount, path);
+
+			int pointCount = file.get(JAVA_INT, offset + CHAIN_POINT_COUNT_OFFSET);
+			if (pointCount < 4)
+				throw new Box2DRuntimeException("Invalid world snapshot chain: " + path);
+
+			offset += CHAIN_LAYOUT.byteSize() + pointCount * chainPointSize();
+		}
+
+		for (int i = 0; i < jointCount; i++) {
+			checkSize(offset + JOINT_LAYOUT.byteSize(), byteSize, path);
+			checkIndex(file.get(JAVA_INT, offset + JOINT_TYPE_OFFSET), JOINT_TYPES.length, path);
+			checkIndex(file.get(JAVA_INT, offset + JOINT_BODY_A_OFFSET), bodyCount, path);
+			checkIndex(file.get(JAVA_INT, offset + JOINT_BODY_B_OFFSET), bodyCount, path);
+			offset += JOINT_LAYOUT.byteSize();
+		}
+
+		checkSize(offset, byteSize, path);
+	}
+
+	private static void checkIndex(int index, int count, Path path) {
+		if (index < 0 || index >= count)
+			throw new Box2DRuntimeException("Invalid world snapshot index " + index + ": " + path);
+	}
+
+	private static void checkSize(long end, long byteSize, Path path) {
+		if (end > byteSize)
+			throw new Box2DRuntimeException("Truncated world snapshot: " + path);
+	}
+
+	private long readBody(MemorySegment file, long offset, World world, int index) {
+		int flags = file.get(JAVA_INT, offset + BODY_FLAGS_OFFSET);
+
+		bodyDef.setType(BODY_TYPES[file.get(JAVA_INT, offset + BODY_TYPE_OFFSET)]);
+
+		long transformOffset = offset + BODY_TRANSFORM_OFFSET;
+		bodyDef.setPosition(file.get(JAVA_FLOAT, transformOffset), file.get(JAVA_FLOAT, transformOffset + 4));
+		MemorySegment.copy(file, transformOffset + 8, bodyDef.memorySegment(), BODY_DEF_ROTATION_OFFSET, 8L);
+
+		bodyDef.setLinearVelocity(file.get(JAVA_FLOAT, offset + BODY_LINEAR_VELOCITY_OFFSET),
+				file.get(JAVA_FLOAT, offset + BODY_LINEAR_VELOCITY_OFFSET + 4));
+		bodyDef.setAngularVelocity(file.get(JAVA_FLOAT, offset + BODY_ANGULAR_VELOCITY_OFFSET));
+
+		bodyDef.setLinearDamping(file.get(JAVA_FLOAT, offset + BODY_LINEAR_DAMPING_OFFSET));
+		bodyDef.setAngularDamping(file.get(JAVA_FLOAT, offset + BODY_ANGULAR_DAMPING_OFFSET));
+		bodyDef.setGravityScale(file.get(JAVA_FLOAT, offset + BODY_GRAVITY_SCALE_OFFSET));
+		bodyDef.setSleepThreshold(file.get(JAVA_FLOAT, offset + BODY_SLEEP_THRESHOLD_OFFSET));
+
+		bodyDef.isAwake((flags & AWAKE) != 0);
+		bodyDef.enableSleep((flags & SLEEP_ENABLED) != 0);
+		bodyDef.isEnabled((flags & ENABLED) != 0);
+		bodyDef.setFixedRotation((flags & FIXED_ROTATION) != 0);
+		bodyDef.isBullet((flags & BULLET) != 0);
+
+		// Box2D copies the name, the terminator guards against damaged files
+		MemorySegment.copy(file, offset + BODY_NAME_OFFSET, name, 0L, NAME_LENGTH);
+		name.set(JAVA_BYTE, NAME_LENGTH - 1, (byte) 0);
+		bodyDef.setName(name);
+
+		if (reuseBodies && bodies[index] != null)
+			bodies[index].rebind(world, bodyDef);
+		else
+			bodies[index] = new Body(world, bodyDef);
+
+		return offset + BODY_LAYOUT.byteSize();
+	}
+
+	private long readShape(MemorySegment file, long offset) {
+		Body body = bodies[file.get(JAVA_INT, offset + SHAPE_BODY_OFFSET)];
+		ShapeType type = SHAPE_TYPES[file.get(JAVA_INT, offset + SHAPE_TYPE_OFFSET)];
+		int flags = file.get(JAVA_INT, offset + SHAPE_FLAGS_OFFSET);
+
+		shapeDef.setDensity(file.get(JAVA_FLOAT, offset + SHAPE_DENSITY_OFFSET));
+		shapeDef.isSensor((flags & SENSOR) != 0);
+		shapeDef.enableSensorEvents((flags & SENSOR_EVENTS) != 0);
+		shapeDef.enableContactEvents((flags & CONTACT_EVENTS) != 0);
+		shapeDef.enableHitEvents((flags & HIT_EVENTS) != 0);
+		shapeDef.enablePreSolveEvents((flags & PRE_SOLVE_EVENTS) != 0);
+		shapeDef.updateBodyMass(false);
+
+		MemorySegment.copy(file, offset + SHAPE_MATERIAL_OFFSET, shapeDef.getSurfaceMaterial().memorySegment(), 0L,
+				SurfaceMaterial.LAYOUT().byteSize());
+		MemorySegment.copy(file, offset + SHAPE_FILTER_OFFSET, shapeDef.getFilter().memorySegment(), 0L,
+				Filter.LAYOUT().byteSize());
+
+		offset += SHAPE_LAYOUT.byteSize();
+
+		switch (type) {
+		case CIRCLE_SHAPE -> {
+			circle.set(file.asSlice(offset, Circle.LAYOUT()));
+			new Shape(body, shapeDef, circle);
+		}
+		case CAPSULE_SHAPE -> {
+			capsule.set(file.asSlice(offset, Capsule.LAYOUT()));
+			new Shape(body, shapeDef, capsule);
+		}
+		case SEGMENT_SHAPE -> {
+			segment.set(file.asSlice(offset, Segment.LAYOUT()));
+			new Shape(body, shapeDef, segment);
+		}
+		case POLYGON_SHAPE -> {
+			polygon.set(file.asSlice(offset, Polygon.LAYOUT()));
+			new Shape(body, shapeDef, polygon);
+		}
+		default -> throw new Box2DRuntimeException("Unexpected shape type in world snapshot: " + type);
+		}
+
+		return offset + geometrySize(type);
+	}
+
+	private long readChain(MemorySegment file, long offset) {
+		Body body = bodies[file.get(JAVA_INT, offset + CHAIN_BODY_OFFSET)];
+		int flags = file.get(JAVA_INT, offset + CHAIN_FLAGS_OFFSET);
+		int pointCount = file.get(JAVA_INT, offset + CHAIN_POINT_COUNT_OFFSET);
+
+		chainDef.isLoop((flags & LOOP) != 0);
+		chainDef.enableSensorevents((flags & SENSOR_EVENTS) != 0);
+
+		MemorySegment.copy(file, offset + CHAIN_FILTER_OFFSET, chainDef.getFilter().memorySegment(), 0L,
+				Filter.LAYOUT().byteSize());
+
+		offset += CHAIN_LAYOUT.byteSize();
+
+		chainDef.setPoints(file, offset, pointCount);
+		offset += pointCount * Vec2.LAYOUT().byteSize();
+
+		chainDef.setSurfaceMaterials(file, offset, pointCount);
+		offset += pointCount * SurfaceMaterial.LAYOUT().byteSize();
+
+		new Chain(body, chainDef);
+
+		return offset;
+	}
+
+	private long readJoint(MemorySegment file, long offset, World world, int index) {
+		JointType type = JOINT_TYPES[file.get(JAVA_INT, offset + JOINT_TYPE_OFFSET)];
+		Body bodyA = bodies[file.get(JAVA_INT, offset + JOINT_BODY_A_OFFSET)];
+		Body bodyB = bodies[file.get(JAVA_INT, offset + JOINT_BODY_B_OFFSET)];
+		int flags = file.get(JAVA_INT, offset + JOINT_FLAGS_OFFSET);
+
+		boolean collideConnected = (flags & COLLIDE_CONNECTED) != 0;
+		boolean spring = (flags & SPRING) != 0;
+		boolean limit = (flags & LIMIT) != 0;
+		boolean motor = (flags & MOTOR) != 0;
+
+		float anchorAX = file.get(JAVA_FLOAT, offset + JOINT_LOCAL_ANCHOR_A_OFFSET);
+		float anchorAY = file.get(JAVA_FLOAT, offset + JOINT_LOCAL_ANCHOR_A_OFFSET + 4);
+		float anchorBX = file.get(JAVA_FLOAT, offset + JOINT_LOCAL_ANCHOR_B_OFFSET);
+		float anchorBY = file.get(JAVA_FLOAT, offset + JOINT_LOCAL_ANCHOR_B_OFFSET + 4);
+
+		long params = (offset + JOINT_PARAMS_OFFSET) / 4;
+
+		joints[index] = switch (type) {
+		case DISTANCE_JOINT -> {
+			DistanceJointDef def = distanceJointDef;
+			def.setBodyA(bodyA);
+			def.setBodyB(bodyB);
+			def.setLocalAnchorA(anchorAX, anchorAY);
+			def.setLocalAnchorB(anchorBX, anchorBY);
+			def.setLength(file.getAtIndex(JAVA_FLOAT, params));
+			def.enableSpring(spring);
+			def.setHertz(file.getAtIndex(JAVA_FLOAT, params + 1));
+			def.setDampingRatio(file.getAtIndex(JAVA_FLOAT, params + 2));
+			def.enableLimit(limit);
+			def.setMinLength(file.getAtIndex(JAVA_FLOAT, params + 3));
+			def.setMaxLength(file.getAtIndex(JAVA_FLOAT, params + 4));
+			def.enableMotor(motor);
+			def.setMotorSpeed(file.getAtIndex(JAVA_FLOAT, params + 5));
+			def.setMaxMotorForce(file.getAtIndex(JAVA_FLOAT, params + 6));
+			def.collideConnected(collideConnected);
+			yield new DistanceJoint(world, def);
+		}
+		case FILTER_JOINT -> {
+			FilterJointDef def = filterJointDef;
+			def.setBodyA(bodyA);
+			def.setBodyB(bodyB);
+			yield new FilterJoint(world, def);
+		}
+		case MOTOR_JOINT -> {
+			MotorJointDef def = motorJointDef;
+			def.setBodyA(bodyA);
+			def.setBodyB(bodyB);
+			def.setLinearOffset(file.getAtIndex(JAVA_FLOAT, params), file.getAtIndex(JAVA_FLOAT, params + 1));
+			def.setAngularOffset(file.getAtIndex(JAVA_FLOAT, params + 2));
+			def.setMaxForce(file.getAtIndex(JAVA_FLOAT, params + 3));
+			def.setMaxTorque(file.getAtIndex(JAVA_FLOAT, params + 4));
+			def.setCorrectionFactor(file.getAtIndex(JAVA_FLOAT, params + 5));
+			def.collideConnected(collideConnected);
+			yield new MotorJoint(world, def);
+		}
+		case MOUSE_JOINT -> {
+			MouseJointDef def = mouseJointDef;
+			def.setBodyA(bodyA);
+			def.setBodyB(bodyB);
+			def.setTarget(file.getAtIndex(JAVA_FLOAT, params), file.getAtIndex(JAVA_FLOAT, params + 1));
+			def.setHertz(file.getAtIndex(JAVA_FLOAT, params + 2));
+			def.setDampingRatio(file.getAtIndex(JAVA_FLOAT, params + 3));
+			def.setMaxForce(file.getAtIndex(JAVA_FLOAT, params + 4));
+			def.collideConnected(collideConnected);
+			yield new MouseJoint(world, def);
+		}
+		case PRISMATIC_JOINT -> {
+			PrismaticJointDef def = prismaticJointDef;
+			def.setBodyA(bodyA);
+			def.setBodyB(bodyB);
+			def.setLocalAnchorA(anchorAX, anchorAY);
+			def.setLocalAnchorB(anchorBX, anchorBY);
+			def.enableSpring(spring);
+			def.setHertz(file.getAtIndex(JAVA_FLOAT, params));
+			def.setDampingRatio(file.getAtIndex(JAVA_FLOAT, params + 1));
+			def.enableLimit(limit);
+			def.setLowerTranslation(file.getAtIndex(JAVA_FLOAT, params + 2));
+			def.setUpperTranslation(file.getAtIndex(JAVA_FLOAT, params + 3));
+			def.enableMotor(motor);
+			def.setMotorSpeed(file.getAtIndex(JAVA_FLOAT, params + 4));
+			def.setMaxMotorForce(file.getAtIndex(JAVA_FLOAT, params + 5));
+			def.setLocalAxisA(file.getAtIndex(JAVA_FLOAT, params + 6), file.getAtIndex(JAVA_FLOAT, params + 7));
+			def.setReferenceAngle(file.getAtIndex(JAVA_FLOAT, params + 8));
+			def.collideConnected(collideConnected);
+			yield new PrismaticJoint(world, def);
+		}
+		case REVOLUTE_JOINT -> {
+			RevoluteJointDef def = revoluteJointDef;
+			def.setBodyA(bodyA);
+			def.setBodyB(bodyB);
+			def.setLocalAnchorA(anchorAX, anchorAY);
+			def.setLocalAnchorB(anchorBX, anchorBY);
+			def.enableSpring(spring);
+			def.setHertz(file.getAtIndex(JAVA_FLOAT, params));
+			def.setDampingRatio(file.getAtIndex(JAVA_FLOAT, params + 1));
+			def.enableLimit(limit);
+			def.setLowerAngle(file.getAtIndex(JAVA_FLOAT, params + 2));
+			def.setUpperAngle(file.getAtIndex(JAVA_FLOAT, params + 3));
+			def.enableMotor(motor);
+			def.setMotorSpeed(file.getAtIndex(JAVA_FLOAT, params + 4));
+			def.setMaxMotorTorque(file.getAtIndex(JAVA_FLOAT, params + 5));
+			def.setReferenceAngleRadians(file.getAtIndex(JAVA_FLOAT, params + 6));
+			def.collideConnected(collideConnected);
+			yield new RevoluteJoint(world, def);
+		}
+		case WELD_JOINT -> {
+			WeldJointDef def = weldJointDef;
+			def.setBodyA(bodyA);
+			def.setBodyB(bodyB);
+			def.setLocalAnchorA(anchorAX, anchorAY);
+			def.setLocalAnchorB(anchorBX, anchorBY);
+			def.setReferenceAngleRadians(file.getAtIndex(JAVA_FLOAT, params));
+			def.setLinearHertz(file.getAtIndex(JAVA_FLOAT, params + 1));
+			def.setLinearDampingRatio(file.getAtIndex(JAVA_FLOAT, params + 2));
+			def.setAngularHertz(file.getAtIndex(JAVA_FLOAT, params + 3));
+			def.setAngularDampingRatio(file.getAtIndex(JAVA_FLOAT, params + 4));
+			def.collideConnected(collideConnected);
+			yield new WeldJoint(world, def);
+		}
+		case WHEEL_JOINT -> {
+			WheelJointDef def = wheelJointDef;
+			def.setBodyA(bodyA);
+			def.setBodyB(bodyB);
+			def.setLocalAnchorA(anchorAX, anchorAY);
+			def.setLocalAnchorB(anchorBX, anchorBY);
+			def.enableSpring(spring);
+			def.setHertz(file.getAtIndex(JAVA_FLOAT, params));
+			def.setDampingRatio(file.getAtIndex(JAVA_FLOAT, params + 1));
+			def.enableLimit(limit);
+			def.setLowerTranslation(file.getAtIndex(JAVA_FLOAT, params + 2));
+			def.setUpperTranslation(file.getAtIndex(JAVA_FLOAT, params + 3));
+			def.enableMotor(motor);
+			def.setMotorSpeed(file.getAtIndex(JAVA_FLOAT, params + 4));
+			def.setMaxMotorTorque(file.getAtIndex(JAVA_FLOAT, params + 5));
+			def.setLocalAxisA(file.getAtIndex(JAVA_FLOAT, params + 6), file.getAtIndex(JAVA_FLOAT, params + 7));
+			def.collideConnected(collideConnected);
+			yield new WheelJoint(world, def);
+		}
+		};
+
+		return offset + JOINT_LAYOUT.byteSize();
+	}
+
+	/**
+	 * The stored size of a geometry, rounded up to keep records 8 byte aligned.
+	 */
+	private static long geometrySize(ShapeType type) {
+		long byteSize = switch (type) {
+		case CIRCLE_SHAPE -> Circle.LAYOUT().byteSize();
+		case CAPSULE_SHAPE -> Capsule.LAYOUT().byteSize();
+		case SEGMENT_SHAPE -> Segment.LAYOUT().byteSize();
+		case POLYGON_SHAPE -> Polygon.LAYOUT().byteSize();
+		default -> 0L;
+		};
+
+		return (byteSize + 7L) & ~7L;
+	}
+
+	/**
+	 * The bodies created by the last {@link #read(Path, World)}. Holds
+	 * {@link #getBodyCount()} bodies.
+	 */
+	public Body[] getBodies() {
+		return bodies;
+	}
+
+	public int getBodyCount() {
+		return bodyCount;
+	}
+
+	/**
+	 * The joints created by the last {@link #read(Path, World)}. Holds
+	 * {@link #getJointCount()} joints.
+	 */
+	public Joint[] getJoints() {
+		return joints;
+	}
+
+	public int getJointCount() {
+		return jointCount;
+	}
+
+	/**
+	 * Rebind the body objects of the last read to the new bodies with
+	 * {@link Body#rebind(World, BodyDef)} instead of creating new ones. Only
+	 * valid if the bodies of the last read were destroyed, for example together
+	 * with their world, and are no longer used elsewhere. Default false.
+	 */
+	public void setReuseBodies(boolean reuseBodies) {
+		this.reuseBodies = reuseBodies;
+	}
+
+	public boolean isReuseBodies() {
+		return reuseBodies;
+	}
+
+}
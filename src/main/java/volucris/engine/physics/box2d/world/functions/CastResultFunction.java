@@ -10,6 +10,7 @@ import java.lang.invoke.MethodHandles.Lookup;
 import volucris.engine.physics.box2d.math.Vec2;
 import volucris.engine.physics.box2d.shape.Shape;
 import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
+import volucris.engine.physics.box2d.utils.HandlerTable;
 
 import static java.lang.foreign.ValueLayout.*;
 import static volucris.engine.physics.box2d.utils.FFMUtils.*;
@@ -32,16 +33,22 @@ import static volucris.engine.physics.box2d.utils.FFMUtils.*;
  * </ul>
  * > Returns -1 to filter, 0 to terminate, fraction to clip the ray for closest
  * hit, 1 to continue
+ * <p>
+ * Subclasses own one upcall stub each. For short-lived lambdas use a
+ * {@link Handler} instead: all handlers share one upcall stub and are found
+ * through the context pointer returned by {@link #register(Handler)}.
  */
 public abstract class CastResultFunction {
 
 	private static final Lookup LOOKUP;
 
-	private static final FunctionDescriptor CUSTOM_FILTER_FCN_DESCR;
+	private static final FunctionDescriptor CAST_RESULT_FCN_DESCR;
+
+	private static final MethodHandle CAST_RESULT_FCN_HANDLE;
 
-	private static final MethodHandle CUSTOM_FILTER_FCN_HANDLE;
+	private static final HandlerTable<Handler> HANDLERS;
 
-	private final MemorySegment customFilterFcnAddress;
+	private final MemorySegment castResultFcnAddress;
 
 	static {
 		//@formatter:off
@@ -52,10 +59,12 @@ public abstract class CastResultFunction {
 			throw new Box2DRuntimeException("Cannot create private lookup: " + className);
 		}
 		
-		CUSTOM_FILTER_FCN_DESCR = functionDescr(JAVA_FLOAT, Shape.LAYOUT(), Vec2.LAYOUT(), Vec2.LAYOUT(), JAVA_FLOAT, ADDRESS);
+		CAST_RESULT_FCN_DESCR = functionDescr(JAVA_FLOAT, Shape.LAYOUT(), Vec2.LAYOUT(), Vec2.LAYOUT(), JAVA_FLOAT, ADDRESS);
 		
-		CUSTOM_FILTER_FCN_HANDLE = upcallHandle(LOOKUP, CastResultFunction.class, "customFilterFunction", CUSTOM_FILTER_FCN_DESCR);
+		CAST_RESULT_FCN_HANDLE = upcallHandle(LOOKUP, CastResultFunction.class, "castResultFunction", CAST_RESULT_FCN_DESCR);
 		//@formatter:on
+
+		HANDLERS = new HandlerTable<>();
 	}
 
 	public CastResultFunction() {
@@ -63,14 +72,67 @@ public abstract class CastResultFunction {
 	}
 
 	public CastResultFunction(Arena arena) {
-		customFilterFcnAddress = upcallStub(this, CUSTOM_FILTER_FCN_HANDLE, CUSTOM_FILTER_FCN_DESCR, arena);
+		castResultFcnAddress = upcallStub(this, CAST_RESULT_FCN_HANDLE, CAST_RESULT_FCN_DESCR, arena);
 	}
 
 	protected abstract float castResultFunction(MemorySegment shapeId, MemorySegment point, MemorySegment normal,
 			float fraction, MemorySegment context);
 
 	public MemorySegment memorySegment() {
-		return customFilterFcnAddress;
+		return castResultFcnAddress;
+	}
+
+	/**
+	 * The cast result function that dispatches to the handler registered for the
+	 * context pointer.
+	 */
+	public static CastResultFunction shared() {
+		return Shared.INSTANCE;
+	}
+
+	/**
+	 * Register a handler for the shared function and return its context pointer.
+	 * Release it once the query is done.
+	 */
+	public static MemorySegment register(Handler handler) {
+		return HANDLERS.register(handler);
+	}
+
+	/**
+	 * Release a context pointer returned by {@link #register(Handler)}.
+	 */
+	public static void release(MemorySegment context) {
+		HANDLERS.release(context);
+	}
+
+	/**
+	 * Cast result handler used with the shared function. The segments are only
+	 * valid during the call.
+	 */
+	@FunctionalInterface
+	public static interface Handler {
+
+		float castResult(MemorySegment shapeId, MemorySegment point, MemorySegment normal, float fraction);
+
+	}
+
+	private static final class Shared extends CastResultFunction {
+
+		private static final Shared INSTANCE = new Shared();
+
+		private Shared() {
+			super(Arena.global());
+		}
+
+		@Override
+		protected float castResultFunction(MemorySegment shapeId, MemorySegment point, MemorySegment normal,
+				float fraction, MemorySegment context) {
+			Handler handler = HANDLERS.get(context);
+
+			// Terminate the cast if the handler was released
+			return handler != null ? handler.castResult(shapeId, point, normal, fraction) : 0.0f;
+		}
+
 	}
 
 }
@@ -9,6 +9,7 @@ import java.lang.invoke.MethodHandles.Lookup;
 
 import volucris.engine.physics.box2d.shape.Shape;
 import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
+import volucris.engine.physics.box2d.utils.HandlerTable;
 
 import static java.lang.foreign.ValueLayout.*;
 import static volucris.engine.physics.box2d.utils.FFMUtils.*;
@@ -19,6 +20,10 @@ import static volucris.engine.physics.box2d.utils.FFMUtils.*;
  * Called for each shape found in the query.
  * <p>
  * Returns: false to terminate the query.
+ * <p>
+ * Subclasses own one upcall stub each. For short-lived lambdas use a
+ * {@link Handler} instead: all handlers share one upcall stub and are found
+ * through the context pointer returned by {@link #register(Handler)}.
  */
 public abstract class OverlapResultFunction {
 
@@ -28,6 +33,8 @@ public abstract class OverlapResultFunction {
 
 	private static final MethodHandle OVERLAP_RESULT_FCN_HANDLE;
 
+	private static final HandlerTable<Handler> HANDLERS;
+
 	private final MemorySegment overlapResultFcnAddress;
 
 	static {
@@ -43,6 +50,8 @@ public abstract class OverlapResultFunction {
 		
 		OVERLAP_RESULT_FCN_HANDLE = upcallHandle(LOOKUP, OverlapResultFunction.class, "overlapResultFunction", OVERLAP_RESULT_FCN_DESCR);
 		//@formatter:on
+
+		HANDLERS = new HandlerTable<>();
 	}
 
 	public OverlapResultFunction() {
@@ -59,4 +68,56 @@ public abstract class OverlapResultFunction {
 		return overlapResultFcnAddress;
 	}
 
+	/**
+	 * The overlap result function that dispatches to the handler registered for the
+	 * context pointer.
+	 */
+	public static OverlapResultFunction shared() {
+		return Shared.INSTANCE;
+	}
+
+	/**
+	 * Register a handler for the shared function and return its context pointer.
+	 * Release it once it is no longer used.
+	 */
+	public static MemorySegment register(Handler handler) {
+		return HANDLERS.register(handler);
+	}
+
+	/**
+	 * Release a context pointer returned by {@link #register(Handler)}.
+	 */
+	public static void release(MemorySegment context) {
+		HANDLERS.release(context);
+	}
+
+	/**
+	 * Overlap result handler used with the shared function. The shape id is only
+	 * valid during the call.
+	 */
+	@FunctionalInterface
+	public static interface Handler {
+
+		boolean overlapResult(MemorySegment shapeId);
+
+	}
+
+	private static final class Shared extends OverlapResultFunction {
+
+		private static final Shared INSTANCE = new Shared();
+
+		private Shared() {
+			super(Arena.global());
+		}
+
+		@Override
+		protected boolean overlapResultFunction(MemorySegment shapeIdA, MemorySegment context) {
+			Handler handler = HANDLERS.get(context);
+
+			// Stop the query if the handler was released
+			return handler != null && handler.overlapResult(shapeIdA);
+		}
+
+	}
+
 }
@@ -0,0 +1,65 @@
+package volucris.engine.physics.box2d.world.functions;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+
+import volucris.engine.physics.box2d.shape.Shape;
+import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
+
+import static java.lang.foreign.ValueLayout.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * Used to collect collision planes for character movers.
+ * <p>
+ * The plane result points to a b2PlaneResult and is only valid during the
+ * call. Use {@code planeResult.reinterpret(PlaneResult.LAYOUT().byteSize())} to
+ * read it.
+ * <p>
+ * Returns: true to continue the query.
+ */
+public abstract class PlaneResultFunction {
+
+	private static final Lookup LOOKUP;
+
+	private static final FunctionDescriptor PLANE_RESULT_FCN_DESCR;
+
+	private static final MethodHandle PLANE_RESULT_FCN_HANDLE;
+
+	private final MemorySegment planeResultFcnAddress;
+
+	static {
+		//@formatter:off
+		try {
+			LOOKUP = MethodHandles.privateLookupIn(PlaneResultFunction.class, MethodHandles.lookup());
+		} catch (IllegalAccessException e) {
+			String className = e.getClass().getSimpleName();
+			throw new Box2DRuntimeException("Cannot create private lookup: " + className);
+		}
+		
+		PLANE_RESULT_FCN_DESCR = functionDescr(JAVA_BOOLEAN, Shape.LAYOUT(), ADDRESS, ADDRESS);
+		
+		PLANE_RESULT_FCN_HANDLE = upcallHandle(LOOKUP, PlaneResultFunction.class, "planeResultFunction", PLANE_RESULT_FCN_DESCR);
+		//@formatter:on
+	}
+
+	public PlaneResultFunction() {
+		this(Arena.ofAuto());
+	}
+
+	public PlaneResultFunction(Arena arena) {
+		planeResultFcnAddress = upcallStub(this, PLANE_RESULT_FCN_HANDLE, PLANE_RESULT_FCN_DESCR, arena);
+	}
+
+	protected abstract boolean planeResultFunction(MemorySegment shapeId, MemorySegment planeResult,
+			MemorySegment context);
+
+	public MemorySegment memorySegment() {
+		return planeResultFcnAddress;
+	}
+
+}
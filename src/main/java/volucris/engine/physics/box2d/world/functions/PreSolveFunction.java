@@ -9,6 +9,7 @@ import java.lang.invoke.MethodHandles.Lookup;
 
 import volucris.engine.physics.box2d.shape.Shape;
 import volucris.engine.physics.box2d.utils.Box2DRuntimeException;
+import volucris.engine.physics.box2d.utils.HandlerTable;
 
 import static java.lang.foreign.ValueLayout.*;
 import static volucris.engine.physics.box2d.utils.FFMUtils.*;
@@ -28,6 +29,10 @@ import static volucris.engine.physics.box2d.utils.FFMUtils.*;
  * false if you want to disable the contact this step
  * </ul>
  * Warning: Do not attempt to modify the world inside this callback
+ * <p>
+ * Subclasses own one upcall stub each. For short-lived lambdas use a
+ * {@link Handler} instead: all handlers share one upcall stub and are found
+ * through the context pointer returned by {@link #register(Handler)}.
  */
 public abstract class PreSolveFunction {
 
@@ -37,6 +42,8 @@ public abstract class PreSolveFunction {
 
 	private static final MethodHandle PRE_SOLVE_FCN_HANDLE;
 
+	private static final HandlerTable<Handler> HANDLERS;
+
 	private final MemorySegment preSolveFcnAddress;
 
 	static {
@@ -52,6 +59,8 @@ public abstract class PreSolveFunction {
 		
 		PRE_SOLVE_FCN_HANDLE = upcallHandle(LOOKUP, PreSolveFunction.class, "preSolveFunction", PRE_SOLVE_FCN_DESCR);
 		//@formatter:on
+
+		HANDLERS = new HandlerTable<>();
 	}
 
 	public PreSolveFunction() {
@@ -69,4 +78,57 @@ public abstract class PreSolveFunction {
 		return preSolveFcnAddress;
 	}
 
+	/**
+	 * The pre-solve function that dispatches to the handler registered for the
+	 * context pointer.
+	 */
+	public static PreSolveFunction shared() {
+		return Shared.INSTANCE;
+	}
+
+	/**
+	 * Register a handler for the shared function and return its context pointer.
+	 * Release it once it is no longer used.
+	 */
+	public static MemorySegment register(Handler handler) {
+		return HANDLERS.register(handler);
+	}
+
+	/**
+	 * Release a context pointer returned by {@link #register(Handler)}.
+	 */
+	public static void release(MemorySegment context) {
+		HANDLERS.release(context);
+	}
+
+	/**
+	 * Pre-solve handler used with the shared function. The segments are only valid
+	 * during the call. Must be thread-safe.
+	 */
+	@FunctionalInterface
+	public static interface Handler {
+
+		boolean preSolve(MemorySegment shapeIdA, MemorySegment shapeIdB, MemorySegment manifold);
+
+	}
+
+	private static final class Shared extends PreSolveFunction {
+
+		private static final Shared INSTANCE = new Shared();
+
+		private Shared() {
+			super(Arena.global());
+		}
+
+		@Override
+		protected boolean preSolveFunction(MemorySegment shapeIdA, MemorySegment shapeIdB, MemorySegment manifold,
+				MemorySegment context) {
+			Handler handler = HANDLERS.get(context);
+
+			// Skip a released handler, the contact is solved as without a pre-solve function
+			return handler == null || handler.preSolve(shapeIdA, shapeIdB, manifold);
+		}
+
+	}
+
 }
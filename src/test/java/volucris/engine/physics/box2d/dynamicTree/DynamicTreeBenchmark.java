@@ -0,0 +1,264 @@
+package volucris.engine.physics.box2d.dynamicTree;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.lang.foreign.MemorySegment;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import volucris.engine.physics.box2d.Box2D;
+import volucris.engine.physics.box2d.geometry.RayCastInput;
+import volucris.engine.physics.box2d.math.AABB;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * Compares {@link JavaDynamicTree} with the native {@link DynamicTree} for
+ * queries, ray casts, proxy moves and full rebuilds. Both trees hold the same
+ * random proxies. Run with {@code mvn test-compile} followed by the
+ * {@link #main(String[])} method on the test class path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--enable-native-access=ALL-UNNAMED", "--add-modules", "jdk.incubator.vector" })
+public class DynamicTreeBenchmark {
+
+	private static final int QUERIES = 64;
+	private static final int MOVES = 256;
+	private static final float WORLD_SIZE = 1000.0f;
+
+	@Param({ "1000", "10000" })
+	private int proxyCount;
+
+	private Arena arena;
+	private JavaDynamicTree javaTree;
+	private DynamicTree nativeTree;
+
+	private int[] javaIds;
+	private int[] nativeIds;
+
+	private float[] queries;
+	private float[] rays;
+	private float[] moves;
+	private int[] results;
+
+	private AABB aabb;
+	private RayCastInput input;
+	private TreeRayCastCallback nativeRayCallback;
+	private TreeQueryCallback.Handler queryHandler;
+	private JavaDynamicTree.RayCastHandler rayHandler;
+
+	private int hits;
+	private int moveIndex;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Box2D.init();
+
+		SplittableRandom random = new SplittableRandom(38);
+
+		arena = Arena.ofConfined();
+		javaTree = new JavaDynamicTree(2 * proxyCount);
+		nativeTree = new DynamicTree(arena);
+		aabb = new AABB();
+		input = new RayCastInput();
+
+		javaIds = new int[proxyCount];
+		nativeIds = new int[proxyCount];
+		results = new int[proxyCount];
+
+		for (int i = 0; i < proxyCount; i++) {
+			float x = (float) random.nextDouble(0.0, WORLD_SIZE);
+			float y = (float) random.nextDouble(0.0, WORLD_SIZE);
+			float width = (float) random.nextDouble(0.5, 5.0);
+			float height = (float) random.nextDouble(0.5, 5.0);
+
+			javaIds[i] = javaTree.createProxy(x, y, x + width, y + height, 1L, i);
+			nativeIds[i] = nativeTree.createProxy(setAABB(x, y, x + width, y + height), 1L, i);
+		}
+
+		javaTree.rebuild(true);
+		nativeTree.rebuild(true);
+
+		queries = new float[4 * QUERIES];
+		rays = new float[4 * QUERIES];
+		for (int i = 0; i < QUERIES; i++) {
+			float x = (float) random.nextDouble(0.0, WORLD_SIZE);
+			float y = (float) random.nextDouble(0.0, WORLD_SIZE);
+			float size = (float) random.nextDouble(5.0, 50.0);
+
+			queries[4 * i] = x;
+			queries[4 * i + 1] = y;
+			queries[4 * i + 2] = x + size;
+			queries[4 * i + 3] = y + size;
+
+			rays[4 * i] = x;
+			rays[4 * i + 1] = y;
+			rays[4 * i + 2] = (float) random.nextDouble(-200.0, 200.0);
+			rays[4 * i + 3] = (float) random.nextDouble(-200.0, 200.0);
+		}
+
+		// Small displacements, like bodies moving between steps
+		moves = new float[2 * MOVES];
+		for (int i = 0; i < 2 * MOVES; i++)
+			moves[i] = (float) random.nextDouble(-1.0, 1.0);
+
+		queryHandler = (proxyId, userData) -> {
+			hits++;
+			return true;
+		};
+		rayHandler = (proxyId, userData, maxFraction) -> {
+			hits++;
+			return maxFraction;
+		};
+
+		long maxFractionOffset = RayCastInput.LAYOUT().byteOffset(PathElement.groupElement("maxFraction"));
+		long inputSize = RayCastInput.LAYOUT().byteSize();
+		nativeRayCallback = new TreeRayCastCallback() {
+
+			@Override
+			protected float treeRayCastCallback(MemorySegment subInput, int proxyId, long userData,
+					MemorySegment context) {
+				hits++;
+				return subInput.reinterpret(inputSize).get(JAVA_FLOAT, maxFractionOffset);
+			}
+
+		};
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		arena.close();
+	}
+
+	@Benchmark
+	public int queryJava() {
+		hits = 0;
+		for (int i = 0; i < QUERIES; i++)
+			javaTree.query(queries[4 * i], queries[4 * i + 1], queries[4 * i + 2], queries[4 * i + 3], -1L,
+					queryHandler);
+		return hits;
+	}
+
+	@Benchmark
+	public int queryJavaSnapshot() {
+		JavaDynamicTree.Snapshot snapshot = javaTree.publish();
+
+		hits = 0;
+		for (int i = 0; i < QUERIES; i++)
+			snapshot.query(queries[4 * i], queries[4 * i + 1], queries[4 * i + 2], queries[4 * i + 3], -1L,
+					queryHandler);
+		return hits;
+	}
+
+	@Benchmark
+	public int queryNative() {
+		int count = 0;
+		for (int i = 0; i < QUERIES; i++)
+			count += nativeTree.query(queries[4 * i], queries[4 * i + 1], queries[4 * i + 2], queries[4 * i + 3],
+					-1L, results);
+		return count;
+	}
+
+	@Benchmark
+	public int queryNativeCallback() {
+		hits = 0;
+		for (int i = 0; i < QUERIES; i++)
+			nativeTree.query(setAABB(queries[4 * i], queries[4 * i + 1], queries[4 * i + 2], queries[4 * i + 3]),
+					-1L, queryHandler);
+		return hits;
+	}
+
+	@Benchmark
+	public int rayCastJava() {
+		hits = 0;
+		for (int i = 0; i < QUERIES; i++)
+			javaTree.rayCast(rays[4 * i], rays[4 * i + 1], rays[4 * i + 2], rays[4 * i + 3], 1.0f, -1L, rayHandler);
+		return hits;
+	}
+
+	@Benchmark
+	public int rayCastNative() {
+		hits = 0;
+		for (int i = 0; i < QUERIES; i++) {
+			input.setOrigin(rays[4 * i], rays[4 * i + 1]);
+			input.setTranslation(rays[4 * i + 2], rays[4 * i + 3]);
+			input.setMaxFraction(1.0f);
+			nativeTree.rayCast(input, -1L, nativeRayCallback, MemorySegment.NULL);
+		}
+		return hits;
+	}
+
+	@Benchmark
+	public void moveProxyJava() {
+		int i = next();
+		float dx = moves[2 * (i % MOVES)];
+		float dy = moves[2 * (i % MOVES) + 1];
+
+		MemorySegment bounds = javaTree.getAABB(aabb, javaIds[i]).memorySegment();
+		javaTree.moveProxy(javaIds[i], bounds.getAtIndex(JAVA_FLOAT, 0) + dx, bounds.getAtIndex(JAVA_FLOAT, 1) + dy,
+				bounds.getAtIndex(JAVA_FLOAT, 2) + dx, bounds.getAtIndex(JAVA_FLOAT, 3) + dy);
+	}
+
+	@Benchmark
+	public void moveProxyNative() {
+		int i = next();
+		float dx = moves[2 * (i % MOVES)];
+		float dy = moves[2 * (i % MOVES) + 1];
+
+		MemorySegment bounds = nativeTree.getAABB(aabb, nativeIds[i]).memorySegment();
+		nativeTree.moveProxy(nativeIds[i], setAABB(bounds.getAtIndex(JAVA_FLOAT, 0) + dx,
+				bounds.getAtIndex(JAVA_FLOAT, 1) + dy, bounds.getAtIndex(JAVA_FLOAT, 2) + dx,
+				bounds.getAtIndex(JAVA_FLOAT, 3) + dy));
+	}
+
+	@Benchmark
+	public int rebuildJava() {
+		return javaTree.rebuild(true);
+	}
+
+	@Benchmark
+	public int rebuildNative() {
+		return nativeTree.rebuild(true);
+	}
+
+	private int next() {
+		int i = moveIndex;
+		moveIndex = i + 1 == proxyCount ? 0 : i + 1;
+		return i;
+	}
+
+	private AABB setAABB(float lowerX, float lowerY, float upperX, float upperY) {
+		MemorySegment segment = aabb.memorySegment();
+		segment.setAtIndex(JAVA_FLOAT, 0, lowerX);
+		segment.setAtIndex(JAVA_FLOAT, 1, lowerY);
+		segment.setAtIndex(JAVA_FLOAT, 2, upperX);
+		segment.setAtIndex(JAVA_FLOAT, 3, upperY);
+		return aabb;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(DynamicTreeBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
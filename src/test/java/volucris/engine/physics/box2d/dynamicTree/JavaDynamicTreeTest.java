@@ -0,0 +1,601 @@
+package volucris.engine.physics.box2d.dynamicTree;
+
+import java.lang.foreign.MemoryLayout.PathElement;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import volucris.engine.physics.box2d.Box2D;
+import volucris.engine.physics.box2d.geometry.RayCastInput;
+import volucris.engine.physics.box2d.math.AABB;
+
+import static java.lang.foreign.ValueLayout.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs random create, destroy, move, enlarge and rebuild sequences on a
+ * {@link JavaDynamicTree} and checks its queries and ray casts against brute
+ * force and against the native {@link DynamicTree} fed the same sequence.
+ * Proxies are matched through their user data, which is a key into the brute
+ * force arrays.
+ */
+class JavaDynamicTreeTest {
+
+	private static final int MAX_PROXIES = 512;
+	private static final float WORLD_SIZE = 100.0f;
+	private static final long[] CATEGORIES = { 0x1L, 0x2L, 0x4L };
+
+	@BeforeAll
+	static void init() {
+		Box2D.init();
+	}
+
+	@Test
+	void matchesBruteForceAndNativeTree() {
+		SplittableRandom random = new SplittableRandom(38);
+		Reference reference = new Reference();
+
+		JavaDynamicTree tree = new JavaDynamicTree(4);
+		DynamicTree nativeTree = new DynamicTree();
+		AABB aabb = new AABB();
+		RayCastInput input = new RayCastInput();
+
+		int[] javaIds = new int[MAX_PROXIES];
+		int[] nativeIds = new int[MAX_PROXIES];
+		int[] results = new int[MAX_PROXIES];
+
+		for (int i = 0; i < 20_000; i++) {
+			int operation = random.nextInt(10);
+
+			if (operation < 4 || reference.count == 0) {
+				int key = reference.freeKey();
+				if (key < 0)
+					continue;
+
+				reference.randomBounds(random, key);
+				long categoryBits = CATEGORIES[random.nextInt(CATEGORIES.length)];
+				reference.create(key, categoryBits);
+
+				float[] b = reference.bounds;
+				javaIds[key] = tree.createProxy(b[4 * key], b[4 * key + 1], b[4 * key + 2], b[4 * key + 3],
+						categoryBits, key);
+				nativeIds[key] = nativeTree.createProxy(setAABB(aabb, b, key), categoryBits, key);
+			} else if (operation < 6) {
+				int key = reference.randomKey(random);
+				reference.destroy(key);
+
+				tree.destroyProxy(javaIds[key]);
+				nativeTree.destroyProxy(nativeIds[key]);
+			} else if (operation < 8) {
+				int key = reference.randomKey(random);
+				reference.randomBounds(random, key);
+
+				float[] b = reference.bounds;
+				tree.moveProxy(javaIds[key], b[4 * key], b[4 * key + 1], b[4 * key + 2], b[4 * key + 3]);
+				nativeTree.moveProxy(nativeIds[key], setAABB(aabb, b, key));
+			} else if (operation < 9) {
+				// Grow on all sides, so the new AABB strictly contains the old one
+				int key = reference.randomKey(random);
+				float margin = (float) random.nextDouble(0.1, 2.0);
+
+				float[] b = reference.bounds;
+				b[4 * key] -= margin;
+				b[4 * key + 1] -= margin;
+				b[4 * key + 2] += margin;
+				b[4 * key + 3] += margin;
+
+				tree.enlargeProxy(javaIds[key], b[4 * key], b[4 * key + 1], b[4 * key + 2], b[4 * key + 3]);
+				nativeTree.enlargeProxy(nativeIds[key], setAABB(aabb, b, key));
+			} else {
+				// The sorted box counts depend on the tree shape, only a full build is fixed
+				boolean fullBuild = random.nextBoolean();
+				int sorted = tree.rebuild(fullBuild);
+				nativeTree.rebuild(fullBuild);
+
+				if (fullBuild && reference.count > 1)
+					assertEquals(reference.count, sorted, "Full rebuild count");
+			}
+
+			if (i % 16 != 0)
+				continue;
+
+			tree.validate();
+			assertEquals(reference.count, tree.getProxyCount(), "Proxy count");
+			assertEquals(nativeTree.getProxyCount(), tree.getProxyCount(), "Native proxy count");
+
+			for (int q = 0; q < 4; q++) {
+				float lowerX = (float) random.nextDouble(-10.0, WORLD_SIZE);
+				float lowerY = (float) random.nextDouble(-10.0, WORLD_SIZE);
+				float upperX = lowerX + (float) random.nextDouble(0.0, 30.0);
+				float upperY = lowerY + (float) random.nextDouble(0.0, 30.0);
+				long maskBits = random.nextBoolean() ? -1L : CATEGORIES[random.nextInt(CATEGORIES.length)];
+
+				long[] expected = reference.query(lowerX, lowerY, upperX, upperY, maskBits);
+
+				Keys keys = new Keys();
+				int count = tree.query(lowerX, lowerY, upperX, upperY, maskBits, keys::add);
+				assertEquals(expected.length, count, "Query count");
+				assertArrayEquals(expected, keys.sorted(), "Query results");
+
+				int nativeCount = nativeTree.query(lowerX, lowerY, upperX, upperY, maskBits, results);
+				long[] nativeKeys = new long[nativeCount];
+				for (int k = 0; k < nativeCount; k++)
+					nativeKeys[k] = nativeTree.getUserData(results[k]);
+				Arrays.sort(nativeKeys);
+				assertArrayEquals(expected, nativeKeys, "Native query results");
+			}
+
+			for (int r = 0; r < 4; r++)
+				assertRayCast(random, reference, tree, nativeTree, input);
+		}
+	}
+
+	private static void assertRayCast(SplittableRandom random, Reference reference, JavaDynamicTree tree,
+			DynamicTree nativeTree, RayCastInput input) {
+		float originX = (float) random.nextDouble(-10.0, WORLD_SIZE + 10.0);
+		float originY = (float) random.nextDouble(-10.0, WORLD_SIZE + 10.0);
+		float translationX = (float) random.nextDouble(-60.0, 60.0);
+		float translationY = (float) random.nextDouble(-60.0, 60.0);
+		long maskBits = random.nextBoolean() ? -1L : CATEGORIES[random.nextInt(CATEGORIES.length)];
+
+		input.setOrigin(originX, originY);
+		input.setTranslation(translationX, translationY);
+		input.setMaxFraction(1.0f);
+
+		// Without clipping every proxy on the segment is reported
+		Keys javaKeys = new Keys();
+		tree.rayCast(originX, originY, translationX, translationY, 1.0f, maskBits, (proxyId, userData, maxFraction) -> {
+			javaKeys.add(proxyId, userData);
+			return maxFraction;
+		});
+
+		Keys nativeKeys = new Keys();
+		nativeTree.rayCast(input, maskBits, new TreeRayCastCallback() {
+
+			@Override
+			protected float treeRayCastCallback(MemorySegment subInput, int proxyId, long userData,
+					MemorySegment context) {
+				nativeKeys.add(proxyId, userData);
+				return maxFraction(subInput);
+			}
+
+		}, MemorySegment.NULL);
+
+		assertArrayEquals(nativeKeys.sorted(), javaKeys.sorted(), "Ray cast results");
+
+		// With clipping both trees must end at the closest proxy
+		float[] javaClosest = { 1.0f };
+		tree.rayCast(originX, originY, translationX, translationY, 1.0f, maskBits, (proxyId, userData, maxFraction) -> {
+			float fraction = reference.rayFraction((int) userData, originX, originY, translationX, translationY);
+			if (fraction < maxFraction) {
+				javaClosest[0] = fraction;
+				return fraction;
+			}
+			return maxFraction;
+		});
+
+		float[] nativeClosest = { 1.0f };
+		nativeTree.rayCast(input, maskBits, new TreeRayCastCallback() {
+
+			@Override
+			protected float treeRayCastCallback(MemorySegment subInput, int proxyId, long userData,
+					MemorySegment context) {
+				float maxFraction = maxFraction(subInput);
+				float fraction = reference.rayFraction((int) userData, originX, originY, translationX, translationY);
+				if (fraction < maxFraction) {
+					nativeClosest[0] = fraction;
+					return fraction;
+				}
+				return maxFraction;
+			}
+
+		}, MemorySegment.NULL);
+
+		float closest = 1.0f;
+		for (int key = 0; key < MAX_PROXIES; key++) {
+			if (reference.live[key] && (reference.categoryBits[key] & maskBits) != 0L)
+				closest = Math.min(closest, reference.rayFraction(key, originX, originY, translationX, translationY));
+		}
+
+		assertEquals(closest, javaClosest[0], "Closest ray fraction");
+		assertEquals(closest, nativeClosest[0], "Native closest ray fraction");
+	}
+
+	@Test
+	void snapshotsKeepThePublishedState() {
+		SplittableRandom random = new SplittableRandom(381);
+		Reference reference = new Reference();
+
+		JavaDynamicTree tree = new JavaDynamicTree();
+		int[] ids = new int[MAX_PROXIES];
+
+		assertEquals(0, tree.getSnapshot().getProxyCount(), "Snapshot before the first publish");
+
+		for (int round = 0; round < 300; round++) {
+			mutate(random, reference, tree, ids, 1 + random.nextInt(20));
+
+			JavaDynamicTree.Snapshot snapshot;
+			if (round % 25 == 24) {
+				snapshot = tree.rebuildAsync(ForkJoinPool.commonPool()).join();
+				assertSame(snapshot, tree.getSnapshot());
+				assertTrue(tree.applyRebuild(), "Unmodified tree must take the rebuild");
+				tree.validate();
+			} else {
+				snapshot = tree.publish();
+				assertSame(snapshot, tree.publish());
+			}
+
+			long[][] expected = reference.queryAll();
+			Published copy = new Published(snapshot, expected, reference.copyBoxes());
+
+			// Modify the tree after the publish, the snapshot must not change
+			mutate(random, reference, tree, ids, 1 + random.nextInt(20));
+			if (random.nextBoolean())
+				tree.rebuild(random.nextBoolean());
+
+			copy.check();
+			assertEquals(reference.count, tree.getProxyCount(), "Proxy count");
+		}
+	}
+
+	@Test
+	void buildMatchesBruteForce() {
+		SplittableRandom random = new SplittableRandom(40);
+		Reference reference = new Reference();
+
+		int count = 300;
+		float[] aabbs = new float[4 * count];
+		long[] categoryBits = new long[count];
+		long[] userData = new long[count];
+
+		for (int key = 0; key < count; key++) {
+			reference.randomBounds(random, key);
+			categoryBits[key] = CATEGORIES[random.nextInt(CATEGORIES.length)];
+			userData[key] = key;
+			reference.create(key, categoryBits[key]);
+		}
+		System.arraycopy(reference.bounds, 0, aabbs, 0, 4 * count);
+
+		JavaDynamicTree tree = JavaDynamicTree.build(aabbs, categoryBits, userData, count);
+		tree.validate();
+		assertEquals(count, tree.getProxyCount());
+		assertNotNull(tree.getSnapshot(), "Build must publish");
+
+		for (int key = 0; key < count; key++)
+			assertEquals(key, tree.getUserData(key), "Proxy i gets the id i");
+
+		new Published(tree.getSnapshot(), reference.queryAll(), reference.copyBoxes()).check();
+
+		// The built tree accepts the usual updates
+		int[] ids = new int[MAX_PROXIES];
+		for (int key = 0; key < count; key++)
+			ids[key] = key;
+
+		mutate(random, reference, tree, ids, 500);
+		tree.validate();
+		new Published(tree.publish(), reference.queryAll(), reference.copyBoxes()).check();
+	}
+
+	@Test
+	void concurrentReadersSeePublishedState() throws InterruptedException {
+		SplittableRandom random = new SplittableRandom(383);
+		Reference reference = new Reference();
+
+		JavaDynamicTree tree = new JavaDynamicTree();
+		int[] ids = new int[MAX_PROXIES];
+
+		ConcurrentHashMap<JavaDynamicTree.Snapshot, Published> published = new ConcurrentHashMap<>();
+		ArrayDeque<JavaDynamicTree.Snapshot> recent = new ArrayDeque<>();
+
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicLong checks = new AtomicLong();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		Thread[] readers = new Thread[3];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread(() -> {
+				try {
+					while (!done.get()) {
+						JavaDynamicTree.Snapshot snapshot = tree.getSnapshot();
+						Published expected = snapshot == null ? null : published.get(snapshot);
+						if (expected == null)
+							continue;
+
+						expected.check();
+						checks.incrementAndGet();
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+			readers[i].start();
+		}
+
+		try {
+			for (int round = 0; round < 2000 && failure.get() == null; round++) {
+				mutate(random, reference, tree, ids, 1 + random.nextInt(10));
+
+				// The expected results are stored before the snapshot can be seen
+				long[][] expected = reference.queryAll();
+				float[] boxes = reference.copyBoxes();
+
+				JavaDynamicTree.Snapshot snapshot;
+				if (round % 100 == 99) {
+					snapshot = tree.rebuildAsync(ForkJoinPool.commonPool()).thenApply(s -> {
+						published.put(s, new Published(s, expected, boxes));
+						return s;
+					}).join();
+					tree.applyRebuild();
+				} else {
+					snapshot = tree.publish();
+					published.put(snapshot, new Published(snapshot, expected, boxes));
+				}
+
+				recent.add(snapshot);
+				if (recent.size() > 8)
+					published.remove(recent.poll());
+			}
+		} finally {
+			done.set(true);
+			for (Thread reader : readers)
+				reader.join();
+		}
+
+		if (failure.get() != null)
+			fail("Reader failed: " + failure.get());
+
+		assertTrue(checks.get() > 0, "Readers checked no snapshot");
+	}
+
+	/**
+	 * Apply random creates, destroys, moves and rebuilds to the tree and the
+	 * reference.
+	 */
+	private static void mutate(SplittableRandom random, Reference reference, JavaDynamicTree tree, int[] ids,
+			int count) {
+		float[] b = reference.bounds;
+
+		for (int i = 0; i < count; i++) {
+			int operation = random.nextInt(10);
+
+			if (operation < 5 || reference.count == 0) {
+				int key = reference.freeKey();
+				if (key < 0)
+					continue;
+
+				reference.randomBounds(random, key);
+				long categoryBits = CATEGORIES[random.nextInt(CATEGORIES.length)];
+				reference.create(key, categoryBits);
+				ids[key] = tree.createProxy(b[4 * key], b[4 * key + 1], b[4 * key + 2], b[4 * key + 3], categoryBits,
+						key);
+			} else if (operation < 7) {
+				int key = reference.randomKey(random);
+				reference.destroy(key);
+				tree.destroyProxy(ids[key]);
+			} else if (operation < 9) {
+				int key = reference.randomKey(random);
+				reference.randomBounds(random, key);
+				tree.moveProxy(ids[key], b[4 * key], b[4 * key + 1], b[4 * key + 2], b[4 * key + 3]);
+			} else {
+				tree.rebuild(random.nextBoolean());
+			}
+		}
+	}
+
+	private static AABB setAABB(AABB aabb, float[] bounds, int key) {
+		MemorySegment segment = aabb.memorySegment();
+		for (int i = 0; i < 4; i++)
+			segment.setAtIndex(JAVA_FLOAT, i, bounds[4 * key + i]);
+		return aabb;
+	}
+
+	private static float maxFraction(MemorySegment subInput) {
+		long offset = RayCastInput.LAYOUT().byteOffset(PathElement.groupElement("maxFraction"));
+		return subInput.reinterpret(RayCastInput.LAYOUT().byteSize()).get(JAVA_FLOAT, offset);
+	}
+
+	/**
+	 * The brute force state: bounds and category bits per key.
+	 */
+	private static final class Reference {
+
+		private final float[] bounds = new float[4 * MAX_PROXIES];
+		private final long[] categoryBits = new long[MAX_PROXIES];
+		private final boolean[] live = new boolean[MAX_PROXIES];
+		private int count;
+
+		private int freeKey() {
+			for (int key = 0; key < MAX_PROXIES; key++) {
+				if (!live[key])
+					return key;
+			}
+			return -1;
+		}
+
+		private int randomKey(SplittableRandom random) {
+			int key = random.nextInt(MAX_PROXIES);
+			while (!live[key])
+				key = (key + 1) % MAX_PROXIES;
+			return key;
+		}
+
+		private void randomBounds(SplittableRandom random, int key) {
+			float x = (float) random.nextDouble(0.0, WORLD_SIZE);
+			float y = (float) random.nextDouble(0.0, WORLD_SIZE);
+			bounds[4 * key] = x;
+			bounds[4 * key + 1] = y;
+			bounds[4 * key + 2] = x + (float) random.nextDouble(0.0, 4.0);
+			bounds[4 * key + 3] = y + (float) random.nextDouble(0.0, 4.0);
+		}
+
+		private void create(int key, long categoryBits) {
+			this.categoryBits[key] = categoryBits;
+			live[key] = true;
+			count++;
+		}
+
+		private void destroy(int key) {
+			live[key] = false;
+			count--;
+		}
+
+		private long[] query(float lowerX, float lowerY, float upperX, float upperY, long maskBits) {
+			return query(bounds, lowerX, lowerY, upperX, upperY, maskBits);
+		}
+
+		private long[] query(float[] boxes, float lowerX, float lowerY, float upperX, float upperY, long maskBits) {
+			Keys keys = new Keys();
+			for (int key = 0; key < MAX_PROXIES; key++) {
+				if (!live[key] || (categoryBits[key] & maskBits) == 0L)
+					continue;
+
+				if (boxes[4 * key] <= upperX && lowerX <= boxes[4 * key + 2] && boxes[4 * key + 1] <= upperY
+						&& lowerY <= boxes[4 * key + 3])
+					keys.add(key, key);
+			}
+			return keys.sorted();
+		}
+
+		/**
+		 * Query the boxes of {@link Published#QUERIES} with all masks, one result per
+		 * box and mask.
+		 */
+		private long[][] queryAll() {
+			long[][] results = new long[Published.QUERIES.length / 4 * (CATEGORIES.length + 1)][];
+
+			int r = 0;
+			for (int q = 0; q < Published.QUERIES.length; q += 4) {
+				float[] box = Published.QUERIES;
+				results[r++] = query(box[q], box[q + 1], box[q + 2], box[q + 3], -1L);
+				for (long mask : CATEGORIES)
+					results[r++] = query(box[q], box[q + 1], box[q + 2], box[q + 3], mask);
+			}
+			return results;
+		}
+
+		/**
+		 * The bounds of the live proxies, NaN for free keys.
+		 */
+		private float[] copyBoxes() {
+			float[] boxes = Arrays.copyOf(bounds, bounds.length);
+			for (int key = 0; key < MAX_PROXIES; key++) {
+				if (!live[key])
+					Arrays.fill(boxes, 4 * key, 4 * key + 4, Float.NaN);
+			}
+			return boxes;
+		}
+
+		/**
+		 * The fraction where the segment enters the bounds of a key, or 1 if it
+		 * misses them. A slab test like b2AABB_RayCast.
+		 */
+		private float rayFraction(int key, float originX, float originY, float translationX, float translationY) {
+			float tMin = 0.0f;
+			float tMax = 1.0f;
+
+			float[] origin = { originX, originY };
+			float[] translation = { translationX, translationY };
+
+			for (int axis = 0; axis < 2; axis++) {
+				float lower = bounds[4 * key + axis];
+				float upper = bounds[4 * key + 2 + axis];
+
+				if (translation[axis] == 0.0f) {
+					if (origin[axis] < lower || upper < origin[axis])
+						return 1.0f;
+					continue;
+				}
+
+				float t1 = (lower - origin[axis]) / translation[axis];
+				float t2 = (upper - origin[axis]) / translation[axis];
+				tMin = Math.max(tMin, Math.min(t1, t2));
+				tMax = Math.min(tMax, Math.max(t1, t2));
+
+				if (tMin > tMax)
+					return 1.0f;
+			}
+
+			// An origin inside a box would terminate the ray cast, keep it positive
+			return Math.max(tMin, 1e-6f);
+		}
+
+	}
+
+	/**
+	 * A published snapshot with the brute force results of the fixed queries at
+	 * publish time.
+	 */
+	private static final class Published {
+
+		private static final float[] QUERIES = { 0.0f, 0.0f, 100.0f, 100.0f, 10.0f, 10.0f, 30.0f, 25.0f, 50.0f,
+				40.0f, 52.0f, 90.0f, 70.0f, 70.0f, 71.0f, 71.0f, -5.0f, 60.0f, 40.0f, 65.0f };
+
+		private final JavaDynamicTree.Snapshot snapshot;
+		private final long[][] expected;
+		private final float[] boxes;
+
+		private Published(JavaDynamicTree.Snapshot snapshot, long[][] expected, float[] boxes) {
+			this.snapshot = snapshot;
+			this.expected = expected;
+			this.boxes = boxes;
+		}
+
+		private void check() {
+			int r = 0;
+			for (int q = 0; q < QUERIES.length; q += 4) {
+				r = check(q, -1L, r);
+				for (long mask : CATEGORIES)
+					r = check(q, mask, r);
+			}
+		}
+
+		private int check(int q, long maskBits, int r) {
+			Keys keys = new Keys();
+			snapshot.query(QUERIES[q], QUERIES[q + 1], QUERIES[q + 2], QUERIES[q + 3], maskBits, (proxyId, userData) -> {
+				assertEquals(userData, snapshot.getUserData(proxyId), "Snapshot user data");
+
+				assertEquals(boxes[4 * (int) userData], snapshot.getAABB(new AABB(), proxyId).getLowerBound().x,
+						"Snapshot bounds");
+				return keys.add(proxyId, userData);
+			});
+
+			assertArrayEquals(expected[r], keys.sorted(), "Snapshot query results");
+			return r + 1;
+		}
+
+	}
+
+	/**
+	 * Collects reported user data.
+	 */
+	private static final class Keys {
+
+		private long[] keys = new long[16];
+		private int count;
+
+		private boolean add(int proxyId, long userData) {
+			if (count == keys.length)
+				keys = Arrays.copyOf(keys, 2 * count);
+
+			keys[count++] = userData;
+			return true;
+		}
+
+		private long[] sorted() {
+			long[] sorted = Arrays.copyOf(keys, count);
+			Arrays.sort(sorted);
+			return sorted;
+		}
+
+	}
+
+}
@@ -0,0 +1,340 @@
+package volucris.engine.physics.box2d.geometry;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.lang.invoke.MethodHandle;
+import java.util.SplittableRandom;
+
+import org.joml.Vector2f;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import volucris.engine.physics.box2d.Box2D;
+import volucris.engine.physics.box2d.math.AABB;
+import volucris.engine.physics.box2d.math.Transform;
+
+import static java.lang.foreign.ValueLayout.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static volucris.engine.physics.box2d.geometry.GeometryKernels.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * Checks {@link GeometryKernels} against the native geometry functions on
+ * random shapes, transforms, points and rays.
+ */
+class GeometryKernelsTest {
+
+	private static final int SAMPLES = 20_000;
+
+	/**
+	 * Relative tolerance for results that follow the native operation order.
+	 */
+	private static final float EPSILON = 2e-4f;
+
+	/**
+	 * Absolute tolerance for the point of a rounded polygon ray cast. The native
+	 * shape cast stops anywhere within a quarter of the linear slop of its
+	 * target distance.
+	 */
+	private static final float ROUNDED_TOLERANCE = 0.25f * 0.005f;
+
+	private static MethodHandle b2RayCastSegment;
+
+	private final SplittableRandom random = new SplittableRandom(28);
+
+	private final float[] shape = new float[POLYGON_STRIDE];
+	private final float[] transform = new float[TRANSFORM_STRIDE];
+	private final float[] result = new float[CAST_STRIDE];
+
+	@BeforeAll
+	static void init() {
+		Box2D.init();
+
+		b2RayCastSegment = downcallHandle("b2RayCastSegment", CastOutput.LAYOUT(), ADDRESS, ADDRESS, JAVA_BOOLEAN);
+	}
+
+	@Test
+	void polygonMatchesNative() {
+		Polygon polygon = new Polygon();
+		Transform xf = new Transform();
+		RayCastInput input = new RayCastInput();
+		CastOutput output = new CastOutput();
+		Vector2f vector = new Vector2f();
+
+		for (int i = 0; i < SAMPLES; i++) {
+			float radius = i % 3 == 0 ? random(0.0f, 0.5f) : 0.0f;
+			vector.set(random(-3.0f, 3.0f), random(-3.0f, 3.0f));
+			Polygon.makeOffsetRoundedBox(polygon, random(0.1f, 1.1f), random(0.1f, 1.1f), vector,
+					random(-3.0f, 3.0f), radius);
+			polygon.get(shape, 0);
+
+			randomTransform(xf);
+			float density = random(0.0f, 3.0f);
+
+			MassData mass = polygon.computePolygonMass(density);
+			computePolygonMass(shape, 0, density, result, 0);
+			assertMass(mass, result, "polygon mass " + i);
+
+			AABB aabb = polygon.computePolygonAABB(xf);
+			computePolygonAABB(shape, 0, transform, 0, result, 0);
+			assertAABB(aabb, result, "polygon aabb " + i);
+
+			vector.set(random(-4.0f, 4.0f), random(-4.0f, 4.0f));
+			assertEquals(polygon.pointInPolygon(vector), pointInPolygon(shape, 0, vector.x, vector.y),
+					"point in polygon " + i);
+
+			randomRay(input);
+			polygon.rayCastPolygon(output, input);
+			boolean hit = rayCast(input, (o, t, m) -> rayCastPolygon(shape, 0, o.x, o.y, t.x, t.y, m, result, 0));
+
+			if (radius == 0.0f) {
+				assertCast(output, hit, result, EPSILON, "polygon ray cast " + i);
+			} else if (output.getHit() && output.getFraction() == 0.0f) {
+				// Initial overlap, native reports a GJK witness point
+				assertTrue(hit, "rounded polygon initial overlap " + i);
+				assertEquals(0.0f, result[4], "rounded polygon initial overlap " + i);
+			} else {
+				assertRoundedCast(output, hit, input, "rounded polygon ray cast " + i);
+			}
+		}
+	}
+
+	/**
+	 * The native rounded polygon ray cast is a shape cast that stops within a
+	 * tolerance of the surface. Only the distance along the surface normal is
+	 * bounded, so grazing rays can hit in one and miss in the other, and the
+	 * fraction and point can move far along the ray.
+	 */
+	private void assertRoundedCast(CastOutput expected, boolean hit, RayCastInput input, String message) {
+		Vector2f origin = input.getOrigin();
+		Vector2f translation = input.getTranslation();
+		float maxFraction = input.getMaxFraction();
+
+		if (expected.getHit() != hit) {
+			// Must agree once the radius moves by the tolerance
+			float radius = shape[POLYGON_RADIUS];
+			float[] output = new float[CAST_STRIDE];
+			shape[POLYGON_RADIUS] = hit ? radius - ROUNDED_TOLERANCE : radius + ROUNDED_TOLERANCE;
+			boolean grazing = rayCastPolygon(shape, 0, origin.x, origin.y, translation.x, translation.y, maxFraction,
+					output, 0);
+			shape[POLYGON_RADIUS] = radius;
+
+			assertEquals(expected.getHit(), grazing, message + " hit");
+			return;
+		}
+
+		if (!hit)
+			return;
+
+		Vector2f normal = expected.getNormal();
+		float normalTranslation = translation.x * result[2] + translation.y * result[3];
+		float normalDistance = Math.abs((expected.getFraction() - result[4]) * normalTranslation);
+		assertEquals(0.0f, normalDistance, ROUNDED_TOLERANCE + EPSILON, message + " normal distance");
+		assertTrue(normal.x * result[2] + normal.y * result[3] > 0.98f, message + " normal");
+	}
+
+	@Test
+	void circleMatchesNative() {
+		Transform xf = new Transform();
+		RayCastInput input = new RayCastInput();
+		CastOutput output = new CastOutput();
+		Vector2f point = new Vector2f();
+
+		for (int i = 0; i < SAMPLES; i++) {
+			Circle circle = new Circle(random(-1.0f, 1.0f), random(-1.0f, 1.0f), random(0.0f, 1.0f));
+			circle.get(shape, 0);
+
+			randomTransform(xf);
+			float density = random(0.0f, 3.0f);
+
+			computeCircleMass(shape, 0, density, result, 0);
+			assertMass(circle.computeCircleMass(density), result, "circle mass " + i);
+
+			computeCircleAABB(shape, 0, transform, 0, result, 0);
+			assertAABB(circle.computeCircleAABB(xf), result, "circle aabb " + i);
+
+			point.set(random(-2.0f, 2.0f), random(-2.0f, 2.0f));
+			assertEquals(circle.pointInCircle(point), pointInCircle(shape, 0, point.x, point.y), "point in circle " + i);
+
+			randomRay(input);
+			circle.rayCastCircle(output, input);
+			boolean hit = rayCast(input, (o, t, m) -> rayCastCircle(shape, 0, o.x, o.y, t.x, t.y, m, result, 0));
+			assertCast(output, hit, result, EPSILON, "circle ray cast " + i);
+		}
+	}
+
+	@Test
+	void capsuleMatchesNative() {
+		Transform xf = new Transform();
+		RayCastInput input = new RayCastInput();
+		CastOutput output = new CastOutput();
+		Vector2f point = new Vector2f();
+
+		for (int i = 0; i < SAMPLES; i++) {
+			Capsule capsule = new Capsule(random(-2.0f, 2.0f), random(-2.0f, 2.0f), random(-2.0f, 2.0f),
+					random(-2.0f, 2.0f), random(0.0f, 1.0f));
+			capsule.get(shape, 0);
+
+			randomTransform(xf);
+			float density = random(0.0f, 3.0f);
+
+			computeCapsuleMass(shape, 0, density, result, 0);
+			assertMass(capsule.computeCapsuleMass(density), result, "capsule mass " + i);
+
+			computeCapsuleAABB(shape, 0, transform, 0, result, 0);
+			assertAABB(capsule.computeCapsuleAABB(xf), result, "capsule aabb " + i);
+
+			point.set(random(-4.0f, 4.0f), random(-4.0f, 4.0f));
+			assertEquals(capsule.pointInCapsule(point), pointInCapsule(shape, 0, point.x, point.y),
+					"point in capsule " + i);
+
+			randomRay(input);
+			capsule.rayCastCapsule(output, input);
+			boolean hit = rayCast(input, (o, t, m) -> rayCastCapsule(shape, 0, o.x, o.y, t.x, t.y, m, result, 0));
+			assertCast(output, hit, result, EPSILON, "capsule ray cast " + i);
+		}
+	}
+
+	@Test
+	void segmentMatchesNative() throws Throwable {
+		Transform xf = new Transform();
+		RayCastInput input = new RayCastInput();
+		Segment segment = new Segment();
+
+		try (Arena arena = Arena.ofConfined()) {
+			for (int i = 0; i < SAMPLES; i++) {
+				segment.setPoint1(random(-3.0f, 3.0f), random(-3.0f, 3.0f));
+				segment.setPoint2(random(-3.0f, 3.0f), random(-3.0f, 3.0f));
+				segment.get(shape, 0);
+
+				randomTransform(xf);
+				computeSegmentAABB(shape, 0, transform, 0, result, 0);
+				assertAABB(segment.computeSegmentAABB(xf), result, "segment aabb " + i);
+
+				boolean oneSided = i % 2 == 1;
+				randomRay(input);
+
+				SegmentAllocator allocator = arena;
+				MemorySegment castOutput = (MemorySegment) b2RayCastSegment.invokeExact(allocator,
+						input.memorySegment(), segment.memorySegment(), oneSided);
+				CastOutput output = new CastOutput(castOutput);
+
+				boolean hit = rayCast(input,
+						(o, t, m) -> rayCastSegment(shape, 0, o.x, o.y, t.x, t.y, m, oneSided, result, 0));
+				assertCast(output, hit, result, EPSILON, "segment ray cast " + i);
+			}
+		}
+	}
+
+	@Test
+	void transformPolygonMatchesNative() {
+		Polygon polygon = new Polygon();
+		Transform xf = new Transform();
+		Vector2f vector = new Vector2f();
+
+		float[] expected = new float[POLYGON_STRIDE];
+		float[] actual = new float[2 * POLYGON_STRIDE];
+
+		for (int i = 0; i < SAMPLES; i++) {
+			float radius = i % 3 == 0 ? random(0.0f, 0.5f) : 0.0f;
+			vector.set(random(-3.0f, 3.0f), random(-3.0f, 3.0f));
+			Polygon.makeOffsetRoundedBox(polygon, random(0.1f, 1.1f), random(0.1f, 1.1f), vector,
+					random(-3.0f, 3.0f), radius);
+			polygon.get(shape, 0);
+
+			randomTransform(xf);
+			polygon.transformPolygon(xf).get(expected, 0);
+
+			// Into another array at an offset, then in place
+			transformPolygon(transform, 0, shape, 0, actual, POLYGON_STRIDE);
+			assertPolygon(expected, actual, POLYGON_STRIDE, "transform polygon " + i);
+
+			transformPolygon(transform, 0, shape, 0, shape, 0);
+			assertPolygon(expected, shape, 0, "transform polygon in place " + i);
+		}
+	}
+
+	private float random(float min, float max) {
+		return (float) random.nextDouble(min, max);
+	}
+
+	private void randomTransform(Transform xf) {
+		xf.setPosition(random(-10.0f, 10.0f), random(-10.0f, 10.0f));
+		xf.setRotationRadians(random(-3.0f, 3.0f));
+		xf.get(transform, 0);
+	}
+
+	private void randomRay(RayCastInput input) {
+		input.setOrigin(random(-6.0f, 6.0f), random(-6.0f, 6.0f));
+		input.setTranslation(random(-12.0f, 12.0f), random(-12.0f, 12.0f));
+		input.setMaxFraction(1.0f);
+	}
+
+	private interface RayCast {
+
+		boolean cast(Vector2f origin, Vector2f translation, float maxFraction);
+
+	}
+
+	private static boolean rayCast(RayCastInput input, RayCast rayCast) {
+		return rayCast.cast(input.getOrigin(), input.getTranslation(), input.getMaxFraction());
+	}
+
+	private static void assertMass(MassData expected, float[] actual, String message) {
+		Vector2f center = expected.getCenter();
+		assertClose(expected.getMass(), actual[0], EPSILON, message + " mass");
+		assertClose(center.x, actual[1], EPSILON, message + " center x");
+		assertClose(center.y, actual[2], EPSILON, message + " center y");
+		assertClose(expected.getRotationalInertia(), actual[3], EPSILON, message + " inertia");
+	}
+
+	private static void assertAABB(AABB expected, float[] actual, String message) {
+		Vector2f lower = expected.getLowerBound();
+		Vector2f upper = expected.getUpperBound();
+		assertClose(lower.x, actual[0], EPSILON, message + " lower x");
+		assertClose(lower.y, actual[1], EPSILON, message + " lower y");
+		assertClose(upper.x, actual[2], EPSILON, message + " upper x");
+		assertClose(upper.y, actual[3], EPSILON, message + " upper y");
+	}
+
+	private static void assertPolygon(float[] expected, float[] actual, int offset, String message) {
+		int count = (int) expected[POLYGON_COUNT];
+		assertEquals(count, (int) actual[offset + POLYGON_COUNT], message + " count");
+		assertEquals(expected[POLYGON_RADIUS], actual[offset + POLYGON_RADIUS], message + " radius");
+
+		for (int i = 0; i < 2 * count; i++) {
+			assertClose(expected[POLYGON_VERTICES + i], actual[offset + POLYGON_VERTICES + i], EPSILON,
+					message + " vertex " + i);
+			assertClose(expected[POLYGON_NORMALS + i], actual[offset + POLYGON_NORMALS + i], EPSILON,
+					message + " normal " + i);
+		}
+
+		assertClose(expected[POLYGON_CENTROID], actual[offset + POLYGON_CENTROID], EPSILON, message + " centroid x");
+		assertClose(expected[POLYGON_CENTROID + 1], actual[offset + POLYGON_CENTROID + 1], EPSILON,
+				message + " centroid y");
+	}
+
+	private static void assertCast(CastOutput expected, boolean hit, float[] actual, float epsilon, String message) {
+		assertEquals(expected.getHit(), hit, message + " hit");
+		if (!hit)
+			return;
+
+		Vector2f point = expected.getPoint();
+		Vector2f normal = expected.getNormal();
+		assertClose(point.x, actual[0], epsilon, message + " point x");
+		assertClose(point.y, actual[1], epsilon, message + " point y");
+		assertClose(normal.x, actual[2], epsilon, message + " normal x");
+		assertClose(normal.y, actual[3], epsilon, message + " normal y");
+		assertClose(expected.getFraction(), actual[4], epsilon, message + " fraction");
+	}
+
+	/**
+	 * Compare relative to the magnitude of the values, and absolute below one.
+	 */
+	private static void assertClose(float expected, float actual, float epsilon, String message) {
+		float scale = Math.max(1.0f, Math.max(Math.abs(expected), Math.abs(actual)));
+		assertEquals(expected, actual, epsilon * scale, message);
+	}
+
+}
@@ -0,0 +1,113 @@
+package volucris.engine.physics.box2d.utils;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.lang.invoke.MethodHandle;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import volucris.engine.physics.box2d.Box2D;
+import volucris.engine.physics.box2d.math.CosSin;
+import volucris.engine.physics.box2d.math.Rot;
+
+import static java.lang.foreign.ValueLayout.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static volucris.engine.physics.box2d.utils.FFMUtils.*;
+
+/**
+ * Checks the Java ports in {@link MathUtils} against the native functions they
+ * replace. Both must return the same bits.
+ */
+class MathUtilsTest {
+
+	private static final int SAMPLES = 1_000_000;
+
+	private static final float[] SPECIAL = { 0.0f, -0.0f, Float.MIN_VALUE, -Float.MIN_VALUE, Float.MIN_NORMAL, 1.0f,
+			-1.0f, MathUtils.PI, -MathUtils.PI, 0.5f * MathUtils.PI, -0.5f * MathUtils.PI, 1e-20f, 1e20f,
+			Float.MAX_VALUE, -Float.MAX_VALUE, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NaN };
+
+	private static MethodHandle b2Atan2;
+	private static MethodHandle b2ComputeCosSin;
+
+	@BeforeAll
+	static void init() {
+		Box2D.init();
+
+		b2Atan2 = downcallHandle("b2Atan2", JAVA_FLOAT, JAVA_FLOAT, JAVA_FLOAT);
+		b2ComputeCosSin = downcallHandle("b2ComputeCosSin", CosSin.LAYOUT(), JAVA_FLOAT);
+	}
+
+	@Test
+	void atan2MatchesNative() throws Throwable {
+		for (float y : SPECIAL) {
+			for (float x : SPECIAL)
+				assertAtan2(y, x);
+		}
+
+		SplittableRandom random = new SplittableRandom(26);
+		for (int i = 0; i < SAMPLES; i++) {
+			float y = (float) random.nextDouble(-100.0, 100.0);
+			float x = (float) random.nextDouble(-100.0, 100.0);
+			assertAtan2(y, x);
+		}
+
+		// Raw bit patterns reach every exponent, including NaN and subnormals
+		for (int i = 0; i < SAMPLES; i++)
+			assertAtan2(Float.intBitsToFloat(random.nextInt()), Float.intBitsToFloat(random.nextInt()));
+	}
+
+	@Test
+	void computeCosSinMatchesNative() throws Throwable {
+		try (Arena arena = Arena.ofConfined()) {
+			float[] cosSin = new float[2];
+
+			for (float radians : SPECIAL)
+				assertCosSin(arena, cosSin, radians);
+
+			SplittableRandom random = new SplittableRandom(26);
+			for (int i = 0; i < SAMPLES; i++)
+				assertCosSin(arena, cosSin, (float) random.nextDouble(-1000.0, 1000.0));
+
+			for (int i = 0; i < SAMPLES; i++)
+				assertCosSin(arena, cosSin, Float.intBitsToFloat(random.nextInt()));
+		}
+	}
+
+	@Test
+	void rotAngleRoundTrip() throws Throwable {
+		Rot rot = new Rot();
+
+		SplittableRandom random = new SplittableRandom(26);
+		for (int i = 0; i < 10_000; i++) {
+			float radians = (float) random.nextDouble(-MathUtils.PI, MathUtils.PI);
+			rot.setAngleRadians(radians);
+
+			CosSin cosSin = CosSin.computeCosSin(radians);
+			float expected = (float) b2Atan2.invokeExact(cosSin.getSine(), cosSin.getCosine());
+			assertEquals(Float.floatToRawIntBits(expected), Float.floatToRawIntBits(rot.getAngleRadians()),
+					"angle " + radians);
+		}
+	}
+
+	private static void assertAtan2(float y, float x) throws Throwable {
+		float expected = (float) b2Atan2.invokeExact(y, x);
+		float actual = MathUtils.atan2(y, x);
+		assertEquals(Float.floatToRawIntBits(expected), Float.floatToRawIntBits(actual), "atan2(" + y + ", " + x + ")");
+	}
+
+	private static void assertCosSin(Arena arena, float[] cosSin, float radians) throws Throwable {
+		SegmentAllocator allocator = arena;
+		MemorySegment segment = (MemorySegment) b2ComputeCosSin.invokeExact(allocator, radians);
+		CosSin expected = new CosSin(segment);
+
+		MathUtils.computeCosSin(radians, cosSin, 0);
+		assertEquals(Float.floatToRawIntBits(expected.getCosine()), Float.floatToRawIntBits(cosSin[0]),
+				"cosine of " + radians);
+		assertEquals(Float.floatToRawIntBits(expected.getSine()), Float.floatToRawIntBits(cosSin[1]),
+				"sine of " + radians);
+	}
+
+}